@@ -484,7 +484,8 @@ public class CmsPage extends CmsDataObject implements CmsMajorObject, CmsVersion
         // Initialize contentModel in any case
         CmsPageContent activeContentModel = this.activeContentModel;
         if (activeContentModel == null) {
-            activeContentModel = new CmsPageContent(getActiveOrNewVersion(cacheActiveVersion).getContent(), this);
+            CmsPageVersion activeVersion = getActiveOrNewVersion(cacheActiveVersion);
+            activeContentModel = new CmsPageContent(activeVersion.getContent(), this, activeVersion.getId());
             this.activeContentModel = activeContentModel;
         }
 
@@ -502,7 +503,7 @@ public class CmsPage extends CmsDataObject implements CmsMajorObject, CmsVersion
             }
 
             if (previewVersion != null){
-                cm = new CmsPageContent(previewVersion.getContent(), this);
+                cm = new CmsPageContent(previewVersion.getContent(), this, previewVersion.getId());
             }
         }
 
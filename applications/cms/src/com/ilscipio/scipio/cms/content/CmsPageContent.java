@@ -38,15 +38,22 @@ public class CmsPageContent extends AbstractPreloadable implements Serializable,
     private static final boolean useNamesForMissingAttributesPreview = "preview".equals(useNamesForMissingAttributesStr);
 
     private final CmsPage page;
+    private final String versionId; // SCIPIO: version the content was read from (null if unknown or new)
     private Map<String, Object> map = new HashMap<>();
 
     public CmsPageContent(Map<String, ?> rootMap, CmsPage page) {        
+        this(rootMap, page, null);
+    }
+
+    public CmsPageContent(Map<String, ?> rootMap, CmsPage page, String versionId) {        
         map.putAll(rootMap);
         this.page = page;
+        this.versionId = versionId;
     }
 
     public CmsPageContent(CmsPage page) {
         this.page = page;
+        this.versionId = null;
     }
     
     /**
@@ -54,6 +61,7 @@ public class CmsPageContent extends AbstractPreloadable implements Serializable,
      */
     public CmsPageContent(CmsPageContent other) {
         this.page = other.page;
+        this.versionId = other.versionId;
         this.map.putAll(other.map);
     }
 
@@ -76,6 +84,13 @@ public class CmsPageContent extends AbstractPreloadable implements Serializable,
         return useNamesForMissingAttributesAlways || (useNamesForMissingAttributesPreview && pageContext.isPreview());
     }
     
+    /**
+     * Returns the id of the page version this content was read from, or null if unknown or a new version.
+     */
+    public String getVersionId() {
+        return versionId;
+    }
+
     public CmsPage getPage() {
         return page;
     }
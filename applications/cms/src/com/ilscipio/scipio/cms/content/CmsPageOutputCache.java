@@ -0,0 +1,311 @@
+package com.ilscipio.scipio.cms.content;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.metrics.Counter;
+import org.ofbiz.base.metrics.MetricRegistry;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilHttp;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+import com.ilscipio.scipio.cms.CmsUtil;
+
+/**
+ * SCIPIO: Output cache for live CMS page renders (cms.properties <code>render.pageCache.*</code>).
+ * <p>
+ * Only pages listed in <code>render.pageCache.pages</code> are cached, because a page is only cacheable if its output
+ * depends on nothing but its content, the locale, the website and the request parameters it declares in
+ * <code>render.pageCache.page.[pageId].varyParams</code> (otherwise <code>render.pageCache.varyParams</code>).
+ * Page scripts do not run for cache hits. By default only GET requests of visitors without login are served
+ * (<code>render.pageCache.anonymousOnly</code>).
+ * <p>
+ * Entries are keyed by website, page, active page version, locale and the declared parameter values.
+ * Every page, page template or asset template version activation and every CMS mapping cache clear
+ * increments a generation number that invalidates all entries at once (see {@link #invalidateAll}); changes
+ * made on other servers are picked up when the entries expire (<code>render.pageCache.expireTime</code>).
+ */
+public final class CmsPageOutputCache {
+
+    public static final String module = CmsPageOutputCache.class.getName();
+
+    private static final String PROPS = "cms.properties";
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean(PROPS, "render.pageCache.enabled", false);
+    private static final boolean ANONYMOUS_ONLY = UtilProperties.getPropertyAsBoolean(PROPS, "render.pageCache.anonymousOnly", true);
+    private static final int MAX_OUTPUT_CHARS = UtilProperties.getPropertyAsInteger(PROPS, "render.pageCache.maxOutputChars", 512 * 1024);
+
+    private static final CmsPageOutputCache INSTANCE = new CmsPageOutputCache();
+
+    private final UtilCache<String, Entry> cache;
+    private final boolean allPages;
+    private final Map<String, List<String>> varyParamsByPageId;
+    private final List<String> defaultVaryParams;
+    private final AtomicLong generation = new AtomicLong();
+    private final Counter hitCounter = ENABLED ? MetricRegistry.getDefault().counter("cms_page_output_cache", "result", "hit") : null;
+    private final Counter missCounter = ENABLED ? MetricRegistry.getDefault().counter("cms_page_output_cache", "result", "miss") : null;
+
+    private CmsPageOutputCache() {
+        this.cache = UtilCache.createUtilCache("cms.render.page.output",
+                UtilProperties.getPropertyAsInteger(PROPS, "render.pageCache.maxEntries", 1000),
+                UtilProperties.getPropertyAsInteger(PROPS, "render.pageCache.maxEntries", 1000),
+                UtilProperties.getPropertyAsLong(PROPS, "render.pageCache.expireTime", 600000), true, false);
+        this.defaultVaryParams = readParamList(UtilProperties.getPropertyValue(PROPS, "render.pageCache.varyParams"));
+        boolean allPages = false;
+        Map<String, List<String>> varyParamsByPageId = new HashMap<>();
+        String pageIds = UtilProperties.getPropertyValue(PROPS, "render.pageCache.pages");
+        for (String pageId : (UtilValidate.isNotEmpty(pageIds) ? StringUtil.split(pageIds, ",") : Collections.<String> emptyList())) {
+            pageId = pageId.trim();
+            if ("*".equals(pageId)) {
+                allPages = true;
+            } else if (!pageId.isEmpty()) {
+                String varyParams = UtilProperties.getPropertyValue(PROPS, "render.pageCache.page." + pageId + ".varyParams");
+                varyParamsByPageId.put(pageId, (varyParams != null) ? readParamList(varyParams) : defaultVaryParams);
+            }
+        }
+        this.allPages = allPages;
+        this.varyParamsByPageId = varyParamsByPageId;
+        if (ENABLED) {
+            Debug.logInfo("Cms: Page output cache enabled for pages: " + (allPages ? "*" : varyParamsByPageId.keySet()), module);
+        }
+    }
+
+    private static List<String> readParamList(String value) {
+        if (UtilValidate.isEmpty(value)) {
+            return Collections.emptyList();
+        }
+        List<String> params = StringUtil.split(value, ",");
+        for (int i = 0; i < params.size(); i++) {
+            params.set(i, params.get(i).trim());
+        }
+        return params;
+    }
+
+    public static CmsPageOutputCache getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Invalidates all cached page output; called whenever content that pages render may have changed.
+     * <p>
+     * If called in a transaction, invalidates again after it completes, so that output rendered from
+     * the old data before the commit is not kept.
+     */
+    public static void invalidateAll() {
+        if (!ENABLED) {
+            return;
+        }
+        INSTANCE.generation.incrementAndGet();
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        INSTANCE.generation.incrementAndGet();
+                    }
+                });
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Cms: Could not register page output cache invalidation for transaction end", module);
+        }
+    }
+
+    /**
+     * Returns the cache key of a live render of the page for the request, or null if the render must not be cached.
+     */
+    public String makeKey(HttpServletRequest request, CmsPage page, CmsPageContext pageContext) {
+        if (!ENABLED || pageContext.isPreview() || !"GET".equals(request.getMethod())) {
+            return null;
+        }
+        List<String> varyParams = varyParamsByPageId.get(page.getId());
+        if (varyParams == null) {
+            if (!allPages) {
+                return null;
+            }
+            varyParams = defaultVaryParams;
+        }
+        if (ANONYMOUS_ONLY) {
+            HttpSession session = request.getSession(false);
+            if (session != null && session.getAttribute("userLogin") != null) {
+                return null;
+            }
+        }
+        CmsPageContent content = page.getContentModel(pageContext, null);
+        Locale locale = UtilHttp.getLocale(request);
+        StringBuilder sb = new StringBuilder();
+        sb.append(pageContext.getWebSiteId()).append('|').append(page.getId());
+        sb.append('|').append((content != null) ? content.getVersionId() : null);
+        sb.append('|').append(locale);
+        for (String param : varyParams) {
+            sb.append('|').append(param).append('=');
+            String[] values = request.getParameterValues(param);
+            if (values != null) {
+                for (String value : values) {
+                    sb.append(value.length()).append(':').append(value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached output for the key, or null if none or invalidated.
+     */
+    public String get(String key) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.generation == generation.get()) {
+            if (hitCounter != null) {
+                hitCounter.inc();
+            }
+            return entry.output;
+        }
+        if (missCounter != null) {
+            missCounter.inc();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current generation; pass it to {@link #put} so that output rendered during an invalidation is discarded.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Caches the output of a successful render, if it is complete and the response status is OK.
+     */
+    public void put(String key, CapturingWriter writer, HttpServletResponse response, long generation) {
+        if (writer.isOverflow() || response.getStatus() != HttpServletResponse.SC_OK || generation != this.generation.get()) {
+            return;
+        }
+        cache.put(key, new Entry(writer.getCapturedOutput(), generation));
+        if (CmsUtil.verboseOn()) {
+            Debug.logInfo("Cms: Cached page output (" + writer.getCapturedLength() + " chars) for key: " + key, module);
+        }
+    }
+
+    /**
+     * Creates a writer that writes through to the given writer while capturing the output for {@link #put}.
+     */
+    public CapturingWriter makeCapturingWriter(Writer out) {
+        return new CapturingWriter(out, MAX_OUTPUT_CHARS);
+    }
+
+    private static final class Entry {
+        private final String output;
+        private final long generation;
+
+        private Entry(String output, long generation) {
+            this.output = output;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Writer that writes through and captures up to a maximum number of chars.
+     */
+    public static final class CapturingWriter extends Writer {
+        private final Writer out;
+        private final int maxChars;
+        private StringBuilder sb = new StringBuilder();
+
+        private CapturingWriter(Writer out, int maxChars) {
+            this.out = out;
+            this.maxChars = maxChars;
+        }
+
+        private void capture(char[] cbuf, int off, int len) {
+            if (sb != null) {
+                if (sb.length() + len > maxChars) {
+                    sb = null;
+                } else {
+                    sb.append(cbuf, off, len);
+                }
+            }
+        }
+
+        private void capture(String str, int off, int len) {
+            if (sb != null) {
+                if (sb.length() + len > maxChars) {
+                    sb = null;
+                } else {
+                    sb.append(str, off, off + len);
+                }
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            capture(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            capture(str, off, len);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            if (sb != null) {
+                if (sb.length() + 1 > maxChars) {
+                    sb = null;
+                } else {
+                    sb.append((char) c);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        public boolean isOverflow() {
+            return sb == null;
+        }
+
+        public String getCapturedOutput() {
+            return (sb != null) ? sb.toString() : null;
+        }
+
+        public int getCapturedLength() {
+            return (sb != null) ? sb.length() : -1;
+        }
+
+        /** Returns the writer the output is written to. */
+        public Writer getWriter() {
+            return out;
+        }
+    }
+}
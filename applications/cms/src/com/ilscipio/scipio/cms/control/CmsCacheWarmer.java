@@ -0,0 +1,316 @@
+package com.ilscipio.scipio.cms.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.metrics.Counter;
+import org.ofbiz.base.metrics.Gauge;
+import org.ofbiz.base.metrics.MetricRegistry;
+import org.ofbiz.base.metrics.Timer;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+import com.ilscipio.scipio.cms.content.CmsPage;
+import com.ilscipio.scipio.cms.template.CmsAssetTemplate;
+
+/**
+ * SCIPIO: Preloads the CMS object caches of a website - process mappings by source path, their pages
+ * (with page templates, asset templates and compiled FreeMarker templates), view mappings and asset templates -
+ * so that the first requests after a restart or cache clear do not pay the load and template compilation cost
+ * (cms.properties <code>cache.warmup.*</code>).
+ * <p>
+ * {@link CmsProcessFilter} warms up its website at webapp startup and waits up to <code>cache.warmup.startupWait</code>
+ * before the filter (and webapp) finishes initializing; {@link CmsControlDataServices#clearMappingCaches} warms up all
+ * registered websites again in the background after its transaction ends. Items are loaded in parallel on a bounded pool
+ * (<code>cache.warmup.threads</code>). A new warm-up of a website skips the remaining items of the previous one.
+ * <p>
+ * NOTE: Warmed entries are subject to the normal CMS cache expiration (<code>cache.data.expiration</code>).
+ */
+public final class CmsCacheWarmer {
+
+    public static final String module = CmsCacheWarmer.class.getName();
+
+    private static final String PROPS = "cms.properties";
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean(PROPS, "cache.warmup.enabled", true);
+    private static final boolean ON_CACHE_CLEAR = UtilProperties.getPropertyAsBoolean(PROPS, "cache.warmup.onCacheClear", true);
+    private static final long STARTUP_WAIT = UtilProperties.getPropertyAsLong(PROPS, "cache.warmup.startupWait", 60000);
+    private static final ThreadGroup WARMUP_THREAD_GROUP = new ThreadGroup(module);
+
+    private static final Map<String, WebSiteTarget> targets = new ConcurrentHashMap<>();
+    private static final AtomicInteger pendingCount = new AtomicInteger();
+
+    private static final ExecutorService executor = ENABLED ? ExecutionPool.getScheduledExecutor(WARMUP_THREAD_GROUP,
+            "Scipio-cms-cache-warmup", getThreadCount(), 60, false) : null;
+    private static final Counter doneCounter = ENABLED ? MetricRegistry.getDefault().counter("cms_cache_warmup_items", "result", "done") : null;
+    private static final Counter errorCounter = ENABLED ? MetricRegistry.getDefault().counter("cms_cache_warmup_items", "result", "error") : null;
+    private static final Counter skippedCounter = ENABLED ? MetricRegistry.getDefault().counter("cms_cache_warmup_items", "result", "skipped") : null;
+    private static final Timer durationTimer = ENABLED ? MetricRegistry.getDefault().timer("cms_cache_warmup_duration", false) : null;
+    static {
+        if (ENABLED) {
+            MetricRegistry.getDefault().gauge("cms_cache_warmup_items_pending", new Gauge.Source() {
+                @Override
+                public double getValue() {
+                    return pendingCount.get();
+                }
+            });
+        }
+    }
+
+    private CmsCacheWarmer() {
+    }
+
+    private static int getThreadCount() {
+        int threads = UtilProperties.getPropertyAsInteger(PROPS, "cache.warmup.threads", 0);
+        return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Registers the website of the servlet context and warms up its caches, waiting up to
+     * <code>cache.warmup.startupWait</code> milliseconds for completion; called from filter init.
+     */
+    static void warmUpAtStartup(ServletContext servletContext, String webSiteId, CmsWebSiteConfig webSiteConfig) {
+        if (!ENABLED || UtilValidate.isEmpty(webSiteId)) {
+            return;
+        }
+        WebSiteTarget target = new WebSiteTarget(getDelegatorName(servletContext), webSiteId, webSiteConfig);
+        WebSiteTarget prevTarget = targets.putIfAbsent(webSiteId, target);
+        if (prevTarget != null) {
+            target = prevTarget; // same website in several webapps; keep first
+        }
+        target.warmUp(STARTUP_WAIT);
+    }
+
+    /**
+     * Warms up all registered websites in the background; if called in a transaction, starts after it completes,
+     * so that the data committed by it is loaded.
+     */
+    public static void warmUpAllAsync() {
+        if (!ENABLED || !ON_CACHE_CLEAR || targets.isEmpty()) {
+            return;
+        }
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        submitWarmUpAll();
+                    }
+                });
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Cms: Could not register cache warm-up for transaction end; starting now", module);
+        }
+        submitWarmUpAll();
+    }
+
+    private static void submitWarmUpAll() {
+        ExecutionPool.GLOBAL_BATCH.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (WebSiteTarget target : targets.values()) {
+                    target.warmUp(-1);
+                }
+            }
+        });
+    }
+
+    private static String getDelegatorName(ServletContext servletContext) {
+        // NOTE: ContextFilter may not have set the delegator attribute yet at filter init; use the same init parameter
+        Delegator delegator = (Delegator) servletContext.getAttribute("delegator");
+        if (delegator != null) {
+            return delegator.getDelegatorName();
+        }
+        String delegatorName = servletContext.getInitParameter("entityDelegatorName");
+        return UtilValidate.isNotEmpty(delegatorName) ? delegatorName : "default";
+    }
+
+    private static final class WebSiteTarget {
+        private final String delegatorName;
+        private final String webSiteId;
+        private final CmsWebSiteConfig webSiteConfig;
+        private final AtomicLong generation = new AtomicLong();
+
+        private WebSiteTarget(String delegatorName, String webSiteId, CmsWebSiteConfig webSiteConfig) {
+            this.delegatorName = delegatorName;
+            this.webSiteId = webSiteId;
+            this.webSiteConfig = webSiteConfig;
+        }
+
+        /**
+         * Submits the items of the website and waits up to waitMillis for them (0: no wait, -1: until done).
+         */
+        private void warmUp(long waitMillis) {
+            final long startNanos = System.nanoTime();
+            final long runGeneration = generation.incrementAndGet();
+            Delegator delegator = DelegatorFactory.getDelegator(delegatorName);
+            if (delegator == null) {
+                Debug.logError("Cms: Cache warm-up: Could not get delegator '" + delegatorName + "' for website '" + webSiteId + "'", module);
+                return;
+            }
+            List<Runnable> items;
+            try {
+                items = makeItems(delegator);
+            } catch (Exception e) {
+                Debug.logError(e, "Cms: Cache warm-up: Could not read mappings of website '" + webSiteId + "'", module);
+                return;
+            }
+            if (items.isEmpty()) {
+                return;
+            }
+            Debug.logInfo("Cms: Cache warm-up: Loading " + items.size() + " mappings and templates of website '" + webSiteId + "'", module);
+            final AtomicInteger remaining = new AtomicInteger(items.size());
+            final AtomicInteger errors = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>(items.size());
+            pendingCount.addAndGet(items.size());
+            for (final Runnable item : items) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (generation.get() != runGeneration) {
+                                skippedCounter.inc();
+                                return; // superseded by a newer warm-up of the website
+                            }
+                            item.run();
+                            doneCounter.inc();
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                            errorCounter.inc();
+                            Debug.logWarning("Cms: Cache warm-up: Error loading " + item + " of website '" + webSiteId + "': " + e.toString(), module);
+                        } finally {
+                            pendingCount.decrementAndGet();
+                            if (remaining.decrementAndGet() == 0) {
+                                durationTimer.updateSince(startNanos);
+                                Debug.logInfo("Cms: Cache warm-up: Finished website '" + webSiteId + "' in "
+                                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms ("
+                                        + errors.get() + " errors)", module);
+                            }
+                        }
+                    }
+                }));
+            }
+            if (waitMillis != 0) {
+                awaitItems(futures, waitMillis);
+            }
+        }
+
+        private void awaitItems(List<Future<?>> futures, long waitMillis) {
+            long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            try {
+                for (Future<?> future : futures) {
+                    if (waitMillis < 0) {
+                        future.get();
+                    } else {
+                        future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    }
+                }
+            } catch (TimeoutException e) {
+                Debug.logWarning("Cms: Cache warm-up: Website '" + webSiteId + "' not done after " + waitMillis
+                        + "ms; continuing in background", module);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                Debug.logError(e, "Cms: Cache warm-up: Error waiting for website '" + webSiteId + "'", module);
+            }
+        }
+
+        private List<Runnable> makeItems(final Delegator delegator) {
+            final String defaultSourceServletPath = webSiteConfig.getDefaultSourceServletPath();
+            final boolean defaultSourceFromContextRoot = webSiteConfig.getDefaultSourceFromContextRoot();
+            List<Runnable> items = new ArrayList<>();
+            for (final CmsProcessMapping mapping : CmsProcessMapping.getWorker().findByWebSiteId(delegator, webSiteId, true)) {
+                if (!mapping.isActiveLogical()) {
+                    continue;
+                }
+                final String mappingId = mapping.getId();
+                final String pageId = mapping.getPageId();
+                final String requestPath = CmsControlUtil.normalizeContextRootRequestPath(
+                        mapping.getSourcePathExpanded(defaultSourceServletPath, defaultSourceFromContextRoot));
+                items.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        // fills the path cache, which preloads the mapping with its pages and templates
+                        CmsProcessMapping.getWorker().findByRequestPath(delegator, requestPath, webSiteId,
+                                defaultSourceServletPath, defaultSourceFromContextRoot, false, true, null);
+                        if (UtilValidate.isNotEmpty(pageId)) {
+                            CmsPage.getWorker().findById(delegator, pageId, true);
+                        }
+                    }
+                    @Override
+                    public String toString() {
+                        return "process mapping '" + mappingId + "' (" + requestPath + ")";
+                    }
+                });
+            }
+            for (final CmsViewMapping mapping : CmsViewMapping.getWorker().findByWebSiteId(delegator, webSiteId, true)) {
+                if (!mapping.isActiveLogical() || UtilValidate.isEmpty(mapping.getTargetViewName())) {
+                    continue;
+                }
+                final String mappingId = mapping.getId();
+                final String viewName = mapping.getTargetViewName();
+                final String servletPath = CmsViewMapping.TARGET_SERVLET_PATH_DEFAULT.equals(mapping.getTargetServletPath())
+                        ? webSiteConfig.getDefaultTargetServletPath() : mapping.getTargetServletPath();
+                items.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        CmsViewMapping.findByView(delegator, webSiteId, servletPath, viewName,
+                                webSiteConfig.getDefaultTargetServletPath(), true, null);
+                    }
+                    @Override
+                    public String toString() {
+                        return "view mapping '" + mappingId + "' (" + viewName + ")";
+                    }
+                });
+            }
+            List<CmsAssetTemplate> assetTemplates = new ArrayList<>();
+            assetTemplates.addAll(CmsAssetTemplate.getWorker().findAll(delegator, UtilMisc.toMap("webSiteId", webSiteId), null, true));
+            assetTemplates.addAll(CmsAssetTemplate.getWorker().findAll(delegator, UtilMisc.toMap("webSiteId", null), null, true));
+            for (CmsAssetTemplate assetTemplate : assetTemplates) {
+                final String assetTemplateId = assetTemplate.getId();
+                final String templateName = assetTemplate.getTemplateName();
+                final String assetWebSiteId = assetTemplate.getWebSiteId();
+                items.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        // same lookups as the asset directive
+                        CmsAssetTemplate.getWorker().findById(delegator, assetTemplateId, true);
+                        if (UtilValidate.isNotEmpty(templateName)) {
+                            CmsAssetTemplate.getWorker().findByName(delegator, templateName, assetWebSiteId, true, true);
+                        }
+                    }
+                    @Override
+                    public String toString() {
+                        return "asset template '" + assetTemplateId + "'";
+                    }
+                });
+            }
+            return items;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import com.ilscipio.scipio.cms.CmsServiceUtil;
 import com.ilscipio.scipio.cms.ServiceErrorFormatter;
 import com.ilscipio.scipio.cms.ServiceErrorFormatter.FormattedError;
 import com.ilscipio.scipio.cms.content.CmsPage;
+import com.ilscipio.scipio.cms.content.CmsPageOutputCache;
 
 /**
  * Cms control data-related Ofbiz services.
@@ -178,6 +179,8 @@ public abstract class CmsControlDataServices {
             CmsViewMapping.getWorker().clearMemoryCaches();
             CmsProcessViewMapping.getWorker().clearMemoryCaches();
             CmsProcessMapping.getWorker().clearMemoryCaches();
+            CmsPageOutputCache.invalidateAll();
+            CmsCacheWarmer.warmUpAllAsync();
         }
         
         Map<String, Object> result;
@@ -114,6 +114,11 @@ public class CmsProcessFilter implements Filter {
         // hasControllerHint false because process filter being present doesn't really guarantee a controller is there
         CmsWebSiteInfo webSiteInfo = CmsWebSiteInfo.registerCmsWebSite(this.servletContext, false);
         this.webSiteConfig = CmsWebSiteInfo.getWebSiteConfigOrDefaults(webSiteInfo, servletContext);
+
+        // SCIPIO: preload mappings and templates before the webapp starts serving requests
+        if (webSiteInfo != null) {
+            CmsCacheWarmer.warmUpAtStartup(servletContext, webSiteInfo.getWebSiteId(), webSiteConfig);
+        }
     }
 
     @Override
@@ -15,6 +15,8 @@ import com.ilscipio.scipio.cms.CmsException;
 import com.ilscipio.scipio.cms.CmsUtil;
 import com.ilscipio.scipio.cms.content.CmsPage;
 import com.ilscipio.scipio.cms.content.CmsPageContext;
+import com.ilscipio.scipio.cms.content.CmsPageOutputCache;
+import com.ilscipio.scipio.cms.content.CmsPageOutputCache.CapturingWriter;
 import com.ilscipio.scipio.cms.control.CmsControlUtil;
 import com.ilscipio.scipio.cms.control.CmsView;
 import com.ilscipio.scipio.cms.control.cmscall.CmsCallType;
@@ -73,9 +75,31 @@ public class LocalCmsPageRenderInvoker extends RenderInvoker {
             CmsRenderUtil.getLiveExceptionMode(request.getServletContext());
         request.setAttribute(UtilRender.RENDER_EXCEPTION_MODE_VAR, exMode);
         
-        cmsPage.getRenderer().processAndRender(writer, cmsPageContext, cmsPageVersionId);
+        // SCIPIO: live renders of the configured pages are served from and stored in the page output cache
+        CmsPageOutputCache outputCache = CmsPageOutputCache.getInstance();
+        String outputCacheKey = outputCache.makeKey(request, cmsPage, cmsPageContext);
+        if (outputCacheKey != null) {
+            String output = outputCache.get(outputCacheKey);
+            if (output != null) {
+                if (CmsUtil.verboseOn()) {
+                    Debug.logInfo("Cms: Serving page '" + cmsPage.getId() + "' from output cache; response length (chars): " + output.length()
+                        + CmsControlUtil.getReqLogIdDelimStr(request), module);
+                }
+                origWriter.write(output);
+                origWriter.flush();
+                return;
+            }
+        }
+        long outputCacheGeneration = outputCache.getGeneration();
+        Writer renderWriter = (outputCacheKey != null) ? outputCache.makeCapturingWriter(writer) : writer;
+        
+        cmsPage.getRenderer().processAndRender(renderWriter, cmsPageContext, cmsPageVersionId);
         writer.flush();
         
+        if (outputCacheKey != null) {
+            outputCache.put(outputCacheKey, (CapturingWriter) renderWriter, response, outputCacheGeneration);
+        }
+        
         if (CmsUtil.verboseOn()) {
             StringWriter sw = (StringWriter) writer;
             String outStr = sw.toString();
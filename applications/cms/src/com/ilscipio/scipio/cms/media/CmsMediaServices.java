@@ -2,11 +2,14 @@ package com.ilscipio.scipio.cms.media;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -14,8 +17,11 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.ofbiz.base.conversion.ConversionException;
 import org.ofbiz.base.conversion.NumberConverters.StringToInteger;
@@ -36,6 +42,7 @@ import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.FileBinaryValue;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
@@ -158,6 +165,11 @@ public abstract class CmsMediaServices {
         TimeZone timeZone = (TimeZone) context.get("timeZone");
 
         ByteBuffer byteBuffer = (ByteBuffer) context.get("uploadedFile");
+        // large uploads are passed as a file instead (see ServiceEventHandler), streamed to the database
+        File uploadedFile = (File) context.get("_uploadedFile_file");
+        if (byteBuffer == null && uploadedFile == null) {
+            return ServiceUtil.returnError("cmsUploadMediaFile requires either uploadedFile or _uploadedFile_file, not passed");
+        }
         String dataResourceTypeId = (String) context.get("dataResourceTypeId");
         String contentName = (String) context.get("contentName");
 
@@ -176,10 +188,10 @@ public abstract class CmsMediaServices {
         } catch (ConversionException e) {
             Debug.logWarning(logPrefix+"Can't store file size: " + e.getMessage(), module);
         }
-        if (fileSizeConverted != byteBuffer.limit()) {
-            Debug.logWarning(logPrefix+"request header file size ===> " + fileSizeConverted + " differs from received byte array size ==> " + byteBuffer.limit()
-                    + ". Byte array size prevails", module);
-            fileSizeConverted = byteBuffer.limit();
+        long receivedSize = (uploadedFile != null) ? uploadedFile.length() : byteBuffer.limit();
+        if (fileSizeConverted != receivedSize) {
+            Debug.logWarning(logPrefix+"request header file size ===> " + fileSizeConverted + " differs from received file size ==> " + receivedSize
+                    + ". Received file size prevails", module);
         }
 
         try {
@@ -197,28 +209,29 @@ public abstract class CmsMediaServices {
                     // we DO NOT want browser-dependent behavior; the ONLY browser-dependent behavior
                     // is the assumption it sent the correct original filename.
                     // even this is NOT guaranteed... but usually true for common browsers...
-                    mimeType = fileTypeResolver.findMimeType(byteBuffer, fileName);
+                    mimeType = (uploadedFile != null) ? fileTypeResolver.findMimeType(uploadedFile, fileName) : fileTypeResolver.findMimeType(byteBuffer, fileName);
                     if (mimeType != null) {
+                        Object mediaData = (uploadedFile != null) ? new FileBinaryValue(uploadedFile) : byteBuffer.array();
                         GenericValue mediaDataResource;
                         if (dataResourceTypeId.equals(FileTypeResolver.IMAGE_TYPE)) {
                             mediaDataResource = delegator.makeValue("ImageDataResource");
-                            mediaDataResource.put("imageData", byteBuffer.array());
+                            mediaDataResource.put("imageData", mediaData);
                         } else if (dataResourceTypeId.equals(FileTypeResolver.AUDIO_TYPE)) {
                             mediaDataResource = delegator.makeValue("AudioDataResource");
-                            mediaDataResource.put("audioData", byteBuffer.array());
+                            mediaDataResource.put("audioData", mediaData);
                         } else if (dataResourceTypeId.equals(FileTypeResolver.VIDEO_TYPE)) {
                             mediaDataResource = delegator.makeValue("VideoDataResource");
-                            mediaDataResource.put("videoData", byteBuffer.array());
+                            mediaDataResource.put("videoData", mediaData);
                         } else if (dataResourceTypeId.equals(FileTypeResolver.DOCUMENT_TYPE)) {
                             mediaDataResource = delegator.makeValue("DocumentDataResource");
-                            mediaDataResource.put("documentData", byteBuffer.array());
+                            mediaDataResource.put("documentData", mediaData);
                         } else {
                             // TODO: REVIEW: I'm not sure we should cover this case (2017-07-31: at least log it)
                             Debug.logInfo(logPrefix+"Could not determine media category for dataResourceTypeId '" 
                                     + dataResourceTypeId + "' and mimeTypeId '" + mimeType.getString("mimeTypeId") 
                                     + "'; storing as OtherDataResource", module);
                             mediaDataResource = delegator.makeValue("OtherDataResource");
-                            mediaDataResource.put("dataResourceContent", byteBuffer.array());
+                            mediaDataResource.put("dataResourceContent", mediaData);
                         }
 
                         GenericValue dataResource = delegator.makeValue("DataResource");
@@ -231,9 +244,14 @@ public abstract class CmsMediaServices {
                         dataResource.put("createdDate", createdDate);
                         if (dataResourceTypeId.equals(FileTypeResolver.IMAGE_TYPE)) { // 2017-08-11: pre-read width & height, for future queries
                             try {
-                                BufferedImage bugImg = ImageIO.read(new ByteArrayInputStream(byteBuffer.array()));
-                                dataResource.put("scpWidth", (long) bugImg.getWidth());
-                                dataResource.put("scpHeight", (long) bugImg.getHeight());
+                                if (uploadedFile != null) {
+                                    // read from the image header, without decoding the image
+                                    readImageSize(uploadedFile, dataResource);
+                                } else {
+                                    BufferedImage bugImg = ImageIO.read(new ByteArrayInputStream(byteBuffer.array()));
+                                    dataResource.put("scpWidth", (long) bugImg.getWidth());
+                                    dataResource.put("scpHeight", (long) bugImg.getHeight());
+                                }
                             } catch(Exception e) {
                                 Debug.logError(e, logPrefix+"Error uploading media file: Could not read/parse image file: " + e.getMessage(), module);
                                 return ServiceUtil.returnError(UtilProperties.getMessage("ProductErrorUiLabels", "ScaleImage.unable_to_parse", locale) + ": " + e.getMessage());
@@ -247,7 +265,7 @@ public abstract class CmsMediaServices {
                         GenericValue fileSizeDataResourceAttr = delegator.makeValue("DataResourceAttribute");
                         fileSizeDataResourceAttr.put("dataResourceId", dataResource.get("dataResourceId"));
                         fileSizeDataResourceAttr.put("attrName", FileTypeUtil.FILE_SIZE_ATTRIBUTE_NAME);
-                        fileSizeDataResourceAttr.put("attrValue", String.valueOf(fileSizeConverted));
+                        fileSizeDataResourceAttr.put("attrValue", String.valueOf(receivedSize));
                         fileSizeDataResourceAttr.create();
 
                         mediaDataResource.put("dataResourceId", dataResourceId);
@@ -304,6 +322,32 @@ public abstract class CmsMediaServices {
         return result;
     }
 
+    /**
+     * Sets the scpWidth and scpHeight of the image DataResource from the header of the image file.
+     */
+    private static void readImageSize(File imageFile, GenericValue dataResource) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(imageFile);
+        if (iis == null) {
+            throw new IOException("Could not open image file");
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                dataResource.put("scpWidth", (long) reader.getWidth(0));
+                dataResource.put("scpHeight", (long) reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
     /**
      * Updates a media file
      * 
@@ -502,7 +546,7 @@ public abstract class CmsMediaServices {
     
     public static Map<String, Object> rebuildMediaVariants(DispatchContext dctx, Map<String, ?> context) {
         Delegator delegator = dctx.getDelegator();
-        LocalDispatcher dispatcher = dctx.getDispatcher();
+        final LocalDispatcher dispatcher = dctx.getDispatcher();
         //Locale locale = (Locale) context.get("locale");
         //GenericValue userLogin = (GenericValue) context.get("userLogin");
         //TimeZone timeZone = (TimeZone) context.get("timeZone");
@@ -510,6 +554,7 @@ public abstract class CmsMediaServices {
         
         Collection<String> contentIdList = UtilGenerics.checkCollection(context.get("contentIdList"));
         boolean force = Boolean.TRUE.equals(context.get("force"));
+        String resumeAfterContentId = (String) context.get("resumeAfterContentId");
         // USE SAME CREATED DATE FOR EVERYTHING RELATED
         Timestamp createdDate = (Timestamp) context.get("createdDate");
         if (createdDate == null) createdDate = UtilDateTime.nowTimestamp();
@@ -518,13 +563,19 @@ public abstract class CmsMediaServices {
         
         Boolean sepTrans = (Boolean) context.get("sepTrans");
         if (sepTrans == null) sepTrans = (contentIdList == null);
+        final boolean useSepTrans = sepTrans;
         
         Set<String> remainingContentIds = new HashSet<>();
         boolean doLog = false;
         String imagePropXmlPath;
         try {
             if (contentIdList == null) {
-                contentDataResourceList = CmsMediaWorker.getAllMediaContentDataResourceRequired(delegator, "IMAGE_OBJECT", null);
+                // SCIPIO: ordered by contentId, so an interrupted rebuild can resume after the last checkpoint
+                EntityCondition resumeCond = null;
+                if (UtilValidate.isNotEmpty(resumeAfterContentId)) {
+                    resumeCond = EntityCondition.makeCondition("contentId", EntityOperator.GREATER_THAN, resumeAfterContentId);
+                }
+                contentDataResourceList = CmsMediaWorker.getAllMediaContentDataResourceRequired(delegator, "IMAGE_OBJECT", resumeCond, UtilMisc.toList("contentId"));
                 doLog = true;
             } else {
                 contentIdList = new LinkedHashSet<>(contentIdList); // remove dups
@@ -540,59 +591,80 @@ public abstract class CmsMediaServices {
         }
         
         if (contentDataResourceList != null) {
+            // SCIPIO: images are rebuilt in parallel when each has its own transaction (see CmsMediaVariantRebuilder)
+            CmsMediaVariantRebuilder rebuilder = new CmsMediaVariantRebuilder(useSepTrans, doLog);
+            boolean completed = false;
             try {
                 if (doLog) {
-                    Debug.logInfo(logPrefix+"Beginning rebuildMediaVariants for all images", module);
+                    Debug.logInfo(logPrefix+"Beginning rebuildMediaVariants for all images"
+                            + (UtilValidate.isNotEmpty(resumeAfterContentId) ? " after contentId " + resumeAfterContentId : ""), module);
                 }
                 long imgCount = 0;
                 GenericValue contentDataResource;
-                while((contentDataResource = contentDataResourceList.next()) != null) {
-                    String contentId = contentDataResource.getString("contentId");
+                while((contentDataResource = contentDataResourceList.next()) != null && rebuilder.getError() == null) {
+                    final String contentId = contentDataResource.getString("contentId");
                     remainingContentIds.remove(contentId);
                     if (force || CmsMediaWorker.hasVariantContent(delegator, contentId)) {
                         if (doLog) {
                             Debug.logInfo(logPrefix+"rebuildMediaVariants: Rebuilding variants for image [contentId: " + contentId + "] (" + (imgCount+1) + ")", module);
                         }
                         
-                        try {
-                            Map<String, Object> resizeCtx = dctx.makeValidContext("contentImageDbScaleInAllSizeCore", ModelService.IN_PARAM, context);
-                            resizeCtx.put("imageOrigContentId", contentId);
-                            if (!resizeCtx.containsKey("deleteOld")) {
-                                resizeCtx.put("deleteOld", Boolean.TRUE);
-                            }
-                            resizeCtx.put("imagePropXmlPath", imagePropXmlPath);
-                            resizeCtx.put("fileSizeDataResAttrName", FileTypeUtil.FILE_SIZE_ATTRIBUTE_NAME);
-                            
-                            Map<String, Object> contentFields = new HashMap<>();
-                            contentFields.putAll(CmsMediaWorker.RESIZEIMG_CONTENT_FIELDEXPR);
-                            contentFields.put("contentTypeId", "SCP_MEDIA_VARIANT");
-                            resizeCtx.put("contentFields", contentFields);
-            
-                            Map<String, Object> dataResourceFields = new HashMap<>();
-                            dataResourceFields.putAll(CmsMediaWorker.RESIZEIMG_DATARESOURCE_FIELDEXPR);
-                            dataResourceFields.put("dataResourceTypeId", "IMAGE_OBJECT");
-                            dataResourceFields.put("statusId", contentDataResource.get("drStatusId"));
-                            dataResourceFields.put("isPublic", contentDataResource.get("drIsPublic"));
-                            resizeCtx.put("dataResourceFields", dataResourceFields);
-                            resizeCtx.put("createdDate", createdDate);
-                            
-                            Map<String, Object> resizeResult;
-                            if (sepTrans) {
-                                resizeResult = dispatcher.runSync("contentImageDbScaleInAllSizeCore", resizeCtx, -1, true);
-                            } else {
-                                resizeResult = dispatcher.runSync("contentImageDbScaleInAllSizeCore", resizeCtx);
-                            }
-                            if (!ServiceUtil.isSuccess(resizeResult)) {
-                                return ServiceUtil.returnError("Error creating resized images: " + ServiceUtil.getErrorMessage(resizeResult));
-                            }
-                        } catch (GenericServiceException e) {
-                            FormattedError err = errorFmt.format(e, "Error creating resized images", context);
-                            Debug.logError(err.getEx(), err.getLogMsg(), module);
-                            return err.returnError();
+                        final Map<String, Object> resizeCtx = dctx.makeValidContext("contentImageDbScaleInAllSizeCore", ModelService.IN_PARAM, context);
+                        resizeCtx.put("imageOrigContentId", contentId);
+                        if (!resizeCtx.containsKey("deleteOld")) {
+                            resizeCtx.put("deleteOld", Boolean.TRUE);
                         }
+                        resizeCtx.put("imagePropXmlPath", imagePropXmlPath);
+                        resizeCtx.put("fileSizeDataResAttrName", FileTypeUtil.FILE_SIZE_ATTRIBUTE_NAME);
+                        
+                        Map<String, Object> contentFields = new HashMap<>();
+                        contentFields.putAll(CmsMediaWorker.RESIZEIMG_CONTENT_FIELDEXPR);
+                        contentFields.put("contentTypeId", "SCP_MEDIA_VARIANT");
+                        resizeCtx.put("contentFields", contentFields);
+        
+                        Map<String, Object> dataResourceFields = new HashMap<>();
+                        dataResourceFields.putAll(CmsMediaWorker.RESIZEIMG_DATARESOURCE_FIELDEXPR);
+                        dataResourceFields.put("dataResourceTypeId", "IMAGE_OBJECT");
+                        dataResourceFields.put("statusId", contentDataResource.get("drStatusId"));
+                        dataResourceFields.put("isPublic", contentDataResource.get("drIsPublic"));
+                        resizeCtx.put("dataResourceFields", dataResourceFields);
+                        resizeCtx.put("createdDate", createdDate);
+                        
+                        long estimatedBytes = CmsMediaVariantRebuilder.getEstimatedBytes(contentDataResource.getLong("drScpWidth"), contentDataResource.getLong("drScpHeight"));
+                        rebuilder.submit(contentId, estimatedBytes, new Callable<Map<String, Object>>() {
+                            @Override
+                            public Map<String, Object> call() throws Exception {
+                                Map<String, Object> resizeResult;
+                                try {
+                                    if (useSepTrans) {
+                                        resizeResult = dispatcher.runSync("contentImageDbScaleInAllSizeCore", resizeCtx, -1, true);
+                                    } else {
+                                        resizeResult = dispatcher.runSync("contentImageDbScaleInAllSizeCore", resizeCtx);
+                                    }
+                                } catch (GenericServiceException e) {
+                                    FormattedError err = errorFmt.format(e, "Error creating resized images", resizeCtx);
+                                    Debug.logError(err.getEx(), err.getLogMsg(), module);
+                                    return err.returnError();
+                                }
+                                if (!ServiceUtil.isSuccess(resizeResult)) {
+                                    return ServiceUtil.returnError("Error creating resized images: " + ServiceUtil.getErrorMessage(resizeResult));
+                                }
+                                return resizeResult;
+                            }
+                        });
                         imgCount++;
                     }
                 }
+                Map<String, Object> errorResult = rebuilder.awaitCompletion();
+                completed = true;
+                if (errorResult != null) {
+                    if (doLog) {
+                        Debug.logError(logPrefix+"rebuildMediaVariants: Stopped by error; to resume, pass resumeAfterContentId: " + rebuilder.getCheckpointContentId(), module);
+                    }
+                    errorResult = new HashMap<>(errorResult);
+                    errorResult.put("lastContentId", rebuilder.getCheckpointContentId());
+                    return errorResult;
+                }
                 if (remainingContentIds.size() > 0) {
                     String errMsg = "Could not find valid image media records for contentIds: " + remainingContentIds.toString();
                     Debug.logError(logPrefix + errMsg, module);
@@ -601,11 +673,18 @@ public abstract class CmsMediaServices {
                 if (doLog) {
                     Debug.logInfo(logPrefix+"Finished rebuildMediaVariants for " + imgCount + " images (having variants or forced)", module);
                 }
+                result.put("lastContentId", rebuilder.getCheckpointContentId());
             } catch (Exception e) {
                 FormattedError err = errorFmt.format(e, "Error creating resized images", context);
                 Debug.logError(err.getEx(), err.getLogMsg(), module);
+                if (doLog) {
+                    Debug.logError(logPrefix+"rebuildMediaVariants: To resume, pass resumeAfterContentId: " + rebuilder.getCheckpointContentId(), module);
+                }
                 return err.returnError();
             } finally {
+                if (!completed) {
+                    rebuilder.shutdownNow();
+                }
                 try {
                     contentDataResourceList.close();
                 } catch (GenericEntityException e) {
@@ -1,6 +1,7 @@
 
 package com.ilscipio.scipio.cms.media;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Locale;
@@ -30,6 +31,7 @@ import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.service.ServiceDispatcher;
 import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.webapp.content.ContentStreamer;
 
 import com.ilscipio.scipio.cms.CmsUtil;
 
@@ -47,6 +49,7 @@ public class CmsMediaServlet extends HttpServlet {
     private static final String fnSrcFieldName = "origfn".equals(FN_SOURCE) ? "objectInfo" : "dataResourceName";
     private static final String fnSrcFieldNameFallback = "origfn".equals(FN_SOURCE) ? "dataResourceName" : "objectInfo";
     private static final boolean variantsEnabled = UtilProperties.getPropertyAsBoolean("cms", "media.variants.enabled", true);
+    private static final int publicCacheMaxAge = UtilProperties.getPropertyAsInteger("cms", "media.serve.cache.public.maxAge", 3600); // SCIPIO
     
     public CmsMediaServlet() {
         super();
@@ -277,23 +280,30 @@ public class CmsMediaServlet extends HttpServlet {
             
             // see org.ofbiz.content.data.DataEvents#serveImage for reference code
             ServletContext application = request.getSession().getServletContext();
-            Map<String, Object> streamResult = DataResourceWorker.getDataResourceStream(dataResource, "", application.getInitParameter("webSiteId"), locale, application.getRealPath("/"), false);
-            byte[] mediaData = (byte[]) streamResult.get("streamBytes");
-            InputStream mediaStream = (InputStream) streamResult.get("stream");
-            long mediaLength = (long) streamResult.get("length");
-            
-            response.setContentType(dataResource.getString("mimeTypeId"));
-            response.setHeader("Content-Disposition", "inline; filename= " + fileName);
-            response.setContentLengthLong(mediaLength);
-            if (mediaData != null) {
-                response.getOutputStream().write(mediaData, 0, (int) mediaLength);
-            } else if (mediaStream != null) {
-                UtilHttp.streamContent(response.getOutputStream(), mediaStream, (int) mediaLength);
+            // SCIPIO: files are streamed from disk (sendfile or channel transfer) rather than loaded into the heap;
+            // the streamer answers If-None-Match/If-Modified-Since with 304 and Range requests with 206
+            ContentStreamer.Source mediaSource;
+            File mediaFile = DataResourceWorker.getDataResourceFile(dataResource, application.getRealPath("/"));
+            if (mediaFile != null) {
+                mediaSource = ContentStreamer.fromFile(mediaFile);
             } else {
-                Debug.logError("Cms: Bad stream/bytes source [effective contentId: " + dataResource.getString("coContentId") + "]", module);
-                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal error"); // WARN: DO NOT send details, for security reasons
-                return;
+                Map<String, Object> streamResult = DataResourceWorker.getDataResourceStream(dataResource, "", application.getInitParameter("webSiteId"), locale, application.getRealPath("/"), false);
+                byte[] mediaData = (byte[]) streamResult.get("streamBytes");
+                InputStream mediaStream = (InputStream) streamResult.get("stream");
+                long mediaLength = (long) streamResult.get("length");
+                if (mediaData != null) {
+                    // NOTE: no Last-Modified: the media records may change without the DataResource lastModifiedDate; the ETag is content-based
+                    mediaSource = ContentStreamer.fromBytes(mediaData);
+                } else if (mediaStream != null) {
+                    mediaSource = ContentStreamer.fromStream(mediaStream, mediaLength);
+                } else {
+                    Debug.logError("Cms: Bad stream/bytes source [effective contentId: " + dataResource.getString("coContentId") + "]", module);
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal error"); // WARN: DO NOT send details, for security reasons
+                    return;
+                }
             }
+            String cacheControl = "Y".equalsIgnoreCase(isPublic) ? "public, max-age=" + publicCacheMaxAge : "private, no-cache";
+            ContentStreamer.stream(request, response, mediaSource, dataResource.getString("mimeTypeId"), "inline; filename= " + fileName, cacheControl, true);
         } catch (Exception e) {
             Debug.logError(e, module);
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal error"); // WARN: DO NOT send details, for security reasons
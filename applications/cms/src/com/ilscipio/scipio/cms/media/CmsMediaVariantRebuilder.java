@@ -0,0 +1,191 @@
+package com.ilscipio.scipio.cms.media;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Runs the per-image variant rebuilds of {@link CmsMediaServices#rebuildMediaVariants} on a bounded worker pool
+ * and tracks the resume checkpoint.
+ * <p>
+ * The pool size is <code>media.variants.rebuild.threads</code> (cms.properties), by default the number of processors
+ * limited by how many typical images fit in the memory budget (<code>media.variants.rebuild.memoryFraction</code> of the
+ * max heap). Each image additionally reserves its estimated decoding memory from the budget before it is submitted,
+ * so a few very large originals cannot run concurrently and the submitting thread blocks instead of queueing.
+ * <p>
+ * The checkpoint is the last contentId (in submission order) up to which all images are done; passing it as
+ * <code>resumeAfterContentId</code> continues an interrupted rebuild. With one thread, tasks run inline in the caller's thread
+ * (required when the rebuild shares the caller's transaction).
+ */
+final class CmsMediaVariantRebuilder {
+
+    public static final String module = CmsMediaVariantRebuilder.class.getName();
+
+    private static final int THREADS = UtilProperties.getPropertyAsInteger("cms", "media.variants.rebuild.threads", 0);
+    private static final double MEMORY_FRACTION = UtilProperties.getPropertyNumber("cms", "media.variants.rebuild.memoryFraction", 0.25);
+    private static final int LOG_INTERVAL = UtilProperties.getPropertyAsInteger("cms", "media.variants.rebuild.logInterval", 100);
+    /** Estimated heap bytes per original pixel while scaling: decoded ARGB original, scaler working copy and variants. */
+    private static final int BYTES_PER_PIXEL = 12;
+    /** Pixels assumed for originals of unknown size (12 megapixels). */
+    private static final long DEFAULT_PIXELS = 4000L * 3000L;
+
+    private final ExecutorService executor;
+    private final Semaphore memoryPermits; // in KB
+    private final int maxMemoryPermits;
+    private final boolean doLog;
+
+    private final LinkedHashMap<String, Boolean> pending = new LinkedHashMap<>(); // guarded by this
+    private String checkpointContentId; // guarded by this
+    private long completedCount; // guarded by this
+    private volatile Map<String, Object> error;
+
+    CmsMediaVariantRebuilder(boolean parallel, boolean doLog) {
+        long budgetBytes = (long) (Runtime.getRuntime().maxMemory() * MEMORY_FRACTION);
+        this.maxMemoryPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / 1024));
+        this.memoryPermits = new Semaphore(maxMemoryPermits);
+        this.doLog = doLog;
+        int threads = parallel ? getThreadCount(budgetBytes) : 1;
+        this.executor = (threads > 1) ? ExecutionPool.getScheduledExecutor(null, "Scipio-cms-media-variants", threads, 0, false) : null;
+        if (doLog) {
+            Debug.logInfo(CmsMediaServices.logPrefix + "rebuildMediaVariants: Using " + threads + " thread(s), memory budget "
+                    + (budgetBytes / (1024 * 1024)) + "MB", module);
+        }
+    }
+
+    private static int getThreadCount(long budgetBytes) {
+        if (THREADS > 0) {
+            return THREADS;
+        }
+        long byMemory = budgetBytes / (DEFAULT_PIXELS * BYTES_PER_PIXEL);
+        return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), byMemory));
+    }
+
+    /** Returns the estimated heap bytes needed to rebuild the variants of an original of the given size (may be null). */
+    static long getEstimatedBytes(Long width, Long height) {
+        long pixels = (width != null && height != null && width > 0 && height > 0) ? width * height : DEFAULT_PIXELS;
+        return pixels * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Runs or submits the rebuild of one image; blocks while the memory budget is exhausted.
+     * The task returns a service result. Does nothing once a task has failed.
+     */
+    void submit(final String contentId, long estimatedBytes, final Callable<Map<String, Object>> task) throws InterruptedException {
+        if (error != null) {
+            return;
+        }
+        synchronized (this) {
+            pending.put(contentId, Boolean.FALSE);
+        }
+        if (executor == null) {
+            complete(contentId, runTask(contentId, task));
+            return;
+        }
+        final int permits = (int) Math.max(1, Math.min(maxMemoryPermits, estimatedBytes / 1024));
+        memoryPermits.acquire(permits);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        complete(contentId, runTask(contentId, task));
+                    } finally {
+                        memoryPermits.release(permits);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            memoryPermits.release(permits);
+            throw e;
+        }
+    }
+
+    private Map<String, Object> runTask(String contentId, Callable<Map<String, Object>> task) {
+        if (error != null) {
+            return null; // cancelled by an earlier failure
+        }
+        try {
+            return task.call();
+        } catch (Exception e) {
+            Debug.logError(e, CmsMediaServices.logPrefix + "rebuildMediaVariants: Error creating resized images for image [contentId: " + contentId + "]", module);
+            return ServiceUtil.returnError("Error creating resized images for image [contentId: " + contentId + "]: " + e.getMessage());
+        }
+    }
+
+    private void complete(String contentId, Map<String, Object> result) {
+        if (result == null) {
+            return;
+        }
+        if (!ServiceUtil.isSuccess(result)) {
+            synchronized (this) {
+                if (error == null) {
+                    error = result;
+                }
+            }
+            return;
+        }
+        boolean logCheckpoint = false;
+        String checkpoint;
+        long count;
+        synchronized (this) {
+            pending.put(contentId, Boolean.TRUE);
+            Iterator<Map.Entry<String, Boolean>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Boolean> entry = it.next();
+                if (!entry.getValue()) {
+                    break;
+                }
+                checkpointContentId = entry.getKey();
+                it.remove();
+            }
+            completedCount++;
+            checkpoint = checkpointContentId;
+            count = completedCount;
+            logCheckpoint = doLog && LOG_INTERVAL > 0 && (count % LOG_INTERVAL) == 0;
+        }
+        if (logCheckpoint) {
+            Debug.logInfo(CmsMediaServices.logPrefix + "rebuildMediaVariants: " + count + " images done; checkpoint"
+                    + " (resumeAfterContentId): " + checkpoint, module);
+        }
+    }
+
+    /** Waits for all submitted tasks and stops the pool; returns the first error result, or null. */
+    Map<String, Object> awaitCompletion() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            while (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                if (doLog) {
+                    Debug.logInfo(CmsMediaServices.logPrefix + "rebuildMediaVariants: Waiting for image workers; checkpoint"
+                            + " (resumeAfterContentId): " + getCheckpointContentId(), module);
+                }
+            }
+        }
+        return error;
+    }
+
+    /** Stops the pool without waiting, interrupting running tasks (after an error in the submitting thread). */
+    void shutdownNow() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Returns the first error result, or null. */
+    Map<String, Object> getError() {
+        return error;
+    }
+
+    /** Returns the last contentId up to which all submitted images are done, or null. */
+    synchronized String getCheckpointContentId() {
+        return checkpointContentId;
+    }
+}
@@ -86,9 +86,18 @@ public abstract class CmsMediaWorker {
      * @throws GenericEntityException 
      */
     public static EntityListIterator getAllMediaContentDataResourceRequired(Delegator delegator, String dataResourceTypeId, List<String> orderBy) throws GenericEntityException {
+        return getAllMediaContentDataResourceRequired(delegator, dataResourceTypeId, null, orderBy);
+    }
+    
+    /**
+     * SCIPIO: Same as {@link #getAllMediaContentDataResourceRequired(Delegator, String, List)} with an additional condition
+     * (on ContentDataResourceRequiredView fields), may be null.
+     */
+    public static EntityListIterator getAllMediaContentDataResourceRequired(Delegator delegator, String dataResourceTypeId, EntityCondition extraCond, List<String> orderBy) throws GenericEntityException {
         List<EntityCondition> condList = new ArrayList<>();
         condList.add(EntityCondition.makeCondition("contentTypeId", "SCP_MEDIA"));
         if (dataResourceTypeId != null) condList.add(EntityCondition.makeCondition("drDataResourceTypeId", dataResourceTypeId));
+        if (extraCond != null) condList.add(extraCond);
         return delegator.find("ContentDataResourceRequiredView", EntityCondition.makeCondition(condList, EntityOperator.AND), null, null, orderBy, null);
     }
     
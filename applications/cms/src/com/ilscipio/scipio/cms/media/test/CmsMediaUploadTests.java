@@ -0,0 +1,116 @@
+package com.ilscipio.scipio.cms.media.test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ilscipio.scipio.common.util.fileType.FileTypeResolver;
+import com.ilscipio.scipio.common.util.fileType.FileTypeUtil;
+
+/**
+ * SCIPIO: cmsUploadMediaFile tests, for uploads spooled to disk (<code>_uploadedFile_file</code>) and in memory.
+ */
+public class CmsMediaUploadTests extends OFBizTestCase {
+
+    public static final String module = CmsMediaUploadTests.class.getName();
+
+    protected GenericValue userLogin = null;
+
+    public CmsMediaUploadTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    /**
+     * Makes a 3x2 PNG image.
+     */
+    private static byte[] makeImage() throws Exception {
+        BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(1, 1, 0xFF0000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private Map<String, Object> upload(String contentName, byte[] imageBytes, File file, ByteBuffer byteBuffer) throws Exception {
+        Map<String, Object> ctx = UtilMisc.toMap("userLogin", userLogin, "contentName", contentName,
+                "dataResourceTypeId", FileTypeResolver.IMAGE_TYPE, "_uploadedFile_size", String.valueOf(imageBytes.length),
+                "_uploadedFile_fileName", "cmsuploadtest.png", "_uploadedFile_contentType", "image/png");
+        if (file != null) {
+            ctx.put("_uploadedFile_file", file);
+        } else {
+            ctx.put("uploadedFile", byteBuffer);
+        }
+        Map<String, Object> result = dispatcher.runSync("cmsUploadMediaFile", ctx);
+        assertTrue("cmsUploadMediaFile success: " + ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        return result;
+    }
+
+    private void checkStoredMedia(String dataResourceId, byte[] imageBytes) throws Exception {
+        GenericValue dataResource = EntityQuery.use(delegator).from("DataResource").where("dataResourceId", dataResourceId).queryOne();
+        assertNotNull(dataResource);
+        assertEquals("image/png", dataResource.getString("mimeTypeId"));
+        assertEquals("Width read from the image header", 3L, dataResource.getLong("scpWidth").longValue());
+        assertEquals("Height read from the image header", 2L, dataResource.getLong("scpHeight").longValue());
+        GenericValue sizeAttr = EntityQuery.use(delegator).from("DataResourceAttribute")
+                .where("dataResourceId", dataResourceId, "attrName", FileTypeUtil.FILE_SIZE_ATTRIBUTE_NAME).queryOne();
+        assertEquals("Received file size stored", String.valueOf(imageBytes.length), sizeAttr.getString("attrValue"));
+        GenericValue imageDataResource = EntityQuery.use(delegator).from("ImageDataResource").where("dataResourceId", dataResourceId).queryOne();
+        assertTrue("Stored image data is the uploaded file", Arrays.equals(imageBytes, imageDataResource.getBytes("imageData")));
+    }
+
+    private void removeMedia(Map<String, Object> result) throws Exception {
+        String dataResourceId = (String) result.get("dataResourceId");
+        delegator.removeByAnd("Content", UtilMisc.toMap("contentId", result.get("contentId")));
+        delegator.removeByAnd("DataResourceAttribute", UtilMisc.toMap("dataResourceId", dataResourceId));
+        delegator.removeByAnd("ImageDataResource", UtilMisc.toMap("dataResourceId", dataResourceId));
+        delegator.removeByAnd("DataResource", UtilMisc.toMap("dataResourceId", dataResourceId));
+    }
+
+    public void testStreamedUpload() throws Exception {
+        byte[] imageBytes = makeImage();
+        File imageFile = File.createTempFile("cmsuploadtest", ".png");
+        try {
+            Files.write(imageFile.toPath(), imageBytes);
+            Map<String, Object> result = upload("CMS streamed upload test", imageBytes, imageFile, null);
+            try {
+                checkStoredMedia((String) result.get("dataResourceId"), imageBytes);
+                assertTrue("Uploaded file left to the caller", imageFile.exists());
+            } finally {
+                removeMedia(result);
+            }
+        } finally {
+            imageFile.delete();
+        }
+    }
+
+    public void testInMemoryUpload() throws Exception {
+        byte[] imageBytes = makeImage();
+        Map<String, Object> result = upload("CMS in-memory upload test", imageBytes, null, ByteBuffer.wrap(imageBytes));
+        try {
+            checkStoredMedia((String) result.get("dataResourceId"), imageBytes);
+        } finally {
+            removeMedia(result);
+        }
+    }
+}
@@ -15,6 +15,7 @@ import org.ofbiz.entity.GenericValue;
 
 import com.ilscipio.scipio.cms.CmsException;
 import com.ilscipio.scipio.cms.CmsUtil;
+import com.ilscipio.scipio.cms.content.CmsPageOutputCache;
 import com.ilscipio.scipio.cms.data.CmsDataException;
 import com.ilscipio.scipio.cms.data.CmsDataObject;
 import com.ilscipio.scipio.cms.data.CmsDataObjectVersion;
@@ -389,6 +390,7 @@ public abstract class CmsTemplateVersion extends CmsTemplate implements CmsDataO
             } else {
                 updateRecord(delegator, activeRecord, versionId);
             }
+            CmsPageOutputCache.invalidateAll(); // SCIPIO: activation changes rendered output
             try {
                 return delegator.createOrStore(activeRecord);
             } catch (GenericEntityException e) {
@@ -433,6 +435,7 @@ public abstract class CmsTemplateVersion extends CmsTemplate implements CmsDataO
          * If none, causes no issue.
          */
         public int removeRecord(Delegator delegator, String templateId) throws CmsException {
+            CmsPageOutputCache.invalidateAll(); // SCIPIO: deactivation changes rendered output
             try {
                 return delegator.removeByAnd(getStateEntityName(), UtilMisc.toMap(getRecordIdFieldName(), templateId, "versionStateId", "CMS_VER_ACTIVE"));
             } catch (GenericEntityException e) {
@@ -444,6 +447,7 @@ public abstract class CmsTemplateVersion extends CmsTemplate implements CmsDataO
          * Makes the given template version inactive. If already inactive, causes no issue.
          */
         public int removeRecord(Delegator delegator, String templateId, String versionId) throws CmsException {
+            CmsPageOutputCache.invalidateAll(); // SCIPIO: deactivation changes rendered output
             try {
                 return delegator.removeByAnd(getStateEntityName(), 
                         UtilMisc.toMap(getRecordIdFieldName(), templateId, "versionId", versionId, "versionStateId", "CMS_VER_ACTIVE"));
@@ -39,6 +39,7 @@ import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtil;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.webapp.control.RequestHandler;
 import org.ofbiz.webapp.website.WebSiteWorker;
@@ -280,6 +281,14 @@ public class ContentMapFacade implements Map<Object, Object> {
             List<ContentMapFacade> subContent = UtilMisc.newList();
             List<GenericValue> subs = null;
             try {
+                if (cache && ContentRenderCache.isTreeEnabled() && "-fromDate".equals(this.sortOrder) && this.statusFilter.equals("")) {
+                    // SCIPIO: from the cached associations of the content (see ContentRenderCache)
+                    subs = ContentRenderCache.getCurrentContentAssocs(delegator, contentId, this.mapKeyFilter, null);
+                    for (GenericValue v: subs) {
+                        subContent.add(new ContentMapFacade(dispatcher, delegator, v.getString("contentIdTo"), context, locale, mimeType, cache));
+                    }
+                    return subContent;
+                }
                 Map<String, Object> expressions = UtilMisc.newMap();
                 expressions.put("contentIdStart", contentId);
                 if(!this.mapKeyFilter.equals("")) {
@@ -455,6 +464,11 @@ public class ContentMapFacade implements Map<Object, Object> {
             // key is the mapKey
             GenericValue sub = null;
             try {
+                if (cache && ContentRenderCache.isTreeEnabled() && "-fromDate".equals(this.sortOrder) && this.statusFilter.equals("") && !name.isEmpty()) {
+                    // SCIPIO: from the cached associations of the content (see ContentRenderCache)
+                    sub = EntityUtil.getFirst(ContentRenderCache.getCurrentContentAssocs(delegator, contentId, name, null));
+                    return (sub != null) ? new ContentMapFacade(dispatcher, delegator, sub.getString("contentIdTo"), context, locale, mimeType, cache) : null;
+                }
                 Map<String, Object> expressions = UtilMisc.newMap();
                 expressions.put("contentIdStart", contentId);
                 expressions.put("caMapKey", name);
@@ -0,0 +1,292 @@
+package org.ofbiz.content.content;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtil;
+
+/**
+ * SCIPIO: Caches for content rendering by {@link ContentWorker} and {@link ContentMapFacade}
+ * (content.properties <code>render.cache.*</code>, cache.properties <code>content.render.*</code>):
+ * <ul>
+ * <li><code>content.render.tree</code>: the content resolved for rendering (publish point and alternate locale) by
+ * contentId and locale, valid until the next from/thru date of the associations of the content, and the ContentAssoc
+ * records from each content, unfiltered (date filtering is done on use), so that walking sub-contents does not repeat
+ * the association lookups.</li>
+ * <li><code>content.render.leaf</code>: the rendered text of content without template, decorator or service whose
+ * rendering depends only on the context entries declared in its <code>renderCacheContextKeys</code> ContentAttribute
+ * (comma-separated names, empty for none); the values of those entries are part of the key. Content without the
+ * attribute is never cached.</li>
+ * </ul>
+ * Only used for renders with the cache flag. Both caches are cleared by the entity ECAs of Content, ContentAssoc,
+ * ContentAttribute, DataResource and ElectronicText, once per transaction when it ends (see {@link #clear(Delegator)});
+ * a transaction bypasses them after its first such change. Changes made by other servers are seen after the cache expireTime.
+ */
+public final class ContentRenderCache {
+
+    public static final String module = ContentRenderCache.class.getName();
+
+    public static final String LEAF_CONTEXT_KEYS_ATTR = "renderCacheContextKeys";
+
+    private static final boolean TREE_ENABLED = UtilProperties.getPropertyAsBoolean("content", "render.cache.tree.enabled", true);
+    private static final boolean LEAF_ENABLED = UtilProperties.getPropertyAsBoolean("content", "render.cache.leaf.enabled", true);
+    private static final String SEPARATOR = "::";
+
+    private static final UtilCache<String, ResolvedContent> resolvedContentCache = UtilCache.createUtilCache("content.render.tree",
+            0, 10000, 600000, false, false);
+    private static final UtilCache<String, List<GenericValue>> contentAssocCache = UtilCache.createUtilCache("content.render.tree.assoc",
+            0, 10000, 600000, false, false, "content.render.tree");
+    private static final UtilCache<String, String> leafCache = UtilCache.createUtilCache("content.render.leaf",
+            0, 5000, 600000, true, false);
+    /** Incremented on each clear; values read before a clear are not cached. */
+    private static final AtomicLong generation = new AtomicLong();
+    /** Transactions with a clear registered for their end. */
+    private static final Set<Transaction> clearTransactions = Collections.newSetFromMap(new ConcurrentHashMap<Transaction, Boolean>());
+
+    private ContentRenderCache() {
+    }
+
+    public static boolean isTreeEnabled() {
+        return TREE_ENABLED;
+    }
+
+    public static boolean isLeafEnabled() {
+        return LEAF_ENABLED;
+    }
+
+    /**
+     * Returns the current generation, to pass to the put methods; read it before reading the values to cache.
+     */
+    static long getGeneration() {
+        return generation.get();
+    }
+
+    private static String makeResolvedContentKey(Delegator delegator, String contentId, Locale locale, Boolean useFallbackLocale) {
+        return delegator.getDelegatorName() + SEPARATOR + contentId + SEPARATOR + locale + SEPARATOR + useFallbackLocale;
+    }
+
+    /**
+     * Returns the cached content resolved for rendering, or null.
+     */
+    static GenericValue getResolvedContent(Delegator delegator, String contentId, Locale locale, Boolean useFallbackLocale) {
+        if (isBypassed()) {
+            return null;
+        }
+        ResolvedContent resolvedContent = resolvedContentCache.get(makeResolvedContentKey(delegator, contentId, locale, useFallbackLocale));
+        if (resolvedContent == null || System.currentTimeMillis() >= resolvedContent.validUntil) {
+            return null;
+        }
+        return resolvedContent.content;
+    }
+
+    /**
+     * Caches the content resolved for rendering, until the next date change of the associations of the content.
+     */
+    static void putResolvedContent(Delegator delegator, String contentId, Locale locale, Boolean useFallbackLocale, GenericValue content, long startGeneration) {
+        if (isBypassed()) {
+            return;
+        }
+        List<GenericValue> contentAssocs;
+        try {
+            contentAssocs = getContentAssocs(delegator, contentId);
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Could not read associations of content [" + contentId + "]; not caching its resolved content", module);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long validUntil = Long.MAX_VALUE;
+        for (GenericValue contentAssoc : contentAssocs) {
+            for (String dateField : new String[] { "fromDate", "thruDate" }) {
+                Timestamp date = contentAssoc.getTimestamp(dateField);
+                if (date != null && date.getTime() > now && date.getTime() < validUntil) {
+                    validUntil = date.getTime();
+                }
+            }
+        }
+        if (generation.get() == startGeneration) {
+            resolvedContentCache.put(makeResolvedContentKey(delegator, contentId, locale, useFallbackLocale), new ResolvedContent(content, validUntil));
+        }
+    }
+
+    /**
+     * Returns all the ContentAssoc records from the content (any type, not date-filtered), newest first, read-only.
+     */
+    public static List<GenericValue> getContentAssocs(Delegator delegator, String contentId) throws GenericEntityException {
+        boolean bypassed = isBypassed();
+        String key = delegator.getDelegatorName() + SEPARATOR + contentId;
+        List<GenericValue> contentAssocs = bypassed ? null : contentAssocCache.get(key);
+        if (contentAssocs == null) {
+            long startGeneration = generation.get();
+            contentAssocs = Collections.unmodifiableList(EntityQuery.use(delegator).from("ContentAssoc")
+                    .where("contentId", contentId).orderBy("-fromDate").queryList());
+            if (!bypassed && generation.get() == startGeneration) {
+                contentAssocCache.put(key, contentAssocs);
+            }
+        }
+        return contentAssocs;
+    }
+
+    /**
+     * Returns the current ContentAssoc records from the content with the mapKey (any if empty) and type (any if null),
+     * newest first.
+     */
+    public static List<GenericValue> getCurrentContentAssocs(Delegator delegator, String contentId, String mapKey, String contentAssocTypeId) throws GenericEntityException {
+        List<GenericValue> contentAssocs = new ArrayList<>();
+        for (GenericValue contentAssoc : getContentAssocs(delegator, contentId)) {
+            if ((UtilValidate.isEmpty(mapKey) || mapKey.equals(contentAssoc.getString("mapKey")))
+                    && (contentAssocTypeId == null || contentAssocTypeId.equals(contentAssoc.getString("contentAssocTypeId")))) {
+                contentAssocs.add(contentAssoc);
+            }
+        }
+        return EntityUtil.filterByDate(contentAssocs, UtilDateTime.nowTimestamp());
+    }
+
+    /**
+     * Returns the context keys the rendering of the content depends on (its <code>renderCacheContextKeys</code>
+     * attribute), or null if not declared (not cacheable).
+     */
+    static List<String> getLeafContextKeys(Delegator delegator, String contentId) {
+        if (!LEAF_ENABLED) {
+            return null;
+        }
+        try {
+            GenericValue attr = EntityQuery.use(delegator).from("ContentAttribute")
+                    .where("contentId", contentId, "attrName", LEAF_CONTEXT_KEYS_ATTR).cache().queryOne();
+            if (attr == null) {
+                return null;
+            }
+            String attrValue = attr.getString("attrValue");
+            List<String> contextKeys = UtilValidate.isNotEmpty(attrValue) ? StringUtil.split(attrValue, ", ") : null;
+            return (contextKeys != null) ? contextKeys : Collections.<String>emptyList();
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Could not read " + LEAF_CONTEXT_KEYS_ATTR + " of content [" + contentId + "]", module);
+            return null;
+        }
+    }
+
+    static String makeLeafKey(Delegator delegator, String contentId, String dataResourceId, Locale locale, String mimeTypeId,
+            Map<String, Object> templateContext, List<String> contextKeys) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(delegator.getDelegatorName()).append(SEPARATOR).append(contentId).append(SEPARATOR).append(dataResourceId)
+                .append(SEPARATOR).append(locale).append(SEPARATOR).append(mimeTypeId);
+        for (String contextKey : contextKeys) {
+            Object value = templateContext.get(contextKey);
+            String valueString = String.valueOf(value);
+            // length prefix keeps the key unambiguous whatever the value contains
+            sb.append(SEPARATOR).append(contextKey).append('=').append(valueString.length()).append(':').append(valueString);
+        }
+        return sb.toString();
+    }
+
+    static String getLeaf(String key) {
+        return isBypassed() ? null : leafCache.get(key);
+    }
+
+    static void putLeaf(String key, String text, long startGeneration) {
+        if (!isBypassed() && generation.get() == startGeneration) {
+            leafCache.put(key, text);
+        }
+    }
+
+    /**
+     * Clears the caches (entries of all delegators) when the current transaction ends, once however many changes it
+     * makes, or now if there is no active transaction. Until then, other transactions keep using the cached values;
+     * the current transaction bypasses the caches, so that it reads its own changes and does not cache them.
+     */
+    public static void clear(Delegator delegator) {
+        Transaction transaction = null;
+        try {
+            TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+            if (tm != null && tm.getStatus() == Status.STATUS_ACTIVE) {
+                transaction = tm.getTransaction();
+            }
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not get the current transaction; clearing content render caches now", module);
+        }
+        if (transaction == null) {
+            clearNow();
+            return;
+        }
+        if (!clearTransactions.add(transaction)) {
+            return; // already registered
+        }
+        final Transaction clearTransaction = transaction;
+        try {
+            TransactionUtil.registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+                @Override
+                public void afterCompletion(int status) {
+                    clearTransactions.remove(clearTransaction);
+                    // NOTE: also on rollback, for the values the transaction may have cached from its own changes
+                    clearNow();
+                }
+            });
+        } catch (GenericTransactionException e) {
+            clearTransactions.remove(clearTransaction);
+            Debug.logWarning(e, "Could not register content render cache clear for transaction end; clearing now", module);
+            clearNow();
+        }
+    }
+
+    /**
+     * Returns true if the current transaction has a clear registered, that is, has changed content not yet committed.
+     */
+    private static boolean isBypassed() {
+        if (clearTransactions.isEmpty()) {
+            return false;
+        }
+        try {
+            TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+            Transaction transaction = (tm != null) ? tm.getTransaction() : null;
+            return transaction != null && clearTransactions.contains(transaction);
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not get the current transaction; not using the content render caches", module);
+            return true;
+        }
+    }
+
+    private static void clearNow() {
+        generation.incrementAndGet();
+        resolvedContentCache.clear();
+        contentAssocCache.clear();
+        leafCache.clear();
+    }
+
+    private static final class ResolvedContent {
+        private final GenericValue content;
+        private final long validUntil;
+
+        private ResolvedContent(GenericValue content, long validUntil) {
+            this.content = content;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -1120,4 +1120,11 @@ public class ContentServices {
         return result;
     }
 
+    /**
+     * SCIPIO: clearContentRenderCache.
+     */
+    public static Map<String, Object> clearContentRenderCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        ContentRenderCache.clear(dctx.getDelegator());
+        return ServiceUtil.returnSuccess();
+    }
 }
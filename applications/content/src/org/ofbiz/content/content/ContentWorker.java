@@ -23,6 +23,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -135,6 +136,20 @@ public class ContentWorker implements org.ofbiz.widget.content.ContentWorkerInte
             Debug.logError("No content ID found.", module);
             return null;
         }
+        // SCIPIO: the resolved content is cached per locale (see ContentRenderCache)
+        if (cache && !Boolean.FALSE.equals(deepCache) && partyId == null && roleTypeId == null && ContentRenderCache.isTreeEnabled()) {
+            GenericValue content = ContentRenderCache.getResolvedContent(delegator, contentId, locale, useFallbackLocale);
+            if (content == null) {
+                long treeCacheGeneration = ContentRenderCache.getGeneration();
+                content = resolveContentForRendering(delegator, contentId, locale, partyId, roleTypeId, useFallbackLocale, cache, deepCache);
+                ContentRenderCache.putResolvedContent(delegator, contentId, locale, useFallbackLocale, content, treeCacheGeneration);
+            }
+            return content;
+        }
+        return resolveContentForRendering(delegator, contentId, locale, partyId, roleTypeId, useFallbackLocale, cache, deepCache);
+    }
+
+    private static GenericValue resolveContentForRendering(Delegator delegator, String contentId, Locale locale, String partyId, String roleTypeId, Boolean useFallbackLocale, boolean cache, Boolean deepCache) throws GeneralException, IOException {
         GenericValue content = EntityQuery.use(delegator).from("Content").where("contentId", contentId).cache(cache).queryOne();
         if (content == null) {
             throw new GeneralException("No content found for content ID [" + contentId + "]");
@@ -312,7 +327,21 @@ public class ContentWorker implements org.ofbiz.widget.content.ContentWorkerInte
                     return;
                 }
                 
-                if (UtilValidate.isNotEmpty(webAnalytics)) {
+                // SCIPIO: content declaring its context dependencies is cached as rendered (see ContentRenderCache)
+                List<String> leafContextKeys = (cache && UtilValidate.isEmpty(webAnalytics) && UtilValidate.isEmpty(serviceName)
+                        && UtilValidate.isEmpty(templateDataResourceId)) ? ContentRenderCache.getLeafContextKeys(delegator, contentId) : null;
+                if (leafContextKeys != null) {
+                    String leafKey = ContentRenderCache.makeLeafKey(delegator, contentId, dataResourceId, locale, mimeTypeId, templateContext, leafContextKeys);
+                    String text = ContentRenderCache.getLeaf(leafKey);
+                    if (text == null) {
+                        long leafCacheGeneration = ContentRenderCache.getGeneration();
+                        Writer leafWriter = new StringWriter();
+                        DataResourceWorker.renderDataResourceAsText(delegator, dataResourceId, leafWriter, templateContext, locale, mimeTypeId, cache);
+                        text = leafWriter.toString();
+                        ContentRenderCache.putLeaf(leafKey, text, leafCacheGeneration);
+                    }
+                    out.append(text);
+                } else if (UtilValidate.isNotEmpty(webAnalytics)) {
                     DataResourceWorker.renderDataResourceAsText(delegator, dataResourceId, out, templateContext, locale, mimeTypeId, cache, webAnalytics);
                 } else {
                     DataResourceWorker.renderDataResourceAsText(delegator, dataResourceId, out, templateContext, locale, mimeTypeId, cache);
@@ -434,14 +463,20 @@ public class ContentWorker implements org.ofbiz.widget.content.ContentWorkerInte
             Map<String,Object> templateContext, Locale locale, String mimeTypeId, boolean cache) throws GeneralException, IOException {
 
         // find the sub-content with matching mapKey
-        List<EntityCondition> exprs = UtilMisc.<EntityCondition>toList(EntityCondition.makeCondition("contentId", EntityOperator.EQUALS, contentId));
-        if (UtilValidate.isNotEmpty(mapKey)) {
-                exprs.add(EntityCondition.makeCondition("mapKey", EntityOperator.EQUALS, mapKey));
-        }
+        GenericValue subContent;
+        if (cache && ContentRenderCache.isTreeEnabled()) {
+            // SCIPIO: from the cached associations of the content (see ContentRenderCache)
+            subContent = EntityUtil.getFirst(ContentRenderCache.getCurrentContentAssocs(delegator, contentId, mapKey, null));
+        } else {
+            List<EntityCondition> exprs = UtilMisc.<EntityCondition>toList(EntityCondition.makeCondition("contentId", EntityOperator.EQUALS, contentId));
+            if (UtilValidate.isNotEmpty(mapKey)) {
+                    exprs.add(EntityCondition.makeCondition("mapKey", EntityOperator.EQUALS, mapKey));
+            }
 
-        GenericValue subContent = EntityQuery.use(delegator).from("ContentAssoc")
-                .where(exprs)
-                .orderBy("-fromDate").cache(cache).filterByDate().queryFirst();
+            subContent = EntityQuery.use(delegator).from("ContentAssoc")
+                    .where(exprs)
+                    .orderBy("-fromDate").cache(cache).filterByDate().queryFirst();
+        }
 
         if (subContent == null) {
             //throw new GeneralException("No sub-content found with map-key [" + mapKey + "] for content [" + contentId + "]");
@@ -472,9 +507,6 @@ public class ContentWorker implements org.ofbiz.widget.content.ContentWorkerInte
             return view;
         }
 
-        String localeStr = locale.toString();
-        boolean isTwoLetterLocale = localeStr.length() == 2;
-
         List<GenericValue> alternateViews = null;
         try {
             alternateViews = view.getRelated("ContentAssocDataResourceViewTo", UtilMisc.toMap("caContentAssocTypeId", "ALTERNATE_LOCALE"), UtilMisc.toList("-caFromDate"), cache);
@@ -484,12 +516,45 @@ public class ContentWorker implements org.ofbiz.widget.content.ContentWorkerInte
         }
 
         alternateViews = EntityUtil.filterByDate(alternateViews, UtilDateTime.nowTimestamp(), "caFromDate", "caThruDate", cache);
+        contentAssocDataResourceViewFrom = selectAlternateLocaleContent(view, alternateViews, locale); // SCIPIO: factored out
+
+        if (contentAssocDataResourceViewFrom == null) {
+            // SCIPIO: NOTE: 2017-11-24: The fallback locale support was part of patch OFBIZ-9445 / r1800854 / https://svn.apache.org/repos/asf/ofbiz/branches/release16.11
+            // TODO: REVIEW: Unlike ofbiz 16, I am leaving fallback locale fallback usage DISABLED BY DEFAULT,
+            // because nothing else in ContentWorker ever uses the property fallback locale and possible impacts.
+            if (Boolean.TRUE.equals(useFallbackLocale)) {
+                // no content matching the given locale found.
+                Locale fallbackLocale = UtilProperties.getFallbackLocale();
+                contentAssocDataResourceViewFrom = locale.equals(fallbackLocale) ? view
+                        // only search for a content with the fallbackLocale if it is different to the given locale
+                        : findAlternateLocaleContent(delegator, view, fallbackLocale, useFallbackLocale, cache);
+            } else {
+                contentAssocDataResourceViewFrom = view;
+            }
+        }
+
+        return contentAssocDataResourceViewFrom;
+    }
+
+    /**
+     * SCIPIO: Selects the best content for the locale among the given view and its date-filtered ALTERNATE_LOCALE
+     * ContentAssocDataResourceViewTo values, or returns null if none matches (without fallback locale).
+     * Factored out of {@link #findAlternateLocaleContent(Delegator, GenericValue, Locale, Boolean, boolean)} for callers
+     * that look up the alternate views of many contents at once.
+     */
+    public static GenericValue selectAlternateLocaleContent(GenericValue view, List<GenericValue> alternateViews, Locale locale) {
+        GenericValue contentAssocDataResourceViewFrom = null;
+        String localeStr = locale.toString();
+        boolean isTwoLetterLocale = localeStr.length() == 2;
+
         // also check the given view for a matching locale
         // SCIPIO: NOTE: 2017-11-24: This .add was part of patch OFBIZ-9445 / r1800854 / https://svn.apache.org/repos/asf/ofbiz/branches/release16.11
         // and it fixes the original concern I had with this method - not checking the source view first's localeString - so this part is good.
-        alternateViews.add(0, view);
+        List<GenericValue> views = new ArrayList<>(alternateViews.size() + 1);
+        views.add(view);
+        views.addAll(alternateViews);
 
-        for (GenericValue thisView : alternateViews) {
+        for (GenericValue thisView : views) {
             String currentLocaleString = thisView.getString("localeString");
             if (UtilValidate.isEmpty(currentLocaleString)) {
                 continue;
@@ -526,22 +591,6 @@ public class ContentWorker implements org.ofbiz.widget.content.ContentWorkerInte
                 }
             }
         }
-
-        if (contentAssocDataResourceViewFrom == null) {
-            // SCIPIO: NOTE: 2017-11-24: The fallback locale support was part of patch OFBIZ-9445 / r1800854 / https://svn.apache.org/repos/asf/ofbiz/branches/release16.11
-            // TODO: REVIEW: Unlike ofbiz 16, I am leaving fallback locale fallback usage DISABLED BY DEFAULT,
-            // because nothing else in ContentWorker ever uses the property fallback locale and possible impacts.
-            if (Boolean.TRUE.equals(useFallbackLocale)) {
-                // no content matching the given locale found.
-                Locale fallbackLocale = UtilProperties.getFallbackLocale();
-                contentAssocDataResourceViewFrom = locale.equals(fallbackLocale) ? view
-                        // only search for a content with the fallbackLocale if it is different to the given locale
-                        : findAlternateLocaleContent(delegator, view, fallbackLocale, useFallbackLocale, cache);
-            } else {
-                contentAssocDataResourceViewFrom = view;
-            }
-        }
-
         return contentAssocDataResourceViewFrom;
     }
 
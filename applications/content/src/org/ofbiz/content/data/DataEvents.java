@@ -19,6 +19,7 @@
 package org.ofbiz.content.data;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -45,6 +46,7 @@ import org.ofbiz.entity.util.EntityUtilProperties;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.webapp.content.ContentStreamer;
 
 /**
  * DataEvents Class
@@ -181,6 +183,28 @@ public class DataEvents {
             https = "true";
         }
 
+        // SCIPIO: file-based resources are streamed from disk with byte range support, without reading them into memory
+        File dataFile;
+        try {
+            dataFile = DataResourceWorker.getDataResourceFile(dataResource, contextRoot);
+        } catch (IOException | GeneralException e) {
+            Debug.logError(e, "Error getting DataResource file", module);
+            request.setAttribute("_ERROR_MESSAGE_", e.getMessage());
+            return "error";
+        }
+        if (dataFile != null) {
+            try {
+                UtilHttp.setResponseBrowserProxyNoCache(response);
+                ContentStreamer.stream(request, response, ContentStreamer.fromFile(dataFile), mimeType,
+                        (dataName != null) ? "attachment;filename=\"" + dataName + "\"" : null, null, false);
+            } catch (IOException e) {
+                Debug.logError(e, "Unable to write content to browser", module);
+                request.setAttribute("_ERROR_MESSAGE_", e.getMessage());
+                return "io-error";
+            }
+            return "success";
+        }
+
         // get the data resource stream and conent length
         Map<String, Object> resourceData;
         try {
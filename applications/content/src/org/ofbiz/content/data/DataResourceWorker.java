@@ -66,6 +66,7 @@ import org.ofbiz.base.util.collections.MapStack;
 import org.ofbiz.base.util.template.FreeMarkerWorker;
 import org.ofbiz.base.util.template.XslTransform;
 import org.ofbiz.common.email.NotificationServices;
+import org.ofbiz.content.content.ContentRenderCache;
 import org.ofbiz.content.content.UploadContentAndImage;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
@@ -588,6 +589,9 @@ public class DataResourceWorker  implements org.ofbiz.widget.content.DataResourc
             throw new GeneralException("Cannot clear dataResource related cache for a null dataResourceId");
         }
 
+        // SCIPIO: also clear the content render caches, which may hold the rendered text
+        ContentRenderCache.clear(delegator);
+
         GenericValue dataResource = EntityQuery.use(delegator).from("DataResource").where("dataResourceId", dataResourceId).cache().queryOne();
         if (dataResource != null) {
             String dataTemplateTypeId = dataResource.getString("dataTemplateTypeId");
@@ -968,6 +972,22 @@ public class DataResourceWorker  implements org.ofbiz.widget.content.DataResourc
     // Data Resource Streaming
     // ----------------------------
 
+    /**
+     * SCIPIO: Returns the file of a file-based DataResource (LOCAL_FILE, OFBIZ_FILE, CONTEXT_FILE and their _BIN types),
+     * or null for the other types, so it can be streamed without reading it into memory (as {@link #getDataResourceStream} does).
+     */
+    public static File getDataResourceFile(GenericValue dataResource, String contextRoot) throws IOException, GeneralException {
+        String dataResourceTypeId = dataResource.getString("dataResourceTypeId");
+        if (dataResourceTypeId == null || !(dataResourceTypeId.endsWith("_FILE") || dataResourceTypeId.endsWith("_FILE_BIN"))) {
+            return null;
+        }
+        String objectInfo = dataResource.getString("objectInfo");
+        if (UtilValidate.isEmpty(objectInfo)) {
+            throw new GeneralException("No objectInfo found for FILE type [" + dataResourceTypeId + "]; cannot stream");
+        }
+        return DataResourceWorker.getContentFile(dataResourceTypeId, objectInfo, contextRoot);
+    }
+
     /**
      * getDataResourceStream - gets an InputStream and Content-Length of a DataResource
      * <p>
@@ -45,6 +45,7 @@ import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
 import org.ofbiz.common.image.ImageTransform;
 import org.ofbiz.common.image.ImageVariantConfig;
+import org.ofbiz.common.image.ProgressiveImageScaler;
 import org.ofbiz.content.data.DataResourceWorker;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
@@ -254,14 +255,16 @@ public abstract class ContentImageServices {
                 
                 /* Scale image for each size from ImageProperties.xml */
                 int scaledImageCount = 0;
-                for (String sizeType : sizeTypeList) {
+                // SCIPIO: scale largest first, each from the smallest suitable larger variant (progressive)
+                ProgressiveImageScaler progressiveScaler = new ProgressiveImageScaler(bufImg, locale, scalingOptions);
+                for (String sizeType : ProgressiveImageScaler.sortLargestFirst(sizeTypeList, imgPropCfg.getVariantStringMap(), imgHeight, imgWidth)) {
                     if (!imgPropCfg.hasVariant(sizeType)) {
                         Debug.logError(logPrefix+"sizeType " + sizeType + " is not part of ImageProperties.xml; ignoring", module);
                         continue;
                     }
                     
                     // Scale
-                    Map<String, Object> resultScaleImgMap = ImageTransform.scaleImage(bufImg, imgHeight, imgWidth, imgPropCfg.getVariantStringMap(), sizeType, locale, scalingOptions);
+                    Map<String, Object> resultScaleImgMap = progressiveScaler.scaleImage(imgPropCfg.getVariantStringMap(), sizeType);
     
                     /* Write the new image file */
                     if ("success".equals(resultScaleImgMap.get("responseMessage"))) {
@@ -642,14 +645,16 @@ public abstract class ContentImageServices {
             }
             
             int scaledImageCount = 0;
-            for (String sizeType : sizeTypeList) {
+            // SCIPIO: scale largest first, each from the smallest suitable larger variant (progressive)
+            ProgressiveImageScaler progressiveScaler = new ProgressiveImageScaler(bufImg, locale, scalingOptions);
+            for (String sizeType : ProgressiveImageScaler.sortLargestFirst(sizeTypeList, imgPropCfg.getVariantStringMap(), imgHeight, imgWidth)) {
                 if (!imgPropCfg.hasVariant(sizeType)) {
                     Debug.logError(logPrefix+"sizeType " + sizeType + " is not part of ImageProperties.xml; ignoring", module);
                     continue;
                 }
                 
                 // Scale
-                Map<String, Object> resultScaleImgMap = ImageTransform.scaleImage(bufImg, imgHeight, imgWidth, imgPropCfg.getVariantStringMap(), sizeType, locale, scalingOptions);
+                Map<String, Object> resultScaleImgMap = progressiveScaler.scaleImage(imgPropCfg.getVariantStringMap(), sizeType);
 
                 /* Write the new image file */
                 if ("success".equals(resultScaleImgMap.get("responseMessage"))) {
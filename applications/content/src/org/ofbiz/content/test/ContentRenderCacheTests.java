@@ -0,0 +1,81 @@
+package org.ofbiz.content.test;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Locale;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.content.content.ContentRenderCache;
+import org.ofbiz.content.content.ContentWorker;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests that the content render caches ({@link ContentRenderCache}) are cleared at the end of the transactions
+ * changing content, and bypassed by those transactions until then.
+ */
+public class ContentRenderCacheTests extends OFBizTestCase {
+
+    public ContentRenderCacheTests(String name) {
+        super(name);
+    }
+
+    private int countAssocs() throws Exception {
+        return ContentRenderCache.getContentAssocs(delegator, "CRC_TEST_PARENT").size();
+    }
+
+    private String renderLeaf() throws Exception {
+        return ContentWorker.renderContentAsText(dispatcher, delegator, "CRC_TEST_LEAF", new HashMap<String, Object>(),
+                Locale.ENGLISH, "text/plain", true);
+    }
+
+    private void storeLeafText(String text) throws Exception {
+        GenericValue dataResource = EntityQuery.use(delegator).from("DataResource").where("dataResourceId", "CRC_TEST_LEAF").queryOne();
+        dataResource.set("objectInfo", text);
+        dataResource.store();
+    }
+
+    private GenericValue makeAssoc() {
+        return delegator.makeValue("ContentAssoc", UtilMisc.toMap("contentId", "CRC_TEST_PARENT", "contentIdTo", "CRC_TEST_OTHER",
+                "contentAssocTypeId", "SUB_CONTENT", "fromDate", new Timestamp(UtilDateTime.nowTimestamp().getTime() - 1000)));
+    }
+
+    public void testClearedOnCommit() throws Exception {
+        assertEquals(1, countAssocs());
+        assertEquals("Leaf v1", renderLeaf());
+
+        GenericValue contentAssoc = delegator.create(makeAssoc());
+        assertEquals("Association created by a committed transaction", 2, countAssocs());
+        storeLeafText("Leaf v2");
+        assertEquals("Leaf changed by a committed transaction", "Leaf v2", renderLeaf());
+
+        contentAssoc.remove();
+        storeLeafText("Leaf v1");
+        assertEquals(1, countAssocs());
+        assertEquals("Leaf v1", renderLeaf());
+    }
+
+    public void testBypassedUntilRollback() throws Exception {
+        assertEquals(1, countAssocs());
+        assertEquals("Leaf v1", renderLeaf());
+
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            delegator.create(makeAssoc());
+            assertEquals("Own association seen in the transaction", 2, countAssocs());
+            storeLeafText("Leaf v2");
+            assertEquals("Own change rendered in the transaction", "Leaf v2", renderLeaf());
+            assertEquals("Read again, not from the cache", 2, countAssocs());
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "Content render cache test rollback", null);
+        }
+
+        assertEquals("Rolled back association not cached", 1, countAssocs());
+        // the entity cache is not transactional: drop the DataResource read during the transaction
+        delegator.clearCacheLine("DataResource", UtilMisc.toMap("dataResourceId", "CRC_TEST_LEAF"));
+        assertEquals("Rolled back leaf not cached", "Leaf v1", renderLeaf());
+    }
+}
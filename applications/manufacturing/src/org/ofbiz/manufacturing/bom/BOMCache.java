@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.manufacturing.bom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtil;
+
+/**
+ * SCIPIO: In-memory bill of materials graph.
+ * <p>
+ * Holds, per (productId, bomTypeId), all the ProductAssoc rows of the product's components
+ * (and, separately, of its parents) regardless of their validity dates; the date filter is
+ * applied when reading, so the same rows are shared by all the explosions of a product
+ * whatever their date and by all the trees in which the product appears.
+ * <p>
+ * Entries are removed by the <code>clearBomCache</code> service, triggered by the ProductAssoc
+ * entity ECAs, and every invalidation increments the graph {@link #getVersion() version} so that
+ * callers deriving data from the graph can tell when it is stale. Both caches are regular
+ * UtilCaches (<code>manufacturing.bom.children</code>, <code>manufacturing.bom.parents</code>)
+ * and can be cleared from webtools.
+ * <p>
+ * {@link #prefetchChildAssocs} loads the missing entries of many products with a single query,
+ * for callers that walk a whole level of bills of materials (MRP).
+ */
+public final class BOMCache {
+
+    public static final String module = BOMCache.class.getName();
+
+    private static final String SEPARATOR = "::";
+    private static final int IN_CONDITION_CHUNK_SIZE = 500;
+
+    private static final UtilCache<String, List<GenericValue>> childrenCache = UtilCache.createUtilCache("manufacturing.bom.children");
+    private static final UtilCache<String, List<GenericValue>> parentsCache = UtilCache.createUtilCache("manufacturing.bom.parents");
+    private static final AtomicLong version = new AtomicLong();
+
+    private BOMCache() {
+    }
+
+    /**
+     * Returns the version of the graph, incremented on every invalidation.
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the ProductAssoc rows of the components of the product valid at inDate, ordered by sequenceNum.
+     */
+    public static List<GenericValue> getChildAssocs(Delegator delegator, String productId, String bomTypeId, Date inDate) throws GenericEntityException {
+        List<GenericValue> assocs = childrenCache.get(makeKey(delegator, productId, bomTypeId));
+        if (assocs == null) {
+            assocs = loadAssocs(delegator, Collections.singleton(productId), bomTypeId, false).get(productId);
+        }
+        return filterByDate(assocs, inDate);
+    }
+
+    /**
+     * Returns the ProductAssoc rows of the parents of the product valid at inDate, ordered by sequenceNum.
+     */
+    public static List<GenericValue> getParentAssocs(Delegator delegator, String productId, String bomTypeId, Date inDate) throws GenericEntityException {
+        List<GenericValue> assocs = parentsCache.get(makeKey(delegator, productId, bomTypeId));
+        if (assocs == null) {
+            assocs = loadAssocs(delegator, Collections.singleton(productId), bomTypeId, true).get(productId);
+        }
+        return filterByDate(assocs, inDate);
+    }
+
+    /**
+     * Loads the components of all the given products that are not cached yet, using as few queries as possible.
+     */
+    public static void prefetchChildAssocs(Delegator delegator, Collection<String> productIds, String bomTypeId) throws GenericEntityException {
+        loadAssocs(delegator, getMissing(delegator, productIds, bomTypeId, childrenCache), bomTypeId, false);
+    }
+
+    /**
+     * Removes the entries affected by a change of the given ProductAssoc; if any of the
+     * parameters is null, the whole graph is cleared.
+     * <p>
+     * When called within a transaction, the entries are removed now, so that the transaction reads its own
+     * change, and again when the transaction ends, so that neither rows read by other threads before the commit
+     * nor rows the transaction read from its own changes before a rollback are kept.
+     */
+    public static void clear(final Delegator delegator, final String productId, final String productIdTo, final String bomTypeId) {
+        clearNow(delegator, productId, productIdTo, bomTypeId);
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        clearNow(delegator, productId, productIdTo, bomTypeId);
+                    }
+                });
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register BOM cache clear for transaction end; clearing the whole graph", module);
+            clearAll();
+        }
+    }
+
+    private static void clearNow(Delegator delegator, String productId, String productIdTo, String bomTypeId) {
+        if (productId == null || productIdTo == null || bomTypeId == null) {
+            clearAll();
+            return;
+        }
+        childrenCache.remove(makeKey(delegator, productId, bomTypeId));
+        parentsCache.remove(makeKey(delegator, productIdTo, bomTypeId));
+        version.incrementAndGet();
+    }
+
+    public static void clearAll() {
+        childrenCache.clear();
+        parentsCache.clear();
+        version.incrementAndGet();
+    }
+
+    private static String makeKey(Delegator delegator, String productId, String bomTypeId) {
+        return delegator.getDelegatorName() + SEPARATOR + bomTypeId + SEPARATOR + productId;
+    }
+
+    private static List<GenericValue> filterByDate(List<GenericValue> assocs, Date inDate) {
+        if (assocs == null || assocs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return EntityUtil.filterByDate(assocs, inDate != null ? inDate : new Date());
+    }
+
+    private static List<String> getMissing(Delegator delegator, Collection<String> productIds, String bomTypeId, UtilCache<String, List<GenericValue>> cache) {
+        List<String> missing = new ArrayList<>();
+        for (String productId : productIds) {
+            if (cache.get(makeKey(delegator, productId, bomTypeId)) == null) {
+                missing.add(productId);
+            }
+        }
+        return missing;
+    }
+
+    private static Map<String, List<GenericValue>> loadAssocs(Delegator delegator, Collection<String> productIds, String bomTypeId, boolean parents) throws GenericEntityException {
+        Map<String, List<GenericValue>> result = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return result;
+        }
+        String keyField = parents ? "productIdTo" : "productId";
+        UtilCache<String, List<GenericValue>> cache = parents ? parentsCache : childrenCache;
+        // rows read before a concurrent invalidation must not be cached
+        long startVersion = version.get();
+        List<String> ids = new ArrayList<>(productIds);
+        for (int start = 0; start < ids.size(); start += IN_CONDITION_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(start, Math.min(start + IN_CONDITION_CHUNK_SIZE, ids.size()));
+            List<GenericValue> rows = EntityQuery.use(delegator).from("ProductAssoc")
+                    .where(EntityCondition.makeCondition("productAssocTypeId", bomTypeId),
+                            EntityCondition.makeCondition(keyField, EntityOperator.IN, chunk))
+                    .orderBy("sequenceNum", parents ? "productId" : "productIdTo").queryList();
+            Map<String, List<GenericValue>> byProduct = new HashMap<>();
+            for (GenericValue row : rows) {
+                row.setImmutable();
+                List<GenericValue> productRows = byProduct.get(row.getString(keyField));
+                if (productRows == null) {
+                    productRows = new ArrayList<>();
+                    byProduct.put(row.getString(keyField), productRows);
+                }
+                productRows.add(row);
+            }
+            boolean current = (version.get() == startVersion);
+            for (String productId : chunk) {
+                List<GenericValue> productRows = byProduct.get(productId);
+                productRows = (productRows != null) ? Collections.unmodifiableList(productRows) : Collections.<GenericValue>emptyList();
+                result.put(productId, productRows);
+                if (current) {
+                    cache.put(makeKey(delegator, productId, bomTypeId), productRows);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -83,7 +83,7 @@ public class BOMNode {
     }
 
     public BOMNode(String productId, Delegator delegator, LocalDispatcher dispatcher, GenericValue userLogin) throws GenericEntityException {
-        this(EntityQuery.use(delegator).from("Product").where("productId", productId).queryOne(), dispatcher, userLogin);
+        this(EntityQuery.use(delegator).from("Product").where("productId", productId).cache().queryOne(), dispatcher, userLogin); // SCIPIO: use entity cache
     }
 
     protected void loadChildren(String partBomTypeId, Date inDate, List<GenericValue> productFeatures, int type) throws GenericEntityException {
@@ -94,19 +94,12 @@ public class BOMNode {
         if (inDate == null) inDate = new Date();
         bomTypeId = partBomTypeId;
 //        Delegator delegator = product.getDelegator();
-        List<GenericValue> rows = EntityQuery.use(delegator).from("ProductAssoc")
-                .where("productId", product.get("productId"),
-                        "productAssocTypeId", partBomTypeId)
-                .orderBy("sequenceNum", "productIdTo")
-                .filterByDate(inDate).queryList();
+        // SCIPIO: the ProductAssoc rows are read from the in-memory BOM graph
+        List<GenericValue> rows = BOMCache.getChildAssocs(delegator, product.getString("productId"), partBomTypeId, inDate);
         if ((UtilValidate.isEmpty(rows)) && substitutedNode != null) {
             // If no child is found and this is a substituted node
             // we try to search for substituted node's children.
-            rows = EntityQuery.use(delegator).from("ProductAssoc")
-                    .where("productId", substitutedNode.getProduct().get("productId"),
-                            "productAssocTypeId", partBomTypeId)
-                    .orderBy("sequenceNum")
-                    .filterByDate(inDate).queryList();
+            rows = BOMCache.getChildAssocs(delegator, substitutedNode.getProduct().getString("productId"), partBomTypeId, inDate);
         }
         children = UtilMisc.newList();
         children.addAll(rows);
@@ -321,19 +314,12 @@ public class BOMNode {
 
         bomTypeId = partBomTypeId;
 //        Delegator delegator = product.getDelegator();
-        List<GenericValue> rows = EntityQuery.use(delegator).from("ProductAssoc")
-                .where("productIdTo", product.get("productId"),
-                        "productAssocTypeId", partBomTypeId)
-                .orderBy("sequenceNum")
-                .filterByDate(inDate).queryList();
+        // SCIPIO: the ProductAssoc rows are read from the in-memory BOM graph
+        List<GenericValue> rows = BOMCache.getParentAssocs(delegator, product.getString("productId"), partBomTypeId, inDate);
         if ((UtilValidate.isEmpty(rows)) && substitutedNode != null) {
             // If no parent is found and this is a substituted node
             // we try to search for substituted node's parents.
-            rows = EntityQuery.use(delegator).from("ProductAssoc")
-                    .where("productIdTo", substitutedNode.getProduct().get("productId"),
-                            "productAssocTypeId", partBomTypeId)
-                    .orderBy("sequenceNum")
-                    .filterByDate(inDate).queryList();
+            rows = BOMCache.getParentAssocs(delegator, substitutedNode.getProduct().getString("productId"), partBomTypeId, inDate);
         }
         children = UtilMisc.newList();
         children.addAll(rows);
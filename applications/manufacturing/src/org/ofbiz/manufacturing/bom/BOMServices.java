@@ -50,6 +50,15 @@ public class BOMServices {
     public static final String module = BOMServices.class.getName();
     public static final String resource = "ManufacturingUiLabels";
 
+    /**
+     * SCIPIO: Removes the entries of the in-memory BOM graph ({@link BOMCache}) affected by a ProductAssoc change.
+     * Called by the ProductAssoc entity ECAs; if no ProductAssoc key is passed, the whole graph is cleared.
+     */
+    public static Map<String, Object> clearBomCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        BOMCache.clear(dctx.getDelegator(), (String) context.get("productId"), (String) context.get("productIdTo"), (String) context.get("productAssocTypeId"));
+        return ServiceUtil.returnSuccess();
+    }
+
     /** Returns the product's low level code (llc) i.e. the maximum depth
      * in which the productId can be found in any of the
      * bills of materials of bomType type.
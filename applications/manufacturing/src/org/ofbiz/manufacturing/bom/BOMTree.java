@@ -170,9 +170,8 @@ public class BOMTree {
     }
 
     private boolean hasBom(GenericValue product, Date inDate) throws GenericEntityException {
-        List<GenericValue> children = product.getRelated("MainProductAssoc", UtilMisc.toMap("productAssocTypeId", bomTypeId), null, false);
-        children = EntityUtil.filterByDate(children, inDate);
-        return UtilValidate.isNotEmpty(children);
+        // SCIPIO: read from the in-memory BOM graph
+        return UtilValidate.isNotEmpty(BOMCache.getChildAssocs(delegator, product.getString("productId"), bomTypeId, inDate));
     }
 
     /** It tells if the current (in-memory) tree representing
@@ -0,0 +1,530 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.manufacturing.mrp;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: Net-change support for the MRP run.
+ * <p>
+ * Before the MrpEvent table is re-initialized, the events of the previous run of the facility are
+ * captured ({@link #capture}). After initialization, a product is considered unchanged when its
+ * demand/supply events, its quantity on hand, its ProductFacility settings, its bill of material,
+ * its routing and its SupplierProducts are the same as in the previous run; such a product produces
+ * the same proposed orders and component requirements as before, so its previous planned events are
+ * copied and its proposed requirements kept instead of planning it again.
+ * <p>
+ * Modifications are detected by lastUpdatedStamp, so removed ProductFacility, ProductAssoc, routing and
+ * SupplierProduct records are not seen; run without net change after such removals.
+ * <p>
+ * The changed set is closed over the BOM graph: all components of a changed product are
+ * changed, and a changed component that has at least one changed parent forces all its
+ * parents to be re-planned, because the previous MRP_REQUIREMENT events of a component are
+ * aggregated over all its parents and cannot be split per parent.
+ */
+public class MrpNetChange {
+
+    public static final String module = MrpNetChange.class.getName();
+
+    /** Event types written by the planning phase of executeMrp rather than by initMrpEvents. */
+    public static final Set<String> PLANNED_EVENT_TYPES = Collections.unmodifiableSet(UtilMisc.toSet(
+            "INITIAL_QOH", "MRP_REQUIREMENT", "PROP_MANUF_O_RECP", "PROP_PUR_O_RECP", "ERROR"));
+
+    static final int IN_CONDITION_CHUNK_SIZE = 1000;
+
+    /** The requirement ids in the eventName of proposed order events, as written by {@link MrpProductPlan#apply}. */
+    private static final Pattern EVENT_REQUIREMENT_ID_PAT = Pattern.compile("\\*([^\\s*]+) \\(");
+
+    protected final Map<String, List<GenericValue>> previousEvents;
+    protected final Timestamp previousRunDate;
+    protected BomGraph bomGraph;
+
+    protected MrpNetChange(Map<String, List<GenericValue>> previousEvents, Timestamp previousRunDate) {
+        this.previousEvents = previousEvents;
+        this.previousRunDate = previousRunDate;
+    }
+
+    /**
+     * Captures the MrpEvents of the previous run of the facility; returns null if there was no previous run for it.
+     * The run of a facility is identified by its INITIAL_QOH events, the only ones carrying the facilityId.
+     */
+    public static MrpNetChange capture(String facilityId, Delegator delegator) throws GenericEntityException {
+        Set<String> mrpIds = new HashSet<>();
+        for (GenericValue qohEvent : EntityQuery.use(delegator).from("MrpEvent").select("mrpId")
+                .where("mrpEventTypeId", "INITIAL_QOH", "facilityId", facilityId).distinct().queryList()) {
+            mrpIds.add(qohEvent.getString("mrpId"));
+        }
+        Map<String, List<GenericValue>> previousEvents = new HashMap<>();
+        Timestamp previousRunDate = null;
+        for (List<String> chunk : chunk(mrpIds)) {
+            EntityListIterator eli = EntityQuery.use(delegator).from("MrpEvent")
+                    .where(EntityCondition.makeCondition("mrpId", EntityOperator.IN, chunk)).queryIterator();
+            try {
+                GenericValue event;
+                while ((event = eli.next()) != null) {
+                    List<GenericValue> productEvents = previousEvents.get(event.getString("productId"));
+                    if (productEvents == null) {
+                        productEvents = new ArrayList<>();
+                        previousEvents.put(event.getString("productId"), productEvents);
+                    }
+                    productEvents.add(event);
+                    Timestamp createdStamp = event.getTimestamp("createdStamp");
+                    if (createdStamp != null && (previousRunDate == null || createdStamp.before(previousRunDate))) {
+                        previousRunDate = createdStamp;
+                    }
+                }
+            } finally {
+                eli.close();
+            }
+        }
+        if (previousEvents.isEmpty() || previousRunDate == null) {
+            return null;
+        }
+        return new MrpNetChange(previousEvents, previousRunDate);
+    }
+
+    public Timestamp getPreviousRunDate() {
+        return previousRunDate;
+    }
+
+    /**
+     * Determines the products of the new run that do not need to be planned again.
+     */
+    public Set<String> findUnchangedProducts(String mrpId, String facilityId, Delegator delegator) throws GenericEntityException {
+        Map<String, List<GenericValue>> currentEvents = new HashMap<>();
+        EntityListIterator eli = EntityQuery.use(delegator).from("MrpEvent").where("mrpId", mrpId).queryIterator();
+        try {
+            GenericValue event;
+            while ((event = eli.next()) != null) {
+                List<GenericValue> productEvents = currentEvents.get(event.getString("productId"));
+                if (productEvents == null) {
+                    productEvents = new ArrayList<>();
+                    currentEvents.put(event.getString("productId"), productEvents);
+                }
+                productEvents.add(event);
+            }
+        } finally {
+            eli.close();
+        }
+
+        Set<String> allProductIds = new HashSet<>(currentEvents.keySet());
+        allProductIds.addAll(previousEvents.keySet());
+        Set<String> changed = new HashSet<>();
+        for (String productId : allProductIds) {
+            List<GenericValue> previous = previousEvents.get(productId);
+            if (previous == null || getPreviousQoh(previous) == null
+                    || !getDemandSupplySignature(previous).equals(getDemandSupplySignature(currentEvents.get(productId)))) {
+                changed.add(productId);
+            }
+        }
+
+        // Planning parameters and bills of material modified since the previous run
+        List<GenericValue> updatedProductFacilities = EntityQuery.use(delegator).from("ProductFacility").select("productId")
+                .where(EntityCondition.makeCondition("facilityId", facilityId),
+                        EntityCondition.makeCondition("lastUpdatedStamp", EntityOperator.GREATER_THAN_EQUAL_TO, previousRunDate))
+                .queryList();
+        for (GenericValue productFacility : updatedProductFacilities) {
+            changed.add(productFacility.getString("productId"));
+        }
+
+        bomGraph = BomGraph.load(delegator);
+        for (GenericValue productAssoc : bomGraph.assocs) {
+            Timestamp lastUpdatedStamp = productAssoc.getTimestamp("lastUpdatedStamp");
+            if (lastUpdatedStamp != null && !lastUpdatedStamp.before(previousRunDate)) {
+                changed.add(productAssoc.getString("productId"));
+            }
+        }
+        changed.addAll(findRoutingChangedProducts(delegator));
+        // SupplierProducts decide whether a product is purchased or built, and carry its supplier lead time
+        for (GenericValue supplierProduct : EntityQuery.use(delegator).from("SupplierProduct").select("productId")
+                .where(EntityCondition.makeCondition("lastUpdatedStamp", EntityOperator.GREATER_THAN_EQUAL_TO, previousRunDate))
+                .distinct().queryList()) {
+            changed.add(supplierProduct.getString("productId"));
+        }
+
+        // Quantity on hand, only for the products that are otherwise unchanged
+        List<String> qohProductIds = new ArrayList<>();
+        for (String productId : allProductIds) {
+            if (!changed.contains(productId) && currentEvents.containsKey(productId)) {
+                qohProductIds.add(productId);
+            }
+        }
+        Map<String, BigDecimal> qohs = MrpProductPlan.findProductMrpQohs(qohProductIds, facilityId, delegator);
+        for (String productId : qohProductIds) {
+            if (qohs.get(productId).compareTo(getPreviousQoh(previousEvents.get(productId))) != 0) {
+                changed.add(productId);
+            }
+        }
+
+        bomGraph.closeChangedSet(changed);
+
+        Set<String> unchanged = new HashSet<>();
+        for (String productId : currentEvents.keySet()) {
+            if (!changed.contains(productId)) {
+                unchanged.add(productId);
+            }
+        }
+        Debug.logInfo("MRP net change: " + unchanged.size() + " of " + currentEvents.size() + " products unchanged since "
+                + previousRunDate + "; " + (currentEvents.size() - unchanged.size()) + " products will be planned", module);
+        return unchanged;
+    }
+
+    /**
+     * Returns the products (and their variants) whose routing was modified since the previous run: the routing
+     * association (WorkEffortGoodStandard), the routing or its tasks (WorkEffort) or the task links (WorkEffortAssoc).
+     */
+    private Set<String> findRoutingChangedProducts(Delegator delegator) throws GenericEntityException {
+        EntityCondition updatedCond = EntityCondition.makeCondition("lastUpdatedStamp", EntityOperator.GREATER_THAN_EQUAL_TO, previousRunDate);
+        Set<String> productIds = new HashSet<>();
+        for (GenericValue goodStandard : EntityQuery.use(delegator).from("WorkEffortGoodStandard").select("productId")
+                .where(EntityCondition.makeCondition("workEffortGoodStdTypeId", "ROU_PROD_TEMPLATE"), updatedCond).distinct().queryList()) {
+            productIds.add(goodStandard.getString("productId"));
+        }
+
+        Set<String> routingIds = new HashSet<>();
+        Set<String> taskIds = new HashSet<>();
+        for (GenericValue workEffort : EntityQuery.use(delegator).from("WorkEffort").select("workEffortId", "workEffortTypeId")
+                .where(EntityCondition.makeCondition("workEffortTypeId", EntityOperator.IN, UtilMisc.toList("ROUTING", "ROU_TASK")), updatedCond)
+                .queryList()) {
+            if ("ROUTING".equals(workEffort.getString("workEffortTypeId"))) {
+                routingIds.add(workEffort.getString("workEffortId"));
+            } else {
+                taskIds.add(workEffort.getString("workEffortId"));
+            }
+        }
+        for (GenericValue taskAssoc : EntityQuery.use(delegator).from("WorkEffortAssoc").select("workEffortIdFrom")
+                .where(EntityCondition.makeCondition("workEffortAssocTypeId", "ROUTING_COMPONENT"), updatedCond).distinct().queryList()) {
+            routingIds.add(taskAssoc.getString("workEffortIdFrom"));
+        }
+        for (List<String> chunk : chunk(taskIds)) {
+            for (GenericValue taskAssoc : EntityQuery.use(delegator).from("WorkEffortAssoc").select("workEffortIdFrom")
+                    .where(EntityCondition.makeCondition("workEffortAssocTypeId", "ROUTING_COMPONENT"),
+                            EntityCondition.makeCondition("workEffortIdTo", EntityOperator.IN, chunk)).distinct().queryList()) {
+                routingIds.add(taskAssoc.getString("workEffortIdFrom"));
+            }
+        }
+        for (List<String> chunk : chunk(routingIds)) {
+            for (GenericValue goodStandard : EntityQuery.use(delegator).from("WorkEffortGoodStandard").select("productId")
+                    .where(EntityCondition.makeCondition("workEffortGoodStdTypeId", "ROU_PROD_TEMPLATE"),
+                            EntityCondition.makeCondition("workEffortId", EntityOperator.IN, chunk)).distinct().queryList()) {
+                productIds.add(goodStandard.getString("productId"));
+            }
+        }
+
+        // variants without their own routing use the routing of the virtual product
+        Set<String> variantIds = new HashSet<>();
+        for (List<String> chunk : chunk(productIds)) {
+            for (GenericValue variantAssoc : EntityQuery.use(delegator).from("ProductAssoc").select("productIdTo")
+                    .where(EntityCondition.makeCondition("productAssocTypeId", "PRODUCT_VARIANT"),
+                            EntityCondition.makeCondition("productId", EntityOperator.IN, chunk)).queryList()) {
+                variantIds.add(variantAssoc.getString("productIdTo"));
+            }
+        }
+        productIds.addAll(variantIds);
+        return productIds;
+    }
+
+    /**
+     * Copies the planned events of the previous run to the new run for the unchanged products, and
+     * the MRP_REQUIREMENT events of changed products whose parents are all unchanged. The isLate flag
+     * of the proposed order events is recomputed against <code>now</code> from the start date of their
+     * (kept) requirements.
+     */
+    public void copyPlannedEvents(String mrpId, Set<String> unchangedProductIds, Set<String> keepRequirementsProductIds, Timestamp now, Delegator delegator) throws GenericEntityException {
+        Map<String, Timestamp> requirementStartDates = findRequirementStartDates(unchangedProductIds, delegator);
+        List<GenericValue> toCreate = new ArrayList<>();
+        for (Map.Entry<String, List<GenericValue>> entry : previousEvents.entrySet()) {
+            boolean unchanged = unchangedProductIds.contains(entry.getKey());
+            boolean keepRequirements = keepRequirementsProductIds.contains(entry.getKey());
+            if (!unchanged && !keepRequirements) {
+                continue;
+            }
+            for (GenericValue previous : entry.getValue()) {
+                String mrpEventTypeId = previous.getString("mrpEventTypeId");
+                if (unchanged ? PLANNED_EVENT_TYPES.contains(mrpEventTypeId) : "MRP_REQUIREMENT".equals(mrpEventTypeId)) {
+                    // copy without the timestamps so the next run's previous run date is this run's
+                    GenericValue event = delegator.makeValue("MrpEvent", UtilMisc.toMap("mrpId", mrpId,
+                            "productId", previous.get("productId"), "eventDate", previous.get("eventDate"),
+                            "mrpEventTypeId", mrpEventTypeId, "facilityId", previous.get("facilityId"),
+                            "quantity", previous.get("quantity"), "eventName", previous.get("eventName"),
+                            "isLate", isLate(previous, requirementStartDates, now)));
+                    toCreate.add(event);
+                }
+            }
+        }
+        delegator.storeAll(toCreate);
+    }
+
+    /**
+     * Returns the requirementStartDate of the requirements named by the proposed order events of the products.
+     */
+    private Map<String, Timestamp> findRequirementStartDates(Set<String> productIds, Delegator delegator) throws GenericEntityException {
+        Set<String> requirementIds = new HashSet<>();
+        for (String productId : productIds) {
+            List<GenericValue> events = previousEvents.get(productId);
+            if (events != null) {
+                for (GenericValue event : events) {
+                    requirementIds.addAll(getEventRequirementIds(event));
+                }
+            }
+        }
+        Map<String, Timestamp> startDates = new HashMap<>();
+        for (List<String> chunk : chunk(requirementIds)) {
+            for (GenericValue requirement : EntityQuery.use(delegator).from("Requirement").select("requirementId", "requirementStartDate")
+                    .where(EntityCondition.makeCondition("requirementId", EntityOperator.IN, chunk)).queryList()) {
+                if (requirement.get("requirementStartDate") != null) {
+                    startDates.put(requirement.getString("requirementId"), requirement.getTimestamp("requirementStartDate"));
+                }
+            }
+        }
+        return startDates;
+    }
+
+    static List<String> getEventRequirementIds(GenericValue event) {
+        String mrpEventTypeId = event.getString("mrpEventTypeId");
+        String eventName = event.getString("eventName");
+        if (eventName == null || !("PROP_MANUF_O_RECP".equals(mrpEventTypeId) || "PROP_PUR_O_RECP".equals(mrpEventTypeId))) {
+            return Collections.emptyList();
+        }
+        List<String> requirementIds = new ArrayList<>();
+        Matcher matcher = EVENT_REQUIREMENT_ID_PAT.matcher(eventName);
+        while (matcher.find()) {
+            requirementIds.add(matcher.group(1));
+        }
+        return requirementIds;
+    }
+
+    /**
+     * Returns the isLate flag of a copied event: a proposed order is late when the start date of one of its
+     * requirements is before now; when no requirement is known (no ProductFacility), a late event stays late.
+     */
+    static String isLate(GenericValue previous, Map<String, Timestamp> requirementStartDates, Timestamp now) {
+        boolean knownStartDate = false;
+        for (String requirementId : getEventRequirementIds(previous)) {
+            Timestamp startDate = requirementStartDates.get(requirementId);
+            if (startDate != null) {
+                if (startDate.before(now)) {
+                    return "Y";
+                }
+                knownStartDate = true;
+            }
+        }
+        return knownStartDate ? "N" : previous.getString("isLate");
+    }
+
+    /**
+     * Returns the changed products whose MRP_REQUIREMENT events only come from unchanged parents.
+     * Must be called after {@link #findUnchangedProducts}.
+     */
+    public Set<String> findComponentRequirementsToKeep(Set<String> unchangedProductIds) {
+        Set<String> result = new HashSet<>();
+        for (Map.Entry<String, List<GenericValue>> entry : previousEvents.entrySet()) {
+            String productId = entry.getKey();
+            if (unchangedProductIds.contains(productId)) {
+                continue;
+            }
+            Set<String> parents = bomGraph.getParents(productId);
+            if (!parents.isEmpty() && unchangedProductIds.containsAll(parents)) {
+                result.add(productId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the proposed requirements of the products that will be planned again.
+     */
+    public static void removeProposedRequirements(String facilityId, Set<String> unchangedProductIds, Delegator delegator) throws GenericEntityException {
+        List<GenericValue> requirements = EntityQuery.use(delegator).from("Requirement")
+                .where(EntityCondition.makeCondition("requirementTypeId", EntityOperator.IN, UtilMisc.toList("PRODUCT_REQUIREMENT", "INTERNAL_REQUIREMENT")),
+                        EntityCondition.makeCondition("facilityId", facilityId),
+                        EntityCondition.makeCondition("statusId", "REQ_PROPOSED"))
+                .queryList();
+        List<GenericValue> toRemove = new ArrayList<>();
+        List<GenericValue> rolesToRemove = new ArrayList<>();
+        for (GenericValue requirement : requirements) {
+            if (!unchangedProductIds.contains(requirement.getString("productId"))) {
+                if ("PRODUCT_REQUIREMENT".equals(requirement.getString("requirementTypeId"))) {
+                    rolesToRemove.addAll(requirement.getRelated("RequirementRole", null, null, false));
+                }
+                toRemove.add(requirement);
+            }
+        }
+        delegator.removeAll(rolesToRemove);
+        delegator.removeAll(toRemove);
+    }
+
+    static BigDecimal getPreviousQoh(List<GenericValue> events) {
+        for (GenericValue event : events) {
+            if ("INITIAL_QOH".equals(event.getString("mrpEventTypeId"))) {
+                return event.getBigDecimal("quantity");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the demand and supply events created by initMrpEvents as comparable set of strings.
+     */
+    static Set<String> getDemandSupplySignature(List<GenericValue> events) {
+        if (events == null) {
+            return Collections.emptySet();
+        }
+        Set<String> signature = new HashSet<>();
+        for (GenericValue event : events) {
+            String mrpEventTypeId = event.getString("mrpEventTypeId");
+            if (PLANNED_EVENT_TYPES.contains(mrpEventTypeId)) {
+                continue;
+            }
+            BigDecimal quantity = event.getBigDecimal("quantity");
+            signature.add(mrpEventTypeId + "|" + event.getTimestamp("eventDate").getTime() + "|"
+                    + (quantity != null ? quantity.stripTrailingZeros().toPlainString() : "") + "|" + event.getString("facilityId"));
+        }
+        return signature;
+    }
+
+    /**
+     * Parent/component links of all manufacturing bills of material, including the variants
+     * of virtual products that have a bill of material (variants without their own BOM use the
+     * virtual one).
+     */
+    static class BomGraph {
+        final List<GenericValue> assocs;
+        final Map<String, Set<String>> children = new HashMap<>();
+        final Map<String, Set<String>> parents = new HashMap<>();
+
+        BomGraph(List<GenericValue> assocs) {
+            this.assocs = assocs;
+        }
+
+        static BomGraph load(Delegator delegator) throws GenericEntityException {
+            List<GenericValue> assocs = EntityQuery.use(delegator).from("ProductAssoc")
+                    .select("productId", "productIdTo", "lastUpdatedStamp")
+                    .where("productAssocTypeId", "MANUF_COMPONENT").queryList();
+            BomGraph graph = new BomGraph(assocs);
+            for (GenericValue assoc : assocs) {
+                graph.addLink(assoc.getString("productId"), assoc.getString("productIdTo"));
+            }
+            Map<String, Set<String>> virtualChildren = new LinkedHashMap<>(graph.children);
+            for (List<String> chunk : chunk(virtualChildren.keySet())) {
+                List<GenericValue> variantAssocs = EntityQuery.use(delegator).from("ProductAssoc")
+                        .select("productId", "productIdTo")
+                        .where(EntityCondition.makeCondition("productAssocTypeId", "PRODUCT_VARIANT"),
+                                EntityCondition.makeCondition("productId", EntityOperator.IN, chunk))
+                        .queryList();
+                for (GenericValue variantAssoc : variantAssocs) {
+                    String variantId = variantAssoc.getString("productIdTo");
+                    if (!virtualChildren.containsKey(variantId)) {
+                        for (String componentId : virtualChildren.get(variantAssoc.getString("productId"))) {
+                            graph.addLink(variantId, componentId);
+                        }
+                    }
+                }
+            }
+            return graph;
+        }
+
+        void addLink(String parentId, String childId) {
+            Set<String> productChildren = children.get(parentId);
+            if (productChildren == null) {
+                productChildren = new HashSet<>();
+                children.put(parentId, productChildren);
+            }
+            productChildren.add(childId);
+            Set<String> productParents = parents.get(childId);
+            if (productParents == null) {
+                productParents = new HashSet<>();
+                parents.put(childId, productParents);
+            }
+            productParents.add(parentId);
+        }
+
+        Set<String> getParents(String productId) {
+            Set<String> productParents = parents.get(productId);
+            return productParents != null ? productParents : Collections.<String>emptySet();
+        }
+
+        Set<String> getChildren(String productId) {
+            Set<String> productChildren = children.get(productId);
+            return productChildren != null ? productChildren : Collections.<String>emptySet();
+        }
+
+        /**
+         * Extends the changed set until it is closed: components of changed products are changed,
+         * and all parents of a component that has a changed parent are changed.
+         */
+        void closeChangedSet(Set<String> changed) {
+            Deque<String> queue = new ArrayDeque<>(changed);
+            while (!queue.isEmpty()) {
+                String productId = queue.poll();
+                for (String childId : getChildren(productId)) {
+                    if (changed.add(childId)) {
+                        queue.add(childId);
+                    }
+                    // the component requirements of childId are regenerated: all its parents must be planned
+                    for (String parentId : getParents(childId)) {
+                        if (changed.add(parentId)) {
+                            queue.add(parentId);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    static List<List<String>> chunk(Collection<String> ids) {
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> current = new ArrayList<>(IN_CONDITION_CHUNK_SIZE);
+        for (String id : ids) {
+            current.add(id);
+            if (current.size() >= IN_CONDITION_CHUNK_SIZE) {
+                chunks.add(current);
+                current = new ArrayList<>(IN_CONDITION_CHUNK_SIZE);
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.manufacturing.mrp;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.manufacturing.bom.BOMNode;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.LocalDispatcher;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: The MRP plan of a single product for one MRP run.
+ * <p>
+ * The plan is computed in two phases: {@link #plan} only reads data (inventory, BOM explosion,
+ * routings) and records the proposed orders in memory, so that the products of the same
+ * bill of material level can be planned concurrently; {@link #apply} then writes the
+ * MrpEvent and Requirement records and must be called from the thread (and transaction)
+ * running the MRP, one product at a time.
+ */
+public class MrpProductPlan {
+
+    public static final String module = MrpProductPlan.class.getName();
+    public static final String resource = MrpServices.resource;
+
+    protected final String mrpId;
+    protected final GenericValue product;
+    protected final GenericValue productFacility;
+    protected final String facilityId;
+    protected final String manufacturingFacilityId;
+    protected final List<GenericValue> events;
+
+    protected BigDecimal initialQoh = BigDecimal.ZERO;
+    protected boolean qohError = false;
+    protected final List<Proposal> proposals = new ArrayList<>();
+
+    protected MrpProductPlan(String mrpId, GenericValue product, GenericValue productFacility, String facilityId, String manufacturingFacilityId, List<GenericValue> events) {
+        this.mrpId = mrpId;
+        this.product = product;
+        this.productFacility = productFacility;
+        this.facilityId = facilityId;
+        this.manufacturingFacilityId = manufacturingFacilityId;
+        this.events = events;
+    }
+
+    /**
+     * A proposed order recorded by the planning phase, with everything needed to write it out.
+     */
+    protected static class Proposal {
+        protected final ProposedOrder proposedOrder;
+        protected final Timestamp eventDate;
+        protected final boolean isBuilt;
+        protected final List<BOMNode> components;
+        protected final Map<String, Object> routingTaskStartDate;
+
+        protected Proposal(ProposedOrder proposedOrder, Timestamp eventDate, boolean isBuilt, List<BOMNode> components, Map<String, Object> routingTaskStartDate) {
+            this.proposedOrder = proposedOrder;
+            this.eventDate = eventDate;
+            this.isBuilt = isBuilt;
+            this.components = components;
+            this.routingTaskStartDate = routingTaskStartDate;
+        }
+    }
+
+    /**
+     * Thrown by the planning phase; the message is localized and can be returned as service error.
+     */
+    @SuppressWarnings("serial")
+    public static class MrpPlanException extends Exception {
+        public MrpPlanException(String message) {
+            super(message);
+        }
+    }
+
+    public String getProductId() {
+        return product.getString("productId");
+    }
+
+    public GenericValue getProduct() {
+        return product;
+    }
+
+    public BigDecimal getInitialQoh() {
+        return initialQoh;
+    }
+
+    /**
+     * Computes the plan of the product from its MrpEvents (ordered by eventDate). Read-only; safe to
+     * call from a worker thread.
+     */
+    public static MrpProductPlan plan(DispatchContext ctx, String mrpId, String mrpName, GenericValue product, GenericValue productFacility,
+            List<GenericValue> events, String facilityId, String manufacturingFacilityId, GenericValue userLogin, Locale locale) throws MrpPlanException {
+        Delegator delegator = ctx.getDelegator();
+        LocalDispatcher dispatcher = ctx.getDispatcher();
+        MrpProductPlan plan = new MrpProductPlan(mrpId, product, productFacility, facilityId, manufacturingFacilityId, events);
+        String productId = product.getString("productId");
+
+        GenericValue firstEvent = events.get(0);
+        BigDecimal firstEventQuantity = firstEvent.getBigDecimal("quantity");
+        BigDecimal positiveEventQuantity = firstEventQuantity.compareTo(BigDecimal.ZERO) > 0 ? firstEventQuantity : firstEventQuantity.negate();
+
+        BigDecimal qoh = findProductMrpQoh(productId, facilityId, dispatcher);
+        if (qoh == null) {
+            plan.qohError = true;
+            qoh = BigDecimal.ZERO;
+        }
+        plan.initialQoh = qoh;
+
+        // days to ship is only relevant for sales order to plan for preparatory days to ship.  Otherwise MRP will push event dates for manufacturing parts
+        // as well and cause problems
+        int daysToShip = 0;
+        BigDecimal reorderQuantity;
+        BigDecimal minimumStock;
+        if (productFacility != null) {
+            reorderQuantity = (productFacility.getBigDecimal("reorderQuantity") != null ? productFacility.getBigDecimal("reorderQuantity"): BigDecimal.ONE.negate());
+            minimumStock = (productFacility.getBigDecimal("minimumStock") != null ? productFacility.getBigDecimal("minimumStock"): BigDecimal.ZERO);
+            if ("SALES_ORDER_SHIP".equals(firstEvent.getString("mrpEventTypeId"))) {
+                daysToShip = (productFacility.getLong("daysToShip") != null? productFacility.getLong("daysToShip").intValue(): 0);
+            }
+        } else {
+            minimumStock = BigDecimal.ZERO;
+            reorderQuantity = BigDecimal.ONE.negate();
+        }
+
+        // The components are also loaded thru the configurator
+        Map<String, Object> serviceResponse = getManufacturingComponents(productId, positiveEventQuantity, dispatcher, userLogin, locale);
+        List<BOMNode> components = UtilGenerics.checkList(serviceResponse.get("components"));
+        boolean isBuilt = isBuilt(components);
+
+        BigDecimal stockTmp = qoh;
+        for (GenericValue event : events) {
+            stockTmp = stockTmp.add(event.getBigDecimal("quantity"));
+            if (stockTmp.compareTo(minimumStock) < 0) {
+                BigDecimal qtyToStock = minimumStock.subtract(stockTmp);
+                //need to buy or build the product as we have not enough stock
+                Timestamp eventDate = event.getTimestamp("eventDate");
+                // to be just before the requirement
+                eventDate.setTime(eventDate.getTime()-1);
+                ProposedOrder proposedOrder = new ProposedOrder(product, facilityId, manufacturingFacilityId, isBuilt, eventDate, qtyToStock);
+                proposedOrder.setMrpName(mrpName);
+                // calculate the ProposedOrder quantity and update the quantity object property.
+                proposedOrder.calculateQuantityToSupply(reorderQuantity, minimumStock, null);
+
+                // The components are also loaded thru the configurator
+                serviceResponse = getManufacturingComponents(productId, proposedOrder.getQuantity(), dispatcher, userLogin, locale);
+                components = UtilGenerics.checkList(serviceResponse.get("components"));
+                String routingId = (String) serviceResponse.get("workEffortId");
+                GenericValue routing = null;
+                if (routingId != null) {
+                    try {
+                        routing = EntityQuery.use(delegator).from("WorkEffort").where("workEffortId", routingId).queryOne();
+                    } catch (GenericEntityException e) {
+                        throw new MrpPlanException(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                    }
+                }
+                isBuilt = isBuilt(components);
+
+                // calculate the ProposedOrder requirementStartDate and update the requirementStartDate object property.
+                Map<String, Object> routingTaskStartDate = proposedOrder.calculateStartDate(daysToShip, routing, delegator, dispatcher, userLogin);
+                plan.proposals.add(new Proposal(proposedOrder, eventDate, isBuilt, components, routingTaskStartDate));
+                stockTmp = stockTmp.add(proposedOrder.getQuantity());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Returns a task computing {@link #plan} for the given product, for submission to an executor.
+     */
+    public static Callable<MrpProductPlan> planCallable(final DispatchContext ctx, final String mrpId, final String mrpName, final GenericValue product,
+            final GenericValue productFacility, final List<GenericValue> events, final String facilityId, final String manufacturingFacilityId,
+            final GenericValue userLogin, final Locale locale) {
+        return new Callable<MrpProductPlan>() {
+            @Override
+            public MrpProductPlan call() throws MrpPlanException {
+                return plan(ctx, mrpId, mrpName, product, productFacility, events, facilityId, manufacturingFacilityId, userLogin, locale);
+            }
+        };
+    }
+
+    /**
+     * Writes the plan: the INITIAL_QOH event, the component requirements, the proposed
+     * requirements and their MrpEvents. Must be called from the MRP thread.
+     */
+    public void apply(DispatchContext ctx, GenericValue userLogin, Timestamp now, Locale locale) throws MrpPlanException {
+        Delegator delegator = ctx.getDelegator();
+        String productId = getProductId();
+        if (qohError) {
+            MrpServices.logMrpError(mrpId, productId, "Unable to count inventory", delegator);
+        }
+        Map<String, Object> qohEventMap = UtilMisc.<String, Object>toMap("mrpId", mrpId, "productId", productId,
+                "mrpEventTypeId", "INITIAL_QOH", "eventDate", now);
+        try {
+            InventoryEventPlannedServices.createOrUpdateMrpEvent(qohEventMap, initialQoh, facilityId, null, false, delegator);
+        } catch (GenericEntityException e) {
+            throw new MrpPlanException(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", qohEventMap), locale));
+        }
+        for (Proposal proposal : proposals) {
+            ProposedOrder proposedOrder = proposal.proposedOrder;
+            if (proposal.isBuilt) {
+                // process the product components
+                MrpServices.processBomComponent(mrpId, product, proposedOrder.getQuantity(), proposedOrder.getRequirementStartDate(), proposal.routingTaskStartDate, proposal.components);
+            }
+            // create the  ProposedOrder (only if the product is warehouse managed), and the MrpEvent associated
+            String requirementId = null;
+            if (productFacility != null) {
+                requirementId = proposedOrder.create(ctx, userLogin);
+            }
+            if (UtilValidate.isEmpty(productFacility) && !proposal.isBuilt) {
+                MrpServices.logMrpError(mrpId, productId, now, "No ProductFacility record for [" + facilityId + "]; no requirement created.", delegator);
+            }
+            String eventName = null;
+            if (UtilValidate.isNotEmpty(requirementId)) {
+                eventName = "*" + requirementId + " (" + proposedOrder.getRequirementStartDate() + ")*";
+            }
+            Map<String, Object> eventMap = UtilMisc.<String, Object>toMap("productId", productId,
+                                          "mrpId", mrpId,
+                                          "eventDate", proposal.eventDate,
+                                          "mrpEventTypeId", (proposal.isBuilt? "PROP_MANUF_O_RECP" : "PROP_PUR_O_RECP"));
+            try {
+                InventoryEventPlannedServices.createOrUpdateMrpEvent(eventMap, proposedOrder.getQuantity(), null, eventName, (proposedOrder.getRequirementStartDate().compareTo(now) < 0), delegator);
+            } catch (GenericEntityException e) {
+                throw new MrpPlanException(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", eventMap), locale));
+            }
+        }
+    }
+
+    /**
+     * Same as {@link MrpServices#findProductMrpQoh(String, String, String, LocalDispatcher, Delegator)}, but returns null
+     * on error instead of logging an MRP error event, which is left to the apply phase.
+     */
+    static BigDecimal findProductMrpQoh(String productId, String facilityId, LocalDispatcher dispatcher) {
+        try {
+            Map<String, Object> resultMap;
+            if (facilityId == null) {
+                resultMap = dispatcher.runSync("getProductInventoryAvailable", UtilMisc.toMap("productId", productId));
+            } else {
+                resultMap = dispatcher.runSync("getInventoryAvailableByFacility", UtilMisc.toMap("productId", productId, "facilityId", facilityId));
+            }
+            if (ServiceUtil.isError(resultMap)) {
+                Debug.logError("Error counting inventory for product [" + productId + "]: " + ServiceUtil.getErrorMessage(resultMap), module);
+                return null;
+            }
+            return (BigDecimal) resultMap.get("quantityOnHandTotal");
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error calling getProductInventoryAvailableByFacility service", module);
+            return null;
+        }
+    }
+
+    /**
+     * Bulk variant of {@link #findProductMrpQoh}: sums the quantity on hand of the InventoryItems of the products in
+     * the facility with the same item selection as the getProductInventoryAvailable service (available, non-serialized
+     * returned or unset status, and all serialized items). Products without inventory get ZERO.
+     */
+    static Map<String, BigDecimal> findProductMrpQohs(Collection<String> productIds, String facilityId, Delegator delegator) throws GenericEntityException {
+        Map<String, BigDecimal> qohs = new HashMap<>();
+        for (String productId : productIds) {
+            qohs.put(productId, BigDecimal.ZERO);
+        }
+        for (List<String> chunk : MrpNetChange.chunk(productIds)) {
+            List<EntityCondition> conds = new ArrayList<>();
+            conds.add(EntityCondition.makeCondition("productId", EntityOperator.IN, chunk));
+            if (facilityId != null) {
+                conds.add(EntityCondition.makeCondition("facilityId", facilityId));
+            }
+            EntityListIterator eli = EntityQuery.use(delegator).from("InventoryItem")
+                    .select("productId", "statusId", "inventoryItemTypeId", "quantityOnHandTotal").where(conds).queryIterator();
+            try {
+                GenericValue item;
+                while ((item = eli.next()) != null) {
+                    BigDecimal quantityOnHand = item.getBigDecimal("quantityOnHandTotal");
+                    String statusId = item.getString("statusId");
+                    if (quantityOnHand == null || !(statusId == null || "INV_AVAILABLE".equals(statusId) || "INV_NS_RETURNED".equals(statusId)
+                            || "SERIALIZED_INV_ITEM".equals(item.getString("inventoryItemTypeId")))) {
+                        continue;
+                    }
+                    String productId = item.getString("productId");
+                    qohs.put(productId, qohs.get(productId).add(quantityOnHand));
+                }
+            } finally {
+                eli.close();
+            }
+        }
+        return qohs;
+    }
+
+    private static Map<String, Object> getManufacturingComponents(String productId, BigDecimal quantity, LocalDispatcher dispatcher, GenericValue userLogin, Locale locale) throws MrpPlanException {
+        try {
+            return dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", productId,
+                    "quantity", quantity, "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
+        } catch (Exception e) {
+            throw new MrpPlanException(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", productId), locale));
+        }
+    }
+
+    private static boolean isBuilt(List<BOMNode> components) {
+        if (UtilValidate.isNotEmpty(components)) {
+            BOMNode node = components.get(0).getParentNode();
+            return node.isManufactured();
+        }
+        return false;
+    }
+}
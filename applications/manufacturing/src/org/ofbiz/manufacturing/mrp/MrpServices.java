@@ -21,14 +21,22 @@ package org.ofbiz.manufacturing.mrp;
 
 import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
-import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
@@ -39,6 +47,7 @@ import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtil;
+import org.ofbiz.manufacturing.bom.BOMCache;
 import org.ofbiz.manufacturing.bom.BOMNode;
 import org.ofbiz.order.order.OrderReadHelper;
 import org.ofbiz.service.DispatchContext;
@@ -58,6 +67,8 @@ public class MrpServices {
     public static final String module = MrpServices.class.getName();
     public static final String resource = "ManufacturingUiLabels";
 
+    private static final ThreadGroup MRP_THREAD_GROUP = new ThreadGroup("MrpServices");
+
     public static Map<String, Object> initMrpEvents(DispatchContext ctx, Map<String, ? extends Object> context) {
         Delegator delegator = ctx.getDelegator();
         LocalDispatcher dispatcher = ctx.getDispatcher();
@@ -88,42 +99,46 @@ public class MrpServices {
         }
 
         // Proposed requirements are deleted
+        // SCIPIO: in net change mode, executeMrp removes only the requirements of the products it plans again
+        boolean keepProposedRequirements = Boolean.TRUE.equals(context.get("keepProposedRequirements"));
         listResult = null;
         List<GenericValue> listResultRoles = UtilMisc.newList();
-        try {
-            listResult = EntityQuery.use(delegator).from("Requirement")
-                    .where("requirementTypeId", "PRODUCT_REQUIREMENT","facilityId", facilityId,
-                            "statusId", "REQ_PROPOSED")
-                    .queryList();
-        } catch (GenericEntityException e) {
-            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventFindError", locale));
-        }
-        if (listResult != null) {
+        if (!keepProposedRequirements) {
             try {
-                for (GenericValue tmpRequirement : listResult) {
-                    listResultRoles.addAll(tmpRequirement.getRelated("RequirementRole", null, null, false));
-                    //int numOfRecordsRemoved = delegator.removeRelated("RequirementRole", tmpRequirement);
-                }
-                delegator.removeAll(listResultRoles);
-                delegator.removeAll(listResult);
+                listResult = EntityQuery.use(delegator).from("Requirement")
+                        .where("requirementTypeId", "PRODUCT_REQUIREMENT","facilityId", facilityId,
+                                "statusId", "REQ_PROPOSED")
+                        .queryList();
             } catch (GenericEntityException e) {
-                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventRemoveError", locale));
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventFindError", locale));
             }
-        }
-        listResult = null;
-        try {
-            listResult = EntityQuery.use(delegator).from("Requirement")
-                    .where("requirementTypeId", "INTERNAL_REQUIREMENT","facilityId", facilityId,
-                            "statusId", "REQ_PROPOSED")
-                    .queryList();
-        } catch (GenericEntityException e) {
-            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventFindError", locale));
-        }
-        if (listResult != null) {
+            if (listResult != null) {
+                try {
+                    for (GenericValue tmpRequirement : listResult) {
+                        listResultRoles.addAll(tmpRequirement.getRelated("RequirementRole", null, null, false));
+                        //int numOfRecordsRemoved = delegator.removeRelated("RequirementRole", tmpRequirement);
+                    }
+                    delegator.removeAll(listResultRoles);
+                    delegator.removeAll(listResult);
+                } catch (GenericEntityException e) {
+                    return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventRemoveError", locale));
+                }
+            }
+            listResult = null;
             try {
-                delegator.removeAll(listResult);
+                listResult = EntityQuery.use(delegator).from("Requirement")
+                        .where("requirementTypeId", "INTERNAL_REQUIREMENT","facilityId", facilityId,
+                                "statusId", "REQ_PROPOSED")
+                        .queryList();
             } catch (GenericEntityException e) {
-                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventRemoveError", locale));
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventFindError", locale));
+            }
+            if (listResult != null) {
+                try {
+                    delegator.removeAll(listResult);
+                } catch (GenericEntityException e) {
+                    return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventRemoveError", locale));
+                }
             }
         }
 
@@ -582,6 +597,27 @@ public class MrpServices {
         }
     }
 
+    /**
+     * SCIPIO: Finds the records of the given product-keyed entity for a set of productIds, in chunks
+     * to keep the IN conditions to a reasonable size.
+     * @return the records by productId (the first one, for non-unique keys)
+     */
+    static Map<String, GenericValue> findByProductIds(Delegator delegator, String entityName, EntityCondition extraCondition, Collection<String> productIds) throws GenericEntityException {
+        Map<String, GenericValue> result = new HashMap<>();
+        for (List<String> chunk : MrpNetChange.chunk(productIds)) {
+            EntityCondition condition = EntityCondition.makeCondition("productId", EntityOperator.IN, chunk);
+            if (extraCondition != null) {
+                condition = EntityCondition.makeCondition(condition, EntityOperator.AND, extraCondition);
+            }
+            for (GenericValue value : EntityQuery.use(delegator).from(entityName).where(condition).queryList()) {
+                if (!result.containsKey(value.getString("productId"))) {
+                    result.put(value.getString("productId"), value);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Launch the MRP.
      * <li>PreConditions : none</li>
@@ -641,194 +677,166 @@ public class MrpServices {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpFacilityOrManufacturingFacilityNotAvailable", locale));
         }
 
+        // SCIPIO: products of the same bom level are planned concurrently by threadCount workers (default: 1, sequential);
+        // in netChange mode, only the products whose demand, supply or planning data changed since the previous run are planned.
+        boolean netChange = Boolean.TRUE.equals(context.get("netChange"));
+        Integer threadCountParam = (Integer) context.get("threadCount");
+        int threadCount = (threadCountParam != null && threadCountParam > 0) ? threadCountParam : 1;
+
         int bomLevelWithNoEvent = 0;
-        BigDecimal stockTmp = BigDecimal.ZERO;
-        String oldProductId = null;
-        String productId = null;
-        GenericValue product = null;
-        GenericValue productFacility = null;
-        BigDecimal eventQuantity = BigDecimal.ZERO;
-        Timestamp eventDate = null;
-        BigDecimal reorderQuantity = BigDecimal.ZERO;
-        BigDecimal minimumStock = BigDecimal.ZERO;
-        int daysToShip = 0;
-        List<BOMNode> components = null;
-        boolean isBuilt = false;
-        GenericValue routing = null;
 
         String mrpId = delegator.getNextSeqId("MrpEvent");
 
+        MrpNetChange mrpNetChange = null;
+        if (netChange) {
+            try {
+                mrpNetChange = MrpNetChange.capture(facilityId, delegator);
+            } catch (GenericEntityException e) {
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventFindError", locale));
+            }
+            if (mrpNetChange == null) {
+                Debug.logInfo("MRP net change: no previous MRP run found; planning all products", module);
+            }
+        }
+
         Map<String, Object> result = null;
         Map<String, Object> parameters = null;
         List<GenericValue> listInventoryEventForMRP = null;
-        ListIterator<GenericValue> iteratorListInventoryEventForMRP = null;
 
         // Initialization of the MrpEvent table, This table will contain the products we want to buy or build.
         parameters = UtilMisc.<String, Object>toMap("mrpId", mrpId, "reInitialize", Boolean.TRUE, "defaultYearsOffset", defaultYearsOffset, "userLogin", userLogin);
         parameters.put("facilityId", facilityId);
         parameters.put("manufacturingFacilityId", manufacturingFacilityId);
+        parameters.put("keepProposedRequirements", mrpNetChange != null);
         try {
             result = dispatcher.runSync("initMrpEvents", parameters);
         } catch (GenericServiceException e) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorRunningInitMrpEvents", UtilMisc.toMap("errorString", e.getMessage()), locale));
         }
-        long bomLevel = 0;
-        do {
-            // Find all products in MrpEventView, ordered by bom and eventDate
-            EntityCondition filterByConditions = null;
-            if (bomLevel == 0) {
-                filterByConditions = EntityCondition.makeCondition(EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, null),
-                                            EntityOperator.OR,
-                                            EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel)));
-            } else {
-                filterByConditions = EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel));
-            }
+
+        Set<String> unchangedProductIds = Collections.emptySet();
+        if (mrpNetChange != null) {
             try {
-                listInventoryEventForMRP = EntityQuery.use(delegator).from("MrpEventView")
-                        .where(filterByConditions)
-                        .orderBy("productId", "eventDate")
-                        .queryList();
+                unchangedProductIds = mrpNetChange.findUnchangedProducts(mrpId, facilityId, delegator);
+                mrpNetChange.copyPlannedEvents(mrpId, unchangedProductIds, mrpNetChange.findComponentRequirementsToKeep(unchangedProductIds), now, delegator);
+                MrpNetChange.removeProposedRequirements(facilityId, unchangedProductIds, delegator);
             } catch (GenericEntityException e) {
-                Long bomLevelToString = new Long(bomLevel);
-                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel", UtilMisc.toMap("bomLevel", bomLevelToString.toString(), "errorString", e.getMessage()), locale));
+                Debug.logError(e, "Error applying MRP net change for mrpId [" + mrpId + "]", module);
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
             }
+        }
 
-            if (UtilValidate.isNotEmpty(listInventoryEventForMRP)) {
-                bomLevelWithNoEvent = 0;
+        ScheduledExecutorService executor = null;
+        if (threadCount > 1) {
+            executor = ExecutionPool.getScheduledExecutor(MRP_THREAD_GROUP, "mrp-" + mrpId, threadCount, 0, false);
+        }
+        try {
+            long bomLevel = 0;
+            do {
+                // Find all products in MrpEventView, ordered by bom and eventDate
+                EntityCondition filterByConditions = null;
+                if (bomLevel == 0) {
+                    filterByConditions = EntityCondition.makeCondition(EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, null),
+                                                EntityOperator.OR,
+                                                EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel)));
+                } else {
+                    filterByConditions = EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel));
+                }
+                try {
+                    listInventoryEventForMRP = EntityQuery.use(delegator).from("MrpEventView")
+                            .where(filterByConditions)
+                            .orderBy("productId", "eventDate")
+                            .queryList();
+                } catch (GenericEntityException e) {
+                    return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel", UtilMisc.toMap("bomLevel", String.valueOf(bomLevel), "errorString", e.getMessage()), locale));
+                }
 
-                oldProductId = "";
-                for (GenericValue inventoryEventForMRP : listInventoryEventForMRP) {
-                    productId = inventoryEventForMRP.getString("productId");
-                    eventQuantity = inventoryEventForMRP.getBigDecimal("quantity");
+                if (UtilValidate.isNotEmpty(listInventoryEventForMRP)) {
+                    bomLevelWithNoEvent = 0;
 
-                    if (!productId.equals(oldProductId)) {
-                        BigDecimal positiveEventQuantity = eventQuantity.compareTo(BigDecimal.ZERO) > 0 ? eventQuantity: eventQuantity.negate();
-                        // It's a new product, so it's necessary to  read the MrpQoh
-                        try {
-                            product = inventoryEventForMRP.getRelatedOne("Product", true);
-                            productFacility = EntityUtil.getFirst(product.getRelated("ProductFacility", UtilMisc.toMap("facilityId", facilityId), null, true));
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
-                        }
-                        stockTmp = findProductMrpQoh(mrpId, product, facilityId, dispatcher, delegator);
-                        try {
-                            InventoryEventPlannedServices.createOrUpdateMrpEvent(UtilMisc.<String, Object>toMap("mrpId", mrpId,
-                                    "productId", product.getString("productId"), 
-                                    "mrpEventTypeId", "INITIAL_QOH", "eventDate", now), 
-                                    stockTmp, facilityId, null, false, delegator);
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
-                        }
-                        // days to ship is only relevant for sales order to plan for preparatory days to ship.  Otherwise MRP will push event dates for manufacturing parts
-                        // as well and cause problems
-                        daysToShip = 0;
-                        if (productFacility != null) {
-                            reorderQuantity = (productFacility.getBigDecimal("reorderQuantity") != null ? productFacility.getBigDecimal("reorderQuantity"): BigDecimal.ONE.negate());
-                            minimumStock = (productFacility.getBigDecimal("minimumStock") != null ? productFacility.getBigDecimal("minimumStock"): BigDecimal.ZERO);
-                            if ("SALES_ORDER_SHIP".equals(inventoryEventForMRP.getString("mrpEventTypeId"))) {
-                                daysToShip = (productFacility.getLong("daysToShip") != null? productFacility.getLong("daysToShip").intValue(): 0);
-                            }
-                        } else {
-                            minimumStock = BigDecimal.ZERO;
-                            reorderQuantity = BigDecimal.ONE.negate();
-                        }
-                        // -----------------------------------------------------
-                        // The components are also loaded thru the configurator
-                        Map<String, Object> serviceResponse = null;
-                        try {
-                            serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", positiveEventQuantity, "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
-                        } catch (Exception e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
+                    // SCIPIO: group the events by product and load the products and their ProductFacility in bulk for the whole level
+                    Map<String, List<GenericValue>> eventsByProduct = new LinkedHashMap<>();
+                    for (GenericValue inventoryEventForMRP : listInventoryEventForMRP) {
+                        String productId = inventoryEventForMRP.getString("productId");
+                        if (unchangedProductIds.contains(productId)) {
+                            continue;
                         }
-                        components = UtilGenerics.checkList(serviceResponse.get("components"));
-                        if (UtilValidate.isNotEmpty(components)) {
-                            BOMNode node = (components.get(0)).getParentNode();
-                            isBuilt = node.isManufactured();
-                        } else {
-                            isBuilt = false;
+                        List<GenericValue> productEvents = eventsByProduct.get(productId);
+                        if (productEvents == null) {
+                            productEvents = new ArrayList<>();
+                            eventsByProduct.put(productId, productEvents);
                         }
-                        // #####################################################
-
-                        oldProductId = productId;
+                        productEvents.add(inventoryEventForMRP);
+                    }
+                    Map<String, GenericValue> products;
+                    Map<String, GenericValue> productFacilities;
+                    try {
+                        products = findByProductIds(delegator, "Product", null, eventsByProduct.keySet());
+                        productFacilities = findByProductIds(delegator, "ProductFacility", EntityCondition.makeCondition("facilityId", facilityId), eventsByProduct.keySet());
+                        BOMCache.prefetchChildAssocs(delegator, eventsByProduct.keySet(), "MANUF_COMPONENT");
+                    } catch (GenericEntityException e) {
+                        return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
                     }
 
-                    stockTmp = stockTmp.add(eventQuantity);
-                    if (stockTmp.compareTo(minimumStock) < 0) {
-                        BigDecimal qtyToStock = minimumStock.subtract(stockTmp);
-                        //need to buy or build the product as we have not enough stock
-                        eventDate = inventoryEventForMRP.getTimestamp("eventDate");
-                        // to be just before the requirement
-                        eventDate.setTime(eventDate.getTime()-1);
-                        ProposedOrder proposedOrder = new ProposedOrder(product, facilityId, manufacturingFacilityId, isBuilt, eventDate, qtyToStock);
-                        proposedOrder.setMrpName(mrpName);
-                        // calculate the ProposedOrder quantity and update the quantity object property.
-                        proposedOrder.calculateQuantityToSupply(reorderQuantity, minimumStock, iteratorListInventoryEventForMRP);
-
-                        // -----------------------------------------------------
-                        // The components are also loaded thru the configurator
-                        Map<String, Object> serviceResponse = null;
-                        try {
-                            serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", proposedOrder.getQuantity(), "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
-                        } catch (Exception e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
-                        }
-                        components = UtilGenerics.checkList(serviceResponse.get("components"));
-                        String routingId = (String)serviceResponse.get("workEffortId");
-                        if (routingId != null) {
+                    List<MrpProductPlan> plans = new ArrayList<>(eventsByProduct.size());
+                    try {
+                        if (executor != null && eventsByProduct.size() > 1) {
+                            List<Future<MrpProductPlan>> futures = new ArrayList<>(eventsByProduct.size());
+                            for (Map.Entry<String, List<GenericValue>> entry : eventsByProduct.entrySet()) {
+                                GenericValue product = products.get(entry.getKey());
+                                if (product == null) {
+                                    throw new MrpProductPlan.MrpPlanException(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                                }
+                                futures.add(executor.submit(MrpProductPlan.planCallable(ctx, mrpId, mrpName, product, productFacilities.get(entry.getKey()),
+                                        entry.getValue(), facilityId, manufacturingFacilityId, userLogin, locale)));
+                            }
                             try {
-                                routing = EntityQuery.use(delegator).from("WorkEffort").where("workEffortId", routingId).queryOne();
-                            } catch (GenericEntityException e) {
-                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                                for (Future<MrpProductPlan> future : futures) {
+                                    plans.add(future.get());
+                                }
+                            } catch (ExecutionException e) {
+                                if (e.getCause() instanceof MrpProductPlan.MrpPlanException) {
+                                    throw (MrpProductPlan.MrpPlanException) e.getCause();
+                                }
+                                Debug.logError(e.getCause(), "Error planning MRP bom level " + bomLevel, module);
+                                return ServiceUtil.returnError(e.getCause().toString());
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return ServiceUtil.returnError(e.toString());
+                            } finally {
+                                for (Future<MrpProductPlan> future : futures) {
+                                    future.cancel(true);
+                                }
                             }
                         } else {
-                            routing = null;
-                        }
-                        if (UtilValidate.isNotEmpty(components)) {
-                            BOMNode node = (components.get(0)).getParentNode();
-                            isBuilt = node.isManufactured();
-                        } else {
-                            isBuilt = false;
-                        }
-                        // #####################################################
-
-                        // calculate the ProposedOrder requirementStartDate and update the requirementStartDate object property.
-                        Map<String, Object> routingTaskStartDate = proposedOrder.calculateStartDate(daysToShip, routing, delegator, dispatcher, userLogin);
-                        if (isBuilt) {
-                            // process the product components
-                            processBomComponent(mrpId, product, proposedOrder.getQuantity(), proposedOrder.getRequirementStartDate(), routingTaskStartDate, components);
-                        }
-                        // create the  ProposedOrder (only if the product is warehouse managed), and the MrpEvent associated
-                        String requirementId = null;
-                        if (productFacility != null) {
-                            requirementId = proposedOrder.create(ctx, userLogin);
-                        }
-                        if (UtilValidate.isEmpty(productFacility) && !isBuilt) {
-                            logMrpError(mrpId, productId, now, "No ProductFacility record for [" + facilityId + "]; no requirement created.", delegator);
-                        }
-                        String eventName = null;
-                        if (UtilValidate.isNotEmpty(requirementId)) {
-                            eventName = "*" + requirementId + " (" + proposedOrder.getRequirementStartDate() + ")*";
+                            for (Map.Entry<String, List<GenericValue>> entry : eventsByProduct.entrySet()) {
+                                GenericValue product = products.get(entry.getKey());
+                                if (product == null) {
+                                    throw new MrpProductPlan.MrpPlanException(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                                }
+                                plans.add(MrpProductPlan.plan(ctx, mrpId, mrpName, product, productFacilities.get(entry.getKey()),
+                                        entry.getValue(), facilityId, manufacturingFacilityId, userLogin, locale));
+                            }
                         }
-                        Map<String, Object> eventMap = UtilMisc.<String, Object>toMap("productId", product.getString("productId"),
-                                                      "mrpId", mrpId,
-                                                      "eventDate", eventDate,
-                                                      "mrpEventTypeId", (isBuilt? "PROP_MANUF_O_RECP" : "PROP_PUR_O_RECP"));
-                        try {
-                            InventoryEventPlannedServices.createOrUpdateMrpEvent(eventMap, proposedOrder.getQuantity(), null, eventName, (proposedOrder.getRequirementStartDate().compareTo(now) < 0), delegator);
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
+                        // The MrpEvents and Requirements are written by this thread only, in product order
+                        for (MrpProductPlan plan : plans) {
+                            plan.apply(ctx, userLogin, now, locale);
                         }
-                        //
-                        stockTmp = stockTmp.add(proposedOrder.getQuantity());
+                    } catch (MrpProductPlan.MrpPlanException e) {
+                        return ServiceUtil.returnError(e.getMessage());
                     }
+                } else {
+                    bomLevelWithNoEvent += 1;
                 }
-            } else {
-                bomLevelWithNoEvent += 1;
-            }
 
-            bomLevel += 1;
-            // if there are 3 levels with no inventoryEvenPanned we stop
-        } while (bomLevelWithNoEvent < 3);
+                bomLevel += 1;
+                // if there are 3 levels with no inventoryEvenPanned we stop
+            } while (bomLevelWithNoEvent < 3);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
 
         result = UtilMisc.newMap();
         List<Object> msgResult = UtilMisc.newList();
@@ -0,0 +1,74 @@
+package org.ofbiz.manufacturing.test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.manufacturing.bom.BOMCache;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Checks that the bill of materials graph ({@link BOMCache}) follows ProductAssoc changes, through the
+ * ProductAssoc entity ECAs, on commit and on rollback.
+ */
+public class BOMCacheTests extends OFBizTestCase {
+
+    public BOMCacheTests(String name) {
+        super(name);
+    }
+
+    private List<GenericValue> getComponents() throws Exception {
+        return BOMCache.getChildAssocs(delegator, "BOMC_TEST_A", "MANUF_COMPONENT", null);
+    }
+
+    private List<GenericValue> getParentsOfC() throws Exception {
+        return BOMCache.getParentAssocs(delegator, "BOMC_TEST_C", "MANUF_COMPONENT", null);
+    }
+
+    private GenericValue makeAssoc() {
+        return delegator.makeValue("ProductAssoc", UtilMisc.toMap("productId", "BOMC_TEST_A", "productIdTo", "BOMC_TEST_C",
+                "productAssocTypeId", "MANUF_COMPONENT", "quantity", BigDecimal.ONE, "fromDate", new Timestamp(UtilDateTime.nowTimestamp().getTime() - 1000)));
+    }
+
+    public void testDateFilter() throws Exception {
+        assertEquals(1, getComponents().size());
+        assertEquals("BOMC_TEST_B", getComponents().get(0).getString("productIdTo"));
+        assertTrue("Not valid before its fromDate",
+                BOMCache.getChildAssocs(delegator, "BOMC_TEST_A", "MANUF_COMPONENT", Timestamp.valueOf("2000-01-01 00:00:00")).isEmpty());
+    }
+
+    public void testClearedOnCommit() throws Exception {
+        assertEquals(1, getComponents().size());
+        assertTrue(getParentsOfC().isEmpty());
+        long version = BOMCache.getVersion();
+
+        GenericValue productAssoc = delegator.create(makeAssoc());
+        assertTrue("Version incremented", BOMCache.getVersion() > version);
+        assertEquals("Created component seen", 2, getComponents().size());
+        assertEquals("Created parent seen", 1, getParentsOfC().size());
+
+        productAssoc.remove();
+        assertEquals("Removed component gone", 1, getComponents().size());
+        assertTrue("Removed parent gone", getParentsOfC().isEmpty());
+    }
+
+    public void testClearedOnRollback() throws Exception {
+        assertEquals(1, getComponents().size());
+
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            delegator.create(makeAssoc());
+            assertEquals("Own change seen in the transaction", 2, getComponents().size());
+            assertEquals(1, getParentsOfC().size());
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "BOM cache test rollback", null);
+        }
+
+        assertEquals("Rolled back component not kept", 1, getComponents().size());
+        assertTrue("Rolled back parent not kept", getParentsOfC().isEmpty());
+    }
+}
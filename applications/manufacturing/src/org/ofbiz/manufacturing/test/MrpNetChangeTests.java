@@ -0,0 +1,103 @@
+package org.ofbiz.manufacturing.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Checks that a net change MRP run (executeMrp netChange) plans the same events and proposed requirements
+ * as a full run.
+ */
+public class MrpNetChangeTests extends OFBizTestCase {
+
+    protected GenericValue userLogin = null;
+
+    public MrpNetChangeTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    private void runMrp(boolean netChange, int threadCount) throws Exception {
+        Map<String, Object> result = dispatcher.runSync("executeMrp", UtilMisc.<String, Object>toMap("userLogin", userLogin,
+                "facilityId", "MRP_TEST_WH", "mrpName", "MRP_TEST", "netChange", netChange, "threadCount", threadCount));
+        assertTrue("executeMrp success: " + ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+    }
+
+    /**
+     * Returns the planned events and proposed requirements of the test facility, without ids and dates, sorted.
+     */
+    private List<String> getPlan() throws Exception {
+        List<String> plan = new ArrayList<>();
+        for (GenericValue mrpEvent : EntityQuery.use(delegator).from("MrpEvent").where("facilityId", "MRP_TEST_WH").queryList()) {
+            plan.add("event " + mrpEvent.getString("productId") + " " + mrpEvent.getString("mrpEventTypeId") + " "
+                    + toString(mrpEvent.getBigDecimal("quantity")));
+        }
+        for (GenericValue requirement : EntityQuery.use(delegator).from("Requirement")
+                .where("facilityId", "MRP_TEST_WH", "statusId", "REQ_PROPOSED").queryList()) {
+            plan.add("requirement " + requirement.getString("productId") + " " + requirement.getString("requirementTypeId") + " "
+                    + toString(requirement.getBigDecimal("quantity")));
+        }
+        Collections.sort(plan);
+        return plan;
+    }
+
+    private static boolean hasRequirement(List<String> plan, String productId) {
+        for (String entry : plan) {
+            if (entry.startsWith("requirement " + productId + " ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String toString(BigDecimal quantity) {
+        return (quantity != null) ? quantity.stripTrailingZeros().toPlainString() : "null";
+    }
+
+    public void testNetChangeMatchesFullRun() throws Exception {
+        runMrp(false, 1);
+        List<String> fullPlan = getPlan();
+        assertTrue("Finished good and component planned: " + fullPlan, hasRequirement(fullPlan, "MRP_TEST_FG") && hasRequirement(fullPlan, "MRP_TEST_RAW"));
+
+        runMrp(true, 1);
+        assertEquals("Net change run without changes", fullPlan, getPlan());
+
+        GenericValue productFacility = EntityQuery.use(delegator).from("ProductFacility")
+                .where("productId", "MRP_TEST_FG", "facilityId", "MRP_TEST_WH").queryOne();
+        productFacility.set("minimumStock", new BigDecimal("15"));
+        productFacility.store();
+        try {
+            runMrp(true, 1);
+            List<String> netChangePlan = getPlan();
+            assertFalse("Changed minimum stock planned again", fullPlan.equals(netChangePlan));
+            runMrp(false, 1);
+            assertEquals("Net change run after a ProductFacility change", getPlan(), netChangePlan);
+        } finally {
+            productFacility.set("minimumStock", new BigDecimal("10"));
+            productFacility.store();
+        }
+    }
+
+    public void testParallelMatchesSequential() throws Exception {
+        runMrp(false, 1);
+        List<String> sequentialPlan = getPlan();
+        runMrp(false, 4);
+        assertEquals("Plan of a run with 4 threads", sequentialPlan, getPlan());
+    }
+}
@@ -29,6 +29,7 @@ import org.ofbiz.entity.util.*;
 import org.ofbiz.service.*;
 import org.ofbiz.product.catalog.*;
 import org.ofbiz.product.category.CategoryContentWrapper;
+import org.ofbiz.product.product.ProductContentWrapper;
 import org.ofbiz.product.store.ProductStoreWorker;
 
 productCategoryId = request.getAttribute("productCategoryId");
@@ -80,6 +81,11 @@ context.lowIndex = catResult.lowIndex;
 context.highIndex = catResult.highIndex;
 context.listSize = catResult.listSize;
 
+// SCIPIO: load the names/descriptions of the products of the page in bulk, instead of one wrapper lookup per product
+if (productCategoryMembers) {
+    ProductContentWrapper.preloadProductContentByIds(productCategoryMembers.collect { it.productId }, request);
+}
+
 // set this as a last viewed
 // DEJ20070220: WHY is this done this way? why not use the existing CategoryWorker stuff?
 LAST_VIEWED_TO_KEEP = 10; // modify this to change the number of last viewed to keep
@@ -4,11 +4,22 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilMisc;
@@ -17,6 +28,7 @@ import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.service.LocalDispatcher;
@@ -32,6 +44,14 @@ import com.ilscipio.scipio.product.seo.SeoCatalogTraverser;
  * <p>
  * Class is NOT thread-safe or serializable - keep out of session attributes.
  * <p>
+ * SCIPIO: The traverser can optionally prefetch the category rollups and members of a whole
+ * category level in bulk ({@link TraversalConfig#isPrefetch()}) and traverse the independent top-level
+ * categories concurrently ({@link TraversalConfig#getThreadCount()}), if the subclass supports it
+ * ({@link #isParallelTraversalSupported()}). In the latter case every top-level category gets its own
+ * {@link TraversalState}, and the states are passed to {@link #mergeTraversalState} on the calling thread
+ * in the original category order, so subclasses can buffer their output per state and produce
+ * the same output as the sequential traversal.
+ * <p>
  * DEV NOTE: do not put specific or stateful functionality in this class.
  * I made a special {@link SeoCatalogTraverser} subclass for that, 
  * because this one is may be used in many places (not just SEO).
@@ -47,6 +67,13 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
      * deeper than a dozen or so).
      */
     public static final int MAX_CATEGORY_DEPTH_PERF = 128;
+
+    /**
+     * Max number of ids per IN condition for the bulk prefetch queries.
+     */
+    public static final int PREFETCH_CHUNK_SIZE = 1000;
+
+    private static final ThreadGroup TRAVERSAL_THREAD_GROUP = new ThreadGroup("CatalogTraverser");
     
     protected static final String logPrefix = ""; // "CategoryTraverser: "
     
@@ -60,6 +87,11 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
     
     protected Set<String> seenCategoryIds = null;
     protected Set<String> seenProductIds = null;
+    /**
+     * SCIPIO: Products claimed for visit by the concurrent traversal tasks; only used in parallel traversal,
+     * because {@link #seenProductIds} is only updated after the visit.
+     */
+    protected Set<String> claimedProductIds = null;
 
     /**
      * Composed visitor constructor, with explicit visitor.
@@ -90,6 +122,9 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
         private boolean preventDupCategoryVisit = false;
         private boolean preventDupCategoryTraversal = false;
         private boolean preventDupProductVisit = false;
+
+        private int threadCount = 1;
+        private boolean prefetch = false;
         
         public boolean isUseCache() {
             return useCache;
@@ -225,6 +260,40 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
         public boolean isPreventDupProductAny() {
             return preventDupProductVisit;
         }
+
+        /**
+         * SCIPIO: Number of threads used to traverse the top-level categories concurrently.
+         * Default for this class is 1 (sequential traversal).
+         * <p>
+         * NOTE: Ignored if the traverser does not support it ({@link CatalogTraverser#isParallelTraversalSupported()}).
+         * WARN: When combined with the preventDup* options, which duplicate gets visited is no longer deterministic.
+         */
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        public TraversalConfig setThreadCount(int threadCount) {
+            this.threadCount = (threadCount > 1) ? threadCount : 1;
+            return this;
+        }
+
+        /**
+         * SCIPIO: If true, the sub-category and product member associations of all the categories of a level
+         * are queried in bulk before visiting the level, and the products of a category are queried in bulk
+         * before visiting them, instead of one query per category and product.
+         * Default for this class is false.
+         * <p>
+         * NOTE: In this mode {@link CatalogTraverser#queryCategorySubCategoryList} and 
+         * {@link CatalogTraverser#queryCategoryProductList} are bypassed.
+         */
+        public boolean isPrefetch() {
+            return prefetch;
+        }
+
+        public TraversalConfig setPrefetch(boolean prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
     }
     
     /**
@@ -261,8 +330,32 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
     }
     
     public void resetDupVisitRecords() {
-        this.seenCategoryIds = (travConfig.isPreventDupCategoryAny()) ? new HashSet<String>() : null;
-        this.seenProductIds = (travConfig.isPreventDupProductAny()) ? new HashSet<String>() : null;
+        this.seenCategoryIds = (travConfig.isPreventDupCategoryAny()) ? newSeenIdSet() : null;
+        this.seenProductIds = (travConfig.isPreventDupProductAny()) ? newSeenIdSet() : null;
+        this.claimedProductIds = (travConfig.isPreventDupProductAny() && isParallelTraversal()) ? newSeenIdSet() : null;
+    }
+
+    protected Set<String> newSeenIdSet() {
+        if (isParallelTraversal()) {
+            return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        }
+        return new HashSet<String>();
+    }
+
+    /**
+     * SCIPIO: Returns true if the traverser and its visitor can be called concurrently from multiple threads,
+     * as long as each thread uses its own {@link TraversalState} (see {@link #newParallelTraversalState()}).
+     * Default is false; subclasses must override to enable {@link TraversalConfig#getThreadCount()}.
+     */
+    public boolean isParallelTraversalSupported() {
+        return false;
+    }
+
+    /**
+     * SCIPIO: Returns true if top-level categories will be traversed concurrently.
+     */
+    public boolean isParallelTraversal() {
+        return travConfig.getThreadCount() > 1 && isParallelTraversalSupported();
     }
     
     public CatalogVisitor getVisitor() {
@@ -299,6 +392,7 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
     public class TraversalState {
         protected List<GenericValue> trailCategories;
         protected int physicalDepth;
+        protected boolean parallel = false;
         
         /**
          * Main constructor.
@@ -320,6 +414,7 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
                 this.trailCategories = other.trailCategories;
             }
             this.physicalDepth = other.physicalDepth;
+            this.parallel = other.parallel;
         }
 
         /**
@@ -356,6 +451,14 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
         public int getPhysicalDepth() {
             return physicalDepth;
         }
+
+        /**
+         * SCIPIO: Returns true if this state belongs to one of several concurrent top-level category traversals;
+         * in that case visitor output should be recorded in the state and merged in {@link CatalogTraverser#mergeTraversalState}.
+         */
+        public boolean isParallel() {
+            return parallel;
+        }
         
         /**
          * Increase depth by the given category, in-place.
@@ -380,6 +483,10 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
         protected void setPhysicalDepth(int physicalDepth) {
             this.physicalDepth = physicalDepth;
         }
+
+        protected void setParallel(boolean parallel) {
+            this.parallel = parallel;
+        }
     }
     
     protected final TraversalState newTraversalState(int physicalDepth) {
@@ -396,6 +503,24 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
     protected TraversalState newTraversalState(List<GenericValue> trailCategories, int physicalDepth) {
         return new TraversalState(trailCategories, physicalDepth);
     }
+
+    /**
+     * SCIPIO: Creates the state for one concurrent top-level category traversal.
+     * Subclasses that record output per state should override to initialize it.
+     */
+    protected TraversalState newParallelTraversalState() {
+        TraversalState state = newTraversalState();
+        state.setParallel(true);
+        return state;
+    }
+
+    /**
+     * SCIPIO: Merges the output recorded in the state of a finished concurrent top-level category traversal.
+     * Always called from the thread that started the traversal, in the original top-level category order.
+     * Default implementation does nothing.
+     */
+    protected void mergeTraversalState(TraversalState state) throws GeneralException {
+    }
     
     public <T> List<T> newCategoryTrailList(Collection<? extends T> initialValues) {
         // NOTE: don't want to use new ArrayList<>(initialValues) constructor because loses the capacity
@@ -490,10 +615,7 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
     public boolean traverseProductStoreDfs(GenericValue productStore) throws GeneralException {
         List<GenericValue> prodCatalogList = queryProductStoreCatalogList(productStore);
         try {
-            for(GenericValue prodCatalog : prodCatalogList) {
-                List<GenericValue> prodCatalogCategoryList = queryProdCatalogCategoryList(prodCatalog);
-                traverseCategoriesDepthFirstImpl(prodCatalogCategoryList, CategoryRefType.CATALOG_ASSOC.getResolver(), newTraversalState());
-            }
+            traverseCatalogsImpl(prodCatalogList);
             return true;
         } catch(StopCatalogTraversalException e) {
             ; // not an error - just stop
@@ -506,16 +628,29 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
      */
     public boolean traverseCatalogsDepthFirst(List<GenericValue> prodCatalogList) throws GeneralException {
         try {
-            for(GenericValue prodCatalog : prodCatalogList) {
-                List<GenericValue> prodCatalogCategoryList = queryProdCatalogCategoryList(prodCatalog);
-                traverseCategoriesDepthFirstImpl(prodCatalogCategoryList, CategoryRefType.CATALOG_ASSOC.getResolver(), newTraversalState());
-            }
+            traverseCatalogsImpl(prodCatalogList);
             return true;
         } catch(StopCatalogTraversalException e) {
             ; // not an error - just stop
             return false;
         }
     }
+
+    protected void traverseCatalogsImpl(List<GenericValue> prodCatalogList) throws GeneralException {
+        if (isParallelTraversal()) {
+            // SCIPIO: the top-level categories of all the catalogs are independent, so they share one task list
+            List<GenericValue> prodCatalogCategoryList = new ArrayList<>();
+            for(GenericValue prodCatalog : prodCatalogList) {
+                prodCatalogCategoryList.addAll(queryProdCatalogCategoryList(prodCatalog));
+            }
+            traverseCategoriesParallelImpl(prodCatalogCategoryList, CategoryRefType.CATALOG_ASSOC.getResolver());
+        } else {
+            for(GenericValue prodCatalog : prodCatalogList) {
+                List<GenericValue> prodCatalogCategoryList = queryProdCatalogCategoryList(prodCatalog);
+                traverseCategoriesDepthFirstImpl(prodCatalogCategoryList, CategoryRefType.CATALOG_ASSOC.getResolver(), newTraversalState());
+            }
+        }
+    }
     
     /**
      * Traverse categories using depth-first search algorithm.
@@ -549,7 +684,11 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
             }
         }
         try {
-            traverseCategoriesDepthFirstImpl(categoryOrAssocList, categoryRefType.getResolver(), newTraversalState());
+            if (isParallelTraversal()) {
+                traverseCategoriesParallelImpl(categoryOrAssocList, categoryRefType.getResolver());
+            } else {
+                traverseCategoriesDepthFirstImpl(categoryOrAssocList, categoryRefType.getResolver(), newTraversalState());
+            }
             return true;
         } catch(StopCatalogTraversalException e) {
             ; // not an error - just stop
@@ -564,20 +703,43 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
      * the listEntryResolver, done by caller, for optimization.
      */
     protected void traverseCategoriesDepthFirstImpl(List<GenericValue> categoryAssocList, CategoryRefType.Resolver categoryAssocResolver, TraversalState state) throws GeneralException {
+        // SCIPIO: bulk-load the associations of the whole level, if enabled
+        traverseCategoriesDepthFirstImpl(categoryAssocList, categoryAssocResolver, state, travConfig.isPrefetch() ? prefetchCategoryLevel(categoryAssocList) : null);
+    }
+
+    /**
+     * SCIPIO: Core DFS category traversal algorithm, with the prefetched associations of the level
+     * (null if prefetch is disabled). The level data covers all the categories of the level reached from the
+     * initial list, not only categoryAssocList, so that each level is prefetched once instead of once per parent;
+     * the next level is prefetched when the first category of this level has sub categories.
+     * The data of each category is released once the category has been traversed; a category traversed again
+     * (duplicate traversal not prevented) is queried like without prefetch.
+     */
+    protected void traverseCategoriesDepthFirstImpl(List<GenericValue> categoryAssocList, CategoryRefType.Resolver categoryAssocResolver, TraversalState state,
+            CategoryLevelData levelData) throws GeneralException {
         for (GenericValue categoryAssoc : categoryAssocList) {
             String productCategoryId = categoryAssoc.getString("productCategoryId");
             // duplicate category traversal and/or visit prevention, if enabled
             boolean categorySeen = false;
             if (travConfig.isPreventDupCategoryAny()) {
                 // NOTE: productCategoryId is practically always this field name no matter the entity
-                categorySeen = this.seenCategoryIds.contains(productCategoryId);
+                if (state.isParallel()) {
+                    // SCIPIO: claim atomically, otherwise two concurrent tasks could both visit the category
+                    categorySeen = !this.seenCategoryIds.add(productCategoryId);
+                } else {
+                    categorySeen = this.seenCategoryIds.contains(productCategoryId);
+                }
             }
 
             if ((travConfig.isPreventDupCategoryTraversal() && categorySeen) || !isApplicableCategoryAssoc(categoryAssoc)) {
                 continue;
             }
             
-            GenericValue productCategory = categoryAssocResolver.getProductCategoryStrict(categoryAssoc, isUseCache());
+            CategoryLevelData categoryLevelData = (levelData != null && levelData.isPrefetched(productCategoryId)) ? levelData : null;
+            GenericValue productCategory = (categoryLevelData != null) ? categoryLevelData.productCategories.get(productCategoryId) : null;
+            if (productCategory == null) {
+                productCategory = categoryAssocResolver.getProductCategoryStrict(categoryAssoc, isUseCache());
+            }
             if (productCategory == null) {
                 Debug.logError(getLogMsgPrefix()+"Error: Could not get related ProductCategory for: " + categoryAssoc, module);
                 continue;
@@ -596,12 +758,27 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
             state.pushCategory(productCategory);
             
             // visit products (before recursive call)
-            queryAndVisitCategoryProducts(productCategory, state);
+            if (categoryLevelData != null) {
+                if (isDoProducts(productCategory)) {
+                    visitCategoryProducts(productCategory, categoryLevelData.getCategoryMembers(productCategoryId), state);
+                }
+            } else {
+                queryAndVisitCategoryProducts(productCategory, state);
+            }
             
             // recurse into sub categories
-            List<GenericValue> childProductCategoryRollups = queryCategorySubCategoryList(productCategory);
+            List<GenericValue> childProductCategoryRollups = (categoryLevelData != null) ? categoryLevelData.getSubCategories(productCategoryId) 
+                    : queryCategorySubCategoryList(productCategory);
             if (childProductCategoryRollups.size() > 0) {
-                traverseCategoriesDepthFirstImpl(childProductCategoryRollups, CategoryRefType.CATEGORY_ASSOC.getResolver(), state);
+                if (categoryLevelData != null) {
+                    traverseCategoriesDepthFirstImpl(childProductCategoryRollups, CategoryRefType.CATEGORY_ASSOC.getResolver(), state, 
+                            categoryLevelData.getNextLevelData(this));
+                } else {
+                    traverseCategoriesDepthFirstImpl(childProductCategoryRollups, CategoryRefType.CATEGORY_ASSOC.getResolver(), state);
+                }
+            }
+            if (categoryLevelData != null) {
+                categoryLevelData.release(productCategoryId);
             }
             
             // pop category
@@ -609,6 +786,230 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
             visitor.popCategory(productCategory, state);
         }
     }
+
+    /**
+     * SCIPIO: Traverses each of the given top-level categories in its own task, using a pool of
+     * {@link TraversalConfig#getThreadCount()} threads, and merges the task states in list order.
+     * <p>
+     * At most two tasks per thread are pending merge at any time, which bounds the output buffered
+     * by subclasses in the states.
+     */
+    protected void traverseCategoriesParallelImpl(List<GenericValue> categoryAssocList, CategoryRefType.Resolver categoryAssocResolver) throws GeneralException {
+        if (categoryAssocList.isEmpty()) {
+            return;
+        }
+        int threadCount = travConfig.getThreadCount();
+        int maxPending = threadCount * 2;
+        ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(TRAVERSAL_THREAD_GROUP, "catalog-traversal", threadCount, 0, false);
+        List<TopCategoryTraversal> tasks = new ArrayList<>(categoryAssocList.size());
+        List<Future<TraversalState>> futures = new ArrayList<>(categoryAssocList.size());
+        try {
+            for(int merged = 0; merged < categoryAssocList.size(); merged++) {
+                while (futures.size() < categoryAssocList.size() && (futures.size() - merged) < maxPending) {
+                    TopCategoryTraversal task = new TopCategoryTraversal(categoryAssocList.get(futures.size()), categoryAssocResolver, newParallelTraversalState());
+                    tasks.add(task);
+                    futures.add(executor.submit(task));
+                }
+                TraversalState state = getTraversalResult(futures.get(merged));
+                mergeTraversalState(state);
+                if (tasks.get(merged).stopException != null) {
+                    throw tasks.get(merged).stopException;
+                }
+            }
+        } finally {
+            for(Future<TraversalState> future : futures) {
+                future.cancel(false);
+            }
+            executor.shutdown();
+            // NOTE: tasks already running when we stop or fail must not still use the visitor after we return
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private TraversalState getTraversalResult(Future<TraversalState> future) throws GeneralException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CatalogTraversalException("Interrupted while waiting for category traversal", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralException) {
+                throw (GeneralException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CatalogTraversalException(cause);
+        }
+    }
+
+    private class TopCategoryTraversal implements Callable<TraversalState> {
+        private final GenericValue categoryAssoc;
+        private final CategoryRefType.Resolver categoryAssocResolver;
+        private final TraversalState state;
+        private volatile StopCatalogTraversalException stopException = null;
+
+        TopCategoryTraversal(GenericValue categoryAssoc, CategoryRefType.Resolver categoryAssocResolver, TraversalState state) {
+            this.categoryAssoc = categoryAssoc;
+            this.categoryAssocResolver = categoryAssocResolver;
+            this.state = state;
+        }
+
+        @Override
+        public TraversalState call() throws GeneralException {
+            try {
+                traverseCategoriesDepthFirstImpl(Collections.singletonList(categoryAssoc), categoryAssocResolver, state);
+            } catch(StopCatalogTraversalException e) {
+                // keep the partial output, the caller stops after merging it
+                stopException = e;
+            }
+            return state;
+        }
+    }
+
+    /**
+     * SCIPIO: Associations of one category level, bulk-loaded by {@link #prefetchCategoryLevel}.
+     * Only used by the thread traversing the level.
+     * <p>
+     * Each level stays referenced by the level above it for the whole traversal, so the data of each category
+     * is released ({@link #release}) once the category has been traversed, and the list of the next level
+     * associations once the next level has been prefetched.
+     */
+    protected static class CategoryLevelData {
+        protected final Set<String> productCategoryIds;
+        protected final Map<String, GenericValue> productCategories;
+        protected final Map<String, List<GenericValue>> subCategories;
+        protected final Map<String, List<GenericValue>> categoryMembers;
+        private List<GenericValue> nextLevelAssocs;
+        private CategoryLevelData nextLevelData;
+
+        protected CategoryLevelData(Set<String> productCategoryIds, Map<String, GenericValue> productCategories, Map<String, List<GenericValue>> subCategories,
+                Map<String, List<GenericValue>> categoryMembers) {
+            this.productCategoryIds = productCategoryIds;
+            this.productCategories = productCategories;
+            this.subCategories = subCategories;
+            this.categoryMembers = categoryMembers;
+            List<GenericValue> nextLevelAssocs = new ArrayList<>();
+            for (List<GenericValue> rollups : subCategories.values()) {
+                nextLevelAssocs.addAll(rollups);
+            }
+            this.nextLevelAssocs = nextLevelAssocs;
+        }
+
+        /**
+         * Returns true if the data of the category was prefetched and not released yet.
+         */
+        public boolean isPrefetched(String productCategoryId) {
+            return productCategoryIds.contains(productCategoryId);
+        }
+
+        /**
+         * Releases the data of the category, once traversed.
+         */
+        public void release(String productCategoryId) {
+            productCategoryIds.remove(productCategoryId);
+            productCategories.remove(productCategoryId);
+            subCategories.remove(productCategoryId);
+            categoryMembers.remove(productCategoryId);
+        }
+
+        public List<GenericValue> getSubCategories(String productCategoryId) {
+            List<GenericValue> list = subCategories.get(productCategoryId);
+            return (list != null) ? list : Collections.<GenericValue>emptyList();
+        }
+
+        public List<GenericValue> getCategoryMembers(String productCategoryId) {
+            List<GenericValue> list = categoryMembers.get(productCategoryId);
+            return (list != null) ? list : Collections.<GenericValue>emptyList();
+        }
+
+        /**
+         * Returns the data of the sub categories of all the categories of this level, prefetched on first call.
+         */
+        public CategoryLevelData getNextLevelData(CatalogTraverser traverser) throws GenericEntityException {
+            if (nextLevelData == null) {
+                nextLevelData = traverser.prefetchCategoryLevel(nextLevelAssocs);
+                nextLevelAssocs = null;
+            }
+            return nextLevelData;
+        }
+    }
+
+    /**
+     * SCIPIO: Queries the ProductCategory, ProductCategoryRollup and ProductCategoryMember values 
+     * for all the categories of the given level, a few queries per level instead of several per category.
+     */
+    protected CategoryLevelData prefetchCategoryLevel(List<GenericValue> categoryAssocList) throws GenericEntityException {
+        Set<String> productCategoryIds = new LinkedHashSet<>();
+        boolean needCategories = false;
+        for(GenericValue categoryAssoc : categoryAssocList) {
+            productCategoryIds.add(categoryAssoc.getString("productCategoryId"));
+            if (!"ProductCategory".equals(categoryAssoc.getEntityName())) {
+                needCategories = true;
+            }
+        }
+        Map<String, GenericValue> productCategories = new HashMap<>();
+        if (needCategories) {
+            for(GenericValue productCategory : queryInChunks("ProductCategory", "productCategoryId", productCategoryIds, false, null)) {
+                productCategories.put(productCategory.getString("productCategoryId"), productCategory);
+            }
+        }
+        Map<String, List<GenericValue>> subCategories = groupByField(queryInChunks("ProductCategoryRollup", "parentProductCategoryId", 
+                productCategoryIds, travConfig.isFilterByDate(), "sequenceNum"), "parentProductCategoryId");
+        Map<String, List<GenericValue>> categoryMembers;
+        if (travConfig.isDoProduct()) {
+            categoryMembers = groupByField(queryInChunks("ProductCategoryMember", "productCategoryId", 
+                    productCategoryIds, travConfig.isFilterByDate(), "sequenceNum"), "productCategoryId");
+        } else {
+            categoryMembers = new HashMap<>();
+        }
+        return new CategoryLevelData(productCategoryIds, productCategories, subCategories, categoryMembers);
+    }
+
+    /**
+     * SCIPIO: Queries the given entity for the given field values, split in IN conditions of at most {@link #PREFETCH_CHUNK_SIZE} ids.
+     * NOTE: orderBy only applies within each chunk, which is enough when the result is grouped by the field afterward.
+     */
+    protected List<GenericValue> queryInChunks(String entityName, String fieldName, Collection<String> values, boolean filterByDate, String orderBy) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> valueList = new ArrayList<>(values);
+        List<GenericValue> result = new ArrayList<>();
+        for(int i = 0; i < valueList.size(); i += PREFETCH_CHUNK_SIZE) {
+            List<String> chunk = valueList.subList(i, Math.min(i + PREFETCH_CHUNK_SIZE, valueList.size()));
+            EntityQuery query = EntityQuery.use(getDelegator()).from(entityName)
+                    .where(EntityCondition.makeCondition(fieldName, EntityOperator.IN, chunk)).cache(isUseCache());
+            if (filterByDate) {
+                query.filterByDate(true, travConfig.getMoment());
+            }
+            if (orderBy != null) {
+                query.orderBy(orderBy);
+            }
+            result.addAll(query.queryList());
+        }
+        return result;
+    }
+
+    private static Map<String, List<GenericValue>> groupByField(List<GenericValue> values, String fieldName) {
+        Map<String, List<GenericValue>> grouped = new LinkedHashMap<>();
+        for(GenericValue value : values) {
+            String key = value.getString(fieldName);
+            List<GenericValue> list = grouped.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                grouped.put(key, list);
+            }
+            list.add(value);
+        }
+        return grouped;
+    }
     
     protected void registerSeenCategoryIds(Collection<String> categoryIds) {
         if (this.seenCategoryIds == null) return;
@@ -641,25 +1042,47 @@ public class CatalogTraverser extends AbstractCatalogVisitor {
     protected void queryAndVisitCategoryProducts(GenericValue productCategory, TraversalState state) throws GeneralException {
         // products
         if (isDoProducts(productCategory)) {
-            List<GenericValue> productCategoryMembers = queryCategoryProductList(productCategory);
-            if (UtilValidate.isNotEmpty(productCategoryMembers)) {
-                for (GenericValue productCategoryMember : productCategoryMembers) {
-                    String productId = productCategoryMember.getString("productId");
-                    // duplicate product visit prevention, if enabled
-                    if (travConfig.isPreventDupProductVisit()) {
-                        if (this.seenProductIds.contains(productId)) {
-                            continue;
-                        }
-                    }
-                    
-                    GenericValue product = productCategoryMember.getRelatedOne("Product", isUseCache());
-                    // product is always one level down
-                    visitor.visitProduct(product, state);
-                    
-                    if (travConfig.isPreventDupProductVisit()) {
-                        this.seenProductIds.add(productId);
-                    }
+            visitCategoryProducts(productCategory, queryCategoryProductList(productCategory), state);
+        }
+    }
+
+    protected void visitCategoryProducts(GenericValue productCategory, List<GenericValue> productCategoryMembers, TraversalState state) throws GeneralException {
+        if (UtilValidate.isEmpty(productCategoryMembers)) {
+            return;
+        }
+        // SCIPIO: load all the member products in bulk, if enabled
+        Map<String, GenericValue> products = null;
+        if (travConfig.isPrefetch()) {
+            Set<String> productIds = new LinkedHashSet<>();
+            for (GenericValue productCategoryMember : productCategoryMembers) {
+                productIds.add(productCategoryMember.getString("productId"));
+            }
+            products = new HashMap<>();
+            for (GenericValue product : queryInChunks("Product", "productId", productIds, false, null)) {
+                products.put(product.getString("productId"), product);
+            }
+        }
+        for (GenericValue productCategoryMember : productCategoryMembers) {
+            String productId = productCategoryMember.getString("productId");
+            // duplicate product visit prevention, if enabled
+            if (travConfig.isPreventDupProductVisit()) {
+                if (this.seenProductIds.contains(productId)) {
+                    continue;
                 }
+                if (state.isParallel() && !this.claimedProductIds.add(productId)) {
+                    continue;
+                }
+            }
+            
+            GenericValue product = (products != null) ? products.get(productId) : null;
+            if (product == null) {
+                product = productCategoryMember.getRelatedOne("Product", isUseCache());
+            }
+            // product is always one level down
+            visitor.visitProduct(product, state);
+            
+            if (travConfig.isPreventDupProductVisit()) {
+                this.seenProductIds.add(productId);
             }
         }
     }
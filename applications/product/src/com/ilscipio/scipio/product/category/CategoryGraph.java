@@ -0,0 +1,449 @@
+package com.ilscipio.scipio.product.category;
+
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+
+import com.ilscipio.scipio.product.seo.ClosestTrailResolver;
+
+/**
+ * SCIPIO: Immutable in-memory graph of the catalog categories of a delegator: category rollups
+ * (ProductCategoryRollup) and catalog top categories (ProdCatalogCategory), loaded with a few queries.
+ * Category member counts are kept by {@link CategoryMemberCountCache}, so member changes don't rebuild the graph.
+ * <p>
+ * The association validity dates are kept in the graph, so lookups for any moment never need the database.
+ * The graph is never modified: the <code>clearCategoryGraph</code> service, triggered by the entity ECAs
+ * of the two entities, drops it (again when the transaction ends), and the next {@link #getInstance} call builds a new one and publishes it
+ * as a whole. The instance is held in the <code>product.category.graph</code> UtilCache and can also be
+ * cleared from webtools.
+ * <p>
+ * Categories are expected to form a DAG, but cycles in the data are tolerated (trails never repeat a category).
+ * <p>
+ * Thread-safe.
+ */
+public final class CategoryGraph {
+
+    public static final String module = CategoryGraph.class.getName();
+
+    private static final UtilCache<String, CategoryGraph> graphCache = UtilCache.createUtilCache("product.category.graph");
+    private static final AtomicLong version = new AtomicLong();
+    private static final Object buildLock = new Object();
+
+    private static final Comparator<Assoc> fromDateDescComparator = new Comparator<Assoc>() {
+        @Override
+        public int compare(Assoc first, Assoc second) {
+            if (first.fromDate == null) return (second.fromDate == null) ? 0 : 1;
+            if (second.fromDate == null) return -1;
+            return second.fromDate.compareTo(first.fromDate);
+        }
+    };
+
+    private final long graphVersion;
+    private final Timestamp buildTime;
+    /** Sub-category associations by parent category ID, ordered by sequenceNum. */
+    private final Map<String, List<Assoc>> childAssocs;
+    /** Parent category associations by category ID, ordered by most recent fromDate first. */
+    private final Map<String, List<Assoc>> parentAssocs;
+    /** Top category associations by catalog ID, ordered by sequenceNum. */
+    private final Map<String, List<Assoc>> catalogAssocs;
+
+    /**
+     * One association to a category: from a parent category, catalog or child category,
+     * depending on the map it is held in.
+     */
+    public static final class Assoc {
+        private final String productCategoryId;
+        private final String typeId;
+        private final Long sequenceNum;
+        private final Timestamp fromDate;
+        private final Timestamp thruDate;
+
+        Assoc(String productCategoryId, String typeId, Long sequenceNum, Timestamp fromDate, Timestamp thruDate) {
+            this.productCategoryId = productCategoryId;
+            this.typeId = typeId;
+            this.sequenceNum = sequenceNum;
+            this.fromDate = fromDate;
+            this.thruDate = thruDate;
+        }
+
+        /** The associated category ID (the other end of the association). */
+        public String getProductCategoryId() { return productCategoryId; }
+        /** The prodCatalogCategoryTypeId for catalog associations, null for rollups. */
+        public String getTypeId() { return typeId; }
+        public Long getSequenceNum() { return sequenceNum; }
+        public Timestamp getFromDate() { return fromDate; }
+        public Timestamp getThruDate() { return thruDate; }
+
+        /**
+         * Same as {@link org.ofbiz.entity.util.EntityUtil#isValueActive}; a null moment means any date.
+         */
+        public boolean isActive(Timestamp moment) {
+            if (moment == null) {
+                return true;
+            }
+            return (thruDate == null || thruDate.after(moment)) && (fromDate == null || !fromDate.after(moment));
+        }
+    }
+
+    private CategoryGraph(long graphVersion, Map<String, List<Assoc>> childAssocs, Map<String, List<Assoc>> parentAssocs,
+            Map<String, List<Assoc>> catalogAssocs) {
+        this.graphVersion = graphVersion;
+        this.buildTime = UtilDateTime.nowTimestamp();
+        this.childAssocs = childAssocs;
+        this.parentAssocs = parentAssocs;
+        this.catalogAssocs = catalogAssocs;
+    }
+
+    /**
+     * Returns the current category graph of the delegator, building it if it was cleared.
+     * Concurrent callers wait for a single build.
+     */
+    public static CategoryGraph getInstance(Delegator delegator) throws GenericEntityException {
+        String key = delegator.getDelegatorName();
+        CategoryGraph graph = graphCache.get(key);
+        if (graph != null) {
+            return graph;
+        }
+        synchronized (buildLock) {
+            graph = graphCache.get(key);
+            if (graph != null) {
+                return graph;
+            }
+            long startVersion = version.get();
+            graph = build(delegator, startVersion);
+            // don't publish a graph that was already invalidated by a change during the build
+            if (version.get() == startVersion) {
+                graphCache.put(key, graph);
+            }
+            return graph;
+        }
+    }
+
+    /**
+     * Drops the graph of the delegator, now and again when the current transaction ends;
+     * the next {@link #getInstance} call rebuilds it.
+     */
+    public static void clear(final Delegator delegator) {
+        clearNow(delegator);
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        // any status: a graph built during the transaction may include its rolled back changes
+                        clearNow(delegator);
+                    }
+                });
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register category graph clear for transaction end; graph cleared now only", module);
+        }
+    }
+
+    private static void clearNow(Delegator delegator) {
+        version.incrementAndGet();
+        graphCache.remove(delegator.getDelegatorName());
+    }
+
+    private static CategoryGraph build(Delegator delegator, long graphVersion) throws GenericEntityException {
+        long startTime = System.currentTimeMillis();
+
+        Map<String, List<Assoc>> childAssocs = new HashMap<>();
+        Map<String, List<Assoc>> parentAssocs = new HashMap<>();
+        int rollupCount = 0;
+        EntityListIterator rollupIt = EntityQuery.use(delegator)
+                .select("productCategoryId", "parentProductCategoryId", "sequenceNum", "fromDate", "thruDate")
+                .from("ProductCategoryRollup").orderBy("parentProductCategoryId", "sequenceNum").queryIterator();
+        try {
+            GenericValue rollup;
+            while ((rollup = rollupIt.next()) != null) {
+                String productCategoryId = rollup.getString("productCategoryId");
+                String parentProductCategoryId = rollup.getString("parentProductCategoryId");
+                addAssoc(childAssocs, parentProductCategoryId, new Assoc(productCategoryId, null, rollup.getLong("sequenceNum"),
+                        rollup.getTimestamp("fromDate"), rollup.getTimestamp("thruDate")));
+                addAssoc(parentAssocs, productCategoryId, new Assoc(parentProductCategoryId, null, rollup.getLong("sequenceNum"),
+                        rollup.getTimestamp("fromDate"), rollup.getTimestamp("thruDate")));
+                rollupCount++;
+            }
+        } finally {
+            rollupIt.close();
+        }
+        for (List<Assoc> assocs : parentAssocs.values()) {
+            // NOTE: stable sort, same order as the orderBy("-fromDate") queries this replaces
+            Collections.sort(assocs, fromDateDescComparator);
+        }
+
+        Map<String, List<Assoc>> catalogAssocs = new HashMap<>();
+        List<GenericValue> prodCatalogCategories = EntityQuery.use(delegator)
+                .select("prodCatalogId", "productCategoryId", "prodCatalogCategoryTypeId", "sequenceNum", "fromDate", "thruDate")
+                .from("ProdCatalogCategory").orderBy("prodCatalogId", "sequenceNum").queryList();
+        for (GenericValue prodCatalogCategory : prodCatalogCategories) {
+            addAssoc(catalogAssocs, prodCatalogCategory.getString("prodCatalogId"), new Assoc(prodCatalogCategory.getString("productCategoryId"),
+                    prodCatalogCategory.getString("prodCatalogCategoryTypeId"), prodCatalogCategory.getLong("sequenceNum"),
+                    prodCatalogCategory.getTimestamp("fromDate"), prodCatalogCategory.getTimestamp("thruDate")));
+        }
+
+        if (Debug.infoOn()) {
+            Debug.logInfo("Built category graph for delegator '" + delegator.getDelegatorName() + "': " + rollupCount + " rollups, "
+                    + prodCatalogCategories.size() + " catalog categories ("
+                    + (System.currentTimeMillis() - startTime) + "ms)", module);
+        }
+        return new CategoryGraph(graphVersion, childAssocs, parentAssocs, catalogAssocs);
+    }
+
+    private static void addAssoc(Map<String, List<Assoc>> assocMap, String key, Assoc assoc) {
+        List<Assoc> assocs = assocMap.get(key);
+        if (assocs == null) {
+            assocs = new ArrayList<>();
+            assocMap.put(key, assocs);
+        }
+        assocs.add(assoc);
+    }
+
+    private static List<Assoc> getAssocs(Map<String, List<Assoc>> assocMap, String key) {
+        List<Assoc> assocs = assocMap.get(key);
+        return (assocs != null) ? Collections.unmodifiableList(assocs) : Collections.<Assoc>emptyList();
+    }
+
+    private static List<String> getActiveIds(List<Assoc> assocs, Timestamp moment) {
+        if (assocs == null || assocs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(assocs.size());
+        for (Assoc assoc : assocs) {
+            if (assoc.isActive(moment)) {
+                ids.add(assoc.productCategoryId);
+            }
+        }
+        return ids;
+    }
+
+    private static boolean hasActive(List<Assoc> assocs, Timestamp moment) {
+        if (assocs != null) {
+            for (Assoc assoc : assocs) {
+                if (assoc.isActive(moment)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The invalidation counter value this graph was built for.
+     */
+    public long getGraphVersion() {
+        return graphVersion;
+    }
+
+    public Timestamp getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Returns the sub-category associations of the category, all dates, ordered by sequenceNum.
+     */
+    public List<Assoc> getChildAssocs(String parentProductCategoryId) {
+        return getAssocs(childAssocs, parentProductCategoryId);
+    }
+
+    /**
+     * Returns the parent category associations of the category, all dates, most recent fromDate first.
+     */
+    public List<Assoc> getParentAssocs(String productCategoryId) {
+        return getAssocs(parentAssocs, productCategoryId);
+    }
+
+    /**
+     * Returns the top category associations of the catalog, all dates, ordered by sequenceNum.
+     */
+    public List<Assoc> getCatalogAssocs(String prodCatalogId) {
+        return getAssocs(catalogAssocs, prodCatalogId);
+    }
+
+    /**
+     * Returns the IDs of the sub-categories active at the given moment (null for all dates), ordered by sequenceNum.
+     */
+    public List<String> getChildCategoryIds(String parentProductCategoryId, Timestamp moment) {
+        return getActiveIds(childAssocs.get(parentProductCategoryId), moment);
+    }
+
+    /**
+     * Returns the IDs of the parent categories active at the given moment (null for all dates), most recent fromDate first.
+     */
+    public List<String> getParentCategoryIds(String productCategoryId, Timestamp moment) {
+        return getActiveIds(parentAssocs.get(productCategoryId), moment);
+    }
+
+    /**
+     * Returns the IDs of the catalog top categories active at the given moment (null for all dates), ordered by sequenceNum,
+     * optionally only those of the given prodCatalogCategoryTypeId.
+     */
+    public List<String> getCatalogCategoryIds(String prodCatalogId, String prodCatalogCategoryTypeId, Timestamp moment) {
+        List<Assoc> assocs = catalogAssocs.get(prodCatalogId);
+        if (assocs == null) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(assocs.size());
+        for (Assoc assoc : assocs) {
+            if (assoc.isActive(moment) && (prodCatalogCategoryTypeId == null || prodCatalogCategoryTypeId.equals(assoc.typeId))) {
+                ids.add(assoc.productCategoryId);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns true if the category is a direct sub-category of the parent at the given moment (null for any date).
+     */
+    public boolean isChildOf(String parentProductCategoryId, String productCategoryId, Timestamp moment) {
+        List<Assoc> assocs = parentAssocs.get(productCategoryId);
+        if (assocs != null) {
+            for (Assoc assoc : assocs) {
+                if (assoc.productCategoryId.equals(parentProductCategoryId) && assoc.isActive(moment)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the ancestor category is reachable from the category through parent rollups
+     * active at the given moment (null for any date), at any depth.
+     */
+    public boolean isAncestorOf(String ancestorProductCategoryId, String productCategoryId, Timestamp moment) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(productCategoryId);
+        while (!pending.isEmpty()) {
+            String currentId = pending.poll();
+            List<Assoc> assocs = parentAssocs.get(currentId);
+            if (assocs == null) {
+                continue;
+            }
+            for (Assoc assoc : assocs) {
+                if (!assoc.isActive(moment)) {
+                    continue;
+                }
+                if (assoc.productCategoryId.equals(ancestorProductCategoryId)) {
+                    return true;
+                }
+                if (visited.add(assoc.productCategoryId)) {
+                    pending.add(assoc.productCategoryId);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the category has no parent rollup active at the given moment (null for any date).
+     */
+    public boolean isTopCategory(String productCategoryId, Timestamp moment) {
+        return !hasActive(parentAssocs.get(productCategoryId), moment);
+    }
+
+    /**
+     * Returns the number of ProductCategoryRollup records having the category as parent, all dates.
+     */
+    public int getChildCount(String parentProductCategoryId) {
+        List<Assoc> assocs = childAssocs.get(parentProductCategoryId);
+        return (assocs != null) ? assocs.size() : 0;
+    }
+
+    /**
+     * Returns all the trails from a top category to the category (included) using the parent rollups active
+     * at the given moment (null for any date); same results as {@link org.ofbiz.product.category.CategoryWorker#getCategoryRollupTrails}.
+     * If the category has no parent, returns a single trail containing only the category.
+     * <p>
+     * The returned lists are new and may be modified by the caller.
+     */
+    public List<List<String>> getTrails(String productCategoryId, Timestamp moment) {
+        List<List<String>> trails = new ArrayList<>();
+        Set<String> pathIds = new HashSet<>();
+        pathIds.add(productCategoryId);
+        collectTrails(productCategoryId, moment, pathIds, trails);
+        return trails;
+    }
+
+    private void collectTrails(String productCategoryId, Timestamp moment, Set<String> pathIds, List<List<String>> outTrails) {
+        int startSize = outTrails.size();
+        List<Assoc> assocs = parentAssocs.get(productCategoryId);
+        if (assocs != null) {
+            for (Assoc assoc : assocs) {
+                if (!assoc.isActive(moment) || !pathIds.add(assoc.productCategoryId)) {
+                    continue;
+                }
+                int parentStart = outTrails.size();
+                collectTrails(assoc.productCategoryId, moment, pathIds, outTrails);
+                for (int i = parentStart; i < outTrails.size(); i++) {
+                    outTrails.get(i).add(productCategoryId);
+                }
+                pathIds.remove(assoc.productCategoryId);
+            }
+        }
+        if (outTrails.size() == startSize) {
+            List<String> trail = new ArrayList<>();
+            trail.add(productCategoryId);
+            outTrails.add(trail);
+        }
+    }
+
+    /**
+     * Returns the trails of {@link #getTrails(String, Timestamp)} that start with one of the given top categories;
+     * if topCategoryIds is null, returns all of them.
+     */
+    public List<List<String>> getTrails(String productCategoryId, Collection<String> topCategoryIds, Timestamp moment) {
+        List<List<String>> trails = getTrails(productCategoryId, moment);
+        if (topCategoryIds == null) {
+            return trails;
+        }
+        List<List<String>> filtered = new ArrayList<>(trails.size());
+        for (List<String> trail : trails) {
+            if (!trail.isEmpty() && topCategoryIds.contains(trail.get(0))) {
+                filtered.add(trail);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Returns the trail of the category, starting at one of the given top categories, that best matches the hint trail
+     * (usually the breadcrumbs), using the given resolver; null if the category has no trail under the top categories.
+     */
+    public List<String> getBestTrail(String productCategoryId, List<String> hintTrail, Collection<String> topCategoryIds,
+            ClosestTrailResolver resolver, Timestamp moment) {
+        List<List<String>> trails = getTrails(productCategoryId, topCategoryIds, moment);
+        if (trails.isEmpty()) {
+            return null;
+        }
+        return resolver.findClosestTrail(trails, hintTrail, (topCategoryIds != null) ? topCategoryIds : Collections.<String>emptyList());
+    }
+}
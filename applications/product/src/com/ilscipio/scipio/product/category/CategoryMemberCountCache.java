@@ -0,0 +1,89 @@
+package com.ilscipio.scipio.product.category;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: Cached counts of the ProductCategoryMember records of a category (all dates, like
+ * {@link org.ofbiz.product.category.CategoryWorker#categoryRollupCount} counts all rollups),
+ * kept apart from the {@link CategoryGraph} so that member changes only invalidate their own category.
+ * <p>
+ * The <code>clearCategoryMemberCount</code> service, called by the ProductCategoryMember entity ECA,
+ * removes the entry of the changed category, again when the transaction ends.
+ * <p>
+ * Thread-safe.
+ */
+public final class CategoryMemberCountCache {
+
+    public static final String module = CategoryMemberCountCache.class.getName();
+
+    private static final UtilCache<String, Long> countCache = UtilCache.createUtilCache("product.category.membercount");
+    private static final AtomicLong version = new AtomicLong();
+
+    private CategoryMemberCountCache() {
+    }
+
+    /**
+     * Returns the number of ProductCategoryMember records of the category, all dates.
+     */
+    public static long getMemberCount(Delegator delegator, String productCategoryId) throws GenericEntityException {
+        String key = makeKey(delegator, productCategoryId);
+        Long count = countCache.get(key);
+        if (count != null) {
+            return count;
+        }
+        long startVersion = version.get();
+        count = EntityQuery.use(delegator).from("ProductCategoryMember").where("productCategoryId", productCategoryId).queryCount();
+        // don't keep a count that a concurrent change may have made stale
+        if (version.get() == startVersion) {
+            countCache.put(key, count);
+        }
+        return count;
+    }
+
+    /**
+     * Removes the count of the category (all categories if null), now and again when the current transaction ends.
+     */
+    public static void clear(final Delegator delegator, final String productCategoryId) {
+        clearNow(delegator, productCategoryId);
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        // any status: a count read during the transaction may include its rolled back changes
+                        clearNow(delegator, productCategoryId);
+                    }
+                });
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register category member count clear for transaction end; clearing all counts", module);
+            clearNow(delegator, null);
+        }
+    }
+
+    private static void clearNow(Delegator delegator, String productCategoryId) {
+        version.incrementAndGet();
+        if (productCategoryId == null) {
+            countCache.clear();
+        } else {
+            countCache.remove(makeKey(delegator, productCategoryId));
+        }
+    }
+
+    private static String makeKey(Delegator delegator, String productCategoryId) {
+        return delegator.getDelegatorName() + "::" + productCategoryId;
+    }
+}
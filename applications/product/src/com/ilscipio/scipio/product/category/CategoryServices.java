@@ -107,4 +107,22 @@ public abstract class CategoryServices {
         result.put("categoryEntityOutMap", categoryEntityOutMap);
         return result;
     }
+
+    /**
+     * SCIPIO: Drops the in-memory category graph ({@link CategoryGraph}) so it gets rebuilt on next use.
+     * Called by the ProductCategoryRollup and ProdCatalogCategory entity ECAs.
+     */
+    public static Map<String, Object> clearCategoryGraph(DispatchContext dctx, Map<String, ? extends Object> context) {
+        CategoryGraph.clear(dctx.getDelegator());
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * SCIPIO: Removes the cached member count of the category ({@link CategoryMemberCountCache}), or all counts if no category is passed.
+     * Called by the ProductCategoryMember entity ECA.
+     */
+    public static Map<String, Object> clearCategoryMemberCount(DispatchContext dctx, Map<String, ? extends Object> context) {
+        CategoryMemberCountCache.clear(dctx.getDelegator(), (String) context.get("productCategoryId"));
+        return ServiceUtil.returnSuccess();
+    }
 }
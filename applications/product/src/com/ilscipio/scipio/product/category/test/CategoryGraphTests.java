@@ -0,0 +1,85 @@
+package com.ilscipio.scipio.product.category.test;
+
+import java.sql.Timestamp;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ilscipio.scipio.product.category.CategoryGraph;
+import com.ilscipio.scipio.product.category.CategoryMemberCountCache;
+
+/**
+ * SCIPIO: Checks the category graph ({@link CategoryGraph}) and member counts ({@link CategoryMemberCountCache})
+ * against their records, and that both follow changes through the entity ECAs, on commit and on rollback.
+ */
+public class CategoryGraphTests extends OFBizTestCase {
+
+    private static final Timestamp oldDate = Timestamp.valueOf("2001-06-01 00:00:00");
+
+    public CategoryGraphTests(String name) {
+        super(name);
+    }
+
+    private CategoryGraph getGraph() throws Exception {
+        return CategoryGraph.getInstance(delegator);
+    }
+
+    private GenericValue makeRollup() {
+        return delegator.makeValue("ProductCategoryRollup", UtilMisc.toMap("parentProductCategoryId", "CGT_TEST_TOP",
+                "productCategoryId", "CGT_TEST_OTHER", "fromDate", new Timestamp(UtilDateTime.nowTimestamp().getTime() - 1000)));
+    }
+
+    private GenericValue makeMember() {
+        return delegator.makeValue("ProductCategoryMember", UtilMisc.toMap("productCategoryId", "CGT_TEST_LEAF",
+                "productId", "CGT_TEST_P3", "fromDate", new Timestamp(UtilDateTime.nowTimestamp().getTime() - 1000)));
+    }
+
+    public void testGraph() throws Exception {
+        Timestamp now = UtilDateTime.nowTimestamp();
+        CategoryGraph graph = getGraph();
+        assertEquals(UtilMisc.toList("CGT_TEST_TOP"), graph.getCatalogCategoryIds("CGT_TEST_CATALOG", "PCCT_BROWSE_ROOT", now));
+        assertEquals("Current sub-categories", UtilMisc.toList("CGT_TEST_CHILD"), graph.getChildCategoryIds("CGT_TEST_TOP", now));
+        assertEquals("Sub-categories at an earlier date", UtilMisc.toList("CGT_TEST_CHILD", "CGT_TEST_OLD"),
+                graph.getChildCategoryIds("CGT_TEST_TOP", oldDate));
+        assertTrue(graph.isAncestorOf("CGT_TEST_TOP", "CGT_TEST_LEAF", now));
+        assertFalse(graph.isAncestorOf("CGT_TEST_CHILD", "CGT_TEST_OLD", now));
+        assertEquals(UtilMisc.toList(UtilMisc.toList("CGT_TEST_TOP", "CGT_TEST_CHILD", "CGT_TEST_LEAF")), graph.getTrails("CGT_TEST_LEAF", now));
+        assertEquals("Old category without current parent", UtilMisc.toList(UtilMisc.toList("CGT_TEST_OLD")), graph.getTrails("CGT_TEST_OLD", now));
+        assertEquals("Members of all dates", 2, CategoryMemberCountCache.getMemberCount(delegator, "CGT_TEST_LEAF"));
+    }
+
+    public void testClearedOnCommit() throws Exception {
+        Timestamp now = UtilDateTime.nowTimestamp();
+        assertFalse(getGraph().isChildOf("CGT_TEST_TOP", "CGT_TEST_OTHER", now));
+        assertEquals(2, CategoryMemberCountCache.getMemberCount(delegator, "CGT_TEST_LEAF"));
+
+        GenericValue rollup = delegator.create(makeRollup());
+        GenericValue member = delegator.create(makeMember());
+        now = UtilDateTime.nowTimestamp();
+        assertTrue("Created rollup seen", getGraph().isChildOf("CGT_TEST_TOP", "CGT_TEST_OTHER", now));
+        assertEquals("Created member counted", 3, CategoryMemberCountCache.getMemberCount(delegator, "CGT_TEST_LEAF"));
+
+        rollup.remove();
+        member.remove();
+        assertFalse("Removed rollup gone", getGraph().isChildOf("CGT_TEST_TOP", "CGT_TEST_OTHER", null));
+        assertEquals("Removed member not counted", 2, CategoryMemberCountCache.getMemberCount(delegator, "CGT_TEST_LEAF"));
+    }
+
+    public void testClearedOnRollback() throws Exception {
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            delegator.create(makeRollup());
+            delegator.create(makeMember());
+            assertTrue("Own rollup seen in the transaction", getGraph().isChildOf("CGT_TEST_TOP", "CGT_TEST_OTHER", null));
+            assertEquals("Own member counted in the transaction", 3, CategoryMemberCountCache.getMemberCount(delegator, "CGT_TEST_LEAF"));
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "Category graph test rollback", null);
+        }
+
+        assertFalse("Rolled back rollup not kept", getGraph().isChildOf("CGT_TEST_TOP", "CGT_TEST_OTHER", null));
+        assertEquals("Rolled back member not counted", 2, CategoryMemberCountCache.getMemberCount(delegator, "CGT_TEST_LEAF"));
+    }
+}
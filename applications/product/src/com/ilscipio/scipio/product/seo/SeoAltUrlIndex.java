@@ -0,0 +1,819 @@
+package com.ilscipio.scipio.product.seo;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+
+import com.ilscipio.scipio.product.category.CatalogUrlType;
+import com.ilscipio.scipio.product.seo.SeoCatalogUrlWorker.AltUrlPartInfo;
+
+/**
+ * SCIPIO: In-memory bidirectional index of the product and category ALTERNATIVE_URL texts
+ * of a delegator: ID to alt url name per locale (outbound links) and alt url name to IDs (inbound URL matching).
+ * <p>
+ * Holds the ProductContent/ProductCategoryContent records of type ALTERNATIVE_URL backed by ElectronicText,
+ * along with their ALTERNATE_LOCALE associations, all dates; validity dates are checked at lookup time.
+ * The index expires by itself when the earliest future from/thru date found is reached; an expired index keeps
+ * serving lookups while a new one is built in the background.
+ * <p>
+ * The index is built once and then updated per product or category: the <code>clearSeoAltUrlIndex</code> and
+ * <code>clearSeoAltUrlIndexForContent</code> services, triggered by entity ECAs, schedule a reload of the records of
+ * the affected products and categories once the transaction commits; the reloads are applied in the background,
+ * several at a time. Only a call without IDs drops the whole index, which the next {@link #getInstance} call rebuilds.
+ * It can be preloaded in the background at webapp startup (<code>seo.alturl.index.preload</code> in catalog.properties).
+ * <p>
+ * Thread-safe.
+ */
+public final class SeoAltUrlIndex {
+
+    public static final String module = SeoAltUrlIndex.class.getName();
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("catalog", "seo.alturl.index.enabled", true);
+    private static final boolean PRELOAD = UtilProperties.getPropertyAsBoolean("catalog", "seo.alturl.index.preload", false);
+
+    private static final UtilCache<String, SeoAltUrlIndex> indexCache = UtilCache.createUtilCache("seo.alturl.index");
+    private static final AtomicLong version = new AtomicLong();
+    private static final Object buildLock = new Object();
+
+    private static final Comparator<Entry> mainOrderComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry first, Entry second) {
+            return compareDesc(first.fromDate, second.fromDate);
+        }
+    };
+    private static final Comparator<Entry> localizedOrderComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry first, Entry second) {
+            return compareDesc(first.caFromDate, second.caFromDate);
+        }
+    };
+
+    private final String delegatorName;
+    private final long indexVersion;
+    private final Timestamp buildTime;
+    /** The earliest from/thru date after the build time, after which the index must be rebuilt; null if none. */
+    private volatile Timestamp expireTime;
+    private final TypeIndex productIndex;
+    private final TypeIndex categoryIndex;
+    /** The products and categories each indexed contentId and dataResourceId belongs to. */
+    private final Map<String, Set<Ref>> contentRefs;
+    private final Map<String, Set<Ref>> dataResourceRefs;
+
+    /** Products and categories to reload, and whether a task to reload them is already scheduled. */
+    private final Set<Ref> pendingRefs = new LinkedHashSet<>();
+    private boolean refreshScheduled = false;
+    /** Whether a task to replace this index, once expired, is already scheduled. */
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean(false);
+
+    /**
+     * A product or category ID.
+     */
+    private static final class Ref {
+        private final CatalogUrlType entityType;
+        private final String id;
+
+        Ref(CatalogUrlType entityType, String id) {
+            this.entityType = entityType;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return entityType.hashCode() * 31 + id.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Ref)) {
+                return false;
+            }
+            Ref other = (Ref) obj;
+            return entityType == other.entityType && id.equals(other.id);
+        }
+    }
+
+    /**
+     * One alt url text record: a main ProductContent/ProductCategoryContent content or one of its
+     * ALTERNATE_LOCALE contents.
+     */
+    private static final class Entry {
+        private final String id;
+        /** The ProductContent/ProductCategoryContent contentId (for localized entries, the contentIdStart). */
+        private final String contentId;
+        /** For localized entries, the ALTERNATE_LOCALE contentId; null for main entries. */
+        private final String localizedContentId;
+        private final String dataResourceId;
+        private final String textData;
+        private final String localeString;
+        private final Timestamp fromDate;
+        private final Timestamp thruDate;
+        private final Timestamp caFromDate;
+        private final Timestamp caThruDate;
+
+        Entry(String id, String contentId, String localizedContentId, String dataResourceId, String textData, String localeString,
+                Timestamp fromDate, Timestamp thruDate, Timestamp caFromDate, Timestamp caThruDate) {
+            this.id = id;
+            this.contentId = contentId;
+            this.localizedContentId = localizedContentId;
+            this.dataResourceId = dataResourceId;
+            this.textData = textData;
+            this.localeString = localeString;
+            this.fromDate = fromDate;
+            this.thruDate = thruDate;
+            this.caFromDate = caFromDate;
+            this.caThruDate = caThruDate;
+        }
+
+        boolean isActive(Timestamp moment) {
+            return isActive(fromDate, thruDate, moment) && isActive(caFromDate, caThruDate, moment);
+        }
+
+        private static boolean isActive(Timestamp fromDate, Timestamp thruDate, Timestamp moment) {
+            return (thruDate == null || thruDate.after(moment)) && (fromDate == null || !fromDate.after(moment));
+        }
+    }
+
+    /**
+     * The lookup maps for one of product or category. The entry lists are never modified once in a map,
+     * updates put new lists, so lookups need no locking.
+     */
+    private static final class TypeIndex {
+        private final CatalogUrlType entityType;
+        private final String entityName;
+        private final String localizedEntityName;
+        private final String typeField;
+        private final String idField;
+        /** Main contents by product/category ID, most recent fromDate first. */
+        private final Map<String, List<Entry>> mainById = new ConcurrentHashMap<>();
+        /** Localized contents by main contentId, most recent association fromDate first. */
+        private final Map<String, List<Entry>> localizedByContentId = new ConcurrentHashMap<>();
+        /** Localized contents by product/category ID, to find them on update. */
+        private final Map<String, List<Entry>> localizedById = new ConcurrentHashMap<>();
+        private final Map<String, List<Entry>> mainByText = new ConcurrentHashMap<>();
+        private final Map<String, List<Entry>> localizedByText = new ConcurrentHashMap<>();
+        private int entryCount = 0;
+
+        TypeIndex(CatalogUrlType entityType, String entityName, String localizedEntityName, String typeField, String idField) {
+            this.entityType = entityType;
+            this.entityName = entityName;
+            this.localizedEntityName = localizedEntityName;
+            this.typeField = typeField;
+            this.idField = idField;
+        }
+    }
+
+    private SeoAltUrlIndex(String delegatorName, long indexVersion, Timestamp buildTime) {
+        this.delegatorName = delegatorName;
+        this.indexVersion = indexVersion;
+        this.buildTime = buildTime;
+        this.expireTime = null;
+        this.productIndex = new TypeIndex(CatalogUrlType.PRODUCT, "ProductContentAndElecTextShort", "ProductContentAssocAndElecTextShort",
+                "productContentTypeId", "productId");
+        this.categoryIndex = new TypeIndex(CatalogUrlType.CATEGORY, "ProductCategoryContentAndElecTextShort", "ProductCategoryContentAssocAndElecTextShort",
+                "prodCatContentTypeId", "productCategoryId");
+        this.contentRefs = new ConcurrentHashMap<>();
+        this.dataResourceRefs = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns true if the index is enabled (<code>seo.alturl.index.enabled</code> in catalog.properties, default true).
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the current index of the delegator, building it if it was cleared; concurrent callers wait for a single build.
+     * If the index expired, it is still returned and a new one is built in the background.
+     */
+    public static SeoAltUrlIndex getInstance(Delegator delegator) throws GenericEntityException {
+        String key = delegator.getDelegatorName();
+        SeoAltUrlIndex index = indexCache.get(key);
+        if (index != null) {
+            if (index.isExpired()) {
+                index.scheduleRebuild();
+            }
+            return index;
+        }
+        synchronized (buildLock) {
+            index = indexCache.get(key);
+            if (index != null) {
+                return index;
+            }
+            long startVersion = version.get();
+            index = build(delegator, startVersion);
+            // don't publish an index that was already invalidated by a change during the build
+            if (version.get() == startVersion) {
+                indexCache.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Builds a new index in the background to replace this expired one, unless already scheduled;
+     * the new index is only published if this one is still current and nothing changed during the build.
+     */
+    private void scheduleRebuild() {
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final SeoAltUrlIndex expiredIndex = this;
+        ExecutionPool.GLOBAL_BATCH.submit(new Runnable() {
+            @Override
+            public void run() {
+                Delegator delegator = DelegatorFactory.getDelegator(delegatorName);
+                try {
+                    synchronized (buildLock) {
+                        if (indexCache.get(delegatorName) != expiredIndex) {
+                            return; // cleared or already replaced
+                        }
+                        long startVersion = version.get();
+                        SeoAltUrlIndex index = build(delegator, startVersion);
+                        if (version.get() == startVersion) {
+                            indexCache.put(delegatorName, index);
+                            return;
+                        }
+                    }
+                } catch (Exception e) {
+                    Debug.logError(e, "Seo: Could not rebuild expired alt url index for delegator '" + delegatorName + "'", module);
+                }
+                // not replaced: let the next lookup try again
+                rebuildScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * Drops the index of the delegator; the next {@link #getInstance} call rebuilds it.
+     */
+    public static void clear(Delegator delegator) {
+        version.incrementAndGet();
+        indexCache.remove(delegator.getDelegatorName());
+    }
+
+    /**
+     * Reloads the alt url records of the product or category once the current transaction commits (now if there is none).
+     */
+    public static void clear(Delegator delegator, CatalogUrlType entityType, String id) {
+        scheduleRefresh(delegator, Collections.singleton(new Ref(entityType, id)));
+    }
+
+    /**
+     * Reloads the alt url records of the products and categories that use the given content or data resource,
+     * once the current transaction commits; changes to unrelated Content or ElectronicText records leave the index alone.
+     * Either ID may be null.
+     */
+    public static void clearForContent(Delegator delegator, String contentId, String dataResourceId) {
+        SeoAltUrlIndex index = indexCache.get(delegator.getDelegatorName());
+        if (index == null) {
+            // NOTE: a build may be in progress; bumping the version prevents it from being published
+            version.incrementAndGet();
+            return;
+        }
+        Set<Ref> refs = new LinkedHashSet<>();
+        if (contentId != null && index.contentRefs.containsKey(contentId)) {
+            refs.addAll(index.contentRefs.get(contentId));
+        }
+        if (dataResourceId != null && index.dataResourceRefs.containsKey(dataResourceId)) {
+            refs.addAll(index.dataResourceRefs.get(dataResourceId));
+        }
+        if (!refs.isEmpty()) {
+            scheduleRefresh(delegator, refs);
+        }
+    }
+
+    private static void scheduleRefresh(final Delegator delegator, final Set<Ref> refs) {
+        // a build running now may or may not see the change: don't publish it
+        version.incrementAndGet();
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            scheduleRefreshNow(delegator, refs);
+                        }
+                    }
+                });
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Seo: Could not register alt url index update for transaction end; updating now", module);
+        }
+        scheduleRefreshNow(delegator, refs);
+    }
+
+    private static void scheduleRefreshNow(Delegator delegator, Set<Ref> refs) {
+        version.incrementAndGet();
+        SeoAltUrlIndex index = indexCache.get(delegator.getDelegatorName());
+        if (index == null) {
+            return; // the next build reads them
+        }
+        synchronized (index.pendingRefs) {
+            index.pendingRefs.addAll(refs);
+            if (index.refreshScheduled) {
+                return;
+            }
+            index.refreshScheduled = true;
+        }
+        final SeoAltUrlIndex refreshIndex = index;
+        ExecutionPool.GLOBAL_BATCH.submit(new Runnable() {
+            @Override
+            public void run() {
+                refreshIndex.applyPendingRefreshes();
+            }
+        });
+    }
+
+    private void applyPendingRefreshes() {
+        List<Ref> refs;
+        synchronized (pendingRefs) {
+            refreshScheduled = false;
+            refs = new ArrayList<>(pendingRefs);
+            pendingRefs.clear();
+        }
+        Delegator delegator = DelegatorFactory.getDelegator(delegatorName);
+        for (Ref ref : refs) {
+            try {
+                refresh(delegator, getTypeIndex(ref.entityType), ref.id);
+            } catch (Exception e) {
+                Debug.logError(e, "Seo: Could not update alt url index for " + ref.entityType + " '" + ref.id + "'; dropping the index", module);
+                clear(delegator);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces the entries of the product or category by its current records, and drops its references
+     * to the contents and data resources it no longer uses.
+     */
+    private synchronized void refresh(Delegator delegator, TypeIndex typeIndex, String id) throws GenericEntityException {
+        Timestamp now = UtilDateTime.nowTimestamp();
+        List<Entry> mainEntries = new ArrayList<>();
+        List<Entry> localizedEntries = new ArrayList<>();
+        loadMain(delegator, typeIndex, id, now, mainEntries);
+        loadLocalized(delegator, typeIndex, id, now, localizedEntries);
+
+        Set<String> contentIds = new HashSet<>();
+        Set<String> dataResourceIds = new HashSet<>();
+        for (Entry entry : mainEntries) {
+            collectRefKeys(entry, contentIds, dataResourceIds);
+        }
+        for (Entry entry : localizedEntries) {
+            collectRefKeys(entry, contentIds, dataResourceIds);
+        }
+        Ref ref = new Ref(typeIndex.entityType, id);
+
+        List<Entry> oldMainEntries = typeIndex.mainById.remove(id);
+        if (oldMainEntries != null) {
+            for (Entry entry : oldMainEntries) {
+                removeEntry(typeIndex.mainByText, entry.textData, id);
+                removeRefs(entry, ref, contentIds, dataResourceIds);
+            }
+        }
+        List<Entry> oldLocalizedEntries = typeIndex.localizedById.remove(id);
+        if (oldLocalizedEntries != null) {
+            for (Entry entry : oldLocalizedEntries) {
+                removeEntry(typeIndex.localizedByContentId, entry.contentId, id);
+                removeEntry(typeIndex.localizedByText, entry.textData, id);
+                removeRefs(entry, ref, contentIds, dataResourceIds);
+            }
+        }
+        for (Entry entry : mainEntries) {
+            addEntry(typeIndex.mainById, entry.id, entry, mainOrderComparator);
+            addEntry(typeIndex.mainByText, entry.textData, entry, null);
+        }
+        for (Entry entry : localizedEntries) {
+            addEntry(typeIndex.localizedByContentId, entry.contentId, entry, localizedOrderComparator);
+            addEntry(typeIndex.localizedById, entry.id, entry, null);
+            addEntry(typeIndex.localizedByText, entry.textData, entry, null);
+        }
+    }
+
+    /**
+     * Builds the index of the delegator in the background, if enabled and if preloading is configured
+     * (<code>seo.alturl.index.preload</code> in catalog.properties, default false).
+     */
+    public static void preloadAsync(final Delegator delegator) {
+        if (!ENABLED || !PRELOAD || delegator == null) {
+            return;
+        }
+        ExecutionPool.GLOBAL_BATCH.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getInstance(delegator);
+                } catch (Exception e) {
+                    Debug.logError(e, "Seo: Could not preload alt url index for delegator '" + delegator.getDelegatorName() + "'", module);
+                }
+            }
+        });
+    }
+
+    private static SeoAltUrlIndex build(Delegator delegator, long indexVersion) throws GenericEntityException {
+        long startTime = System.currentTimeMillis();
+        SeoAltUrlIndex index = new SeoAltUrlIndex(delegator.getDelegatorName(), indexVersion, UtilDateTime.nowTimestamp());
+        for (TypeIndex typeIndex : new TypeIndex[] { index.productIndex, index.categoryIndex }) {
+            List<Entry> mainEntries = new ArrayList<>();
+            index.loadMain(delegator, typeIndex, null, index.buildTime, mainEntries);
+            for (Entry entry : mainEntries) {
+                appendEntry(typeIndex.mainById, entry.id, entry);
+                appendEntry(typeIndex.mainByText, entry.textData, entry);
+            }
+            List<Entry> localizedEntries = new ArrayList<>();
+            index.loadLocalized(delegator, typeIndex, null, index.buildTime, localizedEntries);
+            for (Entry entry : localizedEntries) {
+                appendEntry(typeIndex.localizedByContentId, entry.contentId, entry);
+                appendEntry(typeIndex.localizedById, entry.id, entry);
+                appendEntry(typeIndex.localizedByText, entry.textData, entry);
+            }
+            typeIndex.entryCount = mainEntries.size() + localizedEntries.size();
+        }
+        if (Debug.infoOn()) {
+            Debug.logInfo("Seo: Built alt url index for delegator '" + delegator.getDelegatorName() + "': "
+                    + index.productIndex.entryCount + " product and " + index.categoryIndex.entryCount + " category alt url records ("
+                    + (System.currentTimeMillis() - startTime) + "ms)", module);
+        }
+        return index;
+    }
+
+    /**
+     * Reads the main alt url records of the type, all or of one ID, in order; also records their content references and dates.
+     */
+    private void loadMain(Delegator delegator, TypeIndex typeIndex, String id, Timestamp now, List<Entry> entries) throws GenericEntityException {
+        EntityQuery query = EntityQuery.use(delegator)
+                .select(typeIndex.idField, "contentId", "dataResourceId", "textData", "localeString", "fromDate", "thruDate")
+                .from(typeIndex.entityName).orderBy("-fromDate");
+        if (id != null) {
+            query.where(typeIndex.typeField, "ALTERNATIVE_URL", typeIndex.idField, id);
+        } else {
+            query.where(typeIndex.typeField, "ALTERNATIVE_URL");
+        }
+        EntityListIterator it = query.queryIterator();
+        try {
+            GenericValue value;
+            while ((value = it.next()) != null) {
+                String textData = value.getString("textData");
+                if (UtilValidate.isEmpty(textData)) {
+                    continue;
+                }
+                Entry entry = new Entry(value.getString(typeIndex.idField), value.getString("contentId"), null, value.getString("dataResourceId"),
+                        textData, value.getString("localeString"), value.getTimestamp("fromDate"), value.getTimestamp("thruDate"), null, null);
+                entries.add(entry);
+                Ref ref = new Ref(typeIndex.entityType, entry.id);
+                addRef(contentRefs, entry.contentId, ref);
+                addRef(dataResourceRefs, entry.dataResourceId, ref);
+                updateExpireTime(now, entry.fromDate, entry.thruDate);
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Reads the ALTERNATE_LOCALE alt url records of the type, all or of one ID, in order; also records their content references and dates.
+     */
+    private void loadLocalized(Delegator delegator, TypeIndex typeIndex, String id, Timestamp now, List<Entry> entries) throws GenericEntityException {
+        EntityQuery query = EntityQuery.use(delegator)
+                .select(typeIndex.idField, "contentIdStart", "contentId", "dataResourceId", "textData", "localeString", "fromDate", "thruDate", "caFromDate", "caThruDate")
+                .from(typeIndex.localizedEntityName).orderBy("-caFromDate");
+        if (id != null) {
+            query.where(typeIndex.typeField, "ALTERNATIVE_URL", "contentAssocTypeId", "ALTERNATE_LOCALE", typeIndex.idField, id);
+        } else {
+            query.where(typeIndex.typeField, "ALTERNATIVE_URL", "contentAssocTypeId", "ALTERNATE_LOCALE");
+        }
+        EntityListIterator it = query.queryIterator();
+        try {
+            GenericValue value;
+            while ((value = it.next()) != null) {
+                String textData = value.getString("textData");
+                if (UtilValidate.isEmpty(textData)) {
+                    continue;
+                }
+                Entry entry = new Entry(value.getString(typeIndex.idField), value.getString("contentIdStart"), value.getString("contentId"),
+                        value.getString("dataResourceId"), textData, value.getString("localeString"), value.getTimestamp("fromDate"),
+                        value.getTimestamp("thruDate"), value.getTimestamp("caFromDate"), value.getTimestamp("caThruDate"));
+                entries.add(entry);
+                Ref ref = new Ref(typeIndex.entityType, entry.id);
+                addRef(contentRefs, entry.contentId, ref);
+                addRef(contentRefs, entry.localizedContentId, ref);
+                addRef(dataResourceRefs, entry.dataResourceId, ref);
+                updateExpireTime(now, entry.fromDate, entry.thruDate);
+                updateExpireTime(now, entry.caFromDate, entry.caThruDate);
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Adds the entry at the end of the list of the key; only while building, before the index is published.
+     */
+    private static void appendEntry(Map<String, List<Entry>> entryMap, String key, Entry entry) {
+        List<Entry> entries = entryMap.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            entryMap.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Adds the entry to the list of the key, as a new list so that concurrent lookups keep a consistent list;
+     * with a comparator, the list is sorted again, otherwise the entry goes last.
+     */
+    private static void addEntry(Map<String, List<Entry>> entryMap, String key, Entry entry, Comparator<Entry> comparator) {
+        List<Entry> entries = entryMap.get(key);
+        List<Entry> newEntries = (entries != null) ? new ArrayList<>(entries) : new ArrayList<Entry>(1);
+        newEntries.add(entry);
+        if (comparator != null) {
+            Collections.sort(newEntries, comparator);
+        }
+        entryMap.put(key, newEntries);
+    }
+
+    private static void removeEntry(Map<String, List<Entry>> entryMap, String key, String id) {
+        List<Entry> entries = entryMap.get(key);
+        if (entries == null) {
+            return;
+        }
+        List<Entry> newEntries = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (!id.equals(entry.id)) {
+                newEntries.add(entry);
+            }
+        }
+        if (newEntries.isEmpty()) {
+            entryMap.remove(key);
+        } else {
+            entryMap.put(key, newEntries);
+        }
+    }
+
+    private static void addRef(Map<String, Set<Ref>> refMap, String key, Ref ref) {
+        if (key == null) {
+            return;
+        }
+        Set<Ref> refs = refMap.get(key);
+        if (refs == null) {
+            refs = Collections.newSetFromMap(new ConcurrentHashMap<Ref, Boolean>());
+            refMap.put(key, refs);
+        }
+        refs.add(ref);
+    }
+
+    private static void collectRefKeys(Entry entry, Set<String> contentIds, Set<String> dataResourceIds) {
+        contentIds.add(entry.contentId);
+        if (entry.localizedContentId != null) {
+            contentIds.add(entry.localizedContentId);
+        }
+        if (entry.dataResourceId != null) {
+            dataResourceIds.add(entry.dataResourceId);
+        }
+    }
+
+    /**
+     * Removes the references of the old entry to the product or category, except those still used by its new entries.
+     */
+    private void removeRefs(Entry entry, Ref ref, Set<String> contentIds, Set<String> dataResourceIds) {
+        if (!contentIds.contains(entry.contentId)) {
+            removeRef(contentRefs, entry.contentId, ref);
+        }
+        if (entry.localizedContentId != null && !contentIds.contains(entry.localizedContentId)) {
+            removeRef(contentRefs, entry.localizedContentId, ref);
+        }
+        if (entry.dataResourceId != null && !dataResourceIds.contains(entry.dataResourceId)) {
+            removeRef(dataResourceRefs, entry.dataResourceId, ref);
+        }
+    }
+
+    private static void removeRef(Map<String, Set<Ref>> refMap, String key, Ref ref) {
+        if (key == null) {
+            return;
+        }
+        Set<Ref> refs = refMap.get(key);
+        if (refs != null) {
+            refs.remove(ref);
+            if (refs.isEmpty()) {
+                refMap.remove(key);
+            }
+        }
+    }
+
+    private void updateExpireTime(Timestamp now, Timestamp fromDate, Timestamp thruDate) {
+        Timestamp current = expireTime;
+        if (fromDate != null && fromDate.after(now) && (current == null || fromDate.before(current))) {
+            current = fromDate;
+        }
+        if (thruDate != null && thruDate.after(now) && (current == null || thruDate.before(current))) {
+            current = thruDate;
+        }
+        expireTime = current;
+    }
+
+    private static int compareDesc(Timestamp first, Timestamp second) {
+        if (first == null) {
+            return (second == null) ? 0 : 1;
+        } else if (second == null) {
+            return -1;
+        }
+        return second.compareTo(first);
+    }
+
+    private TypeIndex getTypeIndex(CatalogUrlType entityType) {
+        return (entityType == CatalogUrlType.CATEGORY) ? categoryIndex : productIndex;
+    }
+
+    /**
+     * The invalidation counter value this index was built for.
+     */
+    public long getIndexVersion() {
+        return indexVersion;
+    }
+
+    public Timestamp getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Returns true if a record validity date was reached since the build, so lookups could be stale.
+     */
+    public boolean isExpired() {
+        return expireTime != null && !expireTime.after(UtilDateTime.nowTimestamp());
+    }
+
+    /**
+     * Returns true if the product or category has an ALTERNATIVE_URL content record, any date.
+     */
+    public boolean hasAltUrl(CatalogUrlType entityType, String id) {
+        return getTypeIndex(entityType).mainById.containsKey(id);
+    }
+
+    /**
+     * Returns the raw (unsanitized) alt url text of the product or category for the locale, or null if it has no
+     * active ALTERNATIVE_URL content record.
+     * <p>
+     * Selects the main content and alternate locale content the same way as the content wrappers
+     * (ContentWorker.findAlternateLocaleContent, without fallback locale). Does not follow virtual products for variants.
+     */
+    public String getAltUrl(CatalogUrlType entityType, String id, Locale locale, Timestamp moment) {
+        TypeIndex typeIndex = getTypeIndex(entityType);
+        Entry main = null;
+        List<Entry> mainEntries = typeIndex.mainById.get(id);
+        if (mainEntries != null) {
+            for (Entry entry : mainEntries) {
+                if (entry.isActive(moment)) {
+                    main = entry;
+                    break;
+                }
+            }
+        }
+        if (main == null) {
+            return null;
+        }
+        if (locale == null) {
+            return main.textData;
+        }
+        String localeStr = locale.toString();
+        if (localeStr.equalsIgnoreCase(main.localeString != null ? main.localeString : "")) {
+            return main.textData;
+        }
+        boolean isTwoLetterLocale = localeStr.length() == 2;
+        Entry match = null;
+        List<Entry> candidates = new ArrayList<>();
+        candidates.add(main);
+        List<Entry> localizedEntries = typeIndex.localizedByContentId.get(main.contentId);
+        if (localizedEntries != null) {
+            for (Entry entry : localizedEntries) {
+                if (entry.isActive(moment)) {
+                    candidates.add(entry);
+                }
+            }
+        }
+        for (Entry entry : candidates) {
+            String currentLocaleString = entry.localeString;
+            if (UtilValidate.isEmpty(currentLocaleString)) {
+                continue;
+            }
+            int currentLocaleLength = currentLocaleString.length();
+            if (isTwoLetterLocale) {
+                if (currentLocaleLength == 2) {
+                    if (localeStr.equals(currentLocaleString)) {
+                        match = entry;
+                        break;
+                    }
+                } else if (currentLocaleLength == 5) {
+                    if (localeStr.equals(currentLocaleString.substring(0, 2))) {
+                        match = entry;
+                    }
+                }
+            } else {
+                if (currentLocaleLength == 2) {
+                    if (localeStr.substring(0, 2).equals(currentLocaleString)) {
+                        match = entry;
+                    }
+                } else if (currentLocaleLength == 5) {
+                    if (localeStr.equals(currentLocaleString)) {
+                        match = entry;
+                        break;
+                    }
+                }
+            }
+        }
+        return (match != null) ? match.textData : main.textData;
+    }
+
+    /**
+     * Matches an alt URL path element (name, or name and ID separated by hyphen) against the alt url texts
+     * and returns the candidate IDs, the same as the database search of
+     * {@link SeoCatalogUrlWorker#extractCandidateAltUrlProductId} with exactOnly and singleExactOnly false,
+     * excluding the ID-only match.
+     * <p>
+     * The name is compared case-sensitively and the ID ignoring case, as the database search does once its results
+     * go through the <code>altUrl.startsWith(textData)</code> check, whatever the collation of the LIKE query.
+     * <p>
+     * Localized texts are checked first; non-localized ones only if they produced no exact (name+id) match.
+     */
+    public Map<String, AltUrlPartInfo> findAltUrlPartIds(CatalogUrlType entityType, String altUrl, Timestamp moment) {
+        TypeIndex typeIndex = getTypeIndex(entityType);
+        Map<String, AltUrlPartInfo> results = new HashMap<>();
+        if (findAltUrlPartIds(typeIndex.localizedByText, altUrl, moment, results)) {
+            return results;
+        }
+        findAltUrlPartIds(typeIndex.mainByText, altUrl, moment, results);
+        return results;
+    }
+
+    private static boolean findAltUrlPartIds(Map<String, List<Entry>> byText, String altUrl, Timestamp moment, Map<String, AltUrlPartInfo> results) {
+        boolean exactFound = false;
+        // name + id combinations, splitting on each hyphen from the right
+        int lastIndex = altUrl.lastIndexOf('-');
+        while (lastIndex > 0) {
+            if (lastIndex < (altUrl.length() - 1)) {
+                String name = altUrl.substring(0, lastIndex);
+                String id = altUrl.substring(lastIndex + 1);
+                List<Entry> entries = byText.get(name);
+                if (entries != null) {
+                    for (Entry entry : entries) {
+                        if (id.equalsIgnoreCase(entry.id) && entry.isActive(moment)) {
+                            results.put(entry.id, new AltUrlPartInfo(true, false, entry.id, entry.textData, entry.localeString));
+                            exactFound = true;
+                        }
+                    }
+                }
+            }
+            lastIndex = altUrl.lastIndexOf('-', lastIndex - 1);
+        }
+        // name only; does not replace exact matches
+        List<Entry> entries = byText.get(altUrl);
+        if (entries != null) {
+            for (Entry entry : entries) {
+                if (!results.containsKey(entry.id) && entry.isActive(moment)) {
+                    results.put(entry.id, new AltUrlPartInfo(false, false, entry.id, entry.textData, entry.localeString));
+                }
+            }
+        }
+        return exactFound;
+    }
+
+    /**
+     * Returns the IDs of the products or categories whose alt url texts were indexed.
+     */
+    public Set<String> getIds(CatalogUrlType entityType) {
+        return Collections.unmodifiableSet(getTypeIndex(entityType).mainById.keySet());
+    }
+}
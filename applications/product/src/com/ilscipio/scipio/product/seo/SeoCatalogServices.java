@@ -532,6 +532,7 @@ public abstract class SeoCatalogServices {
         
         boolean useCache = Boolean.TRUE.equals(context.get("useCache")); // FALSE default
         boolean preventDuplicates = !Boolean.FALSE.equals(context.get("preventDuplicates"));
+        Integer threadCount = (Integer) context.get("threadCount");
         
         boolean genFixedIds = Boolean.TRUE.equals(context.get("genFixedIds"));
         String prodFixedIdPat = (String) context.get("prodFixedIdPat");
@@ -551,7 +552,9 @@ public abstract class SeoCatalogServices {
                     .setDoChildProducts(doChildProducts)
                     .setDoTypes(UtilGenerics.<String>checkCollection(context.get("typeGenerate")))
                     .setUseCache(useCache)
-                    .setPreventDupAll(preventDuplicates);
+                    .setPreventDupAll(preventDuplicates)
+                    .setPrefetch(true)
+                    .setThreadCount(threadCount != null ? threadCount : 1);
             traverser = new SeoCatalogUrlGenerator(dctx.getDelegator(), dctx.getDispatcher(), travConfig);
         } catch (Exception e) {
             String message = "Error preparing to generate alternative links for website" + webSiteIdStr + ": " + e.getMessage();
@@ -1237,6 +1240,33 @@ public abstract class SeoCatalogServices {
         }
     }
     
+    /**
+     * Updates the entries of the given product or category in the in-memory alt url index (see {@link SeoAltUrlIndex})
+     * after commit; without any ID, drops the index, which is rebuilt on next use.
+     */
+    public static Map<String, Object> clearSeoAltUrlIndex(DispatchContext dctx, Map<String, ? extends Object> context) {
+        String productId = (String) context.get("productId");
+        String productCategoryId = (String) context.get("productCategoryId");
+        if (productId != null) {
+            SeoAltUrlIndex.clear(dctx.getDelegator(), CatalogUrlType.PRODUCT, productId);
+        }
+        if (productCategoryId != null) {
+            SeoAltUrlIndex.clear(dctx.getDelegator(), CatalogUrlType.CATEGORY, productCategoryId);
+        }
+        if (productId == null && productCategoryId == null) {
+            SeoAltUrlIndex.clear(dctx.getDelegator());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * Updates the entries of the in-memory alt url index that use the given contentId or dataResourceId, after commit.
+     */
+    public static Map<String, Object> clearSeoAltUrlIndexForContent(DispatchContext dctx, Map<String, ? extends Object> context) {
+        SeoAltUrlIndex.clearForContent(dctx.getDelegator(), (String) context.get("contentId"), (String) context.get("dataResourceId"));
+        return ServiceUtil.returnSuccess();
+    }
+
     static Collection<String> combineNameAndNameList(String name, Collection<String> nameList) {
         if (UtilValidate.isEmpty(name)) return nameList;
         
@@ -44,12 +44,18 @@ public abstract class SeoCatalogTraverser extends CatalogTraverser {
     }
 
     public class SeoTraversalState extends TraversalState {
+        /**
+         * Stats of a parallel traversal task, merged into the traverser stats; null for sequential traversal.
+         */
+        protected UrlGenStats stats = null;
+
         public SeoTraversalState(List<GenericValue> trailCategories, int physicalDepth) {
             super(trailCategories, physicalDepth);
         }
 
         public SeoTraversalState(SeoTraversalState other, boolean deepCopy) {
             super(other, deepCopy);
+            this.stats = other.stats;
         }
 
         @Override
@@ -63,6 +69,22 @@ public abstract class SeoCatalogTraverser extends CatalogTraverser {
         return new SeoTraversalState(trailCategories, physicalDepth);
     }
 
+    @Override
+    protected TraversalState newParallelTraversalState() {
+        TraversalState state = super.newParallelTraversalState();
+        ((SeoTraversalState) state).stats = createStats();
+        return state;
+    }
+
+    @Override
+    protected void mergeTraversalState(TraversalState state) throws GeneralException {
+        super.mergeTraversalState(state);
+        UrlGenStats stateStats = ((SeoTraversalState) state).stats;
+        if (stateStats != null) {
+            this.stats.add(stateStats);
+        }
+    }
+
     public void reset() throws GeneralException {
         super.reset();
         resetStats();
@@ -79,6 +101,17 @@ public abstract class SeoCatalogTraverser extends CatalogTraverser {
     public UrlGenStats getStats() {
         return stats;
     }
+
+    /**
+     * Returns the stats to update for the given traversal state: the state's own stats
+     * for parallel traversal, otherwise the traverser stats. State may be null.
+     */
+    protected UrlGenStats getStats(TraversalState state) {
+        if (state instanceof SeoTraversalState && ((SeoTraversalState) state).stats != null) {
+            return ((SeoTraversalState) state).stats;
+        }
+        return stats;
+    }
     
     // TODO: REVIEW: this is unreliable, does not account for products with child products,
     // so just forget these stats for the time being.
@@ -95,6 +95,9 @@ public class SeoCatalogUrlFilter extends CatalogUrlFilter { // extends ContextFi
             WebsiteSeoConfig.registerWebsiteForSeo(WebsiteSeoConfig.makeConfig(config.getServletContext(), true));
 
             urlWorker = SeoCatalogUrlWorker.getInstance(null, config.getServletContext().getInitParameter("webSiteId"));
+
+            // SCIPIO: build the alt url index in the background, if configured, so the first requests don't wait for it
+            SeoAltUrlIndex.preloadAsync(getDelegator(config.getServletContext()));
         }
         
         rewriteOutboundUrls = Boolean.TRUE.equals(UtilMisc.booleanValueVersatile(config.getInitParameter("rewriteOutboundUrls")));
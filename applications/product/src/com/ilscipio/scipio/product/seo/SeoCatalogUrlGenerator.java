@@ -117,19 +117,33 @@ public class SeoCatalogUrlGenerator extends SeoCatalogTraverser {
         super.reset();
     }
 
+    /**
+     * Supported: each category and product is generated by its own service call and transaction,
+     * independent of the category trail.
+     */
+    @Override
+    public boolean isParallelTraversalSupported() {
+        return true;
+    }
+
     @Override
     public void visitCategory(GenericValue productCategory, TraversalState state)
             throws GeneralException {
-        generateCategoryAltUrls(productCategory);
+        generateCategoryAltUrls(productCategory, state);
     }
 
     @Override
     public void visitProduct(GenericValue product, TraversalState state)
             throws GeneralException {
-        generateProductAltUrls(product);
+        generateProductAltUrls(product, state);
     }
 
     public void generateCategoryAltUrls(GenericValue productCategory) throws GeneralException {
+        generateCategoryAltUrls(productCategory, null);
+    }
+
+    public void generateCategoryAltUrls(GenericValue productCategory, TraversalState state) throws GeneralException {
+        UrlGenStats stats = getStats(state);
         Map<String, ?> servCtxOpts = getTravConfig().getServCtxOpts();
         String productCategoryId = productCategory.getString("productCategoryId");
         Map<String, Object> servCtx = getDispatcher().getDispatchContext().makeValidContext("generateProductCategoryAlternativeUrlsCore", ModelService.IN_PARAM, servCtxOpts);
@@ -142,19 +156,24 @@ public class SeoCatalogUrlGenerator extends SeoCatalogTraverser {
         
         if (ServiceUtil.isSuccess(recordResult)) {
             if (Boolean.TRUE.equals(recordResult.get("categoryUpdated"))) {
-                getStats().categorySuccess++;
+                stats.categorySuccess++;
             } else {
-                getStats().categorySkipped++;
+                stats.categorySkipped++;
             }
         } else {
             // caller already logs
             //Debug.logError(getLogMsgPrefix()+"Error generating alternative links for category '" 
             //        + productCategoryId + "': " + ServiceUtil.getErrorMessage(recordResult), module);
-            getStats().categoryError++;
+            stats.categoryError++;
         }
     }
     
     public void generateProductAltUrls(GenericValue product) throws GeneralException {
+        generateProductAltUrls(product, null);
+    }
+
+    public void generateProductAltUrls(GenericValue product, TraversalState state) throws GeneralException {
+        UrlGenStats stats = getStats(state);
         Map<String, ?> servCtxOpts = getTravConfig().getServCtxOpts();
 
         // NOTE: must check product itself here because generateProductAlternativeUrlsCore will only do it for its children
@@ -179,13 +198,13 @@ public class SeoCatalogUrlGenerator extends SeoCatalogTraverser {
         Integer numUpdated = (Integer) recordResult.get("numUpdated");
         Integer numSkipped = (Integer) recordResult.get("numSkipped");
         Integer numError = (Integer) recordResult.get("numError");
-        if (numUpdated != null) getStats().productSuccess += numUpdated;
-        if (numSkipped != null) getStats().productSkipped += numSkipped;
+        if (numUpdated != null) stats.productSuccess += numUpdated;
+        if (numSkipped != null) stats.productSkipped += numSkipped;
         if (ServiceUtil.isSuccess(recordResult)) {
-            if (numError != null) getStats().productError += numError;
+            if (numError != null) stats.productError += numError;
         } else {
-            if (numError != null) getStats().productError += numError;
-            else getStats().productError++; // couldn't return count
+            if (numError != null) stats.productError += numError;
+            else stats.productError++; // couldn't return count
             // caller already logs
             //Debug.logError(getLogMsgPrefix()+"Error generating alternative links for product '" 
             //        + productId + "': " + ServiceUtil.getErrorMessage(recordResult), module);
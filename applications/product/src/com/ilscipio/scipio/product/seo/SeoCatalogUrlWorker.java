@@ -499,7 +499,10 @@ public class SeoCatalogUrlWorker implements Serializable {
         String catName = null;
         String productCategoryId = productCategory.getString("productCategoryId");
         try {
-            String altUrl = CategoryContentWrapper.getProductCategoryContentAsText(productCategory, "ALTERNATIVE_URL", locale, dispatcher, useCache, "raw");
+            String altUrl = getIndexedAltUrl(delegator, productCategory, CatalogUrlType.CATEGORY, locale, useCache);
+            if (altUrl == null) {
+                altUrl = CategoryContentWrapper.getProductCategoryContentAsText(productCategory, "ALTERNATIVE_URL", locale, dispatcher, useCache, "raw");
+            }
             if (UtilValidate.isNotEmpty(altUrl)) {
                 // FIXME: effective locale might not be same as "locale" variable!
                 altUrl = getCatalogAltUrlSanitizer().sanitizeAltUrlFromDb(altUrl, locale, CatalogUrlType.CATEGORY);
@@ -816,7 +819,10 @@ public class SeoCatalogUrlWorker implements Serializable {
             
             // append product name
             String productId = product.getString("productId");
-            String alternativeUrl = ProductContentWrapper.getProductContentAsText(product, "ALTERNATIVE_URL", locale, dispatcher, useCache, "raw");
+            String alternativeUrl = getIndexedAltUrl(delegator, product, CatalogUrlType.PRODUCT, locale, useCache);
+            if (alternativeUrl == null) {
+                alternativeUrl = ProductContentWrapper.getProductContentAsText(product, "ALTERNATIVE_URL", locale, dispatcher, useCache, "raw");
+            }
             // FIXME: effective locale might not be same as "locale" variable!
             alternativeUrl = getCatalogAltUrlSanitizer().sanitizeAltUrlFromDb(alternativeUrl, locale, CatalogUrlType.PRODUCT);
             if (UtilValidate.isNotEmpty(alternativeUrl)) {
@@ -843,6 +849,32 @@ public class SeoCatalogUrlWorker implements Serializable {
         return urlBuilder;
     }
     
+    /**
+     * SCIPIO: Returns the raw ALTERNATIVE_URL text of the product or category from the {@link SeoAltUrlIndex},
+     * empty string if it has none, or null if the index can't answer (disabled, useCache false, error, or variant
+     * product without its own record), in which case the caller must use the content wrapper.
+     */
+    protected String getIndexedAltUrl(Delegator delegator, GenericValue value, CatalogUrlType entityType, Locale locale, boolean useCache) {
+        if (!useCache || !SeoAltUrlIndex.isEnabled()) {
+            return null;
+        }
+        String id = value.getString((entityType == CatalogUrlType.CATEGORY) ? "productCategoryId" : "productId");
+        try {
+            SeoAltUrlIndex altUrlIndex = SeoAltUrlIndex.getInstance(delegator);
+            String altUrl = altUrlIndex.getAltUrl(entityType, id, locale, UtilDateTime.nowTimestamp());
+            if (altUrl != null) {
+                return altUrl;
+            }
+            if (entityType == CatalogUrlType.PRODUCT && "Y".equals(value.getString("isVariant"))) {
+                return null; // the wrapper falls back to the virtual product
+            }
+            return "";
+        } catch (Exception e) {
+            Debug.logError(e, "Seo: Cannot get alt url of " + entityType.toString().toLowerCase() + " '" + id + "' from alt url index", module);
+            return null;
+        }
+    }
+
     protected void checkAddUrlSuffix(StringBuilder sb) {
         String urlSuffix = getUrlSuffix();
         if (UtilValidate.isNotEmpty(urlSuffix) && (sb.length() > 0) && (sb.charAt(sb.length() - 1) != '/')) {
@@ -1518,6 +1550,9 @@ public class SeoCatalogUrlWorker implements Serializable {
     }
     
     public AltUrlPartResults extractCandidateAltUrlProductIdCached(Delegator delegator, String altUrl, boolean exactOnly, boolean allowIdOnly) throws GenericEntityException {
+        if (SeoAltUrlIndex.isEnabled()) {
+            return extractCandidateAltUrlIdIndexed(delegator, CatalogUrlType.PRODUCT, altUrl).filterResults(exactOnly, allowIdOnly);
+        }
         String key = altUrl;
         
         AltUrlPartResults results = productAltUrlPartInfoCache.get(key);
@@ -1596,6 +1631,9 @@ public class SeoCatalogUrlWorker implements Serializable {
     }
     
     public AltUrlPartResults extractCandidateAltUrlCategoryIdCached(Delegator delegator, String altUrl, boolean exactOnly, boolean allowIdOnly) throws GenericEntityException {
+        if (SeoAltUrlIndex.isEnabled()) {
+            return extractCandidateAltUrlIdIndexed(delegator, CatalogUrlType.CATEGORY, altUrl).filterResults(exactOnly, allowIdOnly);
+        }
         String key = altUrl;
         
         AltUrlPartResults results = categoryAltUrlPartInfoCache.get(key);
@@ -1681,6 +1719,29 @@ public class SeoCatalogUrlWorker implements Serializable {
         return new AltUrlPartResults(results);
     }
 
+    /**
+     * SCIPIO: Tries to match an alt URL path element to products or categories using the in-memory {@link SeoAltUrlIndex}
+     * instead of the database; same results as the <code>extractCandidateAltUrl*Id</code> methods with exactOnly false and allowIdOnly true.
+     */
+    public AltUrlPartResults extractCandidateAltUrlIdIndexed(Delegator delegator, CatalogUrlType entityType, String altUrl) throws GenericEntityException {
+        Map<String, AltUrlPartInfo> results = SeoAltUrlIndex.getInstance(delegator).findAltUrlPartIds(entityType, altUrl, UtilDateTime.nowTimestamp());
+        GenericValue value;
+        if (entityType == CatalogUrlType.CATEGORY) {
+            value = EntityQuery.use(delegator).from("ProductCategory").where("productCategoryId", altUrl).cache(true).queryOne();
+        } else {
+            value = EntityQuery.use(delegator).from("Product").where("productId", altUrl).cache(true).queryOne();
+        }
+        if (value != null) {
+            String id = value.getString((entityType == CatalogUrlType.CATEGORY) ? "productCategoryId" : "productId");
+            // this case has higher prio over non-exact match, but lower prio than alt url exact match
+            AltUrlPartInfo prevMatch = results.get(id);
+            if (prevMatch == null || !prevMatch.isExact()) {
+                results.put(id, new AltUrlPartInfo(true, true, id, altUrl, null));
+            }
+        }
+        return new AltUrlPartResults(results);
+    }
+
     /**
      * This splits altUrl by hyphen "-" and creates OR condition for all the possible combinations
      * of name and ID.
@@ -41,6 +41,26 @@ public class UrlGenStats {
         this.doContent = doContent;
     }
 
+    /**
+     * Adds the counts of the other stats to these (does not change the do* flags).
+     */
+    public void add(UrlGenStats other) {
+        productSuccess += other.productSuccess;
+        productError += other.productError;
+        productSkipped += other.productSkipped;
+        productDupSkip += other.productDupSkip;
+
+        categorySuccess += other.categorySuccess;
+        categoryError += other.categoryError;
+        categorySkipped += other.categorySkipped;
+        categoryDupSkip += other.categoryDupSkip;
+
+        contentSuccess += other.contentSuccess;
+        contentError += other.contentError;
+        contentSkipped += other.contentSkipped;
+        contentDupSkip += other.contentDupSkip;
+    }
+
     public boolean hasError() {
         return productError > 0 || categoryError > 0 || contentError > 0;
     }
@@ -44,7 +44,10 @@ import com.redfin.sitemapgenerator.WebSitemapUrl;
 /**
  * Builds sitemap and records stats.
  * <p>
- * NOT thread-safe.
+ * An instance must be used by one caller at a time; with parallel traversal ({@link TraversalConfig#getThreadCount()}),
+ * the traversal tasks only write to their own {@link SitemapTraversalState}, which buffers the URLs of its top-level
+ * category, and the states are added to the sitemap files on the calling thread in category order as the tasks
+ * finish, so the files are the same as with the sequential traversal.
  * <p>
  * TODO: missing multi-locale link support - unclear if library supports - may need to do one-locale-per-index
  * TODO: does not delete old files (minor issue - spiders will simply ignore them in theory)
@@ -136,7 +139,9 @@ public class SitemapGenerator extends SeoCatalogTraverser {
             urlRewriteConf = UrlRewriteConf.loadConf(config.getUrlConfPath());
         }
         
-        SitemapTraversalConfig travConfig = (SitemapTraversalConfig) new SitemapTraversalConfig(config).setDoContent(config.isDoContent()).setUseCache(useCache);
+        Integer threadCount = (servCtxOpts != null) ? (Integer) servCtxOpts.get("threadCount") : null;
+        SitemapTraversalConfig travConfig = (SitemapTraversalConfig) new SitemapTraversalConfig(config).setDoContent(config.isDoContent()).setUseCache(useCache)
+                .setPrefetch(true).setThreadCount(threadCount != null ? threadCount : 1);
         return new SitemapGenerator(delegator, dispatcher, 
                 config.getLocalesOrDefault(webSite, productStore), 
                 webSiteId, webSite, productStore,
@@ -170,6 +175,10 @@ public class SitemapGenerator extends SeoCatalogTraverser {
 
     public class SitemapTraversalState extends SeoTraversalState {
         Map<Locale, List<String>> trailNames; // reset for every new ProdCatalogCategory
+        /**
+         * URLs of a parallel traversal task, added to the sitemap files on merge; null for sequential traversal.
+         */
+        Map<ElemType, List<WebSitemapUrl>> pendingUrls = null;
         
         public SitemapTraversalState(List<GenericValue> trailCategories, int physicalDepth, Map<Locale, List<String>> trailNames) {
             super(trailCategories, physicalDepth);
@@ -183,6 +192,7 @@ public class SitemapGenerator extends SeoCatalogTraverser {
             } else {
                 this.trailNames = other.trailNames;
             }
+            this.pendingUrls = other.pendingUrls;
         }
 
         @Override
@@ -199,6 +209,55 @@ public class SitemapGenerator extends SeoCatalogTraverser {
     protected TraversalState newTraversalState(List<GenericValue> trailCategories, int physicalDepth) {
         return new SitemapTraversalState(trailCategories, physicalDepth, newTrailNames());
     }
+
+    @Override
+    public boolean isParallelTraversalSupported() {
+        return true;
+    }
+
+    @Override
+    protected TraversalState newParallelTraversalState() {
+        TraversalState state = super.newParallelTraversalState();
+        ((SitemapTraversalState) state).pendingUrls = new EnumMap<>(ElemType.class);
+        return state;
+    }
+
+    @Override
+    protected void mergeTraversalState(TraversalState state) throws GeneralException {
+        super.mergeTraversalState(state);
+        Map<ElemType, List<WebSitemapUrl>> pendingUrls = ((SitemapTraversalState) state).pendingUrls;
+        if (pendingUrls == null) {
+            return;
+        }
+        try {
+            for(Map.Entry<ElemType, List<WebSitemapUrl>> entry : pendingUrls.entrySet()) {
+                ElemHandler elemHandler = elemHandlers.get(entry.getKey());
+                for(WebSitemapUrl url : entry.getValue()) {
+                    elemHandler.addUrl(url);
+                }
+            }
+        } catch(IOException | URISyntaxException e) {
+            throw new GeneralException("Could not write sitemap URLs: " + e.getMessage(), e);
+        }
+        pendingUrls.clear();
+    }
+
+    /**
+     * Adds the URL to the sitemap of its type, or to the state buffer for parallel traversal.
+     */
+    protected void addSitemapUrl(ElemType elemType, ElemHandler elemHandler, WebSitemapUrl url, TraversalState state) throws IOException, URISyntaxException {
+        Map<ElemType, List<WebSitemapUrl>> pendingUrls = (state != null) ? ((SitemapTraversalState) state).pendingUrls : null;
+        if (pendingUrls != null) {
+            List<WebSitemapUrl> urls = pendingUrls.get(elemType);
+            if (urls == null) {
+                urls = new ArrayList<>();
+                pendingUrls.put(elemType, urls);
+            }
+            urls.add(url);
+        } else {
+            elemHandler.addUrl(url);
+        }
+    }
     
     public SitemapConfig getConfig() {
         return config;
@@ -401,15 +460,20 @@ public class SitemapGenerator extends SeoCatalogTraverser {
 
     @Override
     public void visitCategory(GenericValue productCategory, TraversalState state) throws GeneralException {
-        buildSitemapCategoryLink(productCategory, getTrailNames(state));
+        buildSitemapCategoryLink(productCategory, getTrailNames(state), state);
     }
 
     @Override
     public void visitProduct(GenericValue product, TraversalState state) throws GeneralException {
-        buildSitemapProductLink(product, getTrailNames(state));
+        buildSitemapProductLink(product, getTrailNames(state), state);
     }
 
     protected void buildSitemapCategoryLink(GenericValue productCategory, Map<Locale, List<String>> trailNames) throws GeneralException {
+        buildSitemapCategoryLink(productCategory, trailNames, null);
+    }
+
+    protected void buildSitemapCategoryLink(GenericValue productCategory, Map<Locale, List<String>> trailNames, TraversalState state) throws GeneralException {
+        UrlGenStats stats = getStats(state);
         String productCategoryId = productCategory.getString("productCategoryId");
         try {
             
@@ -424,8 +488,8 @@ public class SitemapGenerator extends SeoCatalogTraverser {
             if (Debug.verboseOn()) Debug.logVerbose(getLogMsgPrefix()+"Processing category url: " + url, module);
             
             WebSitemapUrl libUrl = buildSitemapLibUrl(url, null);
-            getCategoryElemHandler().addUrl(libUrl);
-            getStats().categorySuccess++;
+            addSitemapUrl(ElemType.CATEGORY, getCategoryElemHandler(), libUrl, state);
+            stats.categorySuccess++;
         } catch(Exception e) {
             stats.categoryError++;
             Debug.logError(getLogErrorPrefix() + "Cannot build URL for category '" + productCategoryId + "': " + e.getMessage(), module);
@@ -433,6 +497,11 @@ public class SitemapGenerator extends SeoCatalogTraverser {
     }
     
     protected void buildSitemapProductLink(GenericValue product, Map<Locale, List<String>> trailNames) throws GeneralException {
+        buildSitemapProductLink(product, trailNames, null);
+    }
+
+    protected void buildSitemapProductLink(GenericValue product, Map<Locale, List<String>> trailNames, TraversalState state) throws GeneralException {
+        UrlGenStats stats = getStats(state);
         if (!config.isIncludeVariant() && "Y".equals(product.getString("isVariant"))) {
             stats.productSkipped++;
             return;
@@ -452,7 +521,7 @@ public class SitemapGenerator extends SeoCatalogTraverser {
             if (Debug.verboseOn()) Debug.logVerbose(getLogMsgPrefix()+"Processing product url: " + url, module);
 
             WebSitemapUrl libUrl = buildSitemapLibUrl(url, config.isUseProductLastModDate() ? product.getTimestamp("lastModifiedDate") : null);
-            getProductElemHandler().addUrl(libUrl);
+            addSitemapUrl(ElemType.PRODUCT, getProductElemHandler(), libUrl, state);
             stats.productSuccess++;
             
             // TODO?: is there need to do variants (not explicitly associated to category)? 
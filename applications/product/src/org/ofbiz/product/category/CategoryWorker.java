@@ -47,12 +47,14 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.util.EntityQuery;
-import org.ofbiz.entity.util.EntityUtil;
 import org.ofbiz.product.product.ProductWorker;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.service.ServiceUtil;
 
+import com.ilscipio.scipio.product.category.CategoryGraph;
+import com.ilscipio.scipio.product.category.CategoryMemberCountCache;
+
 /**
  * CategoryWorker - Worker class to reduce code in JSPs.
  */
@@ -166,26 +168,23 @@ public class CategoryWorker {
         if (Debug.verboseOn())
             Debug.logVerbose("[CategoryWorker.getRelatedCategories] ParentID: " + parentId, module);
 
-        List<GenericValue> rollups = null;
+        // SCIPIO: the rollups are read from the in-memory category graph instead of querying every level
+        List<String> childCategoryIds = null;
 
         try {
-            rollups = EntityQuery.use(delegator).from("ProductCategoryRollup").where("parentProductCategoryId", parentId).orderBy("sequenceNum").cache(true)
-                    .queryList();
-            if (limitView) {
-                rollups = EntityUtil.filterByDate(rollups, true);
-            }
+            childCategoryIds = CategoryGraph.getInstance(delegator).getChildCategoryIds(parentId, limitView ? UtilDateTime.nowTimestamp() : null);
         } catch (GenericEntityException e) {
             Debug.logWarning(e.getMessage(), module);
         }
-        if (rollups != null) {
+        if (childCategoryIds != null) {
             // Debug.logInfo("Rollup size: " + rollups.size(), module);
-            for (GenericValue parent : rollups) {
+            for (String childCategoryId : childCategoryIds) {
                 // Debug.logInfo("Adding child of: " +
                 // parent.getString("parentProductCategoryId"), module);
                 GenericValue cv = null;
 
                 try {
-                    cv = parent.getRelatedOne("CurrentProductCategory", true);
+                    cv = EntityQuery.use(delegator).from("ProductCategory").where("productCategoryId", childCategoryId).cache(true).queryOne();
                 } catch (GenericEntityException e) {
                     Debug.logWarning(e.getMessage(), module);
                 }
@@ -214,6 +213,11 @@ public class CategoryWorker {
         return categories;
     }
 
+    /**
+     * Returns true if the category has no member and no sub-category records.
+     * <p>
+     * SCIPIO: NOTE: the counts are read from the in-memory {@link CategoryGraph} and {@link CategoryMemberCountCache}.
+     */
     public static boolean isCategoryEmpty(GenericValue category) {
         boolean empty = true;
         long members = categoryMemberCount(category);
@@ -241,7 +245,7 @@ public class CategoryWorker {
         Delegator delegator = category.getDelegator();
         long count = 0;
         try {
-            count = EntityQuery.use(delegator).from("ProductCategoryMember").where("productCategoryId", category.getString("productCategoryId")).queryCount();
+            count = CategoryMemberCountCache.getMemberCount(delegator, category.getString("productCategoryId")); // SCIPIO: cached count
         } catch (GenericEntityException e) {
             Debug.logError(e, module);
         }
@@ -254,8 +258,7 @@ public class CategoryWorker {
         Delegator delegator = category.getDelegator();
         long count = 0;
         try {
-            count = EntityQuery.use(delegator).from("ProductCategoryRollup").where("parentProductCategoryId", category.getString("productCategoryId"))
-                    .queryCount();
+            count = CategoryGraph.getInstance(delegator).getChildCount(category.getString("productCategoryId")); // SCIPIO: in-memory count
         } catch (GenericEntityException e) {
             Debug.logError(e, module);
         }
@@ -600,15 +603,11 @@ public class CategoryWorker {
     /**
      * SCIPIO: Returns true only if the category ID is child of the given parent category ID.
      * <p>
-     * NOTE: is caching
+     * NOTE: is caching (in-memory {@link CategoryGraph})
      */
     public static boolean isCategoryChildOf(Delegator delegator, LocalDispatcher dispatcher, String parentProductCategoryId, String productCategoryId) {
         try {
-            List<EntityCondition> rolllupConds = UtilMisc.newList();
-            rolllupConds.add(EntityCondition.makeCondition("parentProductCategoryId", parentProductCategoryId));
-            rolllupConds.add(EntityCondition.makeCondition("productCategoryId", productCategoryId));
-            Collection<GenericValue> rollups = EntityQuery.use(delegator).from("ProductCategoryRollup").where(rolllupConds).filterByDate().cache().queryList();
-            return !rollups.isEmpty();
+            return CategoryGraph.getInstance(delegator).isChildOf(parentProductCategoryId, productCategoryId, UtilDateTime.nowTimestamp());
         } catch (GenericEntityException e) {
             Debug.logWarning(e, module);
         }
@@ -628,17 +627,14 @@ public class CategoryWorker {
     /**
      * SCIPIO: Returns true only if the category ID is a top category.
      * <p>
-     * NOTE: is caching
+     * NOTE: is caching (in-memory {@link CategoryGraph})
      */
     public static boolean isCategoryTop(Delegator delegator, LocalDispatcher dispatcher, String productCategoryId) {
         if (UtilValidate.isEmpty(productCategoryId)) {
             return false;
         }
         try {
-            List<EntityCondition> rolllupConds = UtilMisc.newList();
-            rolllupConds.add(EntityCondition.makeCondition("productCategoryId", productCategoryId));
-            Collection<GenericValue> rollups = EntityQuery.use(delegator).from("ProductCategoryRollup").where(rolllupConds).filterByDate().cache().queryList();
-            return rollups.isEmpty();
+            return CategoryGraph.getInstance(delegator).isTopCategory(productCategoryId, UtilDateTime.nowTimestamp());
         } catch (GenericEntityException e) {
             Debug.logWarning(e, module);
         }
@@ -867,8 +863,22 @@ public class CategoryWorker {
     /**
      * SCIPIO: Returns all rollups for a category.
      * Imported from SolrCategoryUtil, 2017-11-09.
+     * <p>
+     * NOTE: if useCache is true, the trails are built from the in-memory {@link CategoryGraph}.
      */
     public static List<List<String>> getCategoryRollupTrails(Delegator delegator, String productCategoryId, boolean useCache) {
+        if (useCache) {
+            try {
+                return CategoryGraph.getInstance(delegator).getTrails(productCategoryId, UtilDateTime.nowTimestamp());
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Cannot generate trail from product category '" + productCategoryId + "'", module);
+                List<List<String>> trailElements = new ArrayList<>();
+                List<String> trailElement = new ArrayList<>();
+                trailElement.add(productCategoryId);
+                trailElements.add(trailElement);
+                return trailElements;
+            }
+        }
         List<List<String>> trailElements = new ArrayList<>();
         try {
             // NOTE: Can't filter on sequenceNum because it only makes sense if querying by parentProductCategoryId
@@ -35,6 +35,7 @@ import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
 import org.ofbiz.common.image.ImageTransform;
+import org.ofbiz.common.image.ProgressiveImageScaler;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.util.EntityUtilProperties;
 import org.ofbiz.service.ServiceUtil;
@@ -165,11 +166,12 @@ public class ScaleImage {
             }
 
             /* Scale image for each size from ImageProperties.xml */
-            for (Map.Entry<String, Map<String, String>> entry : imgPropertyMap.entrySet()) {
-                String sizeType = entry.getKey();
+            // SCIPIO: scale largest first, each from the smallest suitable larger variant (progressive)
+            ProgressiveImageScaler progressiveScaler = new ProgressiveImageScaler(bufImg, locale, null);
+            for (String sizeType : ProgressiveImageScaler.sortLargestFirst(imgPropertyMap.keySet(), imgPropertyMap, imgHeight, imgWidth)) {
                 
                 // Scale
-                resultScaleImgMap.putAll(ImageTransform.scaleImage(bufImg, imgHeight, imgWidth, imgPropertyMap, sizeType, locale));
+                resultScaleImgMap.putAll(progressiveScaler.scaleImage(imgPropertyMap, sizeType));
 
                 /* Write the new image file */
                 if (resultScaleImgMap.containsKey("responseMessage") && resultScaleImgMap.get("responseMessage").equals("success")) {
@@ -358,8 +360,10 @@ public class ScaleImage {
             }
 
             /* scale Image for each Size Type */
-            for (String sizeType : sizeTypeList) {
-                resultScaleImgMap.putAll(ImageTransform.scaleImage(bufImg, imgHeight, imgWidth, imgPropertyMap, sizeType, locale));
+            // SCIPIO: scale largest first, each from the smallest suitable larger variant (progressive)
+            ProgressiveImageScaler progressiveScaler = new ProgressiveImageScaler(bufImg, locale, null);
+            for (String sizeType : ProgressiveImageScaler.sortLargestFirst(sizeTypeList, imgPropertyMap, imgHeight, imgWidth)) {
+                resultScaleImgMap.putAll(progressiveScaler.scaleImage(imgPropertyMap, sizeType));
 
                 if (resultScaleImgMap.containsKey("responseMessage") && resultScaleImgMap.get("responseMessage").equals("success")) {
                     bufNewImg = (BufferedImage) resultScaleImgMap.get("bufferedImage");
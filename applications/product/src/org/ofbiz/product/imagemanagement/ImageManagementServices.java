@@ -43,6 +43,7 @@ import org.ofbiz.base.util.string.FlexibleStringExpander;
 import org.ofbiz.common.image.ImageTransform;
 import org.ofbiz.common.image.ImageType;
 import org.ofbiz.common.image.ImageUtil;
+import org.ofbiz.common.image.ProgressiveImageScaler;
 import org.ofbiz.common.image.scaler.ImageScalers;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
@@ -362,8 +363,10 @@ public class ImageManagementServices {
             }
             
             /* scale Image for each Size Type */
-            for (String sizeType : sizeTypeList) {
-                resultScaleImgMap.putAll(ImageTransform.scaleImage(bufImg, imgHeight, imgWidth, imgPropertyMap, sizeType, locale));
+            // SCIPIO: scale largest first, each from the smallest suitable larger variant (progressive)
+            ProgressiveImageScaler progressiveScaler = new ProgressiveImageScaler(bufImg, locale, null);
+            for (String sizeType : ProgressiveImageScaler.sortLargestFirst(sizeTypeList, imgPropertyMap, imgHeight, imgWidth)) {
+                resultScaleImgMap.putAll(progressiveScaler.scaleImage(imgPropertyMap, sizeType));
                 
                 if (resultScaleImgMap.containsKey("responseMessage") && resultScaleImgMap.get("responseMessage").equals("success")) {
                     bufNewImg = (BufferedImage) resultScaleImgMap.get("bufferedImage");
@@ -21,10 +21,16 @@ package org.ofbiz.product.product;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -34,6 +40,8 @@ import org.ofbiz.base.util.GeneralRuntimeException;
 import org.ofbiz.base.util.StringUtil;
 import org.ofbiz.base.util.UtilCodec;
 import org.ofbiz.base.util.UtilHttp;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.content.content.CommonContentWrapper;
@@ -42,7 +50,10 @@ import org.ofbiz.content.content.ContentLangUtil.ContentSanitizer;
 import org.ofbiz.content.content.ContentWorker;
 import org.ofbiz.content.content.ContentWrapper;
 import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelUtil;
 import org.ofbiz.entity.util.EntityQuery;
@@ -61,6 +72,10 @@ public class ProductContentWrapper extends CommonContentWrapper {
     public static final String SEPARATOR = "::";    // cache key separator
 
     private static final UtilCache<String, String> productContentCache = UtilCache.createUtilCache("product.content.rendered", true);
+    private static final List<String> BULK_CONTENT_TYPE_IDS = Collections.unmodifiableList(UtilMisc.makeListWritable(StringUtil.split(
+            UtilProperties.getPropertyValue("catalog", "product.content.bulk.productContentTypeIds", "PRODUCT_NAME, DESCRIPTION"), ", ")));
+    private static final boolean LISTING_PRELOAD = UtilProperties.getPropertyAsBoolean("catalog", "product.content.bulk.listingPreload", true);
+    private static final int QUERY_IN_MAX_SIZE = 1000;
 
     public static ProductContentWrapper makeProductContentWrapper(GenericValue product, HttpServletRequest request) {
         return new ProductContentWrapper(product, request);
@@ -128,7 +143,7 @@ public class ProductContentWrapper extends CommonContentWrapper {
         /* caching: there is one cache created, "product.content"  Each product's content is cached with a key of
          * contentTypeId::locale::mimeType::productId, or whatever the SEPARATOR is defined above to be.
          */
-        String cacheKey = (useCache) ? productContentTypeId + SEPARATOR + locale + SEPARATOR + mimeTypeId + SEPARATOR + product.get("productId") + SEPARATOR + encoder.getLang() + SEPARATOR + delegator : "";
+        String cacheKey = (useCache) ? makeCacheKey(product.getString("productId"), productContentTypeId, locale, mimeTypeId, encoder, delegator) : ""; // SCIPIO: factored out
         try {
             if (useCache) {
                 String cachedValue = productContentCache.get(cacheKey);
@@ -160,10 +175,406 @@ public class ProductContentWrapper extends CommonContentWrapper {
         }
     }
 
+    private static String makeCacheKey(String productId, String productContentTypeId, Locale locale, String mimeTypeId, ContentSanitizer encoder, Delegator delegator) {
+        return productContentTypeId + SEPARATOR + locale + SEPARATOR + mimeTypeId + SEPARATOR + productId + SEPARATOR + encoder.getLang() + SEPARATOR + delegator;
+    }
+
+    /**
+     * SCIPIO: Gets the content of the given types for several products at once, storing it in the wrapper cache
+     * (if useCache) where the wrappers of the same products, locale and mime type then find it.
+     * <p>
+     * ProductContent, parent products of variants, Content, alternate locale content, DataResource and ElectronicText
+     * are each read with one query for the whole list. Content that is plain text (no template, decorator, service
+     * or mime type template) is written as-is; other content is rendered per product, as by
+     * {@link #getProductContentAsText(GenericValue, String, Locale, String, String, String, Delegator, LocalDispatcher, boolean, String)}.
+     * <p>
+     * DEV NOTE: LOGIC DUPLICATED FROM getProductContentAsText AND ContentWorker.renderContentAsText - PLEASE KEEP IN SYNC
+     * (see also findPlainContentTexts; ProductContentTests checks that both give the same text).
+     * @return map of productId to map of productContentTypeId to text
+     */
+    public static Map<String, Map<String, String>> getProductContentAsTextBulk(Collection<GenericValue> products, Collection<String> productContentTypeIds,
+            Locale locale, String mimeTypeId, Delegator delegator, LocalDispatcher dispatcher, boolean useCache, String encoderType) {
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        if (UtilValidate.isEmpty(products) || UtilValidate.isEmpty(productContentTypeIds)) {
+            return results;
+        }
+        if (delegator == null) {
+            delegator = products.iterator().next().getDelegator();
+        }
+        ContentSanitizer encoder = ContentLangUtil.getContentWrapperSanitizer(encoderType);
+
+        // products having content types not in the cache
+        Map<String, GenericValue> pendingProducts = new LinkedHashMap<>();
+        for (GenericValue product : products) {
+            String productId = product.getString("productId");
+            Map<String, String> productResults = new HashMap<>();
+            results.put(productId, productResults);
+            for (String productContentTypeId : productContentTypeIds) {
+                String cachedValue = useCache ? productContentCache.get(makeCacheKey(productId, productContentTypeId, locale, mimeTypeId, encoder, delegator)) : null;
+                if (cachedValue != null) {
+                    productResults.put(productContentTypeId, cachedValue);
+                } else {
+                    pendingProducts.put(productId, product);
+                }
+            }
+        }
+        if (pendingProducts.isEmpty()) {
+            return results;
+        }
+
+        Map<String, Map<String, GenericValue>> productContents;
+        Map<String, GenericValue> parentProducts;
+        Map<String, String> contentTexts;
+        try {
+            productContents = findProductContents(delegator, pendingProducts.keySet(), productContentTypeIds);
+
+            // variants use the content and fields of their virtual product
+            List<String> variantProductIds = new ArrayList<>();
+            for (GenericValue product : pendingProducts.values()) {
+                if ("Y".equals(product.getString("isVariant"))) {
+                    variantProductIds.add(product.getString("productId"));
+                }
+            }
+            parentProducts = findParentProducts(delegator, variantProductIds);
+            if (!parentProducts.isEmpty()) {
+                Set<String> parentProductIds = new HashSet<>();
+                for (GenericValue parentProduct : parentProducts.values()) {
+                    parentProductIds.add(parentProduct.getString("productId"));
+                }
+                Map<String, Map<String, GenericValue>> parentContents = findProductContents(delegator, parentProductIds, productContentTypeIds);
+                for (Map.Entry<String, GenericValue> entry : parentProducts.entrySet()) {
+                    Map<String, GenericValue> parentProductContents = parentContents.get(entry.getValue().getString("productId"));
+                    if (parentProductContents == null) {
+                        continue;
+                    }
+                    Map<String, GenericValue> variantContents = productContents.get(entry.getKey());
+                    if (variantContents == null) {
+                        variantContents = new HashMap<>();
+                        productContents.put(entry.getKey(), variantContents);
+                    }
+                    for (Map.Entry<String, GenericValue> contentEntry : parentProductContents.entrySet()) {
+                        if (!variantContents.containsKey(contentEntry.getKey())) {
+                            variantContents.put(contentEntry.getKey(), contentEntry.getValue());
+                        }
+                    }
+                }
+            }
+
+            contentTexts = findPlainContentTexts(delegator, productContents.values(), locale, mimeTypeId);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error reading content of " + pendingProducts.size() + " products; rendering each product", module);
+            productContents = new HashMap<>();
+            parentProducts = new HashMap<>();
+            contentTexts = null;
+        }
+
+        for (GenericValue product : pendingProducts.values()) {
+            String productId = product.getString("productId");
+            Map<String, String> productResults = results.get(productId);
+            Map<String, GenericValue> contents = productContents.get(productId);
+            for (String productContentTypeId : productContentTypeIds) {
+                if (productResults.containsKey(productContentTypeId)) {
+                    continue;
+                }
+                GenericValue productContent = (contents != null) ? contents.get(productContentTypeId) : null;
+                String candidateFieldName = ModelUtil.dbNameToVarName(productContentTypeId);
+                boolean isField = product.getModelEntity().isField(candidateFieldName);
+                String outString = null;
+                if (productContent != null || contentTexts == null) {
+                    outString = (contentTexts != null) ? contentTexts.get(productContent.getString("contentId")) : null;
+                    if (outString == null) {
+                        // not plain text (or lookup failed): render it
+                        productResults.put(productContentTypeId, getProductContentAsText(product, productContentTypeId, locale, mimeTypeId,
+                                null, null, delegator, dispatcher, useCache, encoderType));
+                        continue;
+                    }
+                } else if (isField) {
+                    outString = product.getString(candidateFieldName);
+                    GenericValue parentProduct = parentProducts.get(productId);
+                    if (UtilValidate.isEmpty(outString) && parentProduct != null) {
+                        outString = parentProduct.getString(candidateFieldName);
+                    }
+                }
+                if (UtilValidate.isEmpty(outString)) {
+                    outString = isField ? product.getString(candidateFieldName) : "";
+                    outString = outString == null ? "" : outString;
+                }
+                outString = encoder.encode(outString);
+                if (useCache) {
+                    productContentCache.put(makeCacheKey(productId, productContentTypeId, locale, mimeTypeId, encoder, delegator), outString);
+                }
+                productResults.put(productContentTypeId, outString);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * SCIPIO: Loads the content of the products into the wrapper cache, for the locale of the request and the types
+     * in catalog.properties <code>product.content.bulk.productContentTypeIds</code>, so that the product wrappers of
+     * a listing page get it from the cache. For use before a listing is rendered; does nothing if
+     * <code>product.content.bulk.listingPreload</code> is false.
+     */
+    public static void preloadProductContent(Collection<GenericValue> products, HttpServletRequest request) {
+        if (!LISTING_PRELOAD || UtilValidate.isEmpty(products)) {
+            return;
+        }
+        LocalDispatcher dispatcher = (LocalDispatcher) request.getAttribute("dispatcher");
+        GenericValue firstProduct = products.iterator().next();
+        getProductContentAsTextBulk(products, getBulkProductContentTypeIds(), UtilHttp.getLocale(request),
+                getDefaultMimeTypeId(firstProduct.getDelegator()), firstProduct.getDelegator(), dispatcher, true, "raw");
+    }
+
+    /**
+     * SCIPIO: Loads the content of the products into the wrapper cache, by productId; only the products
+     * not already in the cache are read.
+     * @see #preloadProductContent(Collection, HttpServletRequest)
+     */
+    public static void preloadProductContentByIds(Collection<String> productIds, HttpServletRequest request) {
+        if (!LISTING_PRELOAD || UtilValidate.isEmpty(productIds)) {
+            return;
+        }
+        Delegator delegator = (Delegator) request.getAttribute("delegator");
+        Locale locale = UtilHttp.getLocale(request);
+        String mimeTypeId = getDefaultMimeTypeId(delegator);
+        ContentSanitizer encoder = ContentLangUtil.getContentWrapperSanitizer("raw");
+        List<String> missingProductIds = new ArrayList<>();
+        for (String productId : productIds) {
+            for (String productContentTypeId : getBulkProductContentTypeIds()) {
+                if (productContentCache.get(makeCacheKey(productId, productContentTypeId, locale, mimeTypeId, encoder, delegator)) == null) {
+                    missingProductIds.add(productId);
+                    break;
+                }
+            }
+        }
+        if (missingProductIds.isEmpty()) {
+            return;
+        }
+        try {
+            preloadProductContent(queryIn(delegator, "Product", "productId", missingProductIds, null, null, null), request);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error reading products to preload content", module);
+        }
+    }
+
+    /**
+     * SCIPIO: Returns the productContentTypeIds preloaded for listings (catalog.properties <code>product.content.bulk.productContentTypeIds</code>).
+     */
+    public static List<String> getBulkProductContentTypeIds() {
+        return BULK_CONTENT_TYPE_IDS;
+    }
+
+    /**
+     * SCIPIO: Returns the first date-effective ProductContent of each product and content type, by productId and productContentTypeId.
+     */
+    private static Map<String, Map<String, GenericValue>> findProductContents(Delegator delegator, Collection<String> productIds,
+            Collection<String> productContentTypeIds) throws GenericEntityException {
+        Map<String, Map<String, GenericValue>> productContents = new HashMap<>();
+        List<GenericValue> values = queryIn(delegator, "ProductContent", "productId", productIds,
+                EntityCondition.makeCondition("productContentTypeId", EntityOperator.IN, productContentTypeIds), "fromDate", "thruDate");
+        for (GenericValue productContent : values) {
+            String productId = productContent.getString("productId");
+            Map<String, GenericValue> contents = productContents.get(productId);
+            if (contents == null) {
+                contents = new HashMap<>();
+                productContents.put(productId, contents);
+            }
+            String productContentTypeId = productContent.getString("productContentTypeId");
+            if (!contents.containsKey(productContentTypeId)) { // newest first
+                contents.put(productContentTypeId, productContent);
+            }
+        }
+        return productContents;
+    }
+
+    /**
+     * SCIPIO: Returns the parent products of the variants, by variant productId, as {@link ProductWorker#getParentProduct}
+     * (PRODUCT_VARIANT association, else UNIQUE_ITEM).
+     */
+    private static Map<String, GenericValue> findParentProducts(Delegator delegator, Collection<String> variantProductIds) throws GenericEntityException {
+        Map<String, GenericValue> parentProducts = new HashMap<>();
+        if (variantProductIds.isEmpty()) {
+            return parentProducts;
+        }
+        Map<String, String> parentProductIds = new HashMap<>();
+        Map<String, String> uniqueItemParentProductIds = new HashMap<>();
+        List<GenericValue> productAssocs = queryIn(delegator, "ProductAssoc", "productIdTo", variantProductIds,
+                EntityCondition.makeCondition("productAssocTypeId", EntityOperator.IN, UtilMisc.toList("PRODUCT_VARIANT", "UNIQUE_ITEM")), "fromDate", "thruDate");
+        for (GenericValue productAssoc : productAssocs) {
+            Map<String, String> targetIds = "PRODUCT_VARIANT".equals(productAssoc.getString("productAssocTypeId")) ? parentProductIds : uniqueItemParentProductIds;
+            if (!targetIds.containsKey(productAssoc.getString("productIdTo"))) { // newest first
+                targetIds.put(productAssoc.getString("productIdTo"), productAssoc.getString("productId"));
+            }
+        }
+        for (Map.Entry<String, String> entry : uniqueItemParentProductIds.entrySet()) {
+            if (!parentProductIds.containsKey(entry.getKey())) {
+                parentProductIds.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (parentProductIds.isEmpty()) {
+            return parentProducts;
+        }
+        Map<String, GenericValue> products = new HashMap<>();
+        for (GenericValue product : queryIn(delegator, "Product", "productId", new HashSet<>(parentProductIds.values()), null, null, null)) {
+            products.put(product.getString("productId"), product);
+        }
+        for (Map.Entry<String, String> entry : parentProductIds.entrySet()) {
+            GenericValue parentProduct = products.get(entry.getValue());
+            if (parentProduct != null) {
+                parentProducts.put(entry.getKey(), parentProduct);
+            }
+        }
+        return parentProducts;
+    }
+
+    /**
+     * SCIPIO: Returns the text of the ProductContent contents that render as plain text, by the ProductContent contentId,
+     * replicating {@link ContentWorker#renderContentAsText} for content without service, decorator or template whose
+     * DataResource is short or electronic text without template or mime type template. The others are left out.
+     * <p>
+     * DEV NOTE: LOGIC DUPLICATED FROM ContentWorker.renderContentAsText AND DataResourceWorker.renderDataResourceAsText - PLEASE KEEP IN SYNC.
+     */
+    private static Map<String, String> findPlainContentTexts(Delegator delegator, Collection<Map<String, GenericValue>> productContents,
+            Locale locale, String mimeTypeId) throws GenericEntityException {
+        Map<String, String> contentTexts = new HashMap<>();
+        String targetMimeTypeId = UtilValidate.isEmpty(mimeTypeId) ? "text/html" : mimeTypeId;
+        if (!targetMimeTypeId.startsWith("text/")) {
+            return contentTexts;
+        }
+        Set<String> contentIds = new HashSet<>();
+        for (Map<String, GenericValue> contents : productContents) {
+            for (GenericValue productContent : contents.values()) {
+                contentIds.add(productContent.getString("contentId"));
+            }
+        }
+        if (contentIds.isEmpty()) {
+            return contentTexts;
+        }
+
+        // content to render, by ProductContent contentId
+        Map<String, GenericValue> renderContents = new HashMap<>();
+        List<String> localizedContentIds = new ArrayList<>();
+        for (GenericValue content : queryIn(delegator, "Content", "contentId", contentIds, null, null, null)) {
+            if ("WEB_SITE_PUB_PT".equals(content.getString("contentTypeId")) && content.get("dataResourceId") == null) {
+                continue; // publish point
+            }
+            renderContents.put(content.getString("contentId"), content);
+            String localeString = content.getString("localeString");
+            if (locale != null && !locale.toString().equalsIgnoreCase(localeString != null ? localeString : "")) {
+                localizedContentIds.add(content.getString("contentId"));
+            }
+        }
+        if (!localizedContentIds.isEmpty()) {
+            Map<String, List<GenericValue>> alternateViewsByContentId = new HashMap<>();
+            List<GenericValue> alternateViews = queryIn(delegator, "ContentAssocDataResourceViewTo", "contentIdStart", localizedContentIds,
+                    EntityCondition.makeCondition("caContentAssocTypeId", "ALTERNATE_LOCALE"), "caFromDate", "caThruDate");
+            for (GenericValue alternateView : alternateViews) {
+                List<GenericValue> views = alternateViewsByContentId.get(alternateView.getString("contentIdStart"));
+                if (views == null) {
+                    views = new ArrayList<>();
+                    alternateViewsByContentId.put(alternateView.getString("contentIdStart"), views);
+                }
+                views.add(alternateView);
+            }
+            for (String contentId : localizedContentIds) {
+                List<GenericValue> views = alternateViewsByContentId.get(contentId);
+                if (views != null) {
+                    GenericValue altContent = ContentWorker.selectAlternateLocaleContent(renderContents.get(contentId), views, locale);
+                    if (altContent != null) {
+                        renderContents.put(contentId, altContent);
+                    }
+                }
+            }
+        }
+
+        // data resources of the content without service, decorator or template, by ProductContent contentId
+        Map<String, String> plainDataResourceIds = new HashMap<>();
+        for (Map.Entry<String, GenericValue> entry : renderContents.entrySet()) {
+            GenericValue content = entry.getValue();
+            if (UtilValidate.isEmpty(content.getString("serviceName")) && UtilValidate.isEmpty(content.getString("customMethodId"))
+                    && UtilValidate.isEmpty(content.getString("decoratorContentId")) && UtilValidate.isEmpty(content.getString("templateDataResourceId"))
+                    && UtilValidate.isNotEmpty(content.getString("dataResourceId"))) {
+                plainDataResourceIds.put(entry.getKey(), content.getString("dataResourceId"));
+            }
+        }
+        if (plainDataResourceIds.isEmpty()) {
+            return contentTexts;
+        }
+        Map<String, GenericValue> dataResources = new HashMap<>();
+        List<String> electronicTextIds = new ArrayList<>();
+        for (GenericValue dataResource : queryIn(delegator, "DataResource", "dataResourceId", new HashSet<>(plainDataResourceIds.values()), null, null, null)) {
+            String dataTemplateTypeId = dataResource.getString("dataTemplateTypeId");
+            String dataResourceTypeId = dataResource.getString("dataResourceTypeId");
+            if (UtilValidate.isNotEmpty(dataTemplateTypeId) && !"NONE".equals(dataTemplateTypeId)) {
+                continue;
+            }
+            if (UtilValidate.isEmpty(dataResourceTypeId) || "SHORT_TEXT".equals(dataResourceTypeId) || "LINK".equals(dataResourceTypeId)) {
+                dataResources.put(dataResource.getString("dataResourceId"), dataResource);
+            } else if ("ELECTRONIC_TEXT".equals(dataResourceTypeId)) {
+                dataResources.put(dataResource.getString("dataResourceId"), dataResource);
+                electronicTextIds.add(dataResource.getString("dataResourceId"));
+            }
+        }
+        Map<String, String> electronicTexts = new HashMap<>();
+        for (GenericValue electronicText : queryIn(delegator, "ElectronicText", "dataResourceId", electronicTextIds, null, null, null)) {
+            electronicTexts.put(electronicText.getString("dataResourceId"), electronicText.getString("textData"));
+        }
+
+        for (Map.Entry<String, String> entry : plainDataResourceIds.entrySet()) {
+            GenericValue dataResource = dataResources.get(entry.getValue());
+            if (dataResource == null) {
+                continue;
+            }
+            if ("text/html".equals(targetMimeTypeId)) {
+                // see DataResourceWorker.writeText
+                String dataResourceMimeTypeId = dataResource.getString("mimeTypeId");
+                GenericValue mimeTypeTemplate = EntityQuery.use(delegator).from("MimeTypeHtmlTemplate")
+                        .where("mimeTypeId", UtilValidate.isNotEmpty(dataResourceMimeTypeId) ? dataResourceMimeTypeId : "text/html").cache().queryOne();
+                if (mimeTypeTemplate != null && mimeTypeTemplate.get("templateLocation") != null) {
+                    continue;
+                }
+            }
+            String text;
+            if ("ELECTRONIC_TEXT".equals(dataResource.getString("dataResourceTypeId"))) {
+                text = electronicTexts.get(dataResource.getString("dataResourceId"));
+            } else {
+                text = dataResource.getString("objectInfo");
+            }
+            contentTexts.put(entry.getKey(), (text != null) ? text : "");
+        }
+        return contentTexts;
+    }
+
+    /**
+     * SCIPIO: Queries the values whose field is in the ids, in chunks, optionally date-filtered (newest first).
+     */
+    private static List<GenericValue> queryIn(Delegator delegator, String entityName, String fieldName, Collection<String> ids,
+            EntityCondition condition, String fromDateField, String thruDateField) throws GenericEntityException {
+        List<GenericValue> values = new ArrayList<>();
+        List<String> idList = new ArrayList<>(ids);
+        for (int i = 0; i < idList.size(); i += QUERY_IN_MAX_SIZE) {
+            List<EntityCondition> conditions = new ArrayList<>(2);
+            conditions.add(EntityCondition.makeCondition(fieldName, EntityOperator.IN, idList.subList(i, Math.min(i + QUERY_IN_MAX_SIZE, idList.size()))));
+            if (condition != null) {
+                conditions.add(condition);
+            }
+            EntityQuery query = EntityQuery.use(delegator).from(entityName).where(conditions);
+            if (fromDateField != null) {
+                query.orderBy("-" + fromDateField).filterByDate(fromDateField, thruDateField);
+            }
+            values.addAll(query.queryList());
+        }
+        return values;
+    }
+
     public static void getProductContentAsText(String productId, GenericValue product, String productContentTypeId, Locale locale, String mimeTypeId, String partyId, String roleTypeId, Delegator delegator, LocalDispatcher dispatcher, Writer outWriter) throws GeneralException, IOException {
         getProductContentAsText(productId, product, productContentTypeId, locale, mimeTypeId, partyId, roleTypeId, delegator, dispatcher, outWriter, true);
     }
     
+    /**
+     * Writes the product content.
+     * SCIPIO: NOTE: getProductContentAsTextBulk duplicates this lookup for lists of products - PLEASE KEEP IN SYNC.
+     */
     public static void getProductContentAsText(String productId, GenericValue product, String productContentTypeId, Locale locale, String mimeTypeId, String partyId, String roleTypeId, Delegator delegator, LocalDispatcher dispatcher, Writer outWriter, boolean cache) throws GeneralException, IOException {
         if (productId == null && product != null) {
             productId = product.getString("productId");
@@ -0,0 +1,881 @@
+package org.ofbiz.product.product;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.product.product.ProductSearch.ProductSearchContext;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: In-memory index of the products of each category (ProductCategoryMember) and of each feature
+ * (ProductFeatureAppl), used by ProductSearch category and feature constraints and by the ProductSearchSession
+ * facet counts instead of joins and count queries (prodsearch.properties <code>search.facet.memoryIndex.*</code>).
+ * <p>
+ * Product sets are sorted doc arrays when sparse and bitmaps when dense, so that mid-sized catalogs with many
+ * features stay small while large categories intersect quickly. Memberships are kept with their from/thru dates;
+ * the effective sets are recomputed in memory when a date boundary is passed. The index is read from the database
+ * in the background on first use and again every <code>search.facet.memoryIndex.refreshInterval</code>; until it
+ * is ready, the database is used. The ProductCategoryMember, ProductFeatureAppl and ProductFeature entity ECAs
+ * (productFacetIndexChanged service) mark the index stale once their transaction commits: the database is used
+ * again until a reload started after the change is done.
+ * <p>
+ * NOTE: Feature group constraints are not indexed; searches using them go to the database.
+ */
+public final class ProductFacetIndex {
+
+    public static final String module = ProductFacetIndex.class.getName();
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("prodsearch", "search.facet.memoryIndex.enabled", false);
+    private static final long REFRESH_INTERVAL = UtilProperties.getPropertyAsLong("prodsearch", "search.facet.memoryIndex.refreshInterval", 600000);
+    private static final long BUILD_RETRY_INTERVAL = 60000;
+
+    private static final Map<String, ProductFacetIndex> indexes = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService executor;
+
+    private final String delegatorName;
+    private volatile Data data; // null until built
+    private volatile long buildTime = 0;
+    private final AtomicBoolean building = new AtomicBoolean(false);
+    /** Number of committed changes, and the number the current data was loaded after. */
+    private final AtomicLong changeCount = new AtomicLong();
+    private volatile long dataChangeCount = 0;
+
+    private ProductFacetIndex(String delegatorName) {
+        this.delegatorName = delegatorName;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the index for the delegator, or null if the index is disabled.
+     */
+    public static ProductFacetIndex getInstance(Delegator delegator) {
+        if (!ENABLED) {
+            return null;
+        }
+        String delegatorName = delegator.getDelegatorName();
+        ProductFacetIndex index = indexes.get(delegatorName);
+        if (index == null) {
+            index = new ProductFacetIndex(delegatorName);
+            ProductFacetIndex prevIndex = indexes.putIfAbsent(delegatorName, index);
+            if (prevIndex != null) {
+                index = prevIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Reads the whole index from the database, in the calling thread.
+     */
+    private void build() throws GenericEntityException {
+        long startChangeCount = changeCount.get();
+        data = Data.load(DelegatorFactory.getDelegator(delegatorName));
+        dataChangeCount = startChangeCount;
+        buildTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns true if the index can answer searches, that is, loaded and not changed since; schedules a build or refresh when needed.
+     */
+    public boolean isReady() {
+        Data currentData = data;
+        boolean changed = (dataChangeCount != changeCount.get());
+        long age = System.currentTimeMillis() - buildTime;
+        if ((currentData == null && age > BUILD_RETRY_INTERVAL) || (currentData != null && (changed || (REFRESH_INTERVAL > 0 && age > REFRESH_INTERVAL)))) {
+            scheduleBuild();
+        }
+        return currentData != null && !changed;
+    }
+
+    /**
+     * Marks the index stale and schedules a reload, after the current transaction commits (if any).
+     */
+    public static void productFacetIndexChanged(Delegator delegator) {
+        final ProductFacetIndex index = getInstance(delegator);
+        if (index == null) {
+            return;
+        }
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            index.changed();
+                        }
+                    }
+                });
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register facet index reload for transaction end; reloading now", module);
+        }
+        index.changed();
+    }
+
+    /**
+     * Service called by the ProductCategoryMember, ProductFeatureAppl and ProductFeature entity ECAs:
+     * see {@link #productFacetIndexChanged(Delegator)}.
+     */
+    public static Map<String, Object> productFacetIndexChanged(DispatchContext dctx, Map<String, ? extends Object> context) {
+        productFacetIndexChanged(dctx.getDelegator());
+        return ServiceUtil.returnSuccess();
+    }
+
+    private void changed() {
+        changeCount.incrementAndGet();
+        if (data != null) {
+            scheduleBuild(); // otherwise the first build is still pending and reads the change
+        }
+    }
+
+    /**
+     * Returns the effective view as of now, or null if the index is not ready.
+     */
+    private View getView() {
+        if (!isReady()) {
+            return null;
+        }
+        return data.getView(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the products currently in the category, or null if the index is not ready.
+     */
+    public ProductSet getCategoryProducts(Collection<String> productCategoryIds) {
+        View view = getView();
+        return (view != null) ? view.union(view.categorySets, productCategoryIds) : null;
+    }
+
+    /**
+     * Returns the products currently having any of the features, or null if the index is not ready.
+     */
+    public ProductSet getFeatureProducts(Collection<String> productFeatureIds) {
+        View view = getView();
+        return (view != null) ? view.union(view.featureSets, productFeatureIds) : null;
+    }
+
+    /**
+     * Returns the set of the given products known to the index (products without categories or features are left out),
+     * or null if the index is not ready.
+     */
+    public ProductSet getProducts(Collection<String> productIds) {
+        Data currentData = (isReady()) ? data : null;
+        if (currentData == null) {
+            return null;
+        }
+        int[] docs = new int[productIds.size()];
+        int size = 0;
+        for (String productId : productIds) {
+            Integer docId = currentData.docIds.get(productId);
+            if (docId != null) {
+                docs[size++] = docId;
+            }
+        }
+        Arrays.sort(docs, 0, size);
+        return ProductSet.of(docs, size, currentData.productIds);
+    }
+
+    /**
+     * Returns the base set in terms of the view data, in case the index was refreshed since the set was made.
+     */
+    private static ProductSet toViewData(ProductSet base, View view) {
+        if (base == null || base.productIds == view.data.productIds) {
+            return base;
+        }
+        List<String> productIds = base.getProductIds();
+        int[] docs = new int[productIds.size()];
+        int size = 0;
+        for (String productId : productIds) {
+            Integer docId = view.data.docIds.get(productId);
+            if (docId != null) {
+                docs[size++] = docId;
+            }
+        }
+        Arrays.sort(docs, 0, size);
+        return ProductSet.of(docs, size, view.data.productIds);
+    }
+
+    /**
+     * Evaluates the category and feature constraints collected in the search context, with the same logic as
+     * {@link ProductSearchContext#finishCategoryAndFeatureConstraints()}. Returns null if the index is not ready,
+     * or if the constraints cannot be evaluated in memory (feature groups, or excludes without any include,
+     * which need the whole product table).
+     */
+    public ProductSet findProducts(ProductSearchContext ctx) {
+        if (!ctx.includeFeatureGroupIds.isEmpty() || !ctx.excludeFeatureGroupIds.isEmpty() || !ctx.alwaysIncludeFeatureGroupIds.isEmpty()) {
+            return null;
+        }
+        View view = getView();
+        if (view == null) {
+            return null;
+        }
+
+        // ((each category include AND each feature include) AND NOT (category excludes OR feature excludes)) OR (each always include)
+        List<ProductSet> incSets = new ArrayList<>();
+        for (String productCategoryId : ctx.includeCategoryIds) {
+            incSets.add(view.get(view.categorySets, productCategoryId));
+        }
+        for (Set<String> productCategoryIdOrSet : ctx.includeCategoryIdOrSetAndList) {
+            incSets.add(view.union(view.categorySets, productCategoryIdOrSet));
+        }
+        for (String productFeatureId : ctx.includeFeatureIds) {
+            incSets.add(view.get(view.featureSets, productFeatureId));
+        }
+        for (Set<String> productFeatureIdOrSet : ctx.includeFeatureIdOrSetAndList) {
+            incSets.add(view.union(view.featureSets, productFeatureIdOrSet));
+        }
+        for (String productFeatureCategoryId : ctx.includeFeatureCategoryIds) {
+            incSets.add(view.union(view.featureSets, view.data.getFeatureIdsForCategory(productFeatureCategoryId)));
+        }
+        List<ProductSet> excSets = new ArrayList<>();
+        if (!ctx.excludeCategoryIds.isEmpty()) {
+            excSets.add(view.union(view.categorySets, ctx.excludeCategoryIds));
+        }
+        if (!ctx.excludeFeatureIds.isEmpty()) {
+            excSets.add(view.union(view.featureSets, ctx.excludeFeatureIds));
+        }
+        for (String productFeatureCategoryId : ctx.excludeFeatureCategoryIds) {
+            excSets.add(view.union(view.featureSets, view.data.getFeatureIdsForCategory(productFeatureCategoryId)));
+        }
+        List<ProductSet> alwIncSets = new ArrayList<>();
+        if (!ctx.alwaysIncludeCategoryIds.isEmpty()) {
+            alwIncSets.add(view.union(view.categorySets, ctx.alwaysIncludeCategoryIds));
+        }
+        for (Set<String> productCategoryIdOrSet : ctx.alwaysIncludeCategoryIdOrSetAndList) {
+            alwIncSets.add(view.union(view.categorySets, productCategoryIdOrSet));
+        }
+        if (!ctx.alwaysIncludeFeatureIds.isEmpty()) {
+            alwIncSets.add(view.union(view.featureSets, ctx.alwaysIncludeFeatureIds));
+        }
+        for (Set<String> productFeatureIdOrSet : ctx.alwaysIncludeFeatureIdOrSetAndList) {
+            alwIncSets.add(view.union(view.featureSets, productFeatureIdOrSet));
+        }
+        for (String productFeatureCategoryId : ctx.alwaysIncludeFeatureCategoryIds) {
+            alwIncSets.add(view.union(view.featureSets, view.data.getFeatureIdsForCategory(productFeatureCategoryId)));
+        }
+
+        if (incSets.isEmpty() && (!excSets.isEmpty() || alwIncSets.isEmpty())) {
+            return null;
+        }
+        ProductSet result = null;
+        if (!incSets.isEmpty()) {
+            result = ProductSet.intersect(incSets);
+            for (ProductSet excSet : excSets) {
+                result = result.andNot(excSet);
+            }
+        }
+        if (!alwIncSets.isEmpty()) {
+            ProductSet alwIncSet = ProductSet.intersect(alwIncSets);
+            result = (result != null) ? result.or(alwIncSet) : alwIncSet;
+        }
+        return result;
+    }
+
+    /**
+     * Counts the products of the base set (null for all products) having each feature of the type, currently applied;
+     * features without products are left out. Returns null if the index is not ready.
+     * @return List of Maps containing productFeatureId, productFeatureTypeId, description, featureCount, as
+     * {@link ProductSearchSession#listCountByFeatureForType}.
+     */
+    public List<Map<String, String>> listCountByFeatureForType(ProductSet base, String productFeatureTypeId) {
+        View view = getView();
+        if (view == null) {
+            return null;
+        }
+        base = toViewData(base, view);
+        List<Map<String, String>> featureCountList = new ArrayList<>();
+        List<FeatureInfo> features = view.data.featuresByType.get(productFeatureTypeId);
+        if (features == null) {
+            return featureCountList;
+        }
+        for (FeatureInfo feature : features) {
+            ProductSet featureSet = view.featureSets.get(feature.productFeatureId);
+            if (featureSet == null) {
+                continue;
+            }
+            int count = (base != null) ? base.andCount(featureSet) : featureSet.size();
+            if (count > 0) {
+                featureCountList.add(UtilMisc.<String, String>toMap("productFeatureId", feature.productFeatureId, "productFeatureTypeId", productFeatureTypeId,
+                        "description", feature.description, "featureCount", Integer.toString(count)));
+            }
+        }
+        return featureCountList;
+    }
+
+    /**
+     * Counts the products of the base set (null for all products) currently in any of the categories; returns -1 if the index is not ready.
+     */
+    public long getCountForCategories(ProductSet base, Collection<String> productCategoryIds) {
+        View view = getView();
+        if (view == null) {
+            return -1;
+        }
+        base = toViewData(base, view);
+        ProductSet categorySet = view.union(view.categorySets, productCategoryIds);
+        return (base != null) ? base.andCount(categorySet) : categorySet.size();
+    }
+
+    private void scheduleBuild() {
+        if (!building.compareAndSet(false, true)) {
+            return;
+        }
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean built = false;
+                try {
+                    build();
+                    built = true;
+                } catch (Throwable t) {
+                    Debug.logError(t, "Could not build product facet index", module);
+                } finally {
+                    buildTime = System.currentTimeMillis();
+                    building.set(false);
+                }
+                if (built && dataChangeCount != changeCount.get()) {
+                    scheduleBuild(); // changed during the build
+                }
+            }
+        });
+    }
+
+    private static ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (ProductFacetIndex.class) {
+                if (executor == null) {
+                    executor = ExecutionPool.getScheduledExecutor(null, "Scipio-product-facet-index", 1, 0, false);
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static final class FeatureInfo {
+        final String productFeatureId;
+        final String productFeatureCategoryId;
+        final String description;
+
+        FeatureInfo(String productFeatureId, String productFeatureCategoryId, String description) {
+            this.productFeatureId = productFeatureId;
+            this.productFeatureCategoryId = productFeatureCategoryId;
+            this.description = description;
+        }
+    }
+
+    /**
+     * Memberships of one category or feature, with their dates (thru Long.MAX_VALUE if none).
+     */
+    private static final class Memberships {
+        int[] docs = new int[4];
+        long[] fromDates = new long[4];
+        long[] thruDates = new long[4];
+        int size = 0;
+
+        void add(int docId, long fromDate, long thruDate) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                fromDates = Arrays.copyOf(fromDates, size * 2);
+                thruDates = Arrays.copyOf(thruDates, size * 2);
+            }
+            docs[size] = docId;
+            fromDates[size] = fromDate;
+            thruDates[size] = thruDate;
+            size++;
+        }
+    }
+
+    /**
+     * Immutable data read from the database.
+     */
+    private static final class Data {
+        final String[] productIds;
+        final Map<String, Integer> docIds;
+        final Map<String, Memberships> categoryMembers;
+        final Map<String, Memberships> featureAppls;
+        final Map<String, List<FeatureInfo>> featuresByType;
+        final Map<String, List<String>> featureIdsByCategory;
+        private volatile View view;
+
+        private Data(String[] productIds, Map<String, Integer> docIds, Map<String, Memberships> categoryMembers, Map<String, Memberships> featureAppls,
+                Map<String, List<FeatureInfo>> featuresByType, Map<String, List<String>> featureIdsByCategory) {
+            this.productIds = productIds;
+            this.docIds = docIds;
+            this.categoryMembers = categoryMembers;
+            this.featureAppls = featureAppls;
+            this.featuresByType = featuresByType;
+            this.featureIdsByCategory = featureIdsByCategory;
+        }
+
+        static Data load(Delegator delegator) throws GenericEntityException {
+            long startTime = System.currentTimeMillis();
+            Timestamp nowTimestamp = new Timestamp(startTime);
+            // memberships that already ended cannot become effective again
+            EntityCondition notEndedCond = EntityCondition.makeCondition(EntityCondition.makeCondition("thruDate", EntityOperator.EQUALS, null),
+                    EntityOperator.OR, EntityCondition.makeCondition("thruDate", EntityOperator.GREATER_THAN, nowTimestamp));
+            List<String> productIdList = new ArrayList<>();
+            Map<String, Integer> docIds = new HashMap<>();
+            Map<String, Memberships> categoryMembers = loadMemberships(delegator, "ProductCategoryMember", "productCategoryId", notEndedCond, productIdList, docIds);
+            Map<String, Memberships> featureAppls = loadMemberships(delegator, "ProductFeatureAppl", "productFeatureId", notEndedCond, productIdList, docIds);
+
+            Map<String, List<FeatureInfo>> featuresByType = new HashMap<>();
+            Map<String, List<String>> featureIdsByCategory = new HashMap<>();
+            EntityListIterator eli = EntityQuery.use(delegator).select("productFeatureId", "productFeatureTypeId", "productFeatureCategoryId", "description")
+                    .from("ProductFeature").queryIterator();
+            try {
+                GenericValue productFeature;
+                while ((productFeature = eli.next()) != null) {
+                    String productFeatureId = productFeature.getString("productFeatureId");
+                    if (!featureAppls.containsKey(productFeatureId)) {
+                        continue;
+                    }
+                    FeatureInfo feature = new FeatureInfo(productFeatureId, productFeature.getString("productFeatureCategoryId"), productFeature.getString("description"));
+                    String productFeatureTypeId = productFeature.getString("productFeatureTypeId");
+                    if (productFeatureTypeId != null) {
+                        List<FeatureInfo> typeFeatures = featuresByType.get(productFeatureTypeId);
+                        if (typeFeatures == null) {
+                            typeFeatures = new ArrayList<>();
+                            featuresByType.put(productFeatureTypeId, typeFeatures);
+                        }
+                        typeFeatures.add(feature);
+                    }
+                    if (feature.productFeatureCategoryId != null) {
+                        List<String> categoryFeatureIds = featureIdsByCategory.get(feature.productFeatureCategoryId);
+                        if (categoryFeatureIds == null) {
+                            categoryFeatureIds = new ArrayList<>();
+                            featureIdsByCategory.put(feature.productFeatureCategoryId, categoryFeatureIds);
+                        }
+                        categoryFeatureIds.add(productFeatureId);
+                    }
+                }
+            } finally {
+                eli.close();
+            }
+            for (List<FeatureInfo> features : featuresByType.values()) {
+                Collections.sort(features, new Comparator<FeatureInfo>() {
+                    @Override
+                    public int compare(FeatureInfo o1, FeatureInfo o2) {
+                        String description1 = (o1.description != null) ? o1.description : "";
+                        String description2 = (o2.description != null) ? o2.description : "";
+                        int result = description1.compareTo(description2);
+                        return (result != 0) ? result : o1.productFeatureId.compareTo(o2.productFeatureId);
+                    }
+                });
+            }
+
+            Data data = new Data(productIdList.toArray(new String[productIdList.size()]), docIds, categoryMembers, featureAppls, featuresByType, featureIdsByCategory);
+            Debug.logInfo("Built product facet index: " + data.productIds.length + " products, " + categoryMembers.size() + " categories, "
+                    + featureAppls.size() + " features in " + (System.currentTimeMillis() - startTime) + "ms", module);
+            return data;
+        }
+
+        private static Map<String, Memberships> loadMemberships(Delegator delegator, String entityName, String keyFieldName, EntityCondition cond,
+                List<String> productIdList, Map<String, Integer> docIds) throws GenericEntityException {
+            Map<String, Memberships> memberships = new HashMap<>();
+            EntityListIterator eli = EntityQuery.use(delegator).select("productId", keyFieldName, "fromDate", "thruDate")
+                    .from(entityName).where(cond).queryIterator();
+            try {
+                GenericValue value;
+                while ((value = eli.next()) != null) {
+                    String productId = value.getString("productId");
+                    Integer docId = docIds.get(productId);
+                    if (docId == null) {
+                        docId = productIdList.size();
+                        productIdList.add(productId);
+                        docIds.put(productId, docId);
+                    }
+                    String key = value.getString(keyFieldName);
+                    Memberships keyMemberships = memberships.get(key);
+                    if (keyMemberships == null) {
+                        keyMemberships = new Memberships();
+                        memberships.put(key, keyMemberships);
+                    }
+                    Timestamp fromDate = value.getTimestamp("fromDate");
+                    Timestamp thruDate = value.getTimestamp("thruDate");
+                    keyMemberships.add(docId, (fromDate != null) ? fromDate.getTime() : Long.MIN_VALUE, (thruDate != null) ? thruDate.getTime() : Long.MAX_VALUE);
+                }
+            } finally {
+                eli.close();
+            }
+            return memberships;
+        }
+
+        List<String> getFeatureIdsForCategory(String productFeatureCategoryId) {
+            List<String> featureIds = featureIdsByCategory.get(productFeatureCategoryId);
+            return (featureIds != null) ? featureIds : Collections.<String>emptyList();
+        }
+
+        /**
+         * Returns the effective sets at the given time, recomputing them if a date boundary was passed.
+         */
+        View getView(long time) {
+            View currentView = view;
+            if (currentView != null && time >= currentView.validFrom && time < currentView.validUntil) {
+                return currentView;
+            }
+            synchronized (this) {
+                currentView = view;
+                if (currentView == null || time < currentView.validFrom || time >= currentView.validUntil) {
+                    currentView = new View(this, time);
+                    view = currentView;
+                }
+            }
+            return currentView;
+        }
+    }
+
+    /**
+     * Effective product sets of each category and feature, for times in [validFrom, validUntil).
+     */
+    private static final class View {
+        final Data data;
+        final long validFrom;
+        final long validUntil;
+        final Map<String, ProductSet> categorySets;
+        final Map<String, ProductSet> featureSets;
+
+        View(Data data, long time) {
+            this.data = data;
+            this.validFrom = time;
+            long[] nextChange = new long[] { Long.MAX_VALUE };
+            this.categorySets = makeSets(data.categoryMembers, time, data.productIds, nextChange);
+            this.featureSets = makeSets(data.featureAppls, time, data.productIds, nextChange);
+            this.validUntil = nextChange[0];
+        }
+
+        private static Map<String, ProductSet> makeSets(Map<String, Memberships> membershipsMap, long time, String[] productIds, long[] nextChange) {
+            Map<String, ProductSet> sets = new HashMap<>(membershipsMap.size() * 2);
+            for (Map.Entry<String, Memberships> entry : membershipsMap.entrySet()) {
+                Memberships memberships = entry.getValue();
+                int[] docs = new int[memberships.size];
+                int size = 0;
+                for (int i = 0; i < memberships.size; i++) {
+                    // same as the queries: fromDate < now AND (thruDate IS NULL OR thruDate > now)
+                    long fromDate = memberships.fromDates[i];
+                    long thruDate = memberships.thruDates[i];
+                    if (fromDate < time && time < thruDate) {
+                        docs[size++] = memberships.docs[i];
+                        if (thruDate < nextChange[0]) {
+                            nextChange[0] = thruDate;
+                        }
+                    } else if (fromDate >= time && fromDate < thruDate && fromDate + 1 < nextChange[0]) {
+                        nextChange[0] = fromDate + 1;
+                    }
+                }
+                if (size > 0) {
+                    Arrays.sort(docs, 0, size);
+                    sets.put(entry.getKey(), ProductSet.of(docs, size, productIds));
+                }
+            }
+            return sets;
+        }
+
+        ProductSet get(Map<String, ProductSet> sets, String key) {
+            ProductSet set = sets.get(key);
+            return (set != null) ? set : ProductSet.EMPTY;
+        }
+
+        ProductSet union(Map<String, ProductSet> sets, Collection<String> keys) {
+            ProductSet result = ProductSet.EMPTY;
+            for (String key : keys) {
+                ProductSet set = sets.get(key);
+                if (set != null) {
+                    result = result.or(set);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Immutable set of products (index doc ids): a sorted array when sparse, a bitmap when dense.
+     */
+    public static final class ProductSet {
+        static final ProductSet EMPTY = new ProductSet(new int[0], null, 0, new String[0]);
+
+        private final int[] docs; // sorted, unique; null for bitmap
+        private final long[] bits; // null for array
+        private final int size;
+        private final String[] productIds; // of the index data the doc ids refer to
+
+        private ProductSet(int[] docs, long[] bits, int size, String[] productIds) {
+            this.docs = docs;
+            this.bits = bits;
+            this.size = size;
+            this.productIds = productIds;
+        }
+
+        /**
+         * Makes a set from sorted doc ids (duplicates allowed); uses a bitmap if it is smaller than the array.
+         */
+        static ProductSet of(int[] sortedDocs, int length, String[] productIds) {
+            int maxDoc = productIds.length;
+            int size = 0;
+            for (int i = 0; i < length; i++) {
+                if (size == 0 || sortedDocs[i] != sortedDocs[size - 1]) {
+                    sortedDocs[size++] = sortedDocs[i];
+                }
+            }
+            if (size == 0) {
+                return EMPTY;
+            }
+            if ((long) size * 32 > maxDoc) {
+                long[] bits = new long[(maxDoc + 63) >>> 6];
+                for (int i = 0; i < size; i++) {
+                    bits[sortedDocs[i] >>> 6] |= 1L << sortedDocs[i];
+                }
+                return new ProductSet(null, bits, size, productIds);
+            }
+            return new ProductSet(Arrays.copyOf(sortedDocs, size), null, size, productIds);
+        }
+
+        private static ProductSet ofBits(long[] bits, String[] productIds) {
+            int maxDoc = productIds.length;
+            int size = 0;
+            for (long word : bits) {
+                size += Long.bitCount(word);
+            }
+            if ((long) size * 32 > maxDoc) {
+                return new ProductSet(null, bits, size, productIds);
+            }
+            int[] docs = new int[size];
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    docs[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return (size > 0) ? new ProductSet(docs, null, size, productIds) : EMPTY;
+        }
+
+        private String[] resultProductIds(ProductSet other) {
+            return (productIds.length >= other.productIds.length) ? productIds : other.productIds;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public boolean contains(int doc) {
+            if (bits != null) {
+                int w = doc >>> 6;
+                return w < bits.length && (bits[w] & (1L << doc)) != 0;
+            }
+            return Arrays.binarySearch(docs, doc) >= 0;
+        }
+
+        public ProductSet and(ProductSet other) {
+            if (bits != null && other.bits != null) {
+                long[] result = new long[Math.min(bits.length, other.bits.length)];
+                for (int w = 0; w < result.length; w++) {
+                    result[w] = bits[w] & other.bits[w];
+                }
+                return ofBits(result, resultProductIds(other));
+            }
+            ProductSet smaller = (size <= other.size) ? this : other;
+            ProductSet larger = (smaller == this) ? other : this;
+            int[] result = new int[smaller.size];
+            int n = 0;
+            DocIterator it = smaller.iterator();
+            int doc;
+            while ((doc = it.next()) >= 0) {
+                if (larger.contains(doc)) {
+                    result[n++] = doc;
+                }
+            }
+            return of(result, n, resultProductIds(other));
+        }
+
+        /**
+         * Returns the size of the intersection, without making it.
+         */
+        public int andCount(ProductSet other) {
+            if (bits != null && other.bits != null) {
+                int count = 0;
+                for (int w = 0; w < Math.min(bits.length, other.bits.length); w++) {
+                    count += Long.bitCount(bits[w] & other.bits[w]);
+                }
+                return count;
+            }
+            ProductSet smaller = (size <= other.size) ? this : other;
+            ProductSet larger = (smaller == this) ? other : this;
+            int count = 0;
+            DocIterator it = smaller.iterator();
+            int doc;
+            while ((doc = it.next()) >= 0) {
+                if (larger.contains(doc)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public ProductSet or(ProductSet other) {
+            if (other.size == 0) {
+                return this;
+            } else if (size == 0) {
+                return other;
+            }
+            String[] resultProductIds = resultProductIds(other);
+            int resultMaxDoc = resultProductIds.length;
+            if (bits != null || other.bits != null || (long) (size + other.size) * 32 > resultMaxDoc) {
+                long[] result = new long[(resultMaxDoc + 63) >>> 6];
+                orInto(result);
+                other.orInto(result);
+                return ofBits(result, resultProductIds);
+            }
+            int[] result = new int[size + other.size];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < size && j < other.size) {
+                if (docs[i] < other.docs[j]) {
+                    result[n++] = docs[i++];
+                } else if (docs[i] > other.docs[j]) {
+                    result[n++] = other.docs[j++];
+                } else {
+                    result[n++] = docs[i++];
+                    j++;
+                }
+            }
+            while (i < size) {
+                result[n++] = docs[i++];
+            }
+            while (j < other.size) {
+                result[n++] = other.docs[j++];
+            }
+            return of(result, n, resultProductIds);
+        }
+
+        public ProductSet andNot(ProductSet other) {
+            if (other.size == 0 || size == 0) {
+                return this;
+            }
+            int[] result = new int[size];
+            int n = 0;
+            DocIterator it = iterator();
+            int doc;
+            while ((doc = it.next()) >= 0) {
+                if (!other.contains(doc)) {
+                    result[n++] = doc;
+                }
+            }
+            return of(result, n, productIds);
+        }
+
+        static ProductSet intersect(List<ProductSet> sets) {
+            ProductSet[] sorted = sets.toArray(new ProductSet[sets.size()]);
+            Arrays.sort(sorted, new Comparator<ProductSet>() {
+                @Override
+                public int compare(ProductSet o1, ProductSet o2) {
+                    return Integer.compare(o1.size, o2.size);
+                }
+            });
+            ProductSet result = sorted[0];
+            for (int i = 1; i < sorted.length && result.size > 0; i++) {
+                result = result.and(sorted[i]);
+            }
+            return result;
+        }
+
+        private void orInto(long[] result) {
+            if (bits != null) {
+                for (int w = 0; w < bits.length; w++) {
+                    result[w] |= bits[w];
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    result[docs[i] >>> 6] |= 1L << docs[i];
+                }
+            }
+        }
+
+        /**
+         * Returns the productIds of the set.
+         */
+        public List<String> getProductIds() {
+            List<String> result = new ArrayList<>(size);
+            DocIterator it = iterator();
+            int doc;
+            while ((doc = it.next()) >= 0) {
+                result.add(productIds[doc]);
+            }
+            return result;
+        }
+
+        DocIterator iterator() {
+            return new DocIterator(this);
+        }
+
+        /**
+         * Iterates the doc ids in ascending order; next returns -1 at the end.
+         */
+        static final class DocIterator {
+            private final ProductSet set;
+            private int index = 0; // array index, or bitmap word index
+            private long word;
+
+            DocIterator(ProductSet set) {
+                this.set = set;
+                this.word = (set.bits != null && set.bits.length > 0) ? set.bits[0] : 0;
+            }
+
+            int next() {
+                if (set.bits == null) {
+                    return (index < set.size) ? set.docs[index++] : -1;
+                }
+                while (word == 0) {
+                    if (++index >= set.bits.length) {
+                        return -1;
+                    }
+                    word = set.bits[index];
+                }
+                int doc = (index << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                return doc;
+            }
+        }
+    }
+}
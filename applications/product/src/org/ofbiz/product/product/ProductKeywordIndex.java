@@ -0,0 +1,698 @@
+package org.ofbiz.product.product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: In-memory inverted index of the ProductKeyword entity, used by ProductSearch keyword constraints
+ * instead of joining one ProductKeyword view member per keyword (prodsearch.properties <code>search.keyword.memoryIndex.*</code>).
+ * <p>
+ * Each keyword maps to a posting list of the products having it, with their relevancy weights (summed over
+ * keyword types), stored as variable-length delta-encoded bytes. The index is built in the background on first
+ * use, per delegator; until it is ready, searches use the database. The ProductKeyword entity ECA (productKeywordsChanged
+ * service) keeps it up to date by re-reading the keywords of the changed product once its transaction commits.
+ * <p>
+ * NOTE: Keyword type and status filters are not indexed; searches using them go to the database.
+ * Changes made by other servers are only seen after a rebuild (see <code>search.keyword.memoryIndex.rebuildInterval</code>).
+ */
+public final class ProductKeywordIndex {
+
+    public static final String module = ProductKeywordIndex.class.getName();
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("prodsearch", "search.keyword.memoryIndex.enabled", false);
+    private static final long REBUILD_INTERVAL = UtilProperties.getPropertyAsLong("prodsearch", "search.keyword.memoryIndex.rebuildInterval", 3600000);
+
+    private static final long BUILD_RETRY_INTERVAL = 60000;
+
+    private static final Map<String, ProductKeywordIndex> indexes = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService executor;
+
+    private final String delegatorName;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // all guarded by lock
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private final Map<String, Integer> docIds = new HashMap<>();
+    private final List<String> productIds = new ArrayList<>();
+    private final List<String[]> docKeywords = new ArrayList<>();
+    private boolean ready = false;
+    private long buildTime = 0;
+
+    // guarded by itself
+    private final Set<String> pendingUpdates = new LinkedHashSet<>();
+    private boolean building = false; // guarded by pendingUpdates
+    private boolean updateScheduled = false; // guarded by pendingUpdates
+
+    private ProductKeywordIndex(String delegatorName) {
+        this.delegatorName = delegatorName;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the index for the delegator, or null if the index is disabled.
+     */
+    public static ProductKeywordIndex getInstance(Delegator delegator) {
+        if (!ENABLED) {
+            return null;
+        }
+        String delegatorName = delegator.getDelegatorName();
+        ProductKeywordIndex index = indexes.get(delegatorName);
+        if (index == null) {
+            index = new ProductKeywordIndex(delegatorName);
+            ProductKeywordIndex prevIndex = indexes.putIfAbsent(delegatorName, index);
+            if (prevIndex != null) {
+                index = prevIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if the index can answer searches; if not, schedules a build (or rebuild, if it is older
+     * than the rebuild interval) and returns false.
+     */
+    public boolean isReady() {
+        boolean isReady;
+        long builtAt;
+        lock.readLock().lock();
+        try {
+            isReady = ready;
+            builtAt = buildTime;
+        } finally {
+            lock.readLock().unlock();
+        }
+        long age = System.currentTimeMillis() - builtAt;
+        if ((!isReady && age > BUILD_RETRY_INTERVAL) || (isReady && REBUILD_INTERVAL > 0 && age > REBUILD_INTERVAL)) {
+            scheduleBuild();
+        }
+        return isReady;
+    }
+
+    /**
+     * Finds the products having every keyword of andKeywords and at least one keyword of each set of orKeywordSets,
+     * with their total relevancy. Keywords are SQL LIKE patterns as made by {@link org.ofbiz.common.KeywordSearchUtil#fixKeywordsForSearch};
+     * the relevancy of a pattern is the sum of the weights of the keywords it matches.
+     * <p>
+     * Returns null if the index is not ready or if more than maxResults products match, in which case
+     * the database should be used instead.
+     */
+    public Map<String, Long> findProducts(Collection<String> andKeywords, Collection<? extends Collection<String>> orKeywordSets, int maxResults) {
+        if (!isReady()) {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        lock.readLock().lock();
+        try {
+            List<DocList> clauses = new ArrayList<>(andKeywords.size() + orKeywordSets.size());
+            for (String keyword : andKeywords) {
+                List<Postings> matches = new ArrayList<>();
+                findPostings(keyword, matches);
+                clauses.add(DocList.union(matches));
+            }
+            for (Collection<String> keywordSet : orKeywordSets) {
+                List<Postings> matches = new ArrayList<>();
+                for (String keyword : keywordSet) {
+                    findPostings(keyword, matches);
+                }
+                clauses.add(DocList.union(matches));
+            }
+            DocList result = DocList.intersect(clauses);
+            if (result.size > maxResults) {
+                if (Debug.verboseOn()) Debug.logVerbose("Keyword index: " + result.size + " products match, more than " + maxResults + "; using database", module);
+                return null;
+            }
+            Map<String, Long> relevancies = new HashMap<>(result.size * 2);
+            for (int i = 0; i < result.size; i++) {
+                relevancies.put(productIds.get(result.docs[i]), result.weights[i]);
+            }
+            if (Debug.verboseOn()) Debug.logVerbose("Keyword index: found " + result.size + " products in " + (System.currentTimeMillis() - startTime) + "ms", module);
+            return relevancies;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void findPostings(String pattern, List<Postings> out) {
+        int wildcardIndex = indexOfWildcard(pattern, 0);
+        if (wildcardIndex < 0) {
+            Postings p = postings.get(pattern);
+            if (p != null) {
+                out.add(p);
+            }
+            return;
+        }
+        String prefix = pattern.substring(0, wildcardIndex);
+        Map<String, Postings> candidates = (prefix.isEmpty()) ? postings : postings.subMap(prefix, prefix + Character.MAX_VALUE);
+        if (wildcardIndex == pattern.length() - 1 && pattern.charAt(wildcardIndex) == '%') {
+            out.addAll(candidates.values());
+            return;
+        }
+        Pattern regex = likeToRegex(pattern);
+        for (Map.Entry<String, Postings> entry : candidates.entrySet()) {
+            if (regex.matcher(entry.getKey()).matches()) {
+                out.add(entry.getValue());
+            }
+        }
+    }
+
+    private static int indexOfWildcard(String pattern, int fromIndex) {
+        for (int i = fromIndex; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '%' || c == '_') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Pattern likeToRegex(String pattern) {
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        int wildcardIndex;
+        while ((wildcardIndex = indexOfWildcard(pattern, start)) >= 0) {
+            if (wildcardIndex > start) {
+                sb.append(Pattern.quote(pattern.substring(start, wildcardIndex)));
+            }
+            sb.append(pattern.charAt(wildcardIndex) == '%' ? ".*" : ".");
+            start = wildcardIndex + 1;
+        }
+        if (start < pattern.length()) {
+            sb.append(Pattern.quote(pattern.substring(start)));
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Schedules a re-read of the keywords of the product, after the current transaction commits (if any).
+     */
+    public static void productKeywordsChanged(Delegator delegator, final String productId) {
+        final ProductKeywordIndex index = getInstance(delegator);
+        if (index == null) {
+            return;
+        }
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            index.scheduleUpdate(productId);
+                        }
+                    }
+                });
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register keyword index update for transaction end; updating now", module);
+        }
+        index.scheduleUpdate(productId);
+    }
+
+    /**
+     * Service called by the ProductKeyword entity ECA: see {@link #productKeywordsChanged(Delegator, String)}.
+     */
+    public static Map<String, Object> productKeywordsChanged(DispatchContext dctx, Map<String, ? extends Object> context) {
+        productKeywordsChanged(dctx.getDelegator(), (String) context.get("productId"));
+        return ServiceUtil.returnSuccess();
+    }
+
+    private void scheduleUpdate(String productId) {
+        synchronized (pendingUpdates) {
+            pendingUpdates.add(productId);
+            if (building || updateScheduled) {
+                return; // applied after the build, or by the scheduled task
+            }
+            updateScheduled = true;
+        }
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                applyPendingUpdates();
+            }
+        });
+    }
+
+    private void applyPendingUpdates() {
+        List<String> updateIds;
+        synchronized (pendingUpdates) {
+            updateScheduled = false;
+            if (building) {
+                return;
+            }
+            updateIds = new ArrayList<>(pendingUpdates);
+            pendingUpdates.clear();
+        }
+        boolean isReady;
+        lock.readLock().lock();
+        try {
+            isReady = ready;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!isReady) {
+            return; // the build will read them
+        }
+        Delegator delegator = DelegatorFactory.getDelegator(delegatorName);
+        for (String productId : updateIds) {
+            try {
+                updateProduct(delegator, productId);
+            } catch (Exception e) {
+                Debug.logError(e, "Could not update keyword index for productId '" + productId + "'", module);
+            }
+        }
+    }
+
+    /**
+     * Re-reads the keywords of the product into the index, in the calling thread.
+     */
+    private void updateProduct(Delegator delegator, String productId) throws GenericEntityException {
+        List<GenericValue> productKeywords = EntityQuery.use(delegator).select("keyword", "relevancyWeight")
+                .from("ProductKeyword").where("productId", productId).queryList();
+        Map<String, Integer> newWeights = new HashMap<>();
+        for (GenericValue productKeyword : productKeywords) {
+            addWeight(newWeights, productKeyword.getString("keyword"), productKeyword.getLong("relevancyWeight"));
+        }
+        lock.writeLock().lock();
+        try {
+            Integer docId = docIds.get(productId);
+            if (docId == null) {
+                if (newWeights.isEmpty()) {
+                    return;
+                }
+                docId = addDoc(productId);
+            }
+            for (String keyword : docKeywords.get(docId)) {
+                if (!newWeights.containsKey(keyword)) {
+                    Postings p = postings.get(keyword).remove(docId);
+                    if (p.size > 0) {
+                        postings.put(keyword, p);
+                    } else {
+                        postings.remove(keyword);
+                    }
+                }
+            }
+            String[] keywords = new String[newWeights.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : newWeights.entrySet()) {
+                String keyword = entry.getKey();
+                Postings p = postings.get(keyword);
+                if (p == null) {
+                    p = Postings.EMPTY;
+                } else {
+                    keyword = postings.ceilingKey(keyword); // share the key instance
+                }
+                postings.put(keyword, p.put(docId, entry.getValue()));
+                keywords[i++] = keyword;
+            }
+            docKeywords.set(docId, keywords);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int addDoc(String productId) {
+        int docId = productIds.size();
+        productIds.add(productId);
+        docIds.put(productId, docId);
+        docKeywords.add(new String[0]);
+        return docId;
+    }
+
+    private static void addWeight(Map<String, Integer> weights, String keyword, Long weight) {
+        if (keyword == null) {
+            return;
+        }
+        int w = (weight != null) ? (int) Math.max(0, Math.min(Integer.MAX_VALUE, weight)) : 0;
+        Integer prevWeight = weights.get(keyword);
+        weights.put(keyword, (prevWeight != null) ? (int) Math.min(Integer.MAX_VALUE, (long) prevWeight + w) : w);
+    }
+
+    private void scheduleBuild() {
+        synchronized (pendingUpdates) {
+            if (building) {
+                return;
+            }
+            building = true;
+        }
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    build();
+                } catch (Throwable t) {
+                    Debug.logError(t, "Could not build product keyword index", module);
+                    lock.writeLock().lock();
+                    try {
+                        buildTime = System.currentTimeMillis(); // retry after BUILD_RETRY_INTERVAL, not on every search
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                } finally {
+                    synchronized (pendingUpdates) {
+                        building = false;
+                    }
+                    applyPendingUpdates();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the whole index from the database, in the calling thread.
+     */
+    private void build() throws GenericEntityException {
+        long startTime = System.currentTimeMillis();
+        Delegator delegator = DelegatorFactory.getDelegator(delegatorName);
+        synchronized (pendingUpdates) {
+            pendingUpdates.clear(); // the build reads everything committed from now on
+        }
+
+        // rows are read ordered by productId, so each posting list is built in ascending doc order
+        Map<String, PostingsBuilder> builders = new HashMap<>();
+        List<String> newProductIds = new ArrayList<>();
+        List<List<String>> newDocKeywords = new ArrayList<>();
+        int rowCount = 0;
+        EntityListIterator eli = EntityQuery.use(delegator).select("productId", "keyword", "relevancyWeight")
+                .from("ProductKeyword").orderBy("productId").queryIterator();
+        try {
+            GenericValue productKeyword;
+            String lastProductId = null;
+            Map<String, Integer> weights = new HashMap<>();
+            while ((productKeyword = eli.next()) != null) {
+                String productId = productKeyword.getString("productId");
+                if (!productId.equals(lastProductId)) {
+                    if (lastProductId != null) {
+                        addBuildDoc(lastProductId, weights, builders, newProductIds, newDocKeywords);
+                        weights.clear();
+                    }
+                    lastProductId = productId;
+                }
+                addWeight(weights, productKeyword.getString("keyword"), productKeyword.getLong("relevancyWeight"));
+                rowCount++;
+            }
+            if (lastProductId != null) {
+                addBuildDoc(lastProductId, weights, builders, newProductIds, newDocKeywords);
+            }
+        } finally {
+            eli.close();
+        }
+
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            for (Map.Entry<String, PostingsBuilder> entry : builders.entrySet()) {
+                postings.put(entry.getKey(), entry.getValue().build());
+            }
+            docIds.clear();
+            productIds.clear();
+            docKeywords.clear();
+            for (int docId = 0; docId < newProductIds.size(); docId++) {
+                productIds.add(newProductIds.get(docId));
+                docIds.put(newProductIds.get(docId), docId);
+                docKeywords.add(newDocKeywords.get(docId).toArray(new String[0]));
+            }
+            ready = true;
+            buildTime = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Debug.logInfo("Built product keyword index: " + newProductIds.size() + " products, " + builders.size() + " keywords, "
+                + rowCount + " rows in " + (System.currentTimeMillis() - startTime) + "ms", module);
+    }
+
+    private static void addBuildDoc(String productId, Map<String, Integer> weights, Map<String, PostingsBuilder> builders,
+            List<String> productIds, List<List<String>> docKeywords) {
+        int docId = productIds.size();
+        productIds.add(productId);
+        List<String> keywords = new ArrayList<>(weights.size());
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            PostingsBuilder builder = builders.get(entry.getKey());
+            if (builder == null) {
+                builder = new PostingsBuilder(entry.getKey());
+                builders.put(builder.keyword, builder);
+            }
+            keywords.add(builder.keyword); // share the key instance
+            builder.add(docId, entry.getValue());
+        }
+        docKeywords.add(keywords);
+    }
+
+    private static ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (ProductKeywordIndex.class) {
+                if (executor == null) {
+                    executor = ExecutionPool.getScheduledExecutor(null, "Scipio-product-keyword-index", 1, 0, false);
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Immutable posting list: (doc delta, weight) pairs in ascending doc order, each as a variable-length int.
+     */
+    private static final class Postings {
+        static final Postings EMPTY = new Postings(new byte[0], 0);
+
+        final byte[] data;
+        final int size;
+
+        Postings(byte[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+
+        DocList decode() {
+            DocList list = new DocList(size);
+            int pos = 0;
+            int doc = 0;
+            int[] next = new int[1];
+            for (int i = 0; i < size; i++) {
+                pos = readVInt(data, pos, next);
+                doc += next[0];
+                pos = readVInt(data, pos, next);
+                list.docs[i] = doc;
+                list.weights[i] = next[0];
+            }
+            list.size = size;
+            return list;
+        }
+
+        Postings put(int docId, int weight) {
+            DocList list = decode();
+            int i = Arrays.binarySearch(list.docs, 0, list.size, docId);
+            if (i >= 0) {
+                if (list.weights[i] == weight) {
+                    return this;
+                }
+                list.weights[i] = weight;
+                return encode(list.docs, list.weights, list.size);
+            }
+            int insertAt = -i - 1;
+            int[] docs = new int[size + 1];
+            long[] weights = new long[size + 1];
+            System.arraycopy(list.docs, 0, docs, 0, insertAt);
+            System.arraycopy(list.weights, 0, weights, 0, insertAt);
+            docs[insertAt] = docId;
+            weights[insertAt] = weight;
+            System.arraycopy(list.docs, insertAt, docs, insertAt + 1, size - insertAt);
+            System.arraycopy(list.weights, insertAt, weights, insertAt + 1, size - insertAt);
+            return encode(docs, weights, size + 1);
+        }
+
+        Postings remove(int docId) {
+            DocList list = decode();
+            int i = Arrays.binarySearch(list.docs, 0, list.size, docId);
+            if (i < 0) {
+                return this;
+            }
+            System.arraycopy(list.docs, i + 1, list.docs, i, size - i - 1);
+            System.arraycopy(list.weights, i + 1, list.weights, i, size - i - 1);
+            return encode(list.docs, list.weights, size - 1);
+        }
+
+        static Postings encode(int[] docs, long[] weights, int size) {
+            byte[] buf = new byte[size * 4 + 8];
+            int pos = 0;
+            int prevDoc = 0;
+            for (int i = 0; i < size; i++) {
+                if (pos + 10 > buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                pos = writeVInt(buf, pos, docs[i] - prevDoc);
+                pos = writeVInt(buf, pos, (int) weights[i]);
+                prevDoc = docs[i];
+            }
+            return new Postings(Arrays.copyOf(buf, pos), size);
+        }
+    }
+
+    private static final class PostingsBuilder {
+        final String keyword;
+        int[] docs = new int[4];
+        long[] weights = new long[4];
+        int size = 0;
+
+        PostingsBuilder(String keyword) {
+            this.keyword = keyword;
+        }
+
+        void add(int docId, int weight) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = docId;
+            weights[size] = weight;
+            size++;
+        }
+
+        Postings build() {
+            return Postings.encode(docs, weights, size);
+        }
+    }
+
+    /**
+     * Decoded doc list, in ascending doc order, with summed weights.
+     */
+    private static final class DocList {
+        static final DocList EMPTY = new DocList(0);
+
+        final int[] docs;
+        final long[] weights;
+        int size;
+
+        DocList(int capacity) {
+            this.docs = new int[capacity];
+            this.weights = new long[capacity];
+        }
+
+        static DocList union(List<Postings> postingsList) {
+            if (postingsList.isEmpty()) {
+                return EMPTY;
+            } else if (postingsList.size() == 1) {
+                return postingsList.get(0).decode();
+            }
+            int total = 0;
+            for (Postings p : postingsList) {
+                total += p.size;
+            }
+            // pack (doc, weight) into longs so a plain sort orders by doc
+            long[] entries = new long[total];
+            int n = 0;
+            for (Postings p : postingsList) {
+                DocList list = p.decode();
+                for (int i = 0; i < list.size; i++) {
+                    entries[n++] = ((long) list.docs[i] << 32) | (list.weights[i] & 0xFFFFFFFFL);
+                }
+            }
+            Arrays.sort(entries);
+            DocList result = new DocList(total);
+            int lastDoc = -1;
+            for (long entry : entries) {
+                int doc = (int) (entry >>> 32);
+                long weight = entry & 0xFFFFFFFFL;
+                if (doc == lastDoc) {
+                    result.weights[result.size - 1] += weight;
+                } else {
+                    result.docs[result.size] = doc;
+                    result.weights[result.size] = weight;
+                    result.size++;
+                    lastDoc = doc;
+                }
+            }
+            return result;
+        }
+
+        static DocList intersect(List<DocList> lists) {
+            if (lists.isEmpty()) {
+                return EMPTY;
+            }
+            DocList[] sorted = lists.toArray(new DocList[lists.size()]);
+            Arrays.sort(sorted, new Comparator<DocList>() {
+                @Override
+                public int compare(DocList o1, DocList o2) {
+                    return Integer.compare(o1.size, o2.size);
+                }
+            });
+            DocList result = sorted[0];
+            for (int k = 1; k < sorted.length && result.size > 0; k++) {
+                DocList other = sorted[k];
+                DocList next = new DocList(result.size);
+                int i = 0;
+                int j = 0;
+                while (i < result.size && j < other.size) {
+                    if (result.docs[i] < other.docs[j]) {
+                        i++;
+                    } else if (result.docs[i] > other.docs[j]) {
+                        j++;
+                    } else {
+                        next.docs[next.size] = result.docs[i];
+                        next.weights[next.size] = result.weights[i] + other.weights[j];
+                        next.size++;
+                        i++;
+                        j++;
+                    }
+                }
+                result = next;
+            }
+            return result;
+        }
+    }
+
+    private static int writeVInt(byte[] buf, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVInt(byte[] buf, int pos, int[] out) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        out[0] = value;
+        return pos;
+    }
+}
@@ -23,6 +23,7 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -183,6 +184,11 @@ public class ProductSearch {
         public List<String> keywordTypeIds = UtilMisc.newList();
         public String statusId = null;
 
+        /** SCIPIO: Relevancy by productId, when the keywords were matched using {@link ProductKeywordIndex}; null otherwise. */
+        public Map<String, Long> keywordIndexRelevancies = null;
+        /** SCIPIO: If true, results are sorted by keywordIndexRelevancies after the query instead of by the database. */
+        public boolean keywordIndexRelevancySort = false;
+
         public ProductSearchContext(Delegator delegator, String visitId) {
             this.delegator = delegator;
             this.visitId = visitId;
@@ -272,6 +278,11 @@ public class ProductSearch {
 
             Debug.logInfo("Finished initial setup of keywords, doingBothAndOr=" + doingBothAndOr + ", andKeywordFixedSet=" + andKeywordFixedSet + "\n keywordFixedOrSetAndList=" + keywordFixedOrSetAndList, module);
 
+            // SCIPIO: match the keywords in memory if possible, instead of joining one ProductKeyword member per keyword
+            if (finishKeywordConstraintsFromIndex()) {
+                return;
+            }
+
             ComplexAlias relevancyComplexAlias = new ComplexAlias("+");
             if (andKeywordFixedSet.size() > 0) {
                 // add up the relevancyWeight fields from all keyword member entities for a total to sort by
@@ -355,13 +366,81 @@ public class ProductSearch {
             }
         }
 
-        public void finishCategoryAndFeatureConstraints() {
-            if (includeCategoryIds.size() == 0 && excludeCategoryIds.size() == 0 && alwaysIncludeCategoryIds.size() == 0 &&
+        /**
+         * SCIPIO: Restricts the search to the products matched by {@link ProductKeywordIndex}, if enabled and ready;
+         * returns false if the keyword constraints must be added to the view entity instead.
+         */
+        protected boolean finishKeywordConstraintsFromIndex() {
+            if (UtilValidate.isNotEmpty(keywordTypeIds) || UtilValidate.isNotEmpty(statusId)) {
+                return false;
+            }
+            ProductKeywordIndex keywordIndex = ProductKeywordIndex.getInstance(delegator);
+            if (keywordIndex == null) {
+                return false;
+            }
+            int maxProducts = UtilProperties.getPropertyAsInteger("prodsearch", "search.keyword.memoryIndex.maxProducts", 5000);
+            Map<String, Long> relevancies = keywordIndex.findProducts(andKeywordFixedSet, keywordFixedOrSetAndList, maxProducts);
+            if (relevancies == null) {
+                return false;
+            }
+            this.keywordIndexRelevancies = relevancies;
+            addProductIdCondition(relevancies.keySet());
+            return true;
+        }
+
+        /**
+         * SCIPIO: Restricts the search to the given products, found in memory.
+         */
+        protected void addProductIdCondition(Collection<String> productIdSet) {
+            if (productIdSet.isEmpty()) {
+                entityConditionList.add(EntityCondition.makeCondition("mainProductId", EntityOperator.EQUALS, null));
+                return;
+            }
+            // split the IN list, some databases limit its size
+            List<EntityCondition> productIdCondList = UtilMisc.newList();
+            List<String> productIds = new ArrayList<String>(productIdSet);
+            for (int i = 0; i < productIds.size(); i += 1000) {
+                productIdCondList.add(EntityCondition.makeCondition("mainProductId", EntityOperator.IN, productIds.subList(i, Math.min(i + 1000, productIds.size()))));
+            }
+            entityConditionList.add(EntityCondition.makeCondition(productIdCondList, EntityOperator.OR));
+        }
+
+        /**
+         * SCIPIO: Returns true if any category, feature, feature category or feature group constraint was added.
+         */
+        public boolean hasCategoryAndFeatureConstraints() {
+            return !(includeCategoryIds.size() == 0 && excludeCategoryIds.size() == 0 && alwaysIncludeCategoryIds.size() == 0 &&
                     includeCategoryIdOrSetAndList.size() == 0 && alwaysIncludeCategoryIdOrSetAndList.size() == 0 &&
                     includeFeatureIds.size() == 0 && excludeFeatureIds.size() == 0 && alwaysIncludeFeatureIds.size() == 0 &&
                     includeFeatureIdOrSetAndList.size() == 0 && alwaysIncludeFeatureIdOrSetAndList.size() == 0 &&
                     includeFeatureCategoryIds.size() == 0 && excludeFeatureCategoryIds.size() == 0 && alwaysIncludeFeatureCategoryIds.size() == 0 &&
-                    includeFeatureGroupIds.size() == 0 && excludeFeatureGroupIds.size() == 0 && alwaysIncludeFeatureGroupIds.size() == 0) {
+                    includeFeatureGroupIds.size() == 0 && excludeFeatureGroupIds.size() == 0 && alwaysIncludeFeatureGroupIds.size() == 0);
+        }
+
+        /**
+         * SCIPIO: Restricts the search to the products found by {@link ProductFacetIndex}, if enabled and ready;
+         * returns false if the category and feature constraints must be added to the view entity instead.
+         */
+        protected boolean finishCategoryAndFeatureConstraintsFromIndex() {
+            ProductFacetIndex facetIndex = ProductFacetIndex.getInstance(delegator);
+            if (facetIndex == null) {
+                return false;
+            }
+            ProductFacetIndex.ProductSet productSet = facetIndex.findProducts(this);
+            if (productSet == null || productSet.size() > UtilProperties.getPropertyAsInteger("prodsearch", "search.facet.memoryIndex.maxProducts", 5000)) {
+                return false;
+            }
+            addProductIdCondition(productSet.getProductIds());
+            return true;
+        }
+
+        public void finishCategoryAndFeatureConstraints() {
+            if (!hasCategoryAndFeatureConstraints()) { // SCIPIO: factored out
+                return;
+            }
+
+            // SCIPIO: evaluate the constraints in memory if possible, instead of joining one member per category and feature
+            if (finishCategoryAndFeatureConstraintsFromIndex()) {
                 return;
             }
 
@@ -664,7 +743,7 @@ public class ProductSearch {
             EntityListIterator eli = null;
             try {
                 int queryMaxResults = 0;
-                if (maxResults != null) {
+                if (maxResults != null && !keywordIndexRelevancySort) { // SCIPIO: relevancy sort needs all results
                     queryMaxResults = maxResults;
                     if (resultOffset != null) {
                         queryMaxResults += resultOffset - 1;
@@ -691,6 +770,9 @@ public class ProductSearch {
                 Debug.logWarning("The eli is null, returning zero results", module);
                 return productIds;
             }
+            if (keywordIndexRelevancySort) {
+                return makeProductIdListByKeywordIndexRelevancy(eli); // SCIPIO
+            }
 
             try {
                 boolean hasResults = false;
@@ -791,9 +873,49 @@ public class ProductSearch {
             return productIds;
         }
 
+        /**
+         * SCIPIO: Reads all results and sorts them by keywordIndexRelevancies (the number of results is bounded by
+         * the keyword index maxProducts), then applies resultOffset and maxResults.
+         */
+        protected ArrayList<String> makeProductIdListByKeywordIndexRelevancy(EntityListIterator eli) {
+            List<String> allProductIds = new ArrayList<String>(keywordIndexRelevancies.size());
+            Set<String> productIdSet = UtilMisc.newSet();
+            try {
+                GenericValue searchResult;
+                while ((searchResult = eli.next()) != null) {
+                    String productId = searchResult.getString("mainProductId");
+                    if (productIdSet.add(productId)) {
+                        allProductIds.add(productId);
+                    }
+                }
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Error getting results from the product search query", module);
+            }
+            Collections.sort(allProductIds, new Comparator<String>() {
+                @Override
+                public int compare(String productId1, String productId2) {
+                    Long relevancy1 = keywordIndexRelevancies.get(productId1);
+                    Long relevancy2 = keywordIndexRelevancies.get(productId2);
+                    int result = Long.compare(relevancy2 != null ? relevancy2 : 0, relevancy1 != null ? relevancy1 : 0);
+                    return (result != 0) ? result : productId1.compareTo(productId2);
+                }
+            });
+            this.totalResults = allProductIds.size();
+            int fromIndex = (resultOffset != null && resultOffset > 1) ? Math.min(resultOffset - 1, allProductIds.size()) : 0;
+            int toIndex = (maxResults != null) ? Math.min(fromIndex + maxResults, allProductIds.size()) : allProductIds.size();
+            Debug.logInfo("Got search values sorted by keyword index relevancy, totalResults=" + totalResults + ", maxResults=" + maxResults + ", resultOffset=" + resultOffset, module);
+            return new ArrayList<String>(allProductIds.subList(fromIndex, toIndex));
+        }
+
         public void saveSearchResultInfo(Long numResults, Double secondsTotal) {
             // uses entities: ProductSearchResult and ProductSearchConstraint
 
+            // SCIPIO: count the search in memory (written in batches), and only write the rows if configured
+            ProductSearchStats.record(delegator, productSearchConstraintList, numResults, secondsTotal);
+            if (!ProductSearchStats.isSaveRows()) {
+                return;
+            }
+
             try {
                 // make sure this is in a transaction
                 boolean beganTransaction = TransactionUtil.begin();
@@ -2101,6 +2223,11 @@ public class ProductSearch {
         @Override
         public void setSortOrder(ProductSearchContext productSearchContext) {
             if (productSearchContext.includedKeywordSearch) {
+                // SCIPIO: keywords matched in memory: there is no totalRelevancy, sort by the index relevancy after the query
+                if (productSearchContext.keywordIndexRelevancies != null) {
+                    productSearchContext.keywordIndexRelevancySort = true;
+                    return;
+                }
                 // we have to check this in order to be sure that there is a totalRelevancy to sort by...
                 if(productSearchContext.keywordFixedOrSetAndList.size() > 0 || productSearchContext.andKeywordFixedSet.size() > 0) {
                     productSearchContext.orderByList.add("-totalRelevancy");
@@ -1283,6 +1283,18 @@ public class ProductSearchSession {
      * @return List of Maps containing productFeatureId, productFeatureTypeId, description, featureCount.
      */
     public static List<Map<String, String>> listCountByFeatureForType(String productFeatureTypeId, HttpSession session, Delegator delegator) {
+        // SCIPIO: count in memory using the facet index, if enabled and ready
+        ProductFacetIndex facetIndex = ProductFacetIndex.getInstance(delegator);
+        if (facetIndex != null) {
+            FacetBase facetBase = getFacetBase(facetIndex, session, delegator);
+            if (facetBase != null) {
+                List<Map<String, String>> featureCountList = facetIndex.listCountByFeatureForType(facetBase.products, productFeatureTypeId);
+                if (featureCountList != null) {
+                    return featureCountList;
+                }
+            }
+        }
+
         String visitId = VisitHandler.getVisitId(session);
 
         ProductSearchContext productSearchContext = new ProductSearchContext(delegator, visitId);
@@ -1428,6 +1440,20 @@ public class ProductSearchSession {
      * @return The long value of count of products.
      */
     public static long getCountForProductCategory(String productCategoryId, HttpSession session, Delegator delegator) {
+        // SCIPIO: count in memory using the facet index, if enabled and ready
+        ProductFacetIndex facetIndex = ProductFacetIndex.getInstance(delegator);
+        if (facetIndex != null) {
+            FacetBase facetBase = getFacetBase(facetIndex, session, delegator);
+            if (facetBase != null) {
+                Set<String> productCategoryIdSet = UtilMisc.newSet();
+                ProductSearch.getAllSubCategoryIds(productCategoryId, productCategoryIdSet, delegator, UtilDateTime.nowTimestamp());
+                long categoryCount = facetIndex.getCountForCategories(facetBase.products, productCategoryIdSet);
+                if (categoryCount >= 0) {
+                    return categoryCount;
+                }
+            }
+        }
+
         String visitId = VisitHandler.getVisitId(session);
 
         ProductSearchContext productSearchContext = new ProductSearchContext(delegator, visitId);
@@ -1484,4 +1510,98 @@ public class ProductSearchSession {
         }
         return categoryCount;
     }
+
+    /**
+     * SCIPIO: Products matching the session search constraints, for the facet index counts.
+     * Kept in the session for a few seconds, so that the counts of one page share one search.
+     */
+    @SuppressWarnings("serial")
+    private static class FacetBase implements java.io.Serializable {
+        private static final long MAX_AGE = 5000;
+
+        private final transient List<ProductSearchConstraint> constraints;
+        /** The matching products, or null for all products. */
+        private final transient ProductFacetIndex.ProductSet products;
+        private final long createTime = System.currentTimeMillis();
+
+        private FacetBase(List<ProductSearchConstraint> constraints, ProductFacetIndex.ProductSet products) {
+            this.constraints = constraints;
+            this.products = products;
+        }
+
+        private boolean isValidFor(List<ProductSearchConstraint> constraints) {
+            return this.constraints != null && this.constraints.equals(constraints) && System.currentTimeMillis() - createTime < MAX_AGE;
+        }
+    }
+
+    /**
+     * SCIPIO: Returns the products matching the session search constraints, or null if the facet index
+     * cannot be used (not ready, or too many products match constraints it does not index).
+     */
+    private static FacetBase getFacetBase(ProductFacetIndex facetIndex, HttpSession session, Delegator delegator) {
+        if (!facetIndex.isReady()) {
+            return null;
+        }
+        List<ProductSearchConstraint> productSearchConstraintList = new ArrayList<>();
+        if (ProductSearchOptions.getConstraintList(session) != null) {
+            productSearchConstraintList.addAll(ProductSearchOptions.getConstraintList(session));
+        }
+        Object facetBaseAttr = session.getAttribute("_PRODUCT_SEARCH_FACET_BASE_");
+        if (facetBaseAttr instanceof FacetBase && ((FacetBase) facetBaseAttr).isValidFor(productSearchConstraintList)) {
+            return (FacetBase) facetBaseAttr;
+        }
+
+        ProductSearchContext productSearchContext = new ProductSearchContext(delegator, VisitHandler.getVisitId(session));
+        if (UtilValidate.isNotEmpty(productSearchConstraintList)) {
+            productSearchContext.addProductSearchConstraints(productSearchConstraintList);
+        }
+        productSearchContext.finishKeywordConstraints();
+
+        ProductFacetIndex.ProductSet products = null;
+        if (productSearchContext.entityConditionList.isEmpty() && !productSearchContext.includedKeywordSearch) {
+            if (productSearchContext.hasCategoryAndFeatureConstraints()) {
+                products = facetIndex.findProducts(productSearchContext);
+                if (products == null) {
+                    return null;
+                }
+            }
+        } else {
+            // other constraints: get the matching products from the database, once for all counts
+            productSearchContext.finishCategoryAndFeatureConstraints();
+            int maxProducts = UtilProperties.getPropertyAsInteger("prodsearch", "search.facet.memoryIndex.maxProducts", 5000);
+            DynamicViewEntity dynamicViewEntity = productSearchContext.dynamicViewEntity;
+            dynamicViewEntity.addAlias("PROD", "mainProductId", "productId", null, null, null, null);
+            List<String> productIds = UtilMisc.newList();
+            EntityListIterator eli = null;
+            try {
+                eli = EntityQuery.use(delegator).select("mainProductId").from(dynamicViewEntity)
+                        .where(productSearchContext.entityConditionList).distinct(true).maxRows(maxProducts + 1).queryIterator();
+                GenericValue searchResult;
+                while ((searchResult = eli.next()) != null) {
+                    productIds.add(searchResult.getString("mainProductId"));
+                }
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Error in product search", module);
+                return null;
+            } finally {
+                if (eli != null) {
+                    try {
+                        eli.close();
+                    } catch (GenericEntityException e) {
+                        Debug.logError(e, "Error closing ProductSearch EntityListIterator", module);
+                    }
+                }
+            }
+            if (productIds.size() > maxProducts) {
+                return null;
+            }
+            products = facetIndex.getProducts(productIds);
+            if (products == null) {
+                return null;
+            }
+        }
+        FacetBase facetBase = new FacetBase(productSearchConstraintList, products);
+        session.setAttribute("_PRODUCT_SEARCH_FACET_BASE_", facetBase);
+        return facetBase;
+    }
 }
@@ -0,0 +1,334 @@
+package org.ofbiz.product.product;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Aggregates product searches in memory, by period and constraints, and writes the counts to the
+ * ProductSearchStats entity in batches (prodsearch.properties <code>search.result.save</code> and <code>search.result.stats.*</code>).
+ * <p>
+ * This replaces, by default, the ProductSearchResult and ProductSearchConstraint rows written on the request thread
+ * for every search; those are only written when <code>search.result.save</code> includes <code>rows</code>.
+ * <p>
+ * NOTE: Counts not yet written are lost on shutdown; at most <code>search.result.stats.maxEntries</code> distinct
+ * searches are kept between writes, further ones are not counted.
+ */
+public final class ProductSearchStats {
+
+    public static final String module = ProductSearchStats.class.getName();
+
+    private static final List<String> SAVE_MODES = UtilMisc.makeListWritable(StringUtil.split(UtilProperties.getPropertyValue("prodsearch", "search.result.save", "stats"), ", "));
+    private static final boolean SAVE_ROWS = SAVE_MODES.contains("rows");
+    private static final boolean SAVE_STATS = SAVE_MODES.contains("stats");
+    private static final long FLUSH_INTERVAL = UtilProperties.getPropertyAsLong("prodsearch", "search.result.stats.flushInterval", 60000);
+    private static final long PERIOD = UtilProperties.getPropertyAsLong("prodsearch", "search.result.stats.period", 3600000);
+    private static final int MAX_ENTRIES = UtilProperties.getPropertyAsInteger("prodsearch", "search.result.stats.maxEntries", 10000);
+
+    private static final Map<String, ProductSearchStats> instances = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService executor = SAVE_STATS ? ExecutionPool.getScheduledExecutor(null,
+            "Scipio-product-search-stats", 1, 0, false) : null;
+
+    private final String delegatorName;
+    private final ReentrantReadWriteLock bufferLock = new ReentrantReadWriteLock(); // write lock to swap the buffer
+    private volatile ConcurrentHashMap<String, Aggregate> buffer = new ConcurrentHashMap<>();
+    private volatile boolean bufferFullLogged = false;
+
+    private ProductSearchStats(String delegatorName) {
+        this.delegatorName = delegatorName;
+    }
+
+    /**
+     * Returns true if a ProductSearchResult row and its ProductSearchConstraint rows should be written for each search.
+     */
+    public static boolean isSaveRows() {
+        return SAVE_ROWS;
+    }
+
+    public static boolean isSaveStats() {
+        return SAVE_STATS;
+    }
+
+    private static ProductSearchStats getInstance(Delegator delegator) {
+        String delegatorName = delegator.getDelegatorName();
+        ProductSearchStats stats = instances.get(delegatorName);
+        if (stats == null) {
+            stats = new ProductSearchStats(delegatorName);
+            ProductSearchStats prevStats = instances.putIfAbsent(delegatorName, stats);
+            if (prevStats != null) {
+                stats = prevStats;
+            } else {
+                final ProductSearchStats newStats = stats;
+                executor.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            newStats.flush();
+                        } catch (Throwable t) {
+                            // don't let the scheduled flush die
+                            Debug.logError(t, "Error writing product search stats", module);
+                        }
+                    }
+                }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Counts a search, given its ProductSearchConstraint values (without ids), number of results and duration.
+     */
+    public static void record(Delegator delegator, List<GenericValue> productSearchConstraintList, Long numResults, Double secondsTotal) {
+        if (!SAVE_STATS) {
+            return;
+        }
+        getInstance(delegator).record(productSearchConstraintList, numResults, secondsTotal, System.currentTimeMillis());
+    }
+
+    private void record(List<GenericValue> productSearchConstraintList, Long numResults, Double secondsTotal, long searchTime) {
+        String key = getPeriodStartDate(searchTime).getTime() + "\n" + makeSearchInfo(productSearchConstraintList);
+        add(key, 1, (numResults != null && numResults == 0) ? 1 : 0, (numResults != null) ? numResults : 0,
+                (secondsTotal != null) ? secondsTotal : 0, searchTime);
+    }
+
+    /**
+     * Returns the start of the ProductSearchStats period containing the given time.
+     */
+    private static Timestamp getPeriodStartDate(long time) {
+        return new Timestamp(time - (time % PERIOD));
+    }
+
+    /**
+     * Makes the description of the search: one line per constraint, with its name, info string and options.
+     */
+    private static String makeSearchInfo(List<GenericValue> productSearchConstraintList) {
+        StringBuilder sb = new StringBuilder();
+        for (GenericValue constraint : productSearchConstraintList) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(constraint.getString("constraintName")).append(": ");
+            String infoString = constraint.getString("infoString");
+            if (infoString != null) {
+                sb.append(infoString.trim());
+            }
+            for (String fieldName : new String[] { "includeSubCategories", "isAnd", "anyPrefix", "anySuffix", "removeStems", "lowValue", "highValue" }) {
+                Object value = constraint.get(fieldName);
+                if (value != null) {
+                    sb.append(' ').append(fieldName).append('=').append(value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private void add(String key, long searchCount, long zeroResultCount, long totalResults, double totalSeconds, long lastSearchTime) {
+        bufferLock.readLock().lock();
+        try {
+            Aggregate aggregate = buffer.get(key);
+            if (aggregate == null) {
+                if (buffer.size() >= MAX_ENTRIES) {
+                    if (!bufferFullLogged) {
+                        bufferFullLogged = true;
+                        Debug.logWarning("Product search stats buffer full (" + MAX_ENTRIES + " searches); not counting new searches until the next write", module);
+                    }
+                    return;
+                }
+                aggregate = new Aggregate();
+                Aggregate prevAggregate = buffer.putIfAbsent(key, aggregate);
+                if (prevAggregate != null) {
+                    aggregate = prevAggregate;
+                }
+            }
+            aggregate.add(searchCount, zeroResultCount, totalResults, totalSeconds, lastSearchTime);
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the counts buffered for the delegator now, instead of at the next scheduled write.
+     */
+    public static void flush(Delegator delegator) {
+        if (!SAVE_STATS) {
+            return;
+        }
+        ProductSearchStats stats = instances.get(delegator.getDelegatorName());
+        if (stats != null) {
+            stats.flush();
+        }
+    }
+
+    /**
+     * Service that writes the buffered product search stats now: see {@link #flush(Delegator)}.
+     */
+    public static Map<String, Object> flushProductSearchStats(DispatchContext dctx, Map<String, ? extends Object> context) {
+        flush(dctx.getDelegator());
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * Writes the buffered counts, adding them to existing rows of the same period and search.
+     */
+    private void flush() {
+        Map<String, Aggregate> flushed;
+        bufferLock.writeLock().lock();
+        try {
+            flushed = buffer;
+            if (flushed.isEmpty()) {
+                return;
+            }
+            buffer = new ConcurrentHashMap<>();
+            bufferFullLogged = false;
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+
+        // group by period
+        Map<Long, Map<String, Aggregate>> periods = new HashMap<>();
+        Map<String, String> searchInfos = new HashMap<>();
+        for (Map.Entry<String, Aggregate> entry : flushed.entrySet()) {
+            String key = entry.getKey();
+            int sep = key.indexOf('\n');
+            Long periodStart = Long.valueOf(key.substring(0, sep));
+            String searchInfo = key.substring(sep + 1);
+            String searchHash = makeHash(searchInfo);
+            searchInfos.put(searchHash, searchInfo);
+            Map<String, Aggregate> periodAggregates = periods.get(periodStart);
+            if (periodAggregates == null) {
+                periodAggregates = new HashMap<>();
+                periods.put(periodStart, periodAggregates);
+            }
+            periodAggregates.put(searchHash, entry.getValue());
+        }
+
+        Delegator delegator = DelegatorFactory.getDelegator(delegatorName);
+        boolean written = false;
+        try {
+            boolean beganTransaction = TransactionUtil.begin();
+            try {
+                List<GenericValue> toStore = new ArrayList<>(flushed.size());
+                for (Map.Entry<Long, Map<String, Aggregate>> periodEntry : periods.entrySet()) {
+                    Timestamp periodStartDate = new Timestamp(periodEntry.getKey());
+                    Map<String, Aggregate> periodAggregates = periodEntry.getValue();
+                    Map<String, GenericValue> existing = new HashMap<>();
+                    List<String> searchHashes = new ArrayList<>(periodAggregates.keySet());
+                    for (int i = 0; i < searchHashes.size(); i += 1000) {
+                        List<GenericValue> statsList = EntityQuery.use(delegator).from("ProductSearchStats")
+                                .where(EntityCondition.makeCondition("periodStartDate", periodStartDate),
+                                        EntityCondition.makeCondition("searchHash", EntityOperator.IN, searchHashes.subList(i, Math.min(i + 1000, searchHashes.size()))))
+                                .queryList();
+                        for (GenericValue stats : statsList) {
+                            existing.put(stats.getString("searchHash"), stats);
+                        }
+                    }
+                    for (Map.Entry<String, Aggregate> entry : periodAggregates.entrySet()) {
+                        String searchHash = entry.getKey();
+                        Aggregate aggregate = entry.getValue();
+                        GenericValue stats = existing.get(searchHash);
+                        if (stats == null) {
+                            stats = delegator.makeValue("ProductSearchStats", UtilMisc.toMap("periodStartDate", periodStartDate,
+                                    "searchHash", searchHash, "searchInfo", searchInfos.get(searchHash)));
+                        }
+                        synchronized (aggregate) {
+                            stats.set("searchCount", getLong(stats, "searchCount") + aggregate.searchCount);
+                            stats.set("zeroResultCount", getLong(stats, "zeroResultCount") + aggregate.zeroResultCount);
+                            stats.set("totalResults", getLong(stats, "totalResults") + aggregate.totalResults);
+                            stats.set("totalSeconds", (stats.getDouble("totalSeconds") != null ? stats.getDouble("totalSeconds") : 0) + aggregate.totalSeconds);
+                            Timestamp lastSearchDate = stats.getTimestamp("lastSearchDate");
+                            if (lastSearchDate == null || lastSearchDate.getTime() < aggregate.lastSearchTime) {
+                                stats.set("lastSearchDate", new Timestamp(aggregate.lastSearchTime));
+                            }
+                        }
+                        toStore.add(stats);
+                    }
+                }
+                delegator.storeAll(toStore);
+                TransactionUtil.commit(beganTransaction);
+                written = true;
+                if (Debug.verboseOn()) Debug.logVerbose("Wrote product search stats for " + toStore.size() + " searches", module);
+            } catch (Throwable t) {
+                // any failure (including runtime exceptions from the JDBC driver) must not lose the counts
+                String errMsg = "Error writing product search stats; will retry at next write";
+                Debug.logError(t, errMsg, module);
+                TransactionUtil.rollback(beganTransaction, errMsg, t);
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logError(e, "Error writing product search stats; will retry at next write", module);
+        } finally {
+            if (!written) {
+                requeue(flushed);
+            }
+        }
+    }
+
+    private void requeue(Map<String, Aggregate> flushed) {
+        for (Map.Entry<String, Aggregate> entry : flushed.entrySet()) {
+            Aggregate aggregate = entry.getValue();
+            synchronized (aggregate) {
+                add(entry.getKey(), aggregate.searchCount, aggregate.zeroResultCount, aggregate.totalResults, aggregate.totalSeconds, aggregate.lastSearchTime);
+            }
+        }
+    }
+
+    private static long getLong(GenericValue value, String fieldName) {
+        Long fieldValue = value.getLong(fieldName);
+        return (fieldValue != null) ? fieldValue : 0;
+    }
+
+    private static String makeHash(String searchInfo) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(searchInfo.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Aggregate {
+        long searchCount;
+        long zeroResultCount;
+        long totalResults;
+        double totalSeconds;
+        long lastSearchTime;
+
+        synchronized void add(long searchCount, long zeroResultCount, long totalResults, double totalSeconds, long lastSearchTime) {
+            this.searchCount += searchCount;
+            this.zeroResultCount += zeroResultCount;
+            this.totalResults += totalResults;
+            this.totalSeconds += totalSeconds;
+            if (lastSearchTime > this.lastSearchTime) {
+                this.lastSearchTime = lastSearchTime;
+            }
+        }
+    }
+}
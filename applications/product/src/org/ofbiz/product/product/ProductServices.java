@@ -27,6 +27,7 @@ import java.lang.SecurityException;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -1500,6 +1501,97 @@ public class ProductServices {
         }
     }
     
+    /**
+     * SCIPIO: prewarmProductContentCache: loads the listing content of the first products of the given categories
+     * and of the top categories of the catalogs into the ProductContentWrapper cache, in bulk.
+     */
+    public static Map<String, Object> prewarmProductContentCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        Locale locale = (Locale) context.get("locale");
+        Collection<String> productCategoryIdList = UtilGenerics.checkCollection(context.get("productCategoryIdList"));
+        Collection<String> prodCatalogIdList = UtilGenerics.checkCollection(context.get("prodCatalogIdList"));
+        String productStoreId = (String) context.get("productStoreId");
+        Collection<String> productContentTypeIdList = UtilGenerics.checkCollection(context.get("productContentTypeIdList"));
+        if (UtilValidate.isEmpty(productContentTypeIdList)) {
+            productContentTypeIdList = ProductContentWrapper.getBulkProductContentTypeIds();
+        }
+        Collection<String> localeStringList = UtilGenerics.checkCollection(context.get("localeStringList"));
+        Integer maxProductsPerCategory = (Integer) context.get("maxProductsPerCategory");
+        if (maxProductsPerCategory == null) {
+            maxProductsPerCategory = UtilProperties.getPropertyAsInteger("catalog", "product.content.prewarm.maxProductsPerCategory", 100);
+        }
+
+        try {
+            Set<String> productCategoryIds = new LinkedHashSet<>();
+            if (productCategoryIdList != null) {
+                productCategoryIds.addAll(productCategoryIdList);
+            }
+            Set<String> prodCatalogIds = new LinkedHashSet<>();
+            if (prodCatalogIdList != null) {
+                prodCatalogIds.addAll(prodCatalogIdList);
+            }
+            List<Locale> locales = new ArrayList<>();
+            if (UtilValidate.isNotEmpty(productStoreId)) {
+                for (GenericValue storeCatalog : CatalogWorker.getStoreCatalogs(delegator, productStoreId)) {
+                    prodCatalogIds.add(storeCatalog.getString("prodCatalogId"));
+                }
+                GenericValue productStore = EntityQuery.use(delegator).from("ProductStore").where("productStoreId", productStoreId).cache().queryOne();
+                if (UtilValidate.isEmpty(localeStringList) && productStore != null && UtilValidate.isNotEmpty(productStore.getString("defaultLocaleString"))) {
+                    locales.add(UtilMisc.parseLocale(productStore.getString("defaultLocaleString")));
+                }
+            }
+            for (String prodCatalogId : prodCatalogIds) {
+                String topCategoryId = CatalogWorker.getCatalogTopCategoryId(delegator, prodCatalogId);
+                if (topCategoryId == null) {
+                    continue;
+                }
+                productCategoryIds.add(topCategoryId);
+                List<GenericValue> rollups = EntityQuery.use(delegator).from("ProductCategoryRollup")
+                        .where("parentProductCategoryId", topCategoryId).orderBy("sequenceNum").filterByDate().cache().queryList();
+                for (GenericValue rollup : rollups) {
+                    productCategoryIds.add(rollup.getString("productCategoryId"));
+                }
+            }
+            if (UtilValidate.isNotEmpty(localeStringList)) {
+                for (String localeString : localeStringList) {
+                    locales.add(UtilMisc.parseLocale(localeString));
+                }
+            } else if (locales.isEmpty()) {
+                locales.add(locale);
+            }
+
+            int productCount = 0;
+            for (String productCategoryId : productCategoryIds) {
+                List<GenericValue> members = EntityQuery.use(delegator).select("productId").from("ProductCategoryMember")
+                        .where("productCategoryId", productCategoryId).orderBy("sequenceNum", "productId").filterByDate()
+                        .maxRows(maxProductsPerCategory).queryList();
+                if (members.isEmpty()) {
+                    continue;
+                }
+                Set<String> productIds = new LinkedHashSet<>();
+                for (GenericValue member : members) {
+                    productIds.add(member.getString("productId"));
+                }
+                List<GenericValue> products = EntityQuery.use(delegator).from("Product")
+                        .where(EntityCondition.makeCondition("productId", EntityOperator.IN, productIds)).queryList();
+                for (Locale productLocale : locales) {
+                    ProductContentWrapper.getProductContentAsTextBulk(products, productContentTypeIdList, productLocale,
+                            ProductContentWrapper.getDefaultMimeTypeId(delegator), delegator, dispatcher, true, "raw");
+                }
+                productCount += products.size();
+            }
+            Debug.logInfo("Prewarmed content of " + productCount + " products of " + productCategoryIds.size()
+                    + " categories for locales " + locales, module);
+            Map<String, Object> result = ServiceUtil.returnSuccess();
+            result.put("productCount", productCount);
+            return result;
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error prewarming product content cache", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+    }
+
     /**
      * SCIPIO: replaceProductContentLocalizedSimpleTexts.
      * Added 2017-12-06.
@@ -0,0 +1,57 @@
+package org.ofbiz.product.test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.product.product.ProductContentWrapper;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Checks that the bulk product content lookup gives the same text as the per-product wrapper.
+ */
+public class ProductContentTests extends OFBizTestCase {
+
+    public ProductContentTests(String name) {
+        super(name);
+    }
+
+    private Map<String, Map<String, String>> checkBulkEqualsSingle(Locale locale) throws Exception {
+        List<GenericValue> products = EntityQuery.use(delegator).from("Product")
+                .where(EntityCondition.makeCondition("productId", EntityOperator.LIKE, "PCW_TEST_%")).queryList();
+        assertEquals(6, products.size());
+        List<String> productContentTypeIds = UtilMisc.toList("PRODUCT_NAME", "DESCRIPTION");
+        Map<String, Map<String, String>> results = ProductContentWrapper.getProductContentAsTextBulk(products, productContentTypeIds,
+                locale, "text/html", delegator, dispatcher, false, "raw");
+        for (GenericValue product : products) {
+            for (String productContentTypeId : productContentTypeIds) {
+                String single = ProductContentWrapper.getProductContentAsText(product, productContentTypeId, locale, "text/html",
+                        null, null, delegator, dispatcher, false, "raw");
+                assertEquals(product.getString("productId") + " " + productContentTypeId + " (" + locale + ")", single,
+                        results.get(product.getString("productId")).get(productContentTypeId));
+            }
+        }
+        return results;
+    }
+
+    public void testBulkEqualsSingle() throws Exception {
+        Map<String, Map<String, String>> results = checkBulkEqualsSingle(Locale.ENGLISH);
+        assertEquals("Plain name", results.get("PCW_TEST_PLAIN").get("PRODUCT_NAME"));
+        assertEquals("Electronic description", results.get("PCW_TEST_PLAIN").get("DESCRIPTION"));
+        assertEquals("English name", results.get("PCW_TEST_LOCALE").get("PRODUCT_NAME"));
+        assertEquals("Variant uses the virtual content", "Plain name", results.get("PCW_TEST_VARIANT").get("PRODUCT_NAME"));
+        assertEquals("Variant uses the virtual field", "Virtual description", results.get("PCW_TEST_VARIANT").get("DESCRIPTION"));
+        assertEquals("Templated PCW_TEST_TEMPLATE", results.get("PCW_TEST_TEMPLATE").get("DESCRIPTION"));
+        assertEquals("Field name", results.get("PCW_TEST_FIELD").get("PRODUCT_NAME"));
+    }
+
+    public void testBulkEqualsSingleAlternateLocale() throws Exception {
+        Map<String, Map<String, String>> results = checkBulkEqualsSingle(Locale.GERMAN);
+        assertEquals("Deutscher Name", results.get("PCW_TEST_LOCALE").get("PRODUCT_NAME"));
+    }
+}
@@ -0,0 +1,138 @@
+package org.ofbiz.product.test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.product.product.ProductFacetIndex;
+import org.ofbiz.product.product.ProductFacetIndex.ProductSet;
+import org.ofbiz.product.product.ProductSearch.ProductSearchContext;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: ProductFacetIndex tests against the FCIDX_TEST_* records of ProductFacetIndexTestData.xml.
+ * <p>
+ * Needs prodsearch.properties/search.facet.memoryIndex.enabled; does nothing otherwise.
+ */
+public class ProductFacetIndexTests extends OFBizTestCase {
+
+    public static final String module = ProductFacetIndexTests.class.getName();
+
+    protected GenericValue userLogin = null;
+
+    public ProductFacetIndexTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    private static Set<String> toSet(ProductSet productSet) {
+        return new HashSet<>(productSet.getProductIds());
+    }
+
+    /**
+     * Returns the shared index once it has reloaded the test data, or null if the index is disabled.
+     */
+    private ProductFacetIndex getReadyIndex() throws Exception {
+        ProductFacetIndex index = ProductFacetIndex.getInstance(delegator);
+        if (index == null) {
+            Debug.logWarning("Product facet index disabled; skipping test", module);
+            return null;
+        }
+        // the index may have been loaded before the test data
+        Map<String, Object> result = dispatcher.runSync("productFacetIndexChanged", UtilMisc.<String, Object>toMap("userLogin", userLogin));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        long endTime = System.currentTimeMillis() + 120000;
+        while (!index.isReady()) {
+            assertTrue("Index reloaded within 2 minutes", System.currentTimeMillis() < endTime);
+            Thread.sleep(100);
+        }
+        return index;
+    }
+
+    public void testMemberships() throws Exception {
+        ProductFacetIndex index = getReadyIndex();
+        if (index == null) {
+            return;
+        }
+        assertEquals("Current category members only", UtilMisc.toSet("FCIDX_TEST_1", "FCIDX_TEST_2"),
+                toSet(index.getCategoryProducts(UtilMisc.toList("FCIDX_TEST_CAT_A"))));
+        assertEquals("Category union", UtilMisc.toSet("FCIDX_TEST_1", "FCIDX_TEST_2", "FCIDX_TEST_3", "FCIDX_TEST_4"),
+                toSet(index.getCategoryProducts(UtilMisc.toList("FCIDX_TEST_CAT_A", "FCIDX_TEST_CAT_B"))));
+        assertEquals("Current feature applications only", UtilMisc.toSet("FCIDX_TEST_1"),
+                toSet(index.getFeatureProducts(UtilMisc.toList("FCIDX_TEST_LARGE"))));
+        assertEquals(UtilMisc.toSet("FCIDX_TEST_1", "FCIDX_TEST_3"),
+                toSet(index.getFeatureProducts(UtilMisc.toList("FCIDX_TEST_RED"))));
+        assertTrue("Unknown category", index.getCategoryProducts(UtilMisc.toList("FCIDX_TEST_CAT_NONE")).isEmpty());
+        assertEquals("Known products only", UtilMisc.toSet("FCIDX_TEST_1"),
+                toSet(index.getProducts(UtilMisc.toList("FCIDX_TEST_1", "FCIDX_TEST_NONE"))));
+    }
+
+    public void testFindProducts() throws Exception {
+        ProductFacetIndex index = getReadyIndex();
+        if (index == null) {
+            return;
+        }
+
+        ProductSearchContext ctx = new ProductSearchContext(delegator, null);
+        ctx.includeCategoryIds.add("FCIDX_TEST_CAT_A");
+        ctx.includeFeatureIds.add("FCIDX_TEST_RED");
+        assertEquals("Category and feature include", UtilMisc.toSet("FCIDX_TEST_1"), toSet(index.findProducts(ctx)));
+
+        ctx = new ProductSearchContext(delegator, null);
+        ctx.includeCategoryIds.add("FCIDX_TEST_CAT_B");
+        ctx.excludeFeatureIds.add("FCIDX_TEST_RED");
+        assertEquals("Feature exclude", UtilMisc.toSet("FCIDX_TEST_4"), toSet(index.findProducts(ctx)));
+
+        ctx = new ProductSearchContext(delegator, null);
+        ctx.includeFeatureCategoryIds.add("FCIDX_TEST_FCAT");
+        ctx.alwaysIncludeCategoryIds.add("FCIDX_TEST_CAT_B");
+        assertEquals("Feature category include or always include", UtilMisc.toSet("FCIDX_TEST_1", "FCIDX_TEST_2", "FCIDX_TEST_3", "FCIDX_TEST_4"),
+                toSet(index.findProducts(ctx)));
+
+        ctx = new ProductSearchContext(delegator, null);
+        ctx.excludeCategoryIds.add("FCIDX_TEST_CAT_A");
+        assertNull("Exclude without include needs the database", index.findProducts(ctx));
+
+        ctx = new ProductSearchContext(delegator, null);
+        ctx.includeCategoryIds.add("FCIDX_TEST_CAT_A");
+        ctx.includeFeatureGroupIds.add("FCIDX_TEST_GROUP");
+        assertNull("Feature groups are not indexed", index.findProducts(ctx));
+    }
+
+    public void testCounts() throws Exception {
+        ProductFacetIndex index = getReadyIndex();
+        if (index == null) {
+            return;
+        }
+        ProductSet base = index.getCategoryProducts(UtilMisc.toList("FCIDX_TEST_CAT_A", "FCIDX_TEST_CAT_B"));
+
+        List<Map<String, String>> colorCounts = index.listCountByFeatureForType(base, "COLOR");
+        assertEquals("Features of the base set only, sorted by description", 2, colorCounts.size());
+        assertEquals("FCIDX_TEST_BLUE", colorCounts.get(0).get("productFeatureId"));
+        assertEquals("1", colorCounts.get(0).get("featureCount"));
+        assertEquals("FCIDX_TEST_RED", colorCounts.get(1).get("productFeatureId"));
+        assertEquals("2", colorCounts.get(1).get("featureCount"));
+
+        List<Map<String, String>> sizeCounts = index.listCountByFeatureForType(index.getCategoryProducts(UtilMisc.toList("FCIDX_TEST_CAT_B")), "SIZE");
+        assertTrue("Features without products in the base set are left out", sizeCounts.isEmpty());
+
+        ProductSet redSet = index.getFeatureProducts(UtilMisc.toList("FCIDX_TEST_RED"));
+        assertEquals(1, index.getCountForCategories(redSet, UtilMisc.toList("FCIDX_TEST_CAT_A")));
+        assertEquals(2, index.getCountForCategories(redSet, UtilMisc.toList("FCIDX_TEST_CAT_A", "FCIDX_TEST_CAT_B")));
+        assertEquals("Category B count without a base set", 2, index.getCountForCategories(null, UtilMisc.toList("FCIDX_TEST_CAT_B")));
+    }
+}
@@ -0,0 +1,143 @@
+package org.ofbiz.product.test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.product.product.ProductKeywordIndex;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: ProductKeywordIndex tests against the KWIDX_TEST_* records of ProductKeywordIndexTestData.xml.
+ * <p>
+ * Needs prodsearch.properties/search.keyword.memoryIndex.enabled; does nothing otherwise. Index updates are
+ * applied in the background, so results are polled for.
+ */
+public class ProductKeywordIndexTests extends OFBizTestCase {
+
+    public static final String module = ProductKeywordIndexTests.class.getName();
+
+    private static final List<List<String>> noOrSets = Collections.emptyList();
+
+    protected GenericValue userLogin = null;
+
+    public ProductKeywordIndexTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    /**
+     * Returns the shared index once it is ready, with the test products re-read, or null if the index is disabled.
+     */
+    private ProductKeywordIndex getReadyIndex() throws Exception {
+        ProductKeywordIndex index = ProductKeywordIndex.getInstance(delegator);
+        if (index == null) {
+            Debug.logWarning("Product keyword index disabled; skipping test", module);
+            return null;
+        }
+        long endTime = System.currentTimeMillis() + 120000;
+        while (!index.isReady()) {
+            assertTrue("Index built within 2 minutes", System.currentTimeMillis() < endTime);
+            Thread.sleep(100);
+        }
+        // the index may have been built before the test data
+        for (String productId : UtilMisc.toList("KWIDX_TEST_1", "KWIDX_TEST_2", "KWIDX_TEST_3")) {
+            Map<String, Object> result = dispatcher.runSync("productKeywordsChanged", UtilMisc.<String, Object>toMap("userLogin", userLogin,
+                    "productId", productId));
+            assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        }
+        return index;
+    }
+
+    private static void assertFound(String message, Map<String, Long> expected, ProductKeywordIndex index, List<String> andKeywords,
+            Collection<? extends Collection<String>> orKeywordSets, int maxResults) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + 10000;
+        Map<String, Long> found = index.findProducts(andKeywords, orKeywordSets, maxResults);
+        while (!(expected != null ? expected.equals(found) : found == null) && System.currentTimeMillis() < endTime) {
+            Thread.sleep(100);
+            found = index.findProducts(andKeywords, orKeywordSets, maxResults);
+        }
+        assertEquals(message, expected, found);
+    }
+
+    private void createKeyword(String productId, String keyword, long relevancyWeight) throws Exception {
+        delegator.create("ProductKeyword", UtilMisc.toMap("productId", productId, "keyword", keyword, "keywordTypeId", "KWT_KEYWORD",
+                "relevancyWeight", relevancyWeight));
+    }
+
+    private void removeKeywords(String productId, String keyword) throws Exception {
+        delegator.removeByAnd("ProductKeyword", (keyword != null) ? UtilMisc.toMap("productId", productId, "keyword", keyword)
+                : UtilMisc.toMap("productId", productId));
+    }
+
+    public void testFindProducts() throws Exception {
+        ProductKeywordIndex index = getReadyIndex();
+        if (index == null) {
+            return;
+        }
+        assertFound("Keyword", UtilMisc.toMap("KWIDX_TEST_1", 2L, "KWIDX_TEST_2", 1L),
+                index, UtilMisc.toList("kwidxapple"), noOrSets, 100);
+        assertFound("And keywords intersect, relevancies add up", UtilMisc.toMap("KWIDX_TEST_2", 4L),
+                index, UtilMisc.toList("kwidxapple", "kwidxgreen"), noOrSets, 100);
+        assertFound("Wildcard pattern", UtilMisc.toMap("KWIDX_TEST_1", 2L, "KWIDX_TEST_2", 1L),
+                index, UtilMisc.toList("kwidxapp%"), noOrSets, 100);
+        assertFound("Single character wildcard", UtilMisc.toMap("KWIDX_TEST_1", 1L),
+                index, UtilMisc.toList("kwidxr_d"), noOrSets, 100);
+        assertFound("Wildcard pattern sums the matched keywords", UtilMisc.toMap("KWIDX_TEST_1", 4L),
+                index, UtilMisc.toList("kwidx%"), Collections.singletonList(UtilMisc.toList("kwidxred")), 100);
+        assertFound("Or set", UtilMisc.toMap("KWIDX_TEST_1", 1L, "KWIDX_TEST_3", 1L),
+                index, Collections.<String>emptyList(), Collections.singletonList(UtilMisc.toList("kwidxred", "kwidxbanana")), 100);
+        assertFound("No match", Collections.<String, Long>emptyMap(),
+                index, UtilMisc.toList("kwidxnone"), noOrSets, 100);
+        assertFound("More matches than maxResults", null, index, UtilMisc.toList("kwidxgreen"), noOrSets, 1);
+    }
+
+    public void testKeywordChanges() throws Exception {
+        ProductKeywordIndex index = getReadyIndex();
+        if (index == null) {
+            return;
+        }
+        try {
+            removeKeywords("KWIDX_TEST_1", "kwidxapple");
+            createKeyword("KWIDX_TEST_1", "kwidxbanana", 5);
+            assertFound("Removed keyword", UtilMisc.toMap("KWIDX_TEST_2", 1L),
+                    index, UtilMisc.toList("kwidxapple"), noOrSets, 100);
+            assertFound("Added keyword", UtilMisc.toMap("KWIDX_TEST_1", 5L, "KWIDX_TEST_3", 1L),
+                    index, UtilMisc.toList("kwidxbanana"), noOrSets, 100);
+            assertFound("Kept keyword", UtilMisc.toMap("KWIDX_TEST_1", 1L),
+                    index, UtilMisc.toList("kwidxred"), noOrSets, 100);
+
+            removeKeywords("KWIDX_TEST_3", null);
+            assertFound("Product without keywords", UtilMisc.toMap("KWIDX_TEST_1", 5L),
+                    index, UtilMisc.toList("kwidxbanana"), noOrSets, 100);
+
+            createKeyword("KWIDX_TEST_3", "kwidxcherry", 2);
+            assertFound("Product added back", UtilMisc.toMap("KWIDX_TEST_3", 2L),
+                    index, UtilMisc.toList("kwidxcherry"), noOrSets, 100);
+        } finally {
+            removeKeywords("KWIDX_TEST_1", "kwidxbanana");
+            removeKeywords("KWIDX_TEST_3", "kwidxcherry");
+            if (EntityQuery.use(delegator).from("ProductKeyword").where("productId", "KWIDX_TEST_1", "keyword", "kwidxapple").queryOne() == null) {
+                createKeyword("KWIDX_TEST_1", "kwidxapple", 2);
+            }
+            if (EntityQuery.use(delegator).from("ProductKeyword").where("productId", "KWIDX_TEST_3").queryCount() == 0) {
+                createKeyword("KWIDX_TEST_3", "kwidxbanana", 1);
+                createKeyword("KWIDX_TEST_3", "kwidxgreen", 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.ofbiz.product.test;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.product.product.ProductSearchStats;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: ProductSearchStats tests: searches counted in memory and written by the flushProductSearchStats service.
+ * <p>
+ * Needs prodsearch.properties/search.result.save to include stats; does nothing otherwise.
+ */
+public class ProductSearchStatsTests extends OFBizTestCase {
+
+    public static final String module = ProductSearchStatsTests.class.getName();
+
+    protected GenericValue userLogin = null;
+
+    public ProductSearchStatsTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    private List<GenericValue> makeConstraints(String keywords) {
+        return UtilMisc.toList(delegator.makeValue("ProductSearchConstraint", UtilMisc.toMap("constraintName", "KeywordSearch",
+                "infoString", keywords, "isAnd", "Y")));
+    }
+
+    private static String makeKeywords(String name) {
+        // distinct from the searches of earlier runs
+        return "psstats test " + name + " " + System.currentTimeMillis();
+    }
+
+    private void flush() throws Exception {
+        Map<String, Object> result = dispatcher.runSync("flushProductSearchStats", UtilMisc.<String, Object>toMap("userLogin", userLogin));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+    }
+
+    private List<GenericValue> findStats(String keywords) throws Exception {
+        return EntityQuery.use(delegator).from("ProductSearchStats").where("searchInfo", "KeywordSearch: " + keywords + " isAnd=Y").queryList();
+    }
+
+    /**
+     * Returns the searchCount, zeroResultCount and totalResults of the search, summed over its periods.
+     */
+    private long[] getCounts(String keywords) throws Exception {
+        long[] counts = new long[3];
+        for (GenericValue stats : findStats(keywords)) {
+            counts[0] += stats.getLong("searchCount");
+            counts[1] += stats.getLong("zeroResultCount");
+            counts[2] += stats.getLong("totalResults");
+        }
+        return counts;
+    }
+
+    /**
+     * Waits for the expected searchCount, in case a scheduled write was running during the flush.
+     */
+    private long[] waitForCounts(String keywords, long searchCount) throws Exception {
+        long endTime = System.currentTimeMillis() + 10000;
+        long[] counts = getCounts(keywords);
+        while (counts[0] < searchCount && System.currentTimeMillis() < endTime) {
+            Thread.sleep(100);
+            counts = getCounts(keywords);
+        }
+        return counts;
+    }
+
+    private void removeStats(String keywords) throws Exception {
+        delegator.removeAll(findStats(keywords));
+    }
+
+    public void testAggregation() throws Exception {
+        if (!ProductSearchStats.isSaveStats()) {
+            Debug.logWarning("Product search stats disabled; skipping test", module);
+            return;
+        }
+        String redShoes = makeKeywords("red shoes");
+        String blueHat = makeKeywords("blue hat");
+        try {
+            long startTime = System.currentTimeMillis() - 1000; // allow for the timestamp precision of the database
+            ProductSearchStats.record(delegator, makeConstraints(redShoes), 5L, 0.5);
+            ProductSearchStats.record(delegator, makeConstraints(redShoes), 0L, 0.25);
+            ProductSearchStats.record(delegator, makeConstraints(redShoes), 3L, 0.25);
+            ProductSearchStats.record(delegator, makeConstraints(blueHat), 2L, 1.0);
+            flush();
+
+            long[] counts = waitForCounts(redShoes, 3);
+            assertEquals("Searches counted", 3L, counts[0]);
+            assertEquals("Zero result searches counted", 1L, counts[1]);
+            assertEquals("Results added up", 8L, counts[2]);
+            double totalSeconds = 0;
+            for (GenericValue stats : findStats(redShoes)) {
+                totalSeconds += stats.getDouble("totalSeconds");
+                assertFalse("Search time recorded", stats.getTimestamp("lastSearchDate").before(new Timestamp(startTime)));
+            }
+            assertEquals(1.0, totalSeconds, 0.0001);
+
+            counts = waitForCounts(blueHat, 1);
+            assertEquals("Distinct search counted separately", 1L, counts[0]);
+            assertEquals(0L, counts[1]);
+            assertEquals(2L, counts[2]);
+        } finally {
+            removeStats(redShoes);
+            removeStats(blueHat);
+        }
+    }
+
+    public void testFlushAddsToExistingRows() throws Exception {
+        if (!ProductSearchStats.isSaveStats()) {
+            Debug.logWarning("Product search stats disabled; skipping test", module);
+            return;
+        }
+        String redShoes = makeKeywords("red shoes");
+        try {
+            ProductSearchStats.record(delegator, makeConstraints(redShoes), 5L, 0.5);
+            flush();
+            waitForCounts(redShoes, 1);
+
+            ProductSearchStats.record(delegator, makeConstraints(redShoes), 0L, 0.5);
+            flush();
+            flush(); // nothing buffered: must not change the rows
+
+            long[] counts = waitForCounts(redShoes, 2);
+            assertEquals("Counts added to the row of the previous write", 2L, counts[0]);
+            assertEquals(1L, counts[1]);
+            assertEquals(5L, counts[2]);
+            assertTrue("One row per period", findStats(redShoes).size() <= 2);
+        } finally {
+            removeStats(redShoes);
+        }
+    }
+}
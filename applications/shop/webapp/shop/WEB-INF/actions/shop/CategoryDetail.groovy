@@ -27,6 +27,7 @@ import org.ofbiz.service.*;
 import org.ofbiz.product.catalog.*;
 import org.ofbiz.product.category.CategoryContentWrapper;
 import org.ofbiz.product.category.CategoryWorker;
+import org.ofbiz.product.product.ProductContentWrapper;
 import org.ofbiz.product.store.ProductStoreWorker;
 
 // SCIPIO: NOTE: This script is responsible for checking whether solr is applicable (if no check, implies the shop assumes solr is always enabled).
@@ -75,6 +76,10 @@ try {
     
     productCategory = delegator.findOne("ProductCategory", UtilMisc.toMap("productCategoryId", productCategoryId), true);
     solrProducts = result.results;
+    // SCIPIO: load the names/descriptions of the products of the page in bulk, instead of one wrapper lookup per product
+    if (solrProducts) {
+        ProductContentWrapper.preloadProductContentByIds(solrProducts.collect { it.productId }, request);
+    }
     
     // Prevents out of stock product to be displayed on site
     productStore = ProductStoreWorker.getProductStore(request);
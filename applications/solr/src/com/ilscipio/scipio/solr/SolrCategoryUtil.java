@@ -11,6 +11,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest.METHOD;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.QueryRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilValidate;
@@ -391,7 +392,8 @@ public abstract class SolrCategoryUtil {
             solrQuery.addFacetField("cat");
             solrQuery.setFacetLimit(-1);
             if (Debug.verboseOn()) Debug.logVerbose("solr: solrQuery: " + solrQuery, module);
-            returnMap = client.query(solrQuery,METHOD.POST);
+            // SCIPIO: the same navigation facet queries are repeated for every category page, so use the query cache
+            returnMap = SolrQueryCache.query(client, core, new QueryRequest(solrQuery, METHOD.POST));
             result.put("rows", returnMap);
             result.put("numFound", returnMap.getResults().getNumFound());
         } catch (Exception e) {
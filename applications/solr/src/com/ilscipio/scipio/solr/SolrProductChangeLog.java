@@ -0,0 +1,365 @@
+package com.ilscipio.scipio.solr;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Change log of products whose Solr documents are out of date (SolrProductChange entity),
+ * filled by the entity ECAs of the entities read by {@link SolrProductUtil#getProductContent} and
+ * drained in batches by the scheduled indexSolrProductChanges service (solrconfig.properties <code>solr.index.changeLog.*</code>).
+ * <p>
+ * The log is written in the transaction of the entity change, so rolled back changes are not logged. It is insert-only:
+ * each change adds rows with a sequenced changeId, so concurrent transactions changing the same product do not
+ * contend on a shared row; the drain indexes each product once per batch.
+ * Changes to categories, features and content are mapped to the products that use them; changes that
+ * affect more than <code>solr.index.changeLog.maxProductsPerChange</code> products mark the index dirty instead.
+ */
+public abstract class SolrProductChangeLog {
+
+    public static final String module = SolrProductChangeLog.class.getName();
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean(SolrUtil.solrConfigName, "solr.index.changeLog.enabled", false);
+    private static final int MAX_PRODUCTS_PER_CHANGE = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.index.changeLog.maxProductsPerChange", 10000);
+    private static final int BATCH_SIZE = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.index.changeLog.batchSize", 500);
+    /** Maximum number of changeIds per IN condition when clearing. */
+    private static final int CLEAR_CHUNK_SIZE = 1000;
+
+    protected SolrProductChangeLog() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Logs the products affected by a changed entity value; entity ECA service (see entitydef/eecas.xml, where the
+     * ECAs are only dispatched if the change log is enabled).
+     */
+    public static Map<String, Object> logSolrProductChange(DispatchContext dctx, Map<String, Object> context) {
+        if (!ENABLED) {
+            return ServiceUtil.returnSuccess();
+        }
+        Delegator delegator = dctx.getDelegator();
+        GenericEntity instance = (GenericEntity) context.get("instance");
+        try {
+            Set<String> productIds = getAffectedProductIds(delegator, instance);
+            if (productIds == null) {
+                Debug.logInfo("Solr: logSolrProductChange: " + instance.getEntityName() + " change affects more than " + MAX_PRODUCTS_PER_CHANGE
+                        + " products; marking SOLR data as dirty (old)", module);
+                SolrUtil.setSolrDataStatusIdSepTxSafe(delegator, "SOLR_DATA_OLD", false);
+                return ServiceUtil.returnSuccess();
+            }
+            if (productIds.isEmpty()) {
+                return ServiceUtil.returnSuccess();
+            }
+            Timestamp changeDate = UtilDateTime.nowTimestamp();
+            for (String productId : productIds) {
+                delegator.create("SolrProductChange", UtilMisc.toMap("changeId", delegator.getNextSeqId("SolrProductChange"),
+                        "productId", productId, "changeDate", changeDate));
+            }
+            if (Debug.verboseOn()) Debug.logVerbose("Solr: logSolrProductChange: " + instance.getEntityName() + " change logged for products: " + productIds, module);
+            return ServiceUtil.returnSuccess();
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Solr: logSolrProductChange: " + e.getMessage(), module);
+            return ServiceUtil.returnError(e.toString());
+        }
+    }
+
+    /**
+     * Returns the ids of the products whose documents depend on the value, including the variants of
+     * affected virtual products, or null if more than <code>solr.index.changeLog.maxProductsPerChange</code>.
+     */
+    public static Set<String> getAffectedProductIds(Delegator delegator, GenericEntity value) throws GenericEntityException {
+        String entityName = value.getEntityName();
+        Set<String> productIds = new LinkedHashSet<>();
+        if (value.getModelEntity().isField("productId")) {
+            addNotEmpty(productIds, value.getString("productId"));
+            if ("ProductAssoc".equals(entityName)) {
+                addNotEmpty(productIds, value.getString("productIdTo"));
+                return productIds;
+            }
+        } else if ("ProductCategory".equals(entityName) || "ProductCategoryRollup".equals(entityName) || "ProdCatalogCategory".equals(entityName)) {
+            // the category trails and catalogs of the members of the category and its subcategories
+            Set<String> productCategoryIds = new LinkedHashSet<>();
+            addSubCategoryIds(delegator, value.getString("productCategoryId"), productCategoryIds);
+            if (productCategoryIds.isEmpty()) {
+                return productIds;
+            }
+            addFieldValues(productIds, EntityQuery.use(delegator).select("productId").from("ProductCategoryMember")
+                    .where(EntityCondition.makeCondition("productCategoryId", EntityOperator.IN, productCategoryIds))
+                    .distinct().queryList(), "productId");
+        } else if ("ProductFeature".equals(entityName)) {
+            addFieldValues(productIds, EntityQuery.use(delegator).select("productId").from("ProductFeatureAppl")
+                    .where("productFeatureId", value.getString("productFeatureId")).distinct().queryList(), "productId");
+        } else if ("Content".equals(entityName) || "ElectronicText".equals(entityName)) {
+            List<String> contentIds;
+            if ("Content".equals(entityName)) {
+                contentIds = UtilMisc.toList(value.getString("contentId"));
+            } else {
+                contentIds = getFieldValues(EntityQuery.use(delegator).select("contentId").from("Content")
+                        .where("dataResourceId", value.getString("dataResourceId")).queryList(), "contentId");
+            }
+            if (UtilValidate.isNotEmpty(contentIds)) {
+                addFieldValues(productIds, EntityQuery.use(delegator).select("productId").from("ProductContent")
+                        .where(EntityCondition.makeCondition("contentId", EntityOperator.IN, contentIds)).distinct().queryList(), "productId");
+            }
+        }
+        if (productIds.size() > MAX_PRODUCTS_PER_CHANGE) {
+            return null;
+        }
+        if (!productIds.isEmpty()) {
+            // variant documents include data of their virtual product (categories, content)
+            addFieldValues(productIds, EntityQuery.use(delegator).select("productIdTo").from("ProductAssoc")
+                    .where(EntityCondition.makeCondition("productId", EntityOperator.IN, new ArrayList<>(productIds)),
+                            EntityCondition.makeCondition("productAssocTypeId", "PRODUCT_VARIANT")).queryList(), "productIdTo");
+            if (productIds.size() > MAX_PRODUCTS_PER_CHANGE) {
+                return null;
+            }
+        }
+        return productIds;
+    }
+
+    private static void addSubCategoryIds(Delegator delegator, String productCategoryId, Set<String> productCategoryIds) throws GenericEntityException {
+        if (UtilValidate.isEmpty(productCategoryId) || !productCategoryIds.add(productCategoryId)) {
+            return;
+        }
+        for (GenericValue rollup : EntityQuery.use(delegator).select("productCategoryId").from("ProductCategoryRollup")
+                .where("parentProductCategoryId", productCategoryId).queryList()) {
+            addSubCategoryIds(delegator, rollup.getString("productCategoryId"), productCategoryIds);
+        }
+    }
+
+    private static void addNotEmpty(Collection<String> values, String value) {
+        if (UtilValidate.isNotEmpty(value)) {
+            values.add(value);
+        }
+    }
+
+    private static void addFieldValues(Collection<String> values, List<GenericValue> entityValues, String fieldName) {
+        for (GenericValue entityValue : entityValues) {
+            addNotEmpty(values, entityValue.getString(fieldName));
+        }
+    }
+
+    private static List<String> getFieldValues(List<GenericValue> entityValues, String fieldName) {
+        List<String> values = new ArrayList<>(entityValues.size());
+        addFieldValues(values, entityValues, fieldName);
+        return values;
+    }
+
+    /**
+     * Indexes the products in the change log, in batches; scheduled service.
+     * <p>
+     * Only changes logged before the service started are processed, and only the processed entries are removed,
+     * so a product changed again while it was indexed is indexed again on the next run.
+     * <p>
+     * Nothing is done while rebuildSolrIndex runs on the core (its index queue is paused): the changes logged since the
+     * rebuild started are kept by it and indexed on the next run, into the rebuilt index (also after a core swap).
+     */
+    public static Map<String, Object> indexSolrProductChanges(DispatchContext dctx, Map<String, Object> context) {
+        if (!ENABLED) {
+            return ServiceUtil.returnSuccess("Solr change log disabled (solr.index.changeLog.enabled)");
+        }
+        if (!SolrUtil.isSolrEcaWebappInitCheckPassed()) {
+            return ServiceUtil.returnSuccess("Solr webapp not available; not indexing changes");
+        }
+        Delegator delegator = dctx.getDelegator();
+        Integer batchSize = (Integer) context.get("batchSize");
+        if (batchSize == null || batchSize <= 0) {
+            batchSize = BATCH_SIZE;
+        }
+        String core = (String) context.get("core");
+        if (SolrProductIndexQueue.getInstance(core).isPaused()) {
+            return ServiceUtil.returnSuccess("Solr index rebuild in progress; not indexing changes");
+        }
+        IndexBatchHandler handler = new IndexBatchHandler(dctx, context, core);
+        try {
+            drainChanges(delegator, UtilDateTime.nowTimestamp(), batchSize, handler);
+        } catch (Exception e) {
+            Debug.logError(e, "Solr: indexSolrProductChanges: " + e.getMessage(), module);
+            return ServiceUtil.returnError(e.toString());
+        }
+        if (handler.errorResult != null) {
+            return handler.errorResult;
+        }
+        if (handler.numIndexed > 0 || handler.numRemoved > 0) {
+            Debug.logInfo("Solr: indexSolrProductChanges: Indexed " + handler.numIndexed + " and removed " + handler.numRemoved + " changed products", module);
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("numIndexed", handler.numIndexed);
+        result.put("numRemoved", handler.numRemoved);
+        return result;
+    }
+
+    /**
+     * Passes the products of the changes logged up to the given time to the handler, in batches of up to batchSize
+     * changes in log order, each product once per batch, and removes the changes of each batch the handler accepts.
+     * Stops at the first batch the handler rejects, leaving it in the log.
+     * @return the number of changes removed
+     */
+    private static int drainChanges(Delegator delegator, Timestamp upToDate, int batchSize, ChangeBatchHandler handler) throws Exception {
+        int numChanges = 0;
+        while (true) {
+            List<GenericValue> changes = EntityQuery.use(delegator).from("SolrProductChange")
+                    .where(EntityCondition.makeCondition("changeDate", EntityOperator.LESS_THAN_EQUAL_TO, upToDate))
+                    .orderBy("changeDate", "changeId").maxRows(batchSize).queryList();
+            if (changes.isEmpty()) {
+                break;
+            }
+            Set<String> productIds = new LinkedHashSet<>();
+            List<String> changeIds = new ArrayList<>(changes.size());
+            for (GenericValue change : changes) {
+                productIds.add(change.getString("productId"));
+                changeIds.add(change.getString("changeId"));
+            }
+            if (!handler.processBatch(productIds)) {
+                break;
+            }
+            delegator.removeByCondition("SolrProductChange", EntityCondition.makeCondition("changeId", EntityOperator.IN, changeIds));
+            numChanges += changes.size();
+            if (changes.size() < batchSize) {
+                break;
+            }
+        }
+        return numChanges;
+    }
+
+    /**
+     * Processes the changed products of a batch of the change log, for {@link #drainChanges}.
+     */
+    private interface ChangeBatchHandler {
+        /**
+         * Processes the products, given in log order; returns false to stop the drain and keep the batch in the log.
+         */
+        boolean processBatch(Set<String> productIds) throws Exception;
+    }
+
+    /**
+     * Indexes the existing products of each batch and removes the others from the index.
+     */
+    private static class IndexBatchHandler implements ChangeBatchHandler {
+        private final DispatchContext dctx;
+        private final Map<String, Object> context;
+        private final String core;
+        int numIndexed = 0;
+        int numRemoved = 0;
+        Map<String, Object> errorResult = null;
+
+        IndexBatchHandler(DispatchContext dctx, Map<String, Object> context, String core) {
+            this.dctx = dctx;
+            this.context = context;
+            this.core = core;
+        }
+
+        @Override
+        public boolean processBatch(Set<String> productIds) throws Exception {
+            Delegator delegator = dctx.getDelegator();
+            List<Map<String, Object>> fieldList = new ArrayList<>(productIds.size());
+            List<String> removeIds = new ArrayList<>();
+            Map<String, Object> productContext = new HashMap<>();
+            productContext.put("userLogin", context.get("userLogin"));
+            for (String productId : productIds) {
+                GenericValue product = delegator.findOne("Product", UtilMisc.toMap("productId", productId), false);
+                if (product != null) {
+                    fieldList.add(SolrProductUtil.getProductContent(product, dctx, productContext));
+                } else {
+                    removeIds.add(productId);
+                }
+            }
+            if (!fieldList.isEmpty()) {
+                Map<String, Object> servCtx = UtilMisc.toMap("fieldList", fieldList, "treatConnectErrorNonFatal", SolrUtil.isEcaTreatConnectErrorNonFatal(),
+                        "core", core, "userLogin", context.get("userLogin"));
+                Map<String, Object> runResult = dctx.getDispatcher().runSync("addListToSolrIndex", servCtx);
+                if (!ServiceUtil.isSuccess(runResult)) {
+                    String errMsg = "Could not index changed products: " + ServiceUtil.getErrorMessage(runResult);
+                    errorResult = ServiceUtil.isFailure(runResult) ? ServiceUtil.returnFailure(errMsg) : ServiceUtil.returnError(errMsg);
+                    return false;
+                }
+                numIndexed += fieldList.size();
+            }
+            if (!removeIds.isEmpty()) {
+                HttpSolrClient client = SolrUtil.getUpdateHttpSolrClient(core);
+                try {
+                    SolrUtil.deleteFromIndexById(client, removeIds, SolrUtil.getIndexCommitWithin());
+                } finally {
+                    client.close();
+                }
+                numRemoved += removeIds.size();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the ids of the changes currently visible in the log, for {@link #clearChanges} once a full index rebuild
+     * started now is done; null if the change log is disabled or could not be read.
+     * <p>
+     * NOTE: the changeDate can't be used for this: a change is dated when it is logged, but a transaction that logged
+     * it before the rebuild started may commit after the rebuild read the product, so only the committed changes are
+     * known to be in the rebuilt index. The changeIds are not ordered by commit either.
+     */
+    public static Set<String> getChangeIds(Delegator delegator) {
+        if (!ENABLED) {
+            return null;
+        }
+        Set<String> changeIds = new HashSet<>();
+        try {
+            EntityListIterator it = EntityQuery.use(delegator).select("changeId").from("SolrProductChange").queryIterator();
+            try {
+                GenericValue change;
+                while ((change = it.next()) != null) {
+                    changeIds.add(change.getString("changeId"));
+                }
+            } finally {
+                it.close();
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Solr: Could not read product change log: " + e.getMessage(), module);
+            return null;
+        }
+        return changeIds;
+    }
+
+    /**
+     * Removes the given changes (from {@link #getChangeIds}), which a full index rebuild started after they were
+     * committed made obsolete; the changes logged since are kept.
+     */
+    public static void clearChanges(Delegator delegator, Collection<String> changeIds) {
+        if (!ENABLED || UtilValidate.isEmpty(changeIds)) {
+            return;
+        }
+        List<String> changeIdList = new ArrayList<>(changeIds);
+        try {
+            for (int i = 0; i < changeIdList.size(); i += CLEAR_CHUNK_SIZE) {
+                delegator.removeByCondition("SolrProductChange", EntityCondition.makeCondition("changeId", EntityOperator.IN,
+                        changeIdList.subList(i, Math.min(i + CLEAR_CHUNK_SIZE, changeIdList.size()))));
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Solr: Could not clear product change log: " + e.getMessage(), module);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.ilscipio.scipio.solr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.metrics.Counter;
+import org.ofbiz.base.metrics.Gauge;
+import org.ofbiz.base.metrics.MetricRegistry;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Background queue of product index updates for one Solr core, used by the immediate
+ * updateToSolr/addToSolr/removeFromSolr services (solrconfig.properties <code>solr.index.queue.*</code>).
+ * <p>
+ * Updates are coalesced by productId (the last action wins) and sent in batches of up to
+ * <code>solr.index.queue.batchSize</code> documents, <code>solr.index.queue.interval</code> milliseconds after
+ * the first pending update, using the shared update client and the <code>solr.index.commitWithin</code> policy.
+ * Products are re-read when the batch is sent, so the document reflects the latest committed data.
+ * <p>
+ * While a rebuildSolrIndex of the core runs, the queue is paused: updates are held (including the ones
+ * normally sent directly, see {@link #isPaused()}) so that their commits do not expose the partly rebuilt index,
+ * and sent when the rebuild ends.
+ * <p>
+ * NOTE: Pending updates are kept in memory only and lost on shutdown; a failed batch marks the index
+ * dirty (if <code>solr.eca.markDirty.enabled</code>) so that rebuildSolrIndexAuto picks it up.
+ */
+public class SolrProductIndexQueue {
+
+    public static final String module = SolrProductIndexQueue.class.getName();
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean(SolrUtil.solrConfigName, "solr.index.queue.enabled", true);
+    private static final long INTERVAL = UtilProperties.getPropertyAsLong(SolrUtil.solrConfigName, "solr.index.queue.interval", 1000);
+    private static final int BATCH_SIZE = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.index.queue.batchSize", 500);
+
+    private static final Map<String, SolrProductIndexQueue> queues = new ConcurrentHashMap<>();
+    // NOTE: also used when the queue is disabled, for the updates held during a rebuild; no thread is started until then
+    private static final ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null,
+            "Scipio-solr-index-queue", 1, 0, false);
+    private static final Counter indexedCounter = MetricRegistry.getDefault().counter("solr_index_queue_items", "result", "indexed");
+    private static final Counter removedCounter = MetricRegistry.getDefault().counter("solr_index_queue_items", "result", "removed");
+    private static final Counter errorCounter = MetricRegistry.getDefault().counter("solr_index_queue_items", "result", "error");
+    static {
+        if (ENABLED) {
+            MetricRegistry.getDefault().gauge("solr_index_queue_pending", new Gauge.Source() {
+                @Override
+                public double getValue() {
+                    int count = 0;
+                    for (SolrProductIndexQueue queue : queues.values()) {
+                        count += queue.getPendingCount();
+                    }
+                    return count;
+                }
+            });
+        }
+    }
+
+    private final String core; // null for default core
+    private final Map<String, PendingUpdate> pending = new LinkedHashMap<>(); // guarded by this
+    private boolean scheduled = false; // guarded by this
+    private int pauseCount = 0; // guarded by this
+
+    private SolrProductIndexQueue(String core) {
+        this.core = core;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the queue for the core, or for the default core if null.
+     */
+    public static SolrProductIndexQueue getInstance(String core) {
+        String key = (UtilValidate.isNotEmpty(core) && !core.equals(SolrUtil.getSolrDefaultCore())) ? core : "";
+        SolrProductIndexQueue queue = queues.get(key);
+        if (queue == null) {
+            queue = new SolrProductIndexQueue(core);
+            SolrProductIndexQueue prevQueue = queues.putIfAbsent(key, queue);
+            if (prevQueue != null) {
+                queue = prevQueue;
+            }
+        }
+        return queue;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns true while the queue is paused by a rebuild of the core; updates for the core, including the ones
+     * that are normally sent directly, must then be queued with {@link #enqueue}.
+     */
+    public synchronized boolean isPaused() {
+        return pauseCount > 0;
+    }
+
+    /**
+     * Holds the queued updates until {@link #resume()}; calls nest.
+     */
+    public synchronized void pause() {
+        pauseCount++;
+    }
+
+    /**
+     * Ends a {@link #pause()} and, if it was the last one, sends the updates queued meanwhile.
+     */
+    public synchronized void resume() {
+        if (pauseCount <= 0) {
+            return;
+        }
+        pauseCount--;
+        if (pauseCount == 0 && !pending.isEmpty() && !scheduled) {
+            Debug.logInfo("Solr: Index queue resumed; sending " + pending.size() + " held product updates", module);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+            scheduled = true;
+        }
+    }
+
+    /**
+     * Queues an index update for the product: forceAdd true adds, false removes, null adds if the product exists or else removes.
+     */
+    public Map<String, Object> enqueue(DispatchContext dctx, Map<String, Object> context, Boolean forceAdd, String productId) {
+        PendingUpdate update = new PendingUpdate(dctx, (GenericValue) context.get("userLogin"), forceAdd, productId);
+        synchronized (this) {
+            pending.remove(productId); // re-insert at end: the latest action must be sent after any earlier batch
+            pending.put(productId, update);
+            if (!scheduled && pauseCount == 0) {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, INTERVAL, TimeUnit.MILLISECONDS);
+                scheduled = true;
+            }
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("Solr: updateToSolr: Queued index update for productId '" + productId + "'", module);
+        return ServiceUtil.returnSuccess();
+    }
+
+    private void flush() {
+        List<PendingUpdate> batch = new ArrayList<>(Math.min(BATCH_SIZE, 64));
+        synchronized (this) {
+            if (pauseCount > 0) {
+                scheduled = false; // rescheduled by resume
+                return;
+            }
+            Iterator<PendingUpdate> it = pending.values().iterator();
+            while (it.hasNext() && batch.size() < BATCH_SIZE) {
+                batch.add(it.next());
+                it.remove();
+            }
+            if (pending.isEmpty()) {
+                scheduled = false;
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+        }
+        try {
+            sendBatch(batch);
+        } catch (Throwable t) {
+            // don't let the scheduled flush die
+            Debug.logError(t, "Solr: Error sending index update batch", module);
+        }
+    }
+
+    private void sendBatch(List<PendingUpdate> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<SolrInputDocument> docs = new ArrayList<>(batch.size());
+        List<String> removeIds = new ArrayList<>();
+        int errors = 0;
+        for (PendingUpdate update : batch) {
+            try {
+                if (Boolean.FALSE.equals(update.forceAdd)) {
+                    removeIds.add(update.productId);
+                    continue;
+                }
+                GenericValue product = update.dctx.getDelegator().findOne("Product", UtilMisc.toMap("productId", update.productId), false);
+                if (product == null) {
+                    if (Boolean.TRUE.equals(update.forceAdd)) {
+                        Debug.logWarning("Solr: addToSolr: Product not found for productId: " + update.productId, module);
+                        errors++;
+                    } else {
+                        removeIds.add(update.productId);
+                    }
+                    continue;
+                }
+                Map<String, Object> productContext = new HashMap<>();
+                productContext.put("userLogin", update.userLogin);
+                Map<String, Object> productContent = SolrProductUtil.getProductContent(product, update.dctx, productContext);
+                docs.add(SolrProductUtil.generateSolrProductDocument(update.dctx.getDelegator(), update.dctx.getDispatcher(), productContent, false));
+            } catch (Exception e) {
+                Debug.logError(e, "Solr: Could not generate document for productId '" + update.productId + "': " + e.getMessage(), module);
+                errors++;
+            }
+        }
+
+        int commitWithin = SolrUtil.getIndexCommitWithin();
+        HttpSolrClient client = null;
+        try {
+            client = SolrUtil.getUpdateHttpSolrClient(core);
+            if (!docs.isEmpty()) {
+                SolrUtil.addToIndex(client, docs, commitWithin);
+                indexedCounter.inc(docs.size());
+            }
+            if (!removeIds.isEmpty()) {
+                SolrUtil.deleteFromIndexById(client, removeIds, commitWithin);
+                removedCounter.inc(removeIds.size());
+            }
+            Debug.logInfo("Solr: Sent index update batch: " + docs.size() + " added, " + removeIds.size() + " removed"
+                    + (errors > 0 ? ", " + errors + " failed" : ""), module);
+        } catch (Exception e) {
+            Debug.logError(e, "Solr: Failed to send index update batch of " + batch.size() + " products: " + e.getMessage(), module);
+            errors = batch.size();
+        } finally {
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (Exception e) {
+                    Debug.logError(e, "Solr: Could not close client", module);
+                }
+            }
+        }
+
+        if (errors > 0) {
+            errorCounter.inc(errors);
+            if (UtilProperties.getPropertyAsBoolean(SolrUtil.solrConfigName, "solr.eca.markDirty.enabled", false)) {
+                Debug.logWarning("Solr: Did not update index for " + errors + " products; marking SOLR data as dirty (old)", module);
+                SolrUtil.setSolrDataStatusIdSepTxSafe(batch.get(0).dctx.getDelegator(), "SOLR_DATA_OLD", false);
+            }
+        }
+    }
+
+    private static final class PendingUpdate {
+        private final DispatchContext dctx;
+        private final GenericValue userLogin;
+        private final Boolean forceAdd;
+        private final String productId;
+
+        private PendingUpdate(DispatchContext dctx, GenericValue userLogin, Boolean forceAdd, String productId) {
+            this.dctx = dctx;
+            this.userLogin = userLogin;
+            this.forceAdd = forceAdd;
+            this.productId = productId;
+        }
+    }
+}
@@ -3,21 +3,30 @@ package com.ilscipio.scipio.solr;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.MalformedURLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest.METHOD;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
 import org.apache.solr.client.solrj.request.QueryRequest;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.FacetField.Count;
@@ -26,6 +35,8 @@ import org.apache.solr.client.solrj.response.SpellCheckResponse;
 import org.apache.solr.client.solrj.response.SpellCheckResponse.Collation;
 import org.apache.solr.client.solrj.response.SpellCheckResponse.Suggestion;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CoreAdminParams.CoreAdminAction;
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
@@ -38,6 +49,7 @@ import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.service.ModelService;
 import org.ofbiz.service.ServiceSyncRegistrations;
@@ -53,6 +65,10 @@ public abstract class SolrProductSearch {
 
     private static final boolean rebuildClearAndUseCacheDefault = UtilProperties.getPropertyAsBoolean(SolrUtil.solrConfigName, 
             "solr.index.rebuild.clearAndUseCache", false);
+    private static final int rebuildThreadsDefault = UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, 
+            "solr.index.rebuild.threads", 0);
+    private static final String rebuildSwapCoreDefault = UtilProperties.getPropertyValue(SolrUtil.solrConfigName, 
+            "solr.index.rebuild.swapCore");
     private static final String defaultRegisterUpdateToSolrUpdateSrv = UtilProperties.getPropertyValue(SolrUtil.solrConfigName, 
             "solr.service.registerUpdateToSolr.updateSrv", "updateToSolr");
     
@@ -101,8 +117,8 @@ public abstract class SolrProductSearch {
         Debug.logInfo("Solr: removeFromSolr: Removing productId '" + productId + "' from index", module);
         try {
             HttpSolrClient client = SolrUtil.getUpdateHttpSolrClient((String) context.get("core"));
-            client.deleteByQuery("productId:" + SolrExprUtil.escapeTermFull(productId));
-            client.commit();
+            // SCIPIO: productId is the unique key, so delete by id; commit according to solr.index.commitWithin
+            SolrUtil.deleteFromIndexById(client, UtilMisc.toList(productId), SolrUtil.getIndexCommitWithin());
             result = ServiceUtil.returnSuccess();
         } catch (Exception e) {
             Debug.logError(e, "Solr: removeFromSolr: " + e.getMessage(), module);
@@ -153,7 +169,16 @@ public abstract class SolrProductSearch {
                 if (productId == null) return ServiceUtil.returnError("missing product instance or productId");
 
                 if (immediate) {
-                    result = updateToSolrCore(dctx, context, forceAdd, productId, productInst);
+                    SolrProductIndexQueue indexQueue = SolrProductIndexQueue.getInstance((String) context.get("core"));
+                    if ((!manual && SolrProductIndexQueue.isEnabled()) || indexQueue.isPaused()) {
+                        // SCIPIO: coalesced and sent in batches by the background index queue; held there while the core is rebuilt
+                        result = checkUpdateToSolrTransaction();
+                        if (result == null) {
+                            result = indexQueue.enqueue(dctx, context, forceAdd, productId);
+                        }
+                    } else {
+                        result = updateToSolrCore(dctx, context, forceAdd, productId, productInst);
+                    }
                     if (ServiceUtil.isSuccess(result)) indexed = true;
                 } else {
                     if (TransactionUtil.isTransactionInPlaceSafe()) {
@@ -198,19 +223,9 @@ public abstract class SolrProductSearch {
     }
     
     private static Map<String, Object> updateToSolrCore(DispatchContext dctx, Map<String, Object> context, Boolean forceAdd, String productId, Map<String, Object> productInst) {
-        Map<String, Object> result;
-        
-        // SPECIAL: 2018-01-03: do not update to Solr if the current transaction marked as rollback,
-        // because the rollbacked data may be (even likely to be) product data that we don't want in index
-        // FIXME?: this cannot handle transaction rollbacks triggered after us! Some client diligence still needed for that...
-        try {
-            if (TransactionUtil.isTransactionInPlace() && TransactionUtil.getStatus() == TransactionUtil.STATUS_MARKED_ROLLBACK) {
-                Debug.logWarning("Solr: updateToSolr: Current transaction is marked for rollback; aborting solr index update", module);
-                return ServiceUtil.returnFailure("Current transaction is marked for rollback; aborting solr index update");
-            }
-        } catch (Exception e) {
-            Debug.logError("Solr: updateToSolr: Failed to check transaction status; aborting solr index update: " + e.getMessage(), module);
-            return ServiceUtil.returnError("Failed to check transaction status; aborting solr index update");
+        Map<String, Object> result = checkUpdateToSolrTransaction();
+        if (result != null) {
+            return result;
         }
             
         if (Boolean.FALSE.equals(forceAdd)) {
@@ -245,6 +260,25 @@ public abstract class SolrProductSearch {
         return result;
     }
     
+    /**
+     * Returns a failure or error result if the index should not be updated from the current transaction, or null.
+     */
+    private static Map<String, Object> checkUpdateToSolrTransaction() {
+        // SPECIAL: 2018-01-03: do not update to Solr if the current transaction marked as rollback,
+        // because the rollbacked data may be (even likely to be) product data that we don't want in index
+        // FIXME?: this cannot handle transaction rollbacks triggered after us! Some client diligence still needed for that...
+        try {
+            if (TransactionUtil.isTransactionInPlace() && TransactionUtil.getStatus() == TransactionUtil.STATUS_MARKED_ROLLBACK) {
+                Debug.logWarning("Solr: updateToSolr: Current transaction is marked for rollback; aborting solr index update", module);
+                return ServiceUtil.returnFailure("Current transaction is marked for rollback; aborting solr index update");
+            }
+        } catch (Exception e) {
+            Debug.logError("Solr: updateToSolr: Failed to check transaction status; aborting solr index update: " + e.getMessage(), module);
+            return ServiceUtil.returnError("Failed to check transaction status; aborting solr index update");
+        }
+        return null;
+    }
+
     /**
      * Registers an updateToSolr call at the end of the transaction using global-commit event.
      * <p>
@@ -301,6 +335,11 @@ public abstract class SolrProductSearch {
         }
     }
 
+    private static int getCommitWithin(Map<String, Object> context) {
+        Integer commitWithin = (Integer) context.get("commitWithin");
+        return (commitWithin != null) ? commitWithin : SolrUtil.getIndexCommitWithin();
+    }
+
     /**
      * Adds product to solr index.
      */
@@ -328,8 +367,7 @@ public abstract class SolrProductSearch {
             docs.add(doc1);
 
             // push Documents to server
-            client.add(docs);
-            client.commit();
+            SolrUtil.addToIndex(client, docs, getCommitWithin(context));
 
             final String statusStr = "Document for productId " + productId + " added to solr index";
             Debug.logInfo("Solr: " + statusStr, module);
@@ -399,8 +437,7 @@ public abstract class SolrProductSearch {
                 }
                 // push Documents to server
                 client = SolrUtil.getUpdateHttpSolrClient((String) context.get("core"));
-                client.add(docs);
-                client.commit();
+                SolrUtil.addToIndex(client, docs, getCommitWithin(context));
             }
 
             final String statusStr = "Added " + fieldList.size() + " documents to solr index";
@@ -641,7 +678,12 @@ public abstract class SolrProductSearch {
                 // This will override the credentials stored in (Scipio)HttpSolrClient, if any
                 req.setBasicAuthCredentials(solrUsername, solrPassword);
             }
-            QueryResponse rsp = req.process(client);
+            QueryResponse rsp;
+            if (Boolean.FALSE.equals(context.get("queryCache"))) {
+                rsp = req.process(client);
+            } else {
+                rsp = SolrQueryCache.query(client, (String) context.get("core"), req);
+            }
             
             result = ServiceUtil.returnSuccess();
             result.put("queryResult", rsp);
@@ -1067,13 +1109,29 @@ public abstract class SolrProductSearch {
         Boolean treatConnectErrorNonFatal = (Boolean) context.get("treatConnectErrorNonFatal");
         Boolean clearAndUseCache = (Boolean) context.get("clearAndUseCache");
         if (clearAndUseCache == null) clearAndUseCache = rebuildClearAndUseCacheDefault;
+        // SCIPIO: number of threads generating documents; 1 reads and indexes sequentially on the service thread
+        Integer threads = (Integer) context.get("threads");
+        if (threads == null) threads = rebuildThreadsDefault;
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        // SCIPIO: if a swap core is set, the index is rebuilt into it and then swapped with the target core,
+        // so the target core serves the old index until the rebuild is done; the updates of the target core made meanwhile are
+        // held in its index queue and the change log (see below) and applied after the swap, so they reach the new index
+        String core = (String) context.get("core");
+        String swapCore = (String) context.get("swapCore");
+        if (swapCore == null) swapCore = rebuildSwapCoreDefault;
+        String buildCore = UtilValidate.isNotEmpty(swapCore) ? swapCore : core;
         
         int numDocs = 0;
         int numDocsIndexed = 0; // 2018-02: needed for accurate stats in case a client edit filters out products within loop
+        // SCIPIO: the changes committed before the rebuild started are in the new index
+        Set<String> rebuildStartChangeIds = SolrProductChangeLog.getChangeIds(delegator);
         EntityListIterator prodIt = null;
         boolean executed = false;
+        boolean committed = false;
+        SolrProductIndexQueue indexQueue = null;
+        ExecutorService executor = null;
         try {
-            client = SolrUtil.getUpdateHttpSolrClient((String) context.get("core"));
+            client = SolrUtil.getUpdateHttpSolrClient(buildCore);
             
             // 2018-02-20: new ability to wait for Solr to load
             if (Boolean.TRUE.equals(context.get("waitSolrReady"))) {
@@ -1086,11 +1144,19 @@ public abstract class SolrProductSearch {
                 }
             }
             
+            // SCIPIO: the delete below and the batches are not committed, and a single commit is done at the end, but any
+            // commit of the core before then (e.g. the commitWithin of index updates) would publish the partial index;
+            // so the index updates for the core are held in its index queue until the rebuild ends
+            indexQueue = SolrProductIndexQueue.getInstance(core);
+            indexQueue.pause();
+            
             executed = true;
             Debug.logInfo("Solr: rebuildSolrIndex: Clearing solr index", module);
             // this removes everything from the index
+            // SCIPIO: searches keep seeing the old index until the commit at the end, or the rollback on failure (see finally);
+            // NOTE: solrconfig.xml autoCommit (openSearcher=false) does not open a searcher, but a rollback can only discard
+            // the changes since the last autoCommit, so a failed rebuild marks the data dirty (see rollbackRebuild)
             client.deleteByQuery("*:*");
-            client.commit();
             
             // NEW 2017-09-14: clear all entity caches at beginning, and then enable caching during 
             // the product reading - this should significantly speed up the process
@@ -1119,6 +1185,15 @@ public abstract class SolrProductSearch {
             Map<String, Object> productContext = new HashMap<>(context);
             productContext.put("useCache", clearAndUseCache);
             
+            // SCIPIO: in parallel mode, this thread only reads products; each buffer is turned into documents and sent
+            // by a worker, and reading waits when 2 buffers per thread are pending (bounds memory use)
+            Deque<Future<Map<String, Object>>> pendingChunks = null;
+            if (threads > 1 && bufSize > 0) {
+                Debug.logInfo("Solr: rebuildSolrIndex: Generating documents using " + threads + " threads", module);
+                executor = ExecutionPool.getScheduledExecutor(null, "Scipio-solr-index-rebuild", threads, 60, false);
+                pendingChunks = new ArrayDeque<>();
+            }
+            
             boolean lastReached = false;
             while (!lastReached) {
                 startIndex = startIndex + bufNumDocs;
@@ -1129,6 +1204,35 @@ public abstract class SolrProductSearch {
                 else endIndex = numDocs;
                 Debug.logInfo("Solr: rebuildSolrIndex: Reading products " + startIndex + "-" + endIndex + " / " + numDocs + " for indexing", module);
 
+                if (executor != null) {
+                    List<GenericValue> products = new ArrayList<>(bufSize);
+                    int numLeft = bufSize;
+                    while (numLeft > 0 && !lastReached) {
+                        GenericValue product = prodIt.next();
+                        if (product != null) {
+                            products.add(product);
+                            numDocsIndexed++;
+                            numLeft--;
+                        } else {
+                            lastReached = true;
+                        }
+                    }
+                    bufNumDocs = products.size();
+                    if (bufNumDocs == 0) {
+                        break;
+                    }
+                    
+                    while (pendingChunks.size() >= threads * 2 && result == null) {
+                        result = getRebuildChunkResult(pendingChunks.removeFirst());
+                    }
+                    if (result != null) {
+                        break;
+                    }
+                    pendingChunks.addLast(executor.submit(new RebuildChunkTask(dctx, context, productContext, products, buildCore, 
+                            treatConnectErrorNonFatal, clearAndUseCache)));
+                    continue;
+                }
+                
                 solrDocs.clear();
                 int numLeft = bufSize;
                 while ((bufSize <= 0 || numLeft > 0) && !lastReached) {
@@ -1148,23 +1252,42 @@ public abstract class SolrProductSearch {
                 }
     
                 // This adds all products to the Index (instantly)
-                Map<String, Object> servCtx = UtilMisc.toMap("fieldList", solrDocs, "treatConnectErrorNonFatal", treatConnectErrorNonFatal);
-                servCtx.put("useCache", clearAndUseCache);
-                copyStdServiceFieldsNotSet(context, servCtx);
-                Map<String, Object> runResult = dispatcher.runSync("addListToSolrIndex", servCtx);
-                
-                if (ServiceUtil.isError(runResult) || ServiceUtil.isFailure(runResult)) {
-                    String runMsg = ServiceUtil.getErrorMessage(runResult);
-                    if (UtilValidate.isEmpty(runMsg)) {
-                        runMsg = null;
-                    }
-                    if (ServiceUtil.isFailure(runResult)) result = ServiceUtil.returnFailure(runMsg);
-                    else result = ServiceUtil.returnError(runMsg);
+                result = addListToSolrIndexForRebuild(dctx, context, solrDocs, buildCore, treatConnectErrorNonFatal, clearAndUseCache);
+                if (result != null) {
                     break;
                 }
             }
             
+            if (pendingChunks != null) {
+                // NOTE: after an error, the remaining chunks still run, but the index is not committed
+                while (!pendingChunks.isEmpty()) {
+                    Map<String, Object> chunkResult = getRebuildChunkResult(pendingChunks.removeFirst());
+                    if (result == null) {
+                        result = chunkResult;
+                    }
+                }
+            }
+            
             if (result == null) {
+                client.commit();
+                committed = true;
+                SolrQueryCache.clear();
+                if (UtilValidate.isNotEmpty(swapCore)) {
+                    String targetCore = UtilValidate.isNotEmpty(core) ? core : SolrUtil.getSolrDefaultCore();
+                    Debug.logInfo("Solr: rebuildSolrIndex: Swapping core '" + swapCore + "' with core '" + targetCore + "'", module);
+                    CoreAdminRequest swapRequest = new CoreAdminRequest();
+                    swapRequest.setAction(CoreAdminAction.SWAP);
+                    swapRequest.setCoreName(targetCore);
+                    swapRequest.setOtherCoreName(swapCore);
+                    HttpSolrClient adminClient = SolrUtil.getUpdateHttpSolrClientFromUrl(SolrUtil.getSolrWebappUrl(), 
+                            SolrUtil.getSolrUpdateConnectConfig().getSolrUsername(), SolrUtil.getSolrUpdateConnectConfig().getSolrPassword());
+                    try {
+                        swapRequest.process(adminClient);
+                    } finally {
+                        adminClient.close();
+                    }
+                    SolrQueryCache.clear();
+                }
                 Debug.logInfo("Solr: rebuildSolrIndex: Finished with " + numDocsIndexed + " documents indexed", module);
                 final String statusMsg = "Cleared solr index and reindexed " + numDocsIndexed + " documents";
                 result = ServiceUtil.returnSuccess(statusMsg);
@@ -1192,6 +1315,15 @@ public abstract class SolrProductSearch {
             }
             result = ServiceUtil.returnError(e.toString());
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (executed && !committed) {
+                rollbackRebuild(delegator, client, executor);
+            }
+            if (indexQueue != null) {
+                indexQueue.resume();
+            }
             if (prodIt != null) {
                 try {
                     prodIt.close();
@@ -1216,6 +1348,8 @@ public abstract class SolrProductSearch {
             // certain we can do that reliably from here.
             //SolrUtil.setSolrDataStatusIdSepTxSafe(delegator, "SOLR_DATA_OK", true);
             SolrUtil.setSolrDataStatusIdSafe(delegator, "SOLR_DATA_OK", true);
+            // SCIPIO: the changes committed before the rebuild started are in the new index
+            SolrProductChangeLog.clearChanges(delegator, rebuildStartChangeIds);
         }   
         result.put("numDocs", numDocs);
         result.put("executed", executed);
@@ -1223,6 +1357,97 @@ public abstract class SolrProductSearch {
         return result;
     }
     
+    /**
+     * Discards the uncommitted changes of a failed rebuildSolrIndex (the delete-all and the documents sent so far), once the
+     * indexing threads have stopped, and marks the data dirty, because the changes persisted by an autoCommit remain.
+     */
+    private static void rollbackRebuild(Delegator delegator, HttpSolrClient client, ExecutorService executor) {
+        if (executor != null) {
+            try {
+                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                    Debug.logWarning("Solr: rebuildSolrIndex: Indexing threads still running after 60 seconds; rolling back anyway", module);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            client.rollback();
+            Debug.logInfo("Solr: rebuildSolrIndex: Rolled back the uncommitted index changes of the failed rebuild", module);
+        } catch (Exception e) {
+            Debug.logError(e, "Solr: rebuildSolrIndex: Could not roll back the uncommitted index changes: " + e.getMessage(), module);
+        }
+        SolrUtil.setSolrDataStatusIdSepTxSafe(delegator, "SOLR_DATA_OLD", false);
+    }
+
+    /**
+     * Sends a buffer of product content to addListToSolrIndex for rebuildSolrIndex, without commit; returns the error or failure result, or null.
+     */
+    private static Map<String, Object> addListToSolrIndexForRebuild(DispatchContext dctx, Map<String, Object> context, List<Map<String, Object>> solrDocs,
+            String core, Boolean treatConnectErrorNonFatal, boolean useCache) throws GenericServiceException {
+        Map<String, Object> servCtx = UtilMisc.toMap("fieldList", solrDocs, "treatConnectErrorNonFatal", treatConnectErrorNonFatal);
+        servCtx.put("useCache", useCache);
+        servCtx.put("commitWithin", 0);
+        servCtx.put("core", core);
+        copyStdServiceFieldsNotSet(context, servCtx);
+        Map<String, Object> runResult = dctx.getDispatcher().runSync("addListToSolrIndex", servCtx);
+        
+        if (ServiceUtil.isError(runResult) || ServiceUtil.isFailure(runResult)) {
+            String runMsg = ServiceUtil.getErrorMessage(runResult);
+            if (UtilValidate.isEmpty(runMsg)) {
+                runMsg = null;
+            }
+            if (ServiceUtil.isFailure(runResult)) return ServiceUtil.returnFailure(runMsg);
+            else return ServiceUtil.returnError(runMsg);
+        }
+        return null;
+    }
+
+    private static Map<String, Object> getRebuildChunkResult(Future<Map<String, Object>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ServiceUtil.returnError("Interrupted while waiting for indexing thread");
+        } catch (ExecutionException e) {
+            Debug.logError(e.getCause(), "Solr: rebuildSolrIndex: Error: " + e.getCause().getMessage(), module);
+            return ServiceUtil.returnError(e.getCause().toString());
+        }
+    }
+
+    /**
+     * Generates the documents of a buffer of products and sends them to the index, for parallel rebuildSolrIndex.
+     */
+    private static class RebuildChunkTask implements Callable<Map<String, Object>> {
+        private final DispatchContext dctx;
+        private final Map<String, Object> context;
+        private final Map<String, Object> productContext;
+        private final List<GenericValue> products;
+        private final String core;
+        private final Boolean treatConnectErrorNonFatal;
+        private final boolean useCache;
+
+        RebuildChunkTask(DispatchContext dctx, Map<String, Object> context, Map<String, Object> productContext, List<GenericValue> products,
+                String core, Boolean treatConnectErrorNonFatal, boolean useCache) {
+            this.dctx = dctx;
+            this.context = context;
+            this.productContext = productContext;
+            this.products = products;
+            this.core = core;
+            this.treatConnectErrorNonFatal = treatConnectErrorNonFatal;
+            this.useCache = useCache;
+        }
+
+        @Override
+        public Map<String, Object> call() throws Exception {
+            List<Map<String, Object>> solrDocs = new ArrayList<>(products.size());
+            for (GenericValue product : products) {
+                solrDocs.add(SolrProductUtil.getProductContent(product, dctx, productContext));
+            }
+            return addListToSolrIndexForRebuild(dctx, context, solrDocs, core, treatConnectErrorNonFatal, useCache);
+        }
+    }
+
     private static boolean isReindexAutoForce(Delegator delegator, LocalDispatcher dispatcher) {
         boolean autoForce = false;
         if (!reindexAutoForceRan) {
@@ -0,0 +1,213 @@
+package com.ilscipio.scipio.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.cache.UtilCache;
+
+/**
+ * SCIPIO: Short-lived cache of Solr query responses, keyed on the core, the auth user and the normalized
+ * query parameters (solrconfig.properties <code>solr.query.cache.*</code>, off by default).
+ * <p>
+ * Since store, catalog and locale restrictions are part of the query parameters, responses are naturally scoped
+ * to them. Identical queries running at the same time are sent to Solr only once. The cache is cleared when the index
+ * updates of this server become visible: after an explicit commit, and once the commitWithin delay has passed (see
+ * {@link SolrUtil#getIndexCommitWithin()}). Uncommitted updates and changes made by other servers become visible on
+ * commits this server does not see, so they are only seen after the expire time, which bounds the staleness.
+ * <p>
+ * Responses are kept in javabin form and each caller gets its own decoded {@link QueryResponse}, so callers may modify it.
+ */
+public final class SolrQueryCache {
+
+    public static final String module = SolrQueryCache.class.getName();
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean(SolrUtil.solrConfigName, "solr.query.cache.enabled", false);
+    private static final long CLEAR_DELAY_MARGIN = 200;
+
+    private static final UtilCache<String, byte[]> cache = UtilCache.createUtilCache("solr.query.responses",
+            0, UtilProperties.getPropertyAsInteger(SolrUtil.solrConfigName, "solr.query.cache.maxSize", 2000),
+            UtilProperties.getPropertyAsLong(SolrUtil.solrConfigName, "solr.query.cache.expireTime", 10000), false, false);
+    private static final ConcurrentHashMap<String, FutureTask<byte[]>> inflight = new ConcurrentHashMap<>();
+    /** Incremented on each clear; responses of queries started before a clear are not cached. */
+    private static final AtomicLong generation = new AtomicLong();
+    private static final AtomicLong pendingClearTime = new AtomicLong();
+    private static volatile ScheduledExecutorService clearExecutor;
+
+    private SolrQueryCache() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Processes the query request, or returns the cached response of an identical request.
+     */
+    public static QueryResponse query(final SolrClient client, String core, final QueryRequest request) throws SolrServerException, IOException {
+        if (!ENABLED) {
+            return request.process(client);
+        }
+        final String key = makeKey(core, request);
+        byte[] data = cache.get(key);
+        if (data != null) {
+            return toResponse(data, client);
+        }
+        final long startGeneration = generation.get();
+        FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                byte[] data = toBytes(request.process(client));
+                if (generation.get() == startGeneration) {
+                    cache.put(key, data);
+                }
+                return data;
+            }
+        });
+        FutureTask<byte[]> existingTask = inflight.putIfAbsent(key, task);
+        if (existingTask == null) {
+            try {
+                task.run();
+            } finally {
+                inflight.remove(key, task);
+            }
+        } else {
+            task = existingTask;
+        }
+        try {
+            data = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SolrServerException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SolrServerException) {
+                throw (SolrServerException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SolrServerException(cause);
+        }
+        return toResponse(data, client);
+    }
+
+    private static byte[] toBytes(QueryResponse response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        new JavaBinCodec().marshal(response.getResponse(), out);
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static QueryResponse toResponse(byte[] data, SolrClient client) throws IOException {
+        return new QueryResponse((NamedList<Object>) new JavaBinCodec().unmarshal(new ByteArrayInputStream(data)), client);
+    }
+
+    /**
+     * Makes the key: parameter names are sorted, and so are filter query values (their order does not affect results).
+     */
+    private static String makeKey(String core, QueryRequest request) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(core != null ? core : "").append('\n');
+        if (request.getBasicAuthUser() != null) {
+            sb.append(request.getBasicAuthUser());
+        }
+        sb.append('\n');
+        sb.append(request.getPath() != null ? request.getPath() : "").append('\n');
+        SolrParams params = request.getParams();
+        Set<String> names = new TreeSet<>();
+        for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext();) {
+            names.add(it.next());
+        }
+        for (String name : names) {
+            String[] values = params.getParams(name);
+            if (values == null) {
+                continue;
+            }
+            if (CommonParams.FQ.equals(name) && values.length > 1) {
+                values = values.clone();
+                Arrays.sort(values);
+            }
+            for (String value : values) {
+                // length prefix keeps the key unambiguous whatever the value contains
+                sb.append(name).append('=').append(value.length()).append(':').append(value).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public static void clear() {
+        if (!ENABLED) {
+            return;
+        }
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    /**
+     * Clears the cache when an index update sent with the given commit policy (see {@link SolrUtil#getIndexCommitWithin()})
+     * becomes visible: now for an explicit commit, after the delay for commitWithin, when the new searcher should be open;
+     * until then the cached responses still match the index. Uncommitted updates are left to the expire time.
+     */
+    public static void clearAfterIndexUpdate(int commitWithin) {
+        if (!ENABLED || commitWithin == 0) {
+            return;
+        }
+        if (commitWithin < 0) {
+            clear();
+        } else {
+            long clearTime = System.currentTimeMillis() + commitWithin + CLEAR_DELAY_MARGIN;
+            long prevClearTime = pendingClearTime.get();
+            if (prevClearTime >= clearTime - CLEAR_DELAY_MARGIN || !pendingClearTime.compareAndSet(prevClearTime, clearTime)) {
+                return; // a clear is already scheduled late enough (or being scheduled)
+            }
+            getClearExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        clear();
+                    } catch (Throwable t) {
+                        Debug.logError(t, "Solr: Error clearing query cache", module);
+                    }
+                }
+            }, commitWithin + CLEAR_DELAY_MARGIN, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ScheduledExecutorService getClearExecutor() {
+        if (clearExecutor == null) {
+            synchronized (SolrQueryCache.class) {
+                if (clearExecutor == null) {
+                    clearExecutor = ExecutionPool.getScheduledExecutor(null, "Scipio-solr-query-cache", 1, 0, false);
+                }
+            }
+        }
+        return clearExecutor;
+    }
+}
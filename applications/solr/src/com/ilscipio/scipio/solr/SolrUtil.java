@@ -1,17 +1,23 @@
 package com.ilscipio.scipio.solr;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.transaction.Transaction;
 
 import org.apache.http.client.HttpClient;
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpClientUtil;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.client.solrj.request.SolrPing;
 import org.apache.solr.client.solrj.response.SolrPingResponse;
+import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.ofbiz.base.component.ComponentConfig;
 import org.ofbiz.base.component.ComponentConfig.WebappInfo;
@@ -41,6 +47,7 @@ public abstract class SolrUtil {
     private static final String solrWebappPath = UtilProperties.getPropertyValue(solrConfigName, "solr.webapp.path", "/solr");
     private static final String solrWebappServer = UtilProperties.getPropertyValue(solrConfigName, "solr.webapp.server", "default-server");
     private static final String solrDefaultCore = UtilProperties.getPropertyValue(solrConfigName, "solr.core.default");
+    private static final int indexCommitWithin = UtilProperties.getPropertyAsInteger(solrConfigName, "solr.index.commitWithin", 1000);
     
     private static final String effectiveConfigVersion = determineSolrConfigVersion(
             UtilProperties.getPropertyValue(solrConfigName, "solr.config.version"),
@@ -355,6 +362,61 @@ public abstract class SolrUtil {
         return false;
     }
 
+    /**
+     * Returns the default commit policy for index updates, solrconfig.properties <code>solr.index.commitWithin</code>:
+     * if greater than zero, updates are sent with this commitWithin (milliseconds) instead of being committed;
+     * if zero, they are not committed (left to the caller or the Solr autoCommit);
+     * if negative, each update is followed by an explicit commit.
+     */
+    public static int getIndexCommitWithin() {
+        return indexCommitWithin;
+    }
+
+    /**
+     * Adds documents to the index using the given commit policy (see {@link #getIndexCommitWithin()}).
+     */
+    public static void addToIndex(SolrClient client, Collection<SolrInputDocument> docs, int commitWithin) throws SolrServerException, IOException {
+        if (commitWithin > 0) {
+            client.add(docs, commitWithin);
+        } else {
+            client.add(docs);
+            if (commitWithin < 0) {
+                client.commit();
+            }
+        }
+        SolrQueryCache.clearAfterIndexUpdate(commitWithin);
+    }
+
+    /**
+     * Deletes documents from the index by unique key (productId) using the given commit policy (see {@link #getIndexCommitWithin()}).
+     */
+    public static void deleteFromIndexById(SolrClient client, List<String> ids, int commitWithin) throws SolrServerException, IOException {
+        if (commitWithin > 0) {
+            client.deleteById(ids, commitWithin);
+        } else {
+            client.deleteById(ids);
+            if (commitWithin < 0) {
+                client.commit();
+            }
+        }
+        SolrQueryCache.clearAfterIndexUpdate(commitWithin);
+    }
+
+    /**
+     * Deletes documents from the index by query using the given commit policy (see {@link #getIndexCommitWithin()}).
+     */
+    public static void deleteFromIndexByQuery(SolrClient client, String query, int commitWithin) throws SolrServerException, IOException {
+        if (commitWithin > 0) {
+            client.deleteByQuery(query, commitWithin);
+        } else {
+            client.deleteByQuery(query);
+            if (commitWithin < 0) {
+                client.commit();
+            }
+        }
+        SolrQueryCache.clearAfterIndexUpdate(commitWithin);
+    }
+
     /**
      * Returns a Solr client for making read-only queries.
      * <p>
@@ -472,7 +534,8 @@ public abstract class SolrUtil {
             this.clientMode = clientMode;
             this.solrUsername = UtilProperties.valueOrNull((String) configMap.get("login.username"));
             this.solrPassword = UtilProperties.valueOrNull((String) configMap.get("login.password"));
-            this.reuseClient = UtilProperties.asBoolean(configMap.get("reuseConnections"), false);
+            // NOTE: the documented property is reuseClient; reuseConnections was read previously
+            this.reuseClient = UtilProperties.asBoolean(configMap.get("reuseClient"), UtilProperties.asBoolean(configMap.get("reuseConnections"), false));
             this.connectTimeout = UtilProperties.asInteger(configMap.get("connectTimeout"));
             this.socketTimeout = UtilProperties.asInteger(configMap.get("socketTimeout"));
             this.noDelay = UtilProperties.asBoolean(configMap.get("noDelay"), true);
@@ -568,14 +631,18 @@ public abstract class SolrUtil {
             
             @Override
             public HttpSolrClient getClient(String url, String solrUsername, String solrPassword) {
-                return makeClient(connectConfig, url, solrUsername, solrPassword);
+                return makeClient(connectConfig, url, solrUsername, solrPassword, false);
             }
             
-            public static HttpSolrClient makeClient(SolrConnectConfig connectConfig, String url, String solrUsername, String solrPassword) {
-                if (Debug.verboseOn()) Debug.logVerbose("Solr: Creating new solr " + connectConfig.makeClientLogDesc(url,  solrUsername), module);
+            /**
+             * Makes a new client; if shared, its close method does nothing, so that the callers
+             * that close the clients they get (all the services) leave the connection pool open.
+             */
+            public static HttpSolrClient makeClient(SolrConnectConfig connectConfig, String url, String solrUsername, String solrPassword, boolean shared) {
+                if (Debug.verboseOn()) Debug.logVerbose("Solr: Creating new solr " + (shared ? "shared " : "") + connectConfig.makeClientLogDesc(url,  solrUsername), module);
                 return ScipioHttpSolrClient.create(url, null, solrUsername, solrPassword,
                             connectConfig.getMaxConnections(), connectConfig.getMaxConnectionsPerHost(),
-                            connectConfig.getConnectTimeout(), connectConfig.getSocketTimeout());
+                            connectConfig.getConnectTimeout(), connectConfig.getSocketTimeout(), shared);
             }
         }
         
@@ -602,7 +669,7 @@ public abstract class SolrUtil {
                         (connectConfig.getSolrCoreUrl() + ":" + connectConfig.getSolrUsername() + ":" + connectConfig.getSolrPassword()) 
                         : connectConfig.getSolrCoreUrl();
                 HttpSolrClient defaultClient = NewSolrClientFactory.makeClient(connectConfig, connectConfig.getSolrCoreUrl(), 
-                        connectConfig.getSolrUsername(), connectConfig.getSolrPassword());  
+                        connectConfig.getSolrUsername(), connectConfig.getSolrPassword(), true);  
                 return new CachedSolrClientFactory(connectConfig, defaultClientCacheKey, defaultClient);
             }
             
@@ -619,7 +686,7 @@ public abstract class SolrUtil {
                     synchronized(this) {
                         client = clientCache.get(cacheKey);
                         if (client == null) {
-                            client = NewSolrClientFactory.makeClient(connectConfig, url, solrUsername, solrPassword);
+                            client = NewSolrClientFactory.makeClient(connectConfig, url, solrUsername, solrPassword, true);
                             // use immutable map pattern for performance (the map only ever contains a few entries)
                             Map<String, HttpSolrClient> newCache = new HashMap<>(clientCache);
                             newCache.put(cacheKey, client);
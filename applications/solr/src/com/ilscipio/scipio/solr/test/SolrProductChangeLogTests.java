@@ -0,0 +1,123 @@
+package com.ilscipio.scipio.solr.test;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ilscipio.scipio.solr.SolrProductChangeLog;
+import com.ilscipio.scipio.solr.SolrProductIndexQueue;
+import com.ilscipio.scipio.solr.SolrUtil;
+
+/**
+ * SCIPIO: SolrProductChangeLog tests against the SPCHG_TEST_* records of SolrProductChangeLogTestData.xml.
+ * <p>
+ * The indexSolrProductChanges tests need solr.index.changeLog.enabled and a running Solr; they do nothing otherwise.
+ */
+public class SolrProductChangeLogTests extends OFBizTestCase {
+
+    public static final String module = SolrProductChangeLogTests.class.getName();
+
+    protected GenericValue userLogin = null;
+
+    public SolrProductChangeLogTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    private boolean isIndexChangesEnabled() {
+        boolean solrReady;
+        try {
+            solrReady = SolrUtil.isSolrWebappReady();
+        } catch (Exception e) {
+            solrReady = false;
+        }
+        if (!SolrProductChangeLog.isEnabled() || !solrReady || !SolrUtil.isSolrEcaWebappInitCheckPassed()) {
+            Debug.logWarning("Solr change log disabled or Solr not ready; skipping test", module);
+            return false;
+        }
+        return true;
+    }
+
+    private void createChange(String changeId, String productId) throws Exception {
+        delegator.create("SolrProductChange", UtilMisc.toMap("changeId", changeId, "productId", productId,
+                "changeDate", new Timestamp(System.currentTimeMillis() - 1000)));
+    }
+
+    private List<GenericValue> findTestChanges() throws Exception {
+        return EntityQuery.use(delegator).from("SolrProductChange")
+                .where(EntityCondition.makeCondition("changeId", EntityOperator.LIKE, "SPCHG_TEST_%")).queryList();
+    }
+
+    private Map<String, Object> indexChanges() throws Exception {
+        Map<String, Object> result = dispatcher.runSync("indexSolrProductChanges", UtilMisc.<String, Object>toMap("userLogin", userLogin));
+        assertTrue("indexSolrProductChanges success: " + ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        return result;
+    }
+
+    public void testIndexChanges() throws Exception {
+        if (!isIndexChangesEnabled()) {
+            return;
+        }
+        try {
+            createChange("SPCHG_TEST_1", "SPCHG_TEST_VARIANT");
+            createChange("SPCHG_TEST_2", "SPCHG_TEST_VARIANT");
+            createChange("SPCHG_TEST_3", "SPCHG_TEST_REMOVED"); // no such product: removed from the index
+            Map<String, Object> result = indexChanges();
+            assertTrue("Changed product indexed", (Integer) result.get("numIndexed") >= 1);
+            assertTrue("Missing product removed", (Integer) result.get("numRemoved") >= 1);
+            assertTrue("Indexed changes removed from the log", findTestChanges().isEmpty());
+        } finally {
+            delegator.removeAll(findTestChanges());
+        }
+    }
+
+    public void testChangesKeptWhilePaused() throws Exception {
+        if (!isIndexChangesEnabled()) {
+            return;
+        }
+        SolrProductIndexQueue indexQueue = SolrProductIndexQueue.getInstance(null);
+        try {
+            createChange("SPCHG_TEST_4", "SPCHG_TEST_VARIANT");
+            indexQueue.pause(); // as during rebuildSolrIndex
+            try {
+                indexChanges();
+                assertEquals("Changes kept during a rebuild", 1, findTestChanges().size());
+            } finally {
+                indexQueue.resume();
+            }
+            indexChanges();
+            assertTrue("Changes indexed after the rebuild", findTestChanges().isEmpty());
+        } finally {
+            delegator.removeAll(findTestChanges());
+        }
+    }
+
+    public void testAffectedProductIds() throws Exception {
+        GenericValue feature = EntityQuery.use(delegator).from("ProductFeature").where("productFeatureId", "SPCHG_TEST_FEATURE").queryOne();
+        assertEquals("Feature change affects its products and their variants", UtilMisc.toSet("SPCHG_TEST_VIRTUAL", "SPCHG_TEST_VARIANT"),
+                SolrProductChangeLog.getAffectedProductIds(delegator, feature));
+        GenericValue product = EntityQuery.use(delegator).from("Product").where("productId", "SPCHG_TEST_VIRTUAL").queryOne();
+        assertEquals("Virtual product change affects its variants", UtilMisc.toSet("SPCHG_TEST_VIRTUAL", "SPCHG_TEST_VARIANT"),
+                SolrProductChangeLog.getAffectedProductIds(delegator, product));
+        product = EntityQuery.use(delegator).from("Product").where("productId", "SPCHG_TEST_VARIANT").queryOne();
+        assertEquals("Variant change affects the variant only", UtilMisc.toSet("SPCHG_TEST_VARIANT"),
+                SolrProductChangeLog.getAffectedProductIds(delegator, product));
+    }
+}
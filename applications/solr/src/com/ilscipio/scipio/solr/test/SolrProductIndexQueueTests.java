@@ -0,0 +1,74 @@
+package com.ilscipio.scipio.solr.test;
+
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ilscipio.scipio.solr.SolrProductIndexQueue;
+
+/**
+ * SCIPIO: Checks that the Solr index queue ({@link SolrProductIndexQueue}) coalesces the updates of a product,
+ * holds them while paused and sends them once resumed.
+ * <p>
+ * The test products do not exist, so the updates sent are removals of documents that are not in the index.
+ */
+public class SolrProductIndexQueueTests extends OFBizTestCase {
+
+    private static final long SEND_TIMEOUT_MILLIS = 30000;
+
+    protected GenericValue userLogin = null;
+
+    public SolrProductIndexQueueTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    private void enqueue(SolrProductIndexQueue queue, Boolean forceAdd, String productId) {
+        Map<String, Object> result = queue.enqueue(dispatcher.getDispatchContext(), UtilMisc.<String, Object>toMap("userLogin", userLogin),
+                forceAdd, productId);
+        assertTrue(ServiceUtil.isSuccess(result));
+    }
+
+    public void testHeldWhilePaused() throws Exception {
+        if (!SolrProductIndexQueue.isEnabled()) {
+            return;
+        }
+        SolrProductIndexQueue queue = SolrProductIndexQueue.getInstance(null);
+        int pendingCount = queue.getPendingCount();
+        queue.pause();
+        try {
+            assertTrue(queue.isPaused());
+            enqueue(queue, null, "SOLRQ_TEST_1");
+            enqueue(queue, null, "SOLRQ_TEST_2");
+            enqueue(queue, Boolean.FALSE, "SOLRQ_TEST_1");
+            assertEquals("Updates of the same product coalesced", pendingCount + 2, queue.getPendingCount());
+
+            queue.pause();
+            queue.resume();
+            assertTrue("Still paused after a nested resume", queue.isPaused());
+            Thread.sleep(200);
+            assertEquals("Nothing sent while paused", pendingCount + 2, queue.getPendingCount());
+        } finally {
+            queue.resume();
+        }
+        assertFalse(queue.isPaused());
+
+        long endTime = System.currentTimeMillis() + SEND_TIMEOUT_MILLIS;
+        while (queue.getPendingCount() > 0 && System.currentTimeMillis() < endTime) {
+            Thread.sleep(50);
+        }
+        assertEquals("Held updates sent after the resume", 0, queue.getPendingCount());
+    }
+}
@@ -0,0 +1,73 @@
+package com.ilscipio.scipio.solr.test;
+
+import java.util.Map;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ilscipio.scipio.solr.SolrProductIndexQueue;
+import com.ilscipio.scipio.solr.SolrUtil;
+
+/**
+ * SCIPIO: Checks that rebuildSolrIndex gives the same index sequentially, with several threads and, if
+ * <code>solr.index.rebuild.swapCore</code> is set, through the swap core; and that the index queue is resumed after it.
+ * <p>
+ * Needs a running Solr; does nothing otherwise.
+ */
+public class SolrRebuildTests extends OFBizTestCase {
+
+    public static final String module = SolrRebuildTests.class.getName();
+
+    protected GenericValue userLogin = null;
+
+    public SolrRebuildTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    private static boolean isSolrReady() {
+        try {
+            return SolrUtil.isSolrWebappReady();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private long rebuild(int threads, String swapCore) throws Exception {
+        Map<String, Object> result = dispatcher.runSync("rebuildSolrIndex", UtilMisc.<String, Object>toMap("userLogin", userLogin,
+                "threads", threads, "swapCore", swapCore));
+        assertTrue("rebuildSolrIndex success: " + ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        assertEquals(Boolean.TRUE, result.get("executed"));
+        assertFalse("Index queue resumed", SolrProductIndexQueue.getInstance(null).isPaused());
+        return SolrUtil.getQueryHttpSolrClient(null).query(new SolrQuery("*:*").setRows(0)).getResults().getNumFound();
+    }
+
+    public void testRebuild() throws Exception {
+        if (!isSolrReady()) {
+            Debug.logWarning("Solr not ready; skipping rebuildSolrIndex tests", module);
+            return;
+        }
+        long sequentialCount = rebuild(1, "");
+        assertEquals("Documents of a rebuild with 4 threads", sequentialCount, rebuild(4, ""));
+
+        String swapCore = UtilProperties.getPropertyValue(SolrUtil.solrConfigName, "solr.index.rebuild.swapCore");
+        if (UtilValidate.isNotEmpty(swapCore)) {
+            assertEquals("Documents of a rebuild through the swap core", sequentialCount, rebuild(4, swapCore));
+        }
+    }
+}
@@ -57,12 +57,14 @@ public class ScipioHttpSolrClient extends HttpSolrClient {
 
     protected final String solrUsername;
     protected final String solrPassword;
+    protected final boolean shared;
     
     protected ScipioHttpSolrClient(String baseURL, HttpClient httpClient, ResponseParser parser, boolean allowCompression,
-            ModifiableSolrParams invariantParams, String solrUsername, String solrPassword) {
+            ModifiableSolrParams invariantParams, String solrUsername, String solrPassword, boolean shared) {
         super(baseURL, httpClient, parser, allowCompression, invariantParams);
         this.solrUsername = solrUsername;
         this.solrPassword = solrPassword;
+        this.shared = shared;
     }
     
     /**
@@ -74,6 +76,16 @@ public class ScipioHttpSolrClient extends HttpSolrClient {
      */
     public static HttpSolrClient create(String baseURL, HttpClient httpClient, String solrUsername, String solrPassword, 
             Integer maxConnections, Integer maxConnectionsPerHost, Integer connectTimeout, Integer socketTimeout) {
+        return create(baseURL, httpClient, solrUsername, solrPassword, maxConnections, maxConnectionsPerHost, connectTimeout, socketTimeout, false);
+    }
+
+    /**
+     * Creates a new client from URL and username/password, where all operations will use
+     * the given auth; if shared, {@link #close()} does nothing, so the client (and its
+     * connection pool) stays usable after callers close it.
+     */
+    public static HttpSolrClient create(String baseURL, HttpClient httpClient, String solrUsername, String solrPassword, 
+            Integer maxConnections, Integer maxConnectionsPerHost, Integer connectTimeout, Integer socketTimeout, boolean shared) {
         
         if (httpClient == null) {
             ModifiableSolrParams params = new ModifiableSolrParams();
@@ -89,7 +101,7 @@ public class ScipioHttpSolrClient extends HttpSolrClient {
  
         // DEV NOTE: the defaults must match what HttpSolrClient.Builder does! Must keep up to date!
         HttpSolrClient client = new ScipioHttpSolrClient(baseURL, httpClient, new BinaryResponseParser(), 
-                false, new ModifiableSolrParams(), solrUsername, solrPassword);
+                false, new ModifiableSolrParams(), solrUsername, solrPassword, shared);
         
         // TODO: In Solr 7, these are deprecated and moved to Builder/constructor 
         if (connectTimeout != null) {
@@ -102,6 +114,23 @@ public class ScipioHttpSolrClient extends HttpSolrClient {
         return client;
     }
 
+    /**
+     * Closes the client, unless it is a shared client.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!shared) {
+            super.close();
+        }
+    }
+
+    /**
+     * Returns true if this is a long-lived client shared between callers, which {@link #close()} does not close.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
     /** 
      * Executes request.
      * <p>
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SCIPIO: Monotonic event counter. Lock-free ({@link LongAdder}).
+ */
+public final class Counter extends TaggedMetric {
+
+    /** Shared counter that records nothing, returned when the registry is disabled or full. */
+    static final Counter NOOP = new Counter("noop", false);
+
+    private final LongAdder count;
+
+    Counter(String name, boolean enabled, String... tags) {
+        super(name, tags);
+        this.count = enabled ? new LongAdder() : null;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.COUNTER;
+    }
+
+    public void inc() {
+        if (count != null) {
+            count.increment();
+        }
+    }
+
+    public void inc(long amount) {
+        if (count != null) {
+            count.add(amount);
+        }
+    }
+
+    public long getCount() {
+        return (count != null) ? count.sum() : 0;
+    }
+}
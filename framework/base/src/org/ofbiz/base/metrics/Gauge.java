@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import org.ofbiz.base.util.Debug;
+
+/**
+ * SCIPIO: Current value read from a {@link Source} when exported (queue depth, pool usage...).
+ */
+public final class Gauge extends TaggedMetric {
+
+    public static final String module = Gauge.class.getName();
+
+    /** Supplies the gauge value; called on each export, so must be cheap and thread-safe. */
+    public interface Source {
+        double getValue();
+    }
+
+    private final Source source;
+
+    Gauge(String name, Source source, String... tags) {
+        super(name, tags);
+        this.source = source;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.GAUGE;
+    }
+
+    /** Returns the current value, or NaN if the source failed. */
+    public double getValue() {
+        try {
+            return source.getValue();
+        } catch (RuntimeException e) {
+            Debug.logWarning("Could not read gauge " + this + ": " + e.toString(), module);
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SCIPIO: Lock-free histogram of non-negative values with log-linear buckets: exact up to 16, then 8 buckets
+ * per power of two (at most 12.5% relative error), up to 2^32 (larger values go to the last bucket).
+ * The unit is the caller's: milliseconds for the webapp hit latencies, microseconds for {@link Timer}.
+ * <p>
+ * Recording increments one bucket with a single atomic add in a stripe chosen by the recording thread,
+ * so concurrent recordings rarely touch the same memory. Stripes are allocated on first use,
+ * so a histogram recorded by one thread costs a single bucket array.
+ * <p>
+ * Reads ({@link #getSnapshot}) are not atomic across buckets; a snapshot taken during recording may miss
+ * hits recorded concurrently, which is acceptable for statistics.
+ */
+public final class Histogram {
+
+    private static final int LINEAR_LIMIT = 16; // values below are their own bucket
+    private static final int LINEAR_BITS = 4; // log2(LINEAR_LIMIT)
+    private static final int SUB_BUCKET_BITS = 3; // 8 sub-buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 31;
+
+    /** Number of buckets: the linear ones, then SUB_BUCKETS for each exponent from LINEAR_BITS to MAX_EXPONENT. */
+    public static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - LINEAR_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final int stripeMask;
+
+    /**
+     * @param stripeCount maximum number of stripes, rounded up to a power of two
+     */
+    public Histogram(int stripeCount) {
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+        this.stripes = new AtomicReferenceArray<>(count);
+        this.stripeMask = count - 1;
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (value < 0) ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the lowest value counted in the bucket. */
+    static long getBucketLowerBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = LINEAR_BITS + (index - LINEAR_LIMIT) / SUB_BUCKETS;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    /** Returns the highest value counted in the bucket. */
+    static long getBucketUpperBound(int index) {
+        if (index >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return getBucketLowerBound(index + 1) - 1;
+    }
+
+    /**
+     * Records one value.
+     */
+    public void record(long value) {
+        int stripeIndex = (int) (Thread.currentThread().getId() & stripeMask);
+        AtomicLongArray buckets = stripes.get(stripeIndex);
+        if (buckets == null) {
+            stripes.compareAndSet(stripeIndex, null, new AtomicLongArray(BUCKET_COUNT));
+            buckets = stripes.get(stripeIndex);
+        }
+        buckets.getAndIncrement(getBucketIndex(value));
+    }
+
+    /**
+     * Adds the bucket counts of all stripes to the given array (of {@link #BUCKET_COUNT} length).
+     */
+    public void addCountsTo(long[] counts) {
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray buckets = stripes.get(i);
+            if (buckets != null) {
+                for (int j = 0; j < BUCKET_COUNT; j++) {
+                    counts[j] += buckets.get(j);
+                }
+            }
+        }
+    }
+
+    public Snapshot getSnapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        addCountsTo(counts);
+        return new Snapshot(counts);
+    }
+
+    /**
+     * Bucket counts at a point in time, possibly merged from several histograms; answers percentile queries.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        public Snapshot(long[] counts) {
+            this.counts = counts;
+            long totalCount = 0;
+            for (long count : counts) {
+                totalCount += count;
+            }
+            this.totalCount = totalCount;
+        }
+
+        public long getCount() {
+            return totalCount;
+        }
+
+        /**
+         * Returns the value at the given percentile (0-100), as the upper bound of the bucket holding it
+         * (so never below the true value); 0 if empty.
+         */
+        public long getPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil((percentile / 100.0) * totalCount);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return getBucketUpperBound(i);
+                }
+            }
+            return getBucketUpperBound(counts.length - 1);
+        }
+
+        /** Returns the upper bound of the highest non-empty bucket; 0 if empty. */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return getBucketUpperBound(i);
+                }
+            }
+            return 0;
+        }
+
+        /** Returns the approximate mean, using bucket midpoints; 0 if empty. */
+        public double getMean() {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    long upper = (i >= counts.length - 1) ? getBucketLowerBound(i) : getBucketUpperBound(i);
+                    sum += counts[i] * ((getBucketLowerBound(i) + upper) / 2.0);
+                }
+            }
+            return sum / totalCount;
+        }
+    }
+}
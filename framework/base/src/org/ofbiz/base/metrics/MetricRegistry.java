@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * SCIPIO: Registry of tagged counters, gauges and timers (metrics.properties), exported in Prometheus
+ * text format by {@link PrometheusTextWriter}.
+ * <p>
+ * Unlike {@link MetricsFactory}, whose metrics are configured per request and service, these are created on
+ * first use by the instrumented code: <code>MetricRegistry.getDefault().counter("entity_operations", "entity", entityName)</code>.
+ * A metric is identified by its name and tags; tags are name/value pairs and must be passed in the same order by all
+ * callers of a metric. Lookups are a single concurrent map get.
+ * <p>
+ * When the registry is disabled (<code>metrics.registry.enabled=false</code>) or holds <code>metrics.registry.maxMetrics</code>
+ * metrics, the lookup methods return shared no-op metrics.
+ */
+public final class MetricRegistry {
+
+    public static final String module = MetricRegistry.class.getName();
+
+    public static final String RESOURCE = "metrics";
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean(RESOURCE, "metrics.registry.enabled", true);
+    private static final int MAX_METRICS = UtilProperties.getPropertyAsInteger(RESOURCE, "metrics.registry.maxMetrics", 10000);
+    private static final long TIMER_WINDOW_MILLIS = UtilProperties.getPropertyAsLong(RESOURCE, "metrics.timer.window.millis", 60000);
+    private static final int TIMER_WINDOW_SLOTS = UtilProperties.getPropertyAsInteger(RESOURCE, "metrics.timer.window.slots", 6);
+    private static final int TIMER_STRIPES = UtilProperties.getPropertyAsInteger(RESOURCE, "metrics.timer.stripes", 4);
+
+    private static final MetricRegistry DEFAULT = new MetricRegistry();
+
+    private final ConcurrentMap<String, TaggedMetric> metrics = new ConcurrentHashMap<>();
+    private volatile boolean maxMetricsWarned = false;
+
+    private MetricRegistry() {
+    }
+
+    public static MetricRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns true if the registry is enabled and the named instrumentation is on
+     * (<code>metrics.instrument.[name]</code>, default true); read once by the instrumented classes.
+     */
+    public static boolean isInstrumentationEnabled(String name) {
+        return ENABLED && UtilProperties.getPropertyAsBoolean(RESOURCE, "metrics.instrument." + name, true);
+    }
+
+    /** The window of the timer percentiles, in milliseconds. */
+    public static long getTimerWindowMillis() {
+        return TIMER_WINDOW_MILLIS;
+    }
+
+    private static String makeKey(String name, String... tags) {
+        if (tags == null || tags.length == 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name);
+        for (String tag : tags) {
+            sb.append('|').append(tag);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the counter of the name and tags, creating it on first use.
+     */
+    public Counter counter(String name, String... tags) {
+        if (!ENABLED) {
+            return Counter.NOOP;
+        }
+        String key = makeKey(name, tags);
+        TaggedMetric metric = metrics.get(key);
+        if (metric == null) {
+            metric = register(key, new Counter(name, true, tags));
+            if (metric == null) {
+                return Counter.NOOP;
+            }
+        }
+        return checkType(metric, Counter.class);
+    }
+
+    /**
+     * Returns the timer of the name and tags, with percentiles, creating it on first use.
+     */
+    public Timer timer(String name, String... tags) {
+        return timer(name, true, tags);
+    }
+
+    /**
+     * Returns the timer of the name and tags, creating it on first use; percentiles is only used on creation.
+     */
+    public Timer timer(String name, boolean percentiles, String... tags) {
+        if (!ENABLED) {
+            return Timer.NOOP;
+        }
+        String key = makeKey(name, tags);
+        TaggedMetric metric = metrics.get(key);
+        if (metric == null) {
+            SlidingHistogram histogram = percentiles ? new SlidingHistogram(TIMER_WINDOW_MILLIS, TIMER_WINDOW_SLOTS, TIMER_STRIPES) : null;
+            metric = register(key, new Timer(name, true, histogram, tags));
+            if (metric == null) {
+                return Timer.NOOP;
+            }
+        }
+        return checkType(metric, Timer.class);
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge of the same name and tags (e.g. when a pool is recreated).
+     * Returns null if the registry is disabled or full.
+     */
+    public Gauge gauge(String name, Gauge.Source source, String... tags) {
+        if (!ENABLED) {
+            return null;
+        }
+        String key = makeKey(name, tags);
+        Gauge gauge = new Gauge(name, source, tags);
+        TaggedMetric existing = metrics.get(key);
+        if (existing != null) {
+            checkType(existing, Gauge.class);
+            metrics.put(key, gauge);
+            return gauge;
+        }
+        TaggedMetric metric = register(key, gauge);
+        return (metric != null) ? checkType(metric, Gauge.class) : null;
+    }
+
+    /** Removes the metric of the name and tags; returns true if it was registered. */
+    public boolean remove(String name, String... tags) {
+        return metrics.remove(makeKey(name, tags)) != null;
+    }
+
+    private TaggedMetric register(String key, TaggedMetric metric) {
+        if (metrics.size() >= MAX_METRICS) {
+            if (!maxMetricsWarned) {
+                maxMetricsWarned = true;
+                Debug.logWarning("Metric registry limit (metrics.registry.maxMetrics=" + MAX_METRICS + ") reached; not registering "
+                        + metric + " or any new metric", module);
+            }
+            return null;
+        }
+        TaggedMetric existing = metrics.putIfAbsent(key, metric);
+        return (existing != null) ? existing : metric;
+    }
+
+    private static <M extends TaggedMetric> M checkType(TaggedMetric metric, Class<M> type) {
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + metric + " is already registered as a " + metric.getType());
+        }
+        return type.cast(metric);
+    }
+
+    /** Returns all metrics, sorted by name then tags. */
+    public List<TaggedMetric> getMetrics() {
+        List<TaggedMetric> result = new ArrayList<>(metrics.values());
+        Collections.sort(result, new Comparator<TaggedMetric>() {
+            @Override
+            public int compare(TaggedMetric first, TaggedMetric second) {
+                int result = first.getName().compareTo(second.getName());
+                return (result != 0) ? result : first.getTags().toString().compareTo(second.getTags().toString());
+            }
+        });
+        return result;
+    }
+
+    /** Returns the number of registered metrics. */
+    public int size() {
+        return metrics.size();
+    }
+
+    /** Returns the tags of the given name/value pairs as a sorted map, as held by the metrics. */
+    public static Map<String, String> makeTags(String... tags) {
+        return TaggedMetric.makeTags(tags);
+    }
+}
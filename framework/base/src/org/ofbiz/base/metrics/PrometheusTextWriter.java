@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * SCIPIO: Writes metrics in the Prometheus text exposition format (version 0.0.4).
+ * <p>
+ * Names get the configured prefix (<code>metrics.prometheus.prefix</code>); counters get the <code>_total</code>
+ * suffix and timers are written as summaries in seconds (<code>_seconds</code>, with <code>_count</code>,
+ * <code>_sum</code> and, if they have percentiles, quantiles over the timer window).
+ */
+public class PrometheusTextWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Quantiles written for timers and other summaries. */
+    protected static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Writer writer;
+    private final String prefix;
+    private String lastTypeName;
+
+    public PrometheusTextWriter(Writer writer, String prefix) {
+        this.writer = writer;
+        this.prefix = (prefix != null) ? prefix : "";
+    }
+
+    /** Writes every metric of the registry. */
+    public void writeRegistry(MetricRegistry registry) throws IOException {
+        long windowMillis = MetricRegistry.getTimerWindowMillis();
+        for (TaggedMetric metric : registry.getMetrics()) {
+            switch (metric.getType()) {
+            case COUNTER:
+                String counterName = metric.getName() + "_total";
+                writeType(counterName, "counter");
+                writeSample(counterName, metric.getTags(), null, null, ((Counter) metric).getCount());
+                break;
+            case GAUGE:
+                writeType(metric.getName(), "gauge");
+                writeSample(metric.getName(), metric.getTags(), null, null, ((Gauge) metric).getValue());
+                break;
+            case TIMER:
+                Timer timer = (Timer) metric;
+                writeSummary(metric.getName() + "_seconds", metric.getTags(), timer.getSnapshot(windowMillis), 1e-6,
+                        timer.getCount(), timer.getTotalNanos() / 1e9);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes a summary: quantiles from the snapshot (if not null) multiplied by unitSeconds, then count and sum.
+     */
+    public void writeSummary(String name, Map<String, String> tags, Histogram.Snapshot snapshot, double unitSeconds,
+            long count, double sum) throws IOException {
+        writeType(name, "summary");
+        if (snapshot != null && snapshot.getCount() > 0) {
+            for (double quantile : QUANTILES) {
+                writeSample(name, tags, "quantile", Double.toString(quantile), snapshot.getPercentile(quantile * 100) * unitSeconds);
+            }
+        }
+        writeSample(name + "_count", tags, null, null, count);
+        writeSample(name + "_sum", tags, null, null, sum);
+    }
+
+    /** Writes the TYPE line of the name, once per consecutive run of samples of the same name. */
+    public void writeType(String name, String type) throws IOException {
+        String fullName = prefix + name;
+        if (fullName.equals(lastTypeName)) {
+            return;
+        }
+        lastTypeName = fullName;
+        writer.write("# TYPE ");
+        writer.write(fullName);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    /** Writes one sample line; extraTag is an additional label (such as quantile), may be null. */
+    public void writeSample(String name, Map<String, String> tags, String extraTag, String extraTagValue, double value) throws IOException {
+        writer.write(prefix);
+        writer.write(name);
+        if (!tags.isEmpty() || extraTag != null) {
+            writer.write('{');
+            boolean first = true;
+            for (Map.Entry<String, String> entry : tags.entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writeTag(entry.getKey(), entry.getValue());
+                first = false;
+            }
+            if (extraTag != null) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writeTag(extraTag, extraTagValue);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(formatValue(value));
+        writer.write('\n');
+    }
+
+    private void writeTag(String name, String value) throws IOException {
+        writer.write(name);
+        writer.write("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                writer.write("\\\\");
+            } else if (c == '"') {
+                writer.write("\\\"");
+            } else if (c == '\n') {
+                writer.write("\\n");
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return (value > 0) ? "+Inf" : "-Inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /** Makes a metric name or label name valid for Prometheus, replacing invalid characters with underscores. */
+    public static String sanitizeName(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || (i > 0 && c >= '0' && c <= '9');
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+}
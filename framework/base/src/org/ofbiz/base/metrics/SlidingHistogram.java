@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SCIPIO: {@link Histogram} over a sliding time window, plus since creation.
+ * <p>
+ * The window is a ring of slots, each holding a histogram for a fixed time slice;
+ * a query for the last N milliseconds merges the slots that overlap it, so the window moves
+ * one slot length at a time. A slot is replaced with a fresh one (compare-and-set) the first time
+ * it is recorded to after its time slice has passed. Lock-free.
+ */
+public final class SlidingHistogram {
+
+    private final long slotMillis;
+    private final int stripeCount;
+    private final AtomicReferenceArray<Slot> slots;
+    private final Histogram sinceStart;
+
+    private static final class Slot {
+        private final long epoch;
+        private final Histogram histogram;
+
+        Slot(long epoch, int stripeCount) {
+            this.epoch = epoch;
+            this.histogram = new Histogram(stripeCount);
+        }
+    }
+
+    public SlidingHistogram(long windowMillis, int slotCount, int stripeCount) {
+        this.slotMillis = Math.max(1, windowMillis / slotCount);
+        this.stripeCount = stripeCount;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.sinceStart = new Histogram(stripeCount);
+    }
+
+    /** The longest window that can be queried, in milliseconds. */
+    public long getMaxWindowMillis() {
+        return slotMillis * slots.length();
+    }
+
+    /**
+     * Records one value at the current time.
+     */
+    public void record(long value) {
+        long epoch = System.currentTimeMillis() / slotMillis;
+        int index = (int) (epoch % slots.length());
+        Slot slot = slots.get(index);
+        while (slot == null || slot.epoch != epoch) {
+            if (slot != null && slot.epoch > epoch) {
+                // another thread already moved to a later slice (clock race); count it there
+                break;
+            }
+            Slot newSlot = new Slot(epoch, stripeCount);
+            if (slots.compareAndSet(index, slot, newSlot)) {
+                slot = newSlot;
+            } else {
+                slot = slots.get(index);
+            }
+        }
+        slot.histogram.record(value);
+        sinceStart.record(value);
+    }
+
+    /**
+     * Returns the distribution over the last windowMillis milliseconds (rounded up to whole slots, at most
+     * {@link #getMaxWindowMillis}); windowMillis &lt;= 0 returns the distribution since creation.
+     */
+    public Histogram.Snapshot getSnapshot(long windowMillis) {
+        if (windowMillis <= 0) {
+            return sinceStart.getSnapshot();
+        }
+        long currentEpoch = System.currentTimeMillis() / slotMillis;
+        long slotSpan = Math.min(slots.length(), (windowMillis + slotMillis - 1) / slotMillis);
+        long[] counts = new long[Histogram.BUCKET_COUNT];
+        for (int i = 0; i < slots.length(); i++) {
+            Slot slot = slots.get(i);
+            if (slot != null && slot.epoch > currentEpoch - slotSpan && slot.epoch <= currentEpoch) {
+                slot.histogram.addCountsTo(counts);
+            }
+        }
+        return new Histogram.Snapshot(counts);
+    }
+}
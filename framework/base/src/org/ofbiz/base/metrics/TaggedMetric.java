@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SCIPIO: A metric of the {@link MetricRegistry}: a name plus tags (label name/value pairs,
+ * such as <code>entity=Product</code>), which together identify one time series.
+ */
+public abstract class TaggedMetric {
+
+    public enum Type {
+        COUNTER,
+        GAUGE,
+        TIMER
+    }
+
+    private final String name;
+    private final Map<String, String> tags;
+
+    protected TaggedMetric(String name, String... tags) {
+        this.name = name;
+        this.tags = makeTags(tags);
+    }
+
+    static Map<String, String> makeTags(String... tags) {
+        if (tags == null || tags.length == 0) {
+            return Collections.emptyMap();
+        }
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Metric tags must be name/value pairs: " + Arrays.toString(tags));
+        }
+        Map<String, String> tagMap = new TreeMap<>();
+        for (int i = 0; i < tags.length; i += 2) {
+            tagMap.put(tags[i], (tags[i + 1] != null) ? tags[i + 1] : "");
+        }
+        return Collections.unmodifiableMap(tagMap);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Returns the tags, sorted by name. */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    public abstract Type getType();
+
+    @Override
+    public String toString() {
+        return name + tags;
+    }
+}
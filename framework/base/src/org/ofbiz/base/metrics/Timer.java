@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SCIPIO: Duration metric: count and total time since creation, plus optionally a percentile histogram
+ * in microseconds over a sliding window ({@link SlidingHistogram}). Lock-free.
+ * <p>
+ * Timers without percentiles cost two {@link LongAdder}s, so they suit high-cardinality tags (one per entity);
+ * timers with percentiles cost a few KB each while recorded to.
+ */
+public final class Timer extends TaggedMetric {
+
+    /** Shared timer that records nothing, returned when the registry is disabled or full. */
+    static final Timer NOOP = new Timer("noop", false, null);
+
+    private final LongAdder count;
+    private final LongAdder totalNanos;
+    private final SlidingHistogram histogram;
+
+    Timer(String name, boolean enabled, SlidingHistogram histogram, String... tags) {
+        super(name, tags);
+        this.count = enabled ? new LongAdder() : null;
+        this.totalNanos = enabled ? new LongAdder() : null;
+        this.histogram = histogram;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.TIMER;
+    }
+
+    public void update(long duration, TimeUnit unit) {
+        updateNanos(unit.toNanos(duration));
+    }
+
+    /** Records the time elapsed since the given {@link System#nanoTime} value. */
+    public void updateSince(long startNanos) {
+        updateNanos(System.nanoTime() - startNanos);
+    }
+
+    public void updateNanos(long nanos) {
+        if (count == null) {
+            return;
+        }
+        count.increment();
+        totalNanos.add(nanos);
+        if (histogram != null) {
+            histogram.record(nanos / 1000);
+        }
+    }
+
+    public long getCount() {
+        return (count != null) ? count.sum() : 0;
+    }
+
+    public long getTotalNanos() {
+        return (totalNanos != null) ? totalNanos.sum() : 0;
+    }
+
+    public boolean hasPercentiles() {
+        return histogram != null;
+    }
+
+    /**
+     * Returns the distribution in microseconds over the last windowMillis milliseconds (&lt;= 0 for since creation),
+     * or null if the timer has no percentiles.
+     */
+    public Histogram.Snapshot getSnapshot(long windowMillis) {
+        return (histogram != null) ? histogram.getSnapshot(windowMillis) : null;
+    }
+}
@@ -0,0 +1,92 @@
+package org.ofbiz.base.metrics.test;
+
+import org.ofbiz.base.metrics.Histogram;
+import org.ofbiz.base.metrics.SlidingHistogram;
+import org.ofbiz.base.test.GenericTestCaseBase;
+
+/**
+ * SCIPIO: Histogram bucket and percentile tests.
+ */
+public class HistogramTests extends GenericTestCaseBase {
+    public static final String module = HistogramTests.class.getName();
+
+    public HistogramTests(String name) {
+        super(name);
+    }
+
+    private static long singleValueBound(long value) {
+        Histogram histogram = new Histogram(1);
+        histogram.record(value);
+        return histogram.getSnapshot().getPercentile(100);
+    }
+
+    public void testLinearBuckets() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals("exact value " + value, value, singleValueBound(value));
+        }
+        assertEquals("negative value in the first bucket", 0, singleValueBound(-5));
+    }
+
+    public void testLogBuckets() {
+        assertEquals("first log bucket", 17, singleValueBound(16));
+        assertEquals("first log bucket", 17, singleValueBound(17));
+        assertEquals(19, singleValueBound(18));
+        assertEquals(103, singleValueBound(96));
+        assertEquals(103, singleValueBound(100));
+        assertEquals(111, singleValueBound(104));
+        assertEquals(1151, singleValueBound(1024));
+        assertEquals("beyond 2^32", Long.MAX_VALUE, singleValueBound(1L << 40));
+        for (long value = 16; value < (1L << 32); value = value * 3 / 2 + 1) {
+            long bound = singleValueBound(value);
+            assertTrue("bound of " + value + " not below it", bound >= value);
+            assertTrue("bound of " + value + " within 12.5%", bound - value <= value / 8);
+        }
+    }
+
+    public void testPercentiles() {
+        Histogram histogram = new Histogram(4);
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        Histogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals("p0 is the lowest value", 1, snapshot.getPercentile(0));
+        assertEquals("p10 in the linear buckets", 10, snapshot.getPercentile(10));
+        assertEquals("p50 is the bound of the 48-51 bucket", 51, snapshot.getPercentile(50));
+        assertEquals("p99 is the bound of the 96-103 bucket", 103, snapshot.getPercentile(99));
+        assertEquals(103, snapshot.getPercentile(100));
+        assertEquals(103, snapshot.getMax());
+        assertEquals("mean from bucket midpoints", 50.5, snapshot.getMean(), 50.5 / 8);
+
+        Histogram.Snapshot empty = new Histogram(1).getSnapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getPercentile(99));
+        assertEquals(0, empty.getMax());
+        assertEquals(0.0, empty.getMean(), 0.0);
+    }
+
+    public void testMergedSnapshot() {
+        Histogram first = new Histogram(1);
+        Histogram second = new Histogram(2);
+        first.record(5);
+        second.record(5);
+        second.record(1000);
+        long[] counts = new long[Histogram.BUCKET_COUNT];
+        first.addCountsTo(counts);
+        second.addCountsTo(counts);
+        Histogram.Snapshot snapshot = new Histogram.Snapshot(counts);
+        assertEquals(3, snapshot.getCount());
+        assertEquals(5, snapshot.getPercentile(66));
+        assertEquals(1023, snapshot.getPercentile(67));
+    }
+
+    public void testSlidingHistogram() {
+        SlidingHistogram histogram = new SlidingHistogram(60000, 10, 2);
+        assertEquals(60000, histogram.getMaxWindowMillis());
+        histogram.record(3);
+        histogram.record(7);
+        assertEquals(2, histogram.getSnapshot(60000).getCount());
+        assertEquals("since creation", 2, histogram.getSnapshot(0).getCount());
+        assertEquals(7, histogram.getSnapshot(0).getMax());
+    }
+}
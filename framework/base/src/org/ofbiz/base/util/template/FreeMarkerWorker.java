@@ -350,6 +350,7 @@ public class FreeMarkerWorker {
 
     public static void clearTemplateFromCache(String templateLocation) {
         cachedTemplates.remove(templateLocation);
+        FtlSharedTemplateCache.getInstance().remove(templateLocation); // SCIPIO
     }
 
     /**
@@ -463,16 +464,30 @@ public class FreeMarkerWorker {
      * found in the cache, then one will be created.
      * <p>
      * SCIPIO: 2017-02-21: May now pass cache null to bypass caching.
+     * SCIPIO: On a cache miss, the template is taken from or stored in the {@link FtlSharedTemplateCache} of the configuration,
+     * so that caches using the same configuration parse each template only once.
      */
     public static Template getTemplate(String templateLocation, UtilCache<String, Template> cache, Configuration config) throws TemplateException, IOException {
         Template template = (cache != null) ? cache.get(templateLocation) : null;
         if (template == null) {
-            // only make the reader if we need it, and then close it right after!
-            Reader templateReader = makeReader(templateLocation);
-            try {
-                template = new Template(templateLocation, templateReader, config);
-            } finally { // SCIPIO: added finally
-                templateReader.close();
+            FtlSharedTemplateCache sharedCache = (cache != null) ? FtlSharedTemplateCache.getInstance() : null;
+            if (sharedCache != null) {
+                template = sharedCache.get(templateLocation, config, cache);
+            }
+            if (template == null) {
+                if (sharedCache != null) {
+                    sharedCache.track(templateLocation); // before reading, so changes during the read are seen
+                }
+                // only make the reader if we need it, and then close it right after!
+                Reader templateReader = makeReader(templateLocation);
+                try {
+                    template = new Template(templateLocation, templateReader, config);
+                } finally { // SCIPIO: added finally
+                    templateReader.close();
+                }
+                if (sharedCache != null) {
+                    template = sharedCache.putIfAbsentAndGet(templateLocation, config, template);
+                }
             }
             if (cache != null) {
                 template = cache.putIfAbsentAndGet(templateLocation, template);
@@ -794,7 +809,7 @@ public class FreeMarkerWorker {
      */
     static class FlexibleTemplateSource {
         protected String templateLocation = null;
-        protected Date createdDate = new Date();
+        protected Date createdDate = new Date(); // SCIPIO: NOTE: no longer used as modification time
 
         protected FlexibleTemplateSource() {}
         public FlexibleTemplateSource(String templateLocation) {
@@ -815,8 +830,12 @@ public class FreeMarkerWorker {
             return templateLocation;
         }
 
+        /**
+         * SCIPIO: Returns the modification time of the template file as of the last {@link FtlSharedTemplateCache} sweep,
+         * instead of the creation time of this source, which made FreeMarker reload the template on every update delay.
+         */
         public long getLastModified() {
-            return createdDate.getTime();
+            return FtlSharedTemplateCache.getInstance().getLastModified(templateLocation);
         }
     }
 
@@ -0,0 +1,208 @@
+package org.ofbiz.base.util.template;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.location.FlexibleLocation;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.cache.UtilCache;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+/**
+ * SCIPIO: Bounded cache of templates parsed from locations, shared by all the location caches passed to
+ * {@link FreeMarkerWorker#getTemplate(String, UtilCache, Configuration)} that use the same Configuration,
+ * plus tracking of template file modification times (cache.properties <code>template.ftl.sweep.*</code>).
+ * <p>
+ * Instead of re-reading templates when a location cache entry expires (or, for templates loaded by
+ * FreeMarker itself such as includes, on every template update delay), the modification times of the template
+ * files are checked by a background sweep every <code>template.ftl.sweep.interval</code> milliseconds; a changed
+ * file is removed from this cache and the registered location caches, and FreeMarker's own caches see the new
+ * modification time through the template loader. Templates not in files (e.g. in jars) are never reloaded.
+ * <p>
+ * Templates can be parsed ahead of use with {@link FreeMarkerWorker#getTemplate(String, UtilCache, Configuration)}
+ * (see the widget template preload container).
+ * With <code>template.ftl.sweep.interval=0</code>, nothing is shared and modification times are read on each check.
+ */
+public final class FtlSharedTemplateCache {
+
+    public static final String module = FtlSharedTemplateCache.class.getName();
+
+    private static final long SWEEP_INTERVAL = UtilProperties.getPropertyAsLong("cache", "template.ftl.sweep.interval", 5000);
+    private static final boolean ENABLED = (SWEEP_INTERVAL > 0);
+
+    private static final FtlSharedTemplateCache INSTANCE = new FtlSharedTemplateCache();
+
+    private final UtilCache<String, Template> cache = UtilCache.createUtilCache("template.ftl.shared", 0, 0, true);
+    /** Unique key prefixes of the configurations; NOTE: Configuration does not override equals. */
+    private final Map<Configuration, String> configKeys = new ConcurrentHashMap<>();
+    private final Set<UtilCache<String, Template>> locationCaches = Collections.newSetFromMap(new ConcurrentHashMap<UtilCache<String, Template>, Boolean>());
+    private final ConcurrentHashMap<String, TrackedSource> sources = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService sweepExecutor;
+
+    private FtlSharedTemplateCache() {
+    }
+
+    public static FtlSharedTemplateCache getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    private String getKey(Configuration config, String location) {
+        String configKey = configKeys.get(config);
+        if (configKey == null) {
+            synchronized (configKeys) {
+                configKey = configKeys.get(config);
+                if (configKey == null) {
+                    configKey = configKeys.size() + "::";
+                    configKeys.put(config, configKey);
+                }
+            }
+        }
+        return configKey.concat(location);
+    }
+
+    /**
+     * Returns the shared parsed template of the location for the configuration, or null; registers the location cache
+     * of the caller so changed templates are also removed from it.
+     */
+    public Template get(String location, Configuration config, UtilCache<String, Template> locationCache) {
+        if (!ENABLED) {
+            return null;
+        }
+        locationCaches.add(locationCache);
+        return cache.get(getKey(config, location));
+    }
+
+    /**
+     * Stores a template parsed from the location and returns the shared instance; call {@link #track} before reading the template.
+     */
+    public Template putIfAbsentAndGet(String location, Configuration config, Template template) {
+        if (!ENABLED) {
+            return template;
+        }
+        return cache.putIfAbsentAndGet(getKey(config, location), template);
+    }
+
+    /**
+     * Starts tracking the modification time of the template file of the location, if not already.
+     */
+    public void track(String location) {
+        if (ENABLED) {
+            getTrackedSource(location);
+        }
+    }
+
+    /**
+     * Returns the last modification time of the template at the location, as of the last sweep, or -1 if not a file.
+     */
+    public long getLastModified(String location) {
+        TrackedSource source = ENABLED ? getTrackedSource(location) : makeTrackedSource(location);
+        return source.lastModified;
+    }
+
+    private TrackedSource getTrackedSource(String location) {
+        TrackedSource source = sources.get(location);
+        if (source == null) {
+            source = makeTrackedSource(location);
+            TrackedSource prevSource = sources.putIfAbsent(location, source);
+            if (prevSource != null) {
+                source = prevSource;
+            } else if (source.file != null) {
+                checkStartSweep();
+            }
+        }
+        return source;
+    }
+
+    private static TrackedSource makeTrackedSource(String location) {
+        try {
+            URL url = FlexibleLocation.resolveLocation(location);
+            if (url != null && "file".equals(url.getProtocol())) {
+                File file = new File(url.toURI());
+                return new TrackedSource(file, file.lastModified());
+            }
+        } catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+            ; // not a file
+        }
+        return TrackedSource.NOT_FILE;
+    }
+
+    /**
+     * Removes the template of the location from this cache and the registered location caches.
+     */
+    public void remove(String location) {
+        for (String configKey : configKeys.values()) {
+            cache.remove(configKey.concat(location));
+        }
+        for (UtilCache<String, Template> locationCache : locationCaches) {
+            locationCache.remove(location);
+        }
+    }
+
+    private void checkStartSweep() {
+        if (sweepExecutor == null) {
+            synchronized (this) {
+                if (sweepExecutor == null) {
+                    ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null, "Scipio-ftl-sweep", 1, 0, false);
+                    executor.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            sweep();
+                        }
+                    }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+                    sweepExecutor = executor;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the modification times of all tracked template files and removes the changed ones.
+     */
+    private void sweep() {
+        try {
+            for (Map.Entry<String, TrackedSource> entry : sources.entrySet()) {
+                TrackedSource source = entry.getValue();
+                if (source.file == null) {
+                    continue;
+                }
+                long lastModified = source.file.lastModified();
+                if (lastModified != source.lastModified) {
+                    source.lastModified = lastModified;
+                    remove(entry.getKey());
+                    Debug.logInfo("Template changed; removed from caches: " + entry.getKey(), module);
+                }
+            }
+        } catch (Throwable t) {
+            // don't let the scheduled sweep die
+            Debug.logError(t, "Error checking template modification times", module);
+        }
+    }
+
+    private static final class TrackedSource {
+        private static final TrackedSource NOT_FILE = new TrackedSource(null, -1);
+
+        private final File file; // null if not a file
+        private volatile long lastModified;
+
+        private TrackedSource(File file, long lastModified) {
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+    }
+}
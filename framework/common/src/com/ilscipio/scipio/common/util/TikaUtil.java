@@ -1,6 +1,7 @@
 package com.ilscipio.scipio.common.util;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -16,6 +17,7 @@ import java.util.TreeSet;
 import org.apache.commons.lang.StringUtils;
 import org.apache.tika.detect.Detector;
 import org.apache.tika.detect.EncodingDetector;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
 import org.apache.tika.mime.MediaTypeRegistry;
@@ -141,6 +143,36 @@ public abstract class TikaUtil {
         }
     }
     
+    /**
+     * Finds media type (through Apache Tika library), based on filename and magic numbers, of a file,
+     * which is read as a stream (container formats such as zip are opened from the file, without copy).
+     * @throws IOException
+     */
+    public static MediaType findMediaType(File file, String fileName) throws IOException {
+        TikaInputStream tis = TikaInputStream.get(file.toPath());
+        try {
+            AutoDetectParser parser = new AutoDetectParser();
+            Detector detector = parser.getDetector();
+            Metadata md = new Metadata();
+            md.add(Metadata.RESOURCE_NAME_KEY, fileName);
+            return detector.detect(tis, md);
+        } finally {
+            try {
+                tis.close();
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+
+    public static MediaType findMediaTypeSafe(File file, String fileName) {
+        try {
+            return findMediaType(file, fileName);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public static MediaType findMediaTypeSafe(InputStream is, String fileName) {
         try {
             return findMediaType(is, fileName);
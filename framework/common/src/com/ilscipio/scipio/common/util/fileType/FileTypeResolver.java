@@ -1,5 +1,9 @@
 package com.ilscipio.scipio.common.util.fileType;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -43,6 +47,9 @@ public abstract class FileTypeResolver {
     public static final String AUDIO_TYPE = "AUDIO_OBJECT";
     public static final String DOCUMENT_TYPE = "DOCUMENT_OBJECT";
 
+    /** Bytes read from the head of files for manual detection (magic numbers), as for Tika. */
+    private static final int MANUAL_DETECTION_HEAD_SIZE = 64 * 1024;
+
     private static final ResolverConfig defaultResolverConfig = ResolverConfig.fromSettings("general.properties");
     
     protected final ResolverConfig resolverConfig;
@@ -89,26 +96,40 @@ public abstract class FileTypeResolver {
      * NOTE: some subclasses override this.
      */
     public GenericValue findMimeType(ByteBuffer byteBuffer, String fileName) throws GeneralException {
+        return findMimeType(byteBuffer, null, fileName);
+    }
+
+    /**
+     * Finds the MimeType of a file, as {@link #findMimeType(ByteBuffer, String)}, without loading it
+     * in memory: the library detection reads the file as a stream and the manual detection only its head.
+     * <p>
+     * NOTE: some subclasses override this.
+     */
+    public GenericValue findMimeType(File file, String fileName) throws GeneralException {
+        return findMimeType(null, file, fileName);
+    }
+
+    private GenericValue findMimeType(ByteBuffer byteBuffer, File file, String fileName) throws GeneralException {
         GenericValue mimeType = null;
         if (resolverConfig.isManualMediaTypeDetectionPrioritized()) {
             if (resolverConfig.isManualMediaTypeDetection()) {
-                mimeType = findMimeTypeManual(byteBuffer, fileName);
+                mimeType = findMimeTypeManual((file != null) ? readHead(file) : byteBuffer, fileName);
                 if (mimeType != null) {
                     return mimeType;
                 }
             }
             if (resolverConfig.isLibraryMediaTypeDetection()) {
-                mimeType = findMimeTypeLib(byteBuffer, fileName);
+                mimeType = (file != null) ? findMimeTypeLib(file, fileName) : findMimeTypeLib(byteBuffer, fileName);
             }
         } else {
             if (resolverConfig.isLibraryMediaTypeDetection()) {
-                mimeType = findMimeTypeLib(byteBuffer, fileName);
+                mimeType = (file != null) ? findMimeTypeLib(file, fileName) : findMimeTypeLib(byteBuffer, fileName);
                 if (mimeType != null) {
                     return mimeType;
                 }
             }
             if (resolverConfig.isManualMediaTypeDetection()) {
-                mimeType = findMimeTypeManual(byteBuffer, fileName);
+                mimeType = findMimeTypeManual((file != null) ? readHead(file) : byteBuffer, fileName);
                 if (mimeType == null) {
                     mimeType = findMimeTypeForExtension(FileTypeUtil.getFileExtension(fileName));
                 }
@@ -348,8 +369,17 @@ public abstract class FileTypeResolver {
      * Finds MimeType (through Apache Tika library), as string representation, based on filename and magic numbers.
      */
     protected GenericValue findMimeTypeLib(ByteBuffer byteBuffer, String fileName) throws GeneralException {
-        MediaType mediaType = TikaUtil.findMediaTypeSafe(byteBuffer, fileName);
-        
+        return findMimeTypeLib(TikaUtil.findMediaTypeSafe(byteBuffer, fileName));
+    }
+
+    /**
+     * Finds MimeType (through Apache Tika library) of a file, read as a stream.
+     */
+    protected GenericValue findMimeTypeLib(File file, String fileName) throws GeneralException {
+        return findMimeTypeLib(TikaUtil.findMediaTypeSafe(file, fileName));
+    }
+
+    private GenericValue findMimeTypeLib(MediaType mediaType) throws GeneralException {
         if (mediaType != null) {
             String mimeTypeId = TikaUtil.getMimeTypeId(mediaType);
             // SPECIAL: here we assume Tika identified the file correctly.
@@ -365,6 +395,23 @@ public abstract class FileTypeResolver {
         return TikaUtil.findEntityMimeTypeForMediaType(delegator, mediaType, true);
     }
     
+    /**
+     * Reads the head of the file for manual detection.
+     */
+    private static ByteBuffer readHead(File file) throws GeneralException {
+        byte[] head = new byte[(int) Math.min(file.length(), MANUAL_DETECTION_HEAD_SIZE)];
+        int length = 0;
+        try (InputStream is = new FileInputStream(file)) {
+            int read;
+            while (length < head.length && (read = is.read(head, length, head.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) {
+            throw new GeneralException("Could not read file " + file + ": " + e.getMessage(), e);
+        }
+        return ByteBuffer.wrap((length < head.length) ? Arrays.copyOf(head, length) : head);
+    }
+
     /**
      * Finds media type (through Apache Tika library), as string representation,
      * based on filename and magic numbers.
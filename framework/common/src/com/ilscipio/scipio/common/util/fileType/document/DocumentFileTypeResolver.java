@@ -1,5 +1,6 @@
 package com.ilscipio.scipio.common.util.fileType.document;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -50,8 +51,15 @@ public class DocumentFileTypeResolver extends FileTypeResolver {
 
     @Override
     public GenericValue findMimeType(ByteBuffer byteBuffer, String fileName) throws GeneralException {
-        GenericValue mimeType = super.findMimeType(byteBuffer, fileName);
-        
+        return getMimeTypeOrDefault(super.findMimeType(byteBuffer, fileName));
+    }
+
+    @Override
+    public GenericValue findMimeType(File file, String fileName) throws GeneralException {
+        return getMimeTypeOrDefault(super.findMimeType(file, fileName));
+    }
+
+    private GenericValue getMimeTypeOrDefault(GenericValue mimeType) throws GeneralException {
         // SPECIAL: for documents, if we couldn't determine a mime-type,
         // or the mime-type determined is not registered in MimeType entity,
         // just get as octet-stream.
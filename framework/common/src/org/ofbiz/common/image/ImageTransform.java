@@ -157,47 +157,30 @@ public class ImageTransform {
 
         /* SCALE FACTOR */
         // find the right Scale Factor related to the Image Dimensions
+        // SCIPIO: the computation is shared with getScaleFactor (see computeScaleFactor); the per-case zero checks are kept
         if (defaultHeight == -1) {
-            scaleFactor = defaultWidth / imgWidth;
-            if (scaleFactor == 0.0) {
+            if ((defaultWidth / imgWidth) == 0.0) {
                 String errMsg = UtilProperties.getMessage(resource, "ImageTransform.width_scale_factor_is_null", locale) + "  (defaultWidth = " + defaultWidth + "; imgWidth = " + imgWidth;
                 Debug.logError(errMsg, module);
                 result.put("errorMessage", errMsg);
                 return result;
             }
-        } else if (defaultWidth == -1) {
-            scaleFactor = defaultHeight / imgHeight;
-            if (scaleFactor == 0.0) {
-                String errMsg = UtilProperties.getMessage(resource, "ImageTransform.height_scale_factor_is_null", locale) + "  (defaultHeight = " + defaultHeight + "; imgHeight = " + imgHeight;
-                Debug.logError(errMsg, module);
-                result.put("errorMessage", errMsg);
-                return result;
-            }
-        } else if (imgHeight > imgWidth) {
-            scaleFactor = defaultHeight / imgHeight;
-            if (scaleFactor == 0.0) {
+        } else if (defaultWidth == -1 || imgHeight > imgWidth) {
+            if ((defaultHeight / imgHeight) == 0.0) {
                 String errMsg = UtilProperties.getMessage(resource, "ImageTransform.height_scale_factor_is_null", locale) + "  (defaultHeight = " + defaultHeight + "; imgHeight = " + imgHeight;
                 Debug.logError(errMsg, module);
                 result.put("errorMessage", errMsg);
                 return result;
             }
-            // get scaleFactor from the smallest width
-            if (defaultWidth < (imgWidth * scaleFactor)) {
-                scaleFactor = defaultWidth / imgWidth;
-            }
         } else {
-            scaleFactor = defaultWidth / imgWidth;
-            if (scaleFactor == 0.0) {
+            if ((defaultWidth / imgWidth) == 0.0) {
                 String errMsg = UtilProperties.getMessage(resource, "ImageTransform.width_scale_factor_is_null", locale) + "  (defaultWidth = " + defaultWidth + "; imgWidth = " + imgWidth;
                 Debug.logError(errMsg, module);
                 result.put("errorMessage", errMsg);
                 return result;
             }
-            // get scaleFactor from the smallest height
-            if (defaultHeight < (imgHeight * scaleFactor)) {
-                scaleFactor = defaultHeight / imgHeight;
-            }
         }
+        scaleFactor = computeScaleFactor(defaultHeight, defaultWidth, imgHeight, imgWidth);
 
         if (scaleFactor == 0.0) {
             String errMsg = UtilProperties.getMessage(resource, "ImageTransform.final_scale_factor_is_null", locale) + " = " + scaleFactor;
@@ -255,6 +238,48 @@ public class ImageTransform {
     public static Map<String, Object> scaleImage(BufferedImage bufImg, double imgHeight, double imgWidth, Map<String, Map<String, String>> dimensionMap, String sizeType, Locale locale) {
         return scaleImage(bufImg, imgHeight, imgWidth, dimensionMap, sizeType, locale, null);
     }
+
+    /**
+     * SCIPIO: Returns the factor {@link #scaleImage} applies to an image of the given dimensions for the given
+     * size type dimensions (<code>width</code> and/or <code>height</code>), or 0.0 if the dimensions are invalid.
+     * <p>
+     * Used to determine the target size of a variant before scaling it (see {@link ProgressiveImageScaler}).
+     */
+    public static double getScaleFactor(double imgHeight, double imgWidth, Map<String, String> dimensions) {
+        double defaultHeight = dimensions.containsKey("height") ? Double.parseDouble(dimensions.get("height")) : -1;
+        double defaultWidth = dimensions.containsKey("width") ? Double.parseDouble(dimensions.get("width")) : -1;
+        if (defaultHeight == 0.0 || defaultWidth == 0.0 || (defaultHeight == -1 && defaultWidth == -1)
+                || imgHeight <= 0.0 || imgWidth <= 0.0) {
+            return 0.0;
+        }
+        return computeScaleFactor(defaultHeight, defaultWidth, imgHeight, imgWidth);
+    }
+
+    /**
+     * SCIPIO: The scale factor computation of {@link #scaleImage}: fits the image in the size type dimensions
+     * (-1 for a missing dimension), using the smallest of the two factors when both are given.
+     */
+    private static double computeScaleFactor(double defaultHeight, double defaultWidth, double imgHeight, double imgWidth) {
+        double scaleFactor;
+        if (defaultHeight == -1) {
+            scaleFactor = defaultWidth / imgWidth;
+        } else if (defaultWidth == -1) {
+            scaleFactor = defaultHeight / imgHeight;
+        } else if (imgHeight > imgWidth) {
+            scaleFactor = defaultHeight / imgHeight;
+            // get scaleFactor from the smallest width
+            if (defaultWidth < (imgWidth * scaleFactor)) {
+                scaleFactor = defaultWidth / imgWidth;
+            }
+        } else {
+            scaleFactor = defaultWidth / imgWidth;
+            // get scaleFactor from the smallest height
+            if (defaultHeight < (imgHeight * scaleFactor)) {
+                scaleFactor = defaultHeight / imgHeight;
+            }
+        }
+        return scaleFactor;
+    }
     
     /**
      * getXMLValue
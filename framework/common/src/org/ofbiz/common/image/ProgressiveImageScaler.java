@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.common.image;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.common.image.ImageType.ImagePixelType;
+
+/**
+ * SCIPIO: Scales all the size variants of one decoded original image, scaling each variant from the smallest
+ * variant already produced that is at least <code>image.scale.progressive.minratio</code> times its size,
+ * instead of always from the full-size original (imagecommon.properties).
+ * <p>
+ * Callers should scale the variants largest first ({@link #sortLargestFirst}); results are the same
+ * maps as {@link ImageTransform#scaleImage}, and the target dimensions are always computed from the original.
+ * Intermediate variants are only reused if they have the pixel type of the original and it is not indexed,
+ * so that palette reduction never compounds. After each variant, the scaler only keeps the intermediates that
+ * would be the source of one of the size types of the dimension map not scaled yet, so the others can be freed
+ * as soon as the caller is done with them.
+ * <p>
+ * Not thread-safe; use one instance per original image.
+ */
+public class ProgressiveImageScaler {
+
+    public static final String module = ProgressiveImageScaler.class.getName();
+
+    private static final boolean PROGRESSIVE = UtilProperties.getPropertyAsBoolean(ImageUtil.IMAGECOMMON_PROP_RESOURCE,
+            ImageUtil.IMAGECOMMON_PROP_PREFIX + "scale.progressive", true);
+    private static final double MIN_RATIO = getMinRatio();
+
+    private final BufferedImage origImg;
+    private final double imgHeight;
+    private final double imgWidth;
+    private final Locale locale;
+    private final Map<String, Object> scalingOptions;
+    private final List<BufferedImage> intermediates = new ArrayList<>();
+    private final Set<String> scaledSizeTypes = new HashSet<>();
+
+    public ProgressiveImageScaler(BufferedImage origImg, Locale locale, Map<String, Object> scalingOptions) {
+        this.origImg = origImg;
+        this.imgHeight = origImg.getHeight();
+        this.imgWidth = origImg.getWidth();
+        this.locale = locale;
+        this.scalingOptions = scalingOptions;
+    }
+
+    private static double getMinRatio() {
+        String value = UtilProperties.getPropertyValue(ImageUtil.IMAGECOMMON_PROP_RESOURCE, ImageUtil.IMAGECOMMON_PROP_PREFIX + "scale.progressive.minratio", "2.0");
+        try {
+            double ratio = Double.parseDouble(value);
+            if (ratio >= 1.0) {
+                return ratio;
+            }
+        } catch (NumberFormatException e) {
+            ; // handled below
+        }
+        Debug.logWarning("Invalid image.scale.progressive.minratio: " + value + "; using 2.0", module);
+        return 2.0;
+    }
+
+    public static boolean isProgressive() {
+        return PROGRESSIVE;
+    }
+
+    /**
+     * Scales the original to the given size type, like {@link ImageTransform#scaleImage}, using the smallest suitable
+     * previously scaled variant as source.
+     */
+    public Map<String, Object> scaleImage(Map<String, Map<String, String>> dimensionMap, String sizeType) {
+        BufferedImage source = getSource(dimensionMap.get(sizeType));
+        if (source != origImg && ImageUtil.verboseOn()) {
+            Debug.logInfo("Scaling from " + source.getWidth() + "x" + source.getHeight() + " variant instead of "
+                    + origImg.getWidth() + "x" + origImg.getHeight() + " original", module);
+        }
+        Map<String, Object> result = ImageTransform.scaleImage(source, imgHeight, imgWidth, dimensionMap, sizeType, locale, scalingOptions);
+        scaledSizeTypes.add(sizeType);
+        if (PROGRESSIVE && "success".equals(result.get("responseMessage"))) {
+            BufferedImage scaledImg = (BufferedImage) result.get("bufferedImage");
+            if (scaledImg != origImg && isReusable(scaledImg)) {
+                intermediates.add(scaledImg);
+            }
+        }
+        releaseUnneeded(dimensionMap);
+        return result;
+    }
+
+    /**
+     * Drops the intermediates that no remaining size type of the map would be scaled from
+     * (BufferedImage equality is identity).
+     */
+    private void releaseUnneeded(Map<String, Map<String, String>> dimensionMap) {
+        if (intermediates.isEmpty()) {
+            return;
+        }
+        List<BufferedImage> needed = new ArrayList<>(intermediates.size());
+        for (Map.Entry<String, Map<String, String>> entry : dimensionMap.entrySet()) {
+            if (scaledSizeTypes.contains(entry.getKey())) {
+                continue;
+            }
+            BufferedImage source = getSource(entry.getValue());
+            if (source != origImg && !needed.contains(source)) {
+                needed.add(source);
+            }
+        }
+        intermediates.retainAll(needed);
+    }
+
+    private BufferedImage getSource(Map<String, String> dimensions) {
+        if (!PROGRESSIVE || intermediates.isEmpty() || dimensions == null) {
+            return origImg;
+        }
+        double scaleFactor = ImageTransform.getScaleFactor(imgHeight, imgWidth, dimensions);
+        if (scaleFactor <= 0.0) {
+            return origImg; // let scaleImage report the error
+        }
+        double minWidth = ((int) (imgWidth * scaleFactor)) * MIN_RATIO;
+        double minHeight = ((int) (imgHeight * scaleFactor)) * MIN_RATIO;
+        BufferedImage source = origImg;
+        for (BufferedImage intermediate : intermediates) {
+            if (intermediate.getWidth() >= minWidth && intermediate.getHeight() >= minHeight
+                    && intermediate.getWidth() < source.getWidth()) {
+                source = intermediate;
+            }
+        }
+        return source;
+    }
+
+    private boolean isReusable(BufferedImage scaledImg) {
+        return scaledImg.getType() == origImg.getType() && !ImagePixelType.isTypeIndexedOrCustom(origImg);
+    }
+
+    /**
+     * Returns the size types sorted by their scaled size for an original of the given dimensions, largest first,
+     * which is the order that lets {@link #scaleImage} reuse the most intermediates.
+     */
+    public static List<String> sortLargestFirst(Collection<String> sizeTypes, final Map<String, Map<String, String>> dimensionMap,
+            final double imgHeight, final double imgWidth) {
+        List<String> sorted = new ArrayList<>(sizeTypes);
+        if (!PROGRESSIVE) {
+            return sorted;
+        }
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                return Double.compare(getScaleFactor(second), getScaleFactor(first));
+            }
+            private double getScaleFactor(String sizeType) {
+                Map<String, String> dimensions = dimensionMap.get(sizeType);
+                return (dimensions != null) ? ImageTransform.getScaleFactor(imgHeight, imgWidth, dimensions) : 0.0;
+            }
+        });
+        return sorted;
+    }
+}
@@ -0,0 +1,77 @@
+package org.ofbiz.entity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ofbiz.base.metrics.MetricRegistry;
+import org.ofbiz.base.metrics.Timer;
+
+/**
+ * SCIPIO: Records datasource operations in the {@link MetricRegistry}: a per-operation duration timer with percentiles
+ * and a per-entity and operation count and time (metrics.properties <code>metrics.instrument.entity</code>).
+ * <p>
+ * The timers are looked up once per operation and entity and kept here, so recording a call does not build
+ * any registry key. Find operations through an {@link org.ofbiz.entity.util.EntityListIterator} are recorded
+ * when the iterator is closed, so their time includes reading the rows.
+ */
+public final class EntityMetrics {
+
+    public static final int CREATE = 0;
+    public static final int STORE = 1;
+    public static final int REMOVE = 2;
+    public static final int FIND = 3;
+    public static final int COUNT = 4;
+
+    private static final String[] operationNames = new String[] { "create", "store", "remove", "find", "count" };
+
+    private static final boolean enabled = MetricRegistry.isInstrumentationEnabled("entity");
+
+    private static final Timer[] operationTimers = new Timer[operationNames.length];
+    private static final Map<String, Timer[]> entityTimers = new ConcurrentHashMap<>();
+
+    private EntityMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records an operation of the given type on the entity that started at the given {@link System#nanoTime} value.
+     */
+    public static void record(int operation, String entityName, long startNanos) {
+        if (!enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        getOperationTimer(operation).updateNanos(nanos);
+        getEntityTimer(operation, entityName).updateNanos(nanos);
+    }
+
+    private static Timer getOperationTimer(int operation) {
+        // NOTE: racing threads get the same registered timer, so the unsynchronized cache is safe
+        Timer timer = operationTimers[operation];
+        if (timer == null) {
+            timer = MetricRegistry.getDefault().timer("entity_operation_duration", "operation", operationNames[operation]);
+            operationTimers[operation] = timer;
+        }
+        return timer;
+    }
+
+    private static Timer getEntityTimer(int operation, String entityName) {
+        Timer[] timers = entityTimers.get(entityName);
+        if (timers == null) {
+            timers = new Timer[operationNames.length];
+            Timer[] existing = entityTimers.putIfAbsent(entityName, timers);
+            if (existing != null) {
+                timers = existing;
+            }
+        }
+        Timer timer = timers[operation];
+        if (timer == null) {
+            timer = MetricRegistry.getDefault().timer("entity_duration", false, "entity", entityName, "operation", operationNames[operation]);
+            timers[operation] = timer;
+        }
+        return timer;
+    }
+}
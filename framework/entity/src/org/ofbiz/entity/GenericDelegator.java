@@ -787,7 +787,9 @@ public class GenericDelegator implements Delegator {
             }
 
             try {
+                long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
                 value = helper.create(value);
+                EntityMetrics.record(EntityMetrics.CREATE, value.getEntityName(), metricsStartNanos);
 
                 if (testMode) {
                     storeForTestRollback(new TestOperation(OperationType.INSERT, value));
@@ -814,7 +816,9 @@ public class GenericDelegator implements Delegator {
                     this.AtomicRefSequencer.get().forceBankRefresh(value.getEntityName(), 1);
 
                     value.setNextSeqId();
+                    long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
                     value = helper.create(value);
+                    EntityMetrics.record(EntityMetrics.CREATE, value.getEntityName(), metricsStartNanos);
                     if (Debug.infoOn()) {
                         Debug.logInfo("Successfully created new entity record on retry with a sequenced value [" + value.getPrimaryKey() + "], after getting refreshed bank for entity [" + value.getEntityName() + "]", module);
                     }
@@ -876,7 +880,9 @@ public class GenericDelegator implements Delegator {
                 createEntityAuditLogAll(value, false, false);
             }
 
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             value = helper.create(value);
+            EntityMetrics.record(EntityMetrics.CREATE, value.getEntityName(), metricsStartNanos);
 
             if (testMode) {
                 storeForTestRollback(new TestOperation(OperationType.INSERT, value));
@@ -989,7 +995,9 @@ public class GenericDelegator implements Delegator {
             if (testMode) {
                 removedEntity = this.findOne(primaryKey.getEntityName(), primaryKey, false);
             }
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             int num = helper.removeByPrimaryKey(primaryKey);
+            EntityMetrics.record(EntityMetrics.REMOVE, primaryKey.getEntityName(), metricsStartNanos);
 
             // doCacheClear
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_REMOVE, primaryKey, false);
@@ -1043,7 +1051,9 @@ public class GenericDelegator implements Delegator {
                 removedValue = this.findOne(value.getEntityName(), value.getPrimaryKey(), false);
             }
 
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             int num = helper.removeByPrimaryKey(value.getPrimaryKey());
+            EntityMetrics.record(EntityMetrics.REMOVE, value.getEntityName(), metricsStartNanos);
             // Need to call removedFromDatasource() here because the helper calls removedFromDatasource() on the PK instead of the GenericEntity.
             value.removedFromDatasource();
 
@@ -1107,7 +1117,9 @@ public class GenericDelegator implements Delegator {
                 removedEntities = this.findList(entityName, condition, null, null, null, false);
             }
 
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             int rowsAffected = helper.removeByCondition(this, modelEntity, condition);
+            EntityMetrics.record(EntityMetrics.REMOVE, entityName, metricsStartNanos);
             if (rowsAffected > 0) {
                 this.clearCacheLine(entityName);
             }
@@ -1189,7 +1201,9 @@ public class GenericDelegator implements Delegator {
                 updatedEntities = this.findList(entityName, condition, null, null, null, false);
             }
 
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             int rowsAffected =  helper.storeByCondition(this, modelEntity, fieldsToSet, condition);
+            EntityMetrics.record(EntityMetrics.STORE, entityName, metricsStartNanos);
             if (rowsAffected > 0) {
                 this.clearCacheLine(entityName);
             }
@@ -1237,7 +1251,9 @@ public class GenericDelegator implements Delegator {
                 updatedEntity = this.findOne(value.getEntityName(), value.getPrimaryKey(), false);
             }
 
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             int retVal = helper.store(value);
+            EntityMetrics.record(EntityMetrics.STORE, value.getEntityName(), metricsStartNanos);
 
             // doCacheClear
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_STORE, value, false);
@@ -1431,10 +1447,12 @@ public class GenericDelegator implements Delegator {
             GenericValue value = null;
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, primaryKey, false);
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             try {
                 value = helper.findByPrimaryKey(primaryKey);
             } catch (GenericEntityNotFoundException e) {
             }
+            EntityMetrics.record(EntityMetrics.FIND, entityName, metricsStartNanos);
             if (value != null) {
                 value.setDelegator(this);
             }
@@ -1544,7 +1562,9 @@ public class GenericDelegator implements Delegator {
 
         ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, dummyValue, false);
         GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
+        long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
         EntityListIterator eli = helper.findListIteratorByCondition(this, modelEntity, whereEntityCondition, havingEntityCondition, fieldsToSelect, orderBy, findOptions);
+        eli.setMetricsStart(modelEntity.getEntityName(), metricsStartNanos); // SCIPIO: recorded on close
         eli.setDelegator(this);
 
         ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, dummyValue, false);
@@ -1624,8 +1644,10 @@ public class GenericDelegator implements Delegator {
         if (havingEntityCondition != null) havingEntityCondition.checkCondition(modelViewEntity);
 
         GenericHelper helper = getEntityHelper(dynamicViewEntity.getOneRealEntityName());
+        long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
         EntityListIterator eli = helper.findListIteratorByCondition(this, modelViewEntity, whereEntityCondition,
                 havingEntityCondition, fieldsToSelect, orderBy, findOptions);
+        eli.setMetricsStart(modelViewEntity.getEntityName(), metricsStartNanos); // SCIPIO: recorded on close
         eli.setDelegator(this);
         //TODO: add decrypt fields
         return eli;
@@ -1658,7 +1680,9 @@ public class GenericDelegator implements Delegator {
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, dummyValue, false);
             GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
+            long metricsStartNanos = System.nanoTime(); // SCIPIO: metrics
             long count = helper.findCountByCondition(this, modelEntity, whereEntityCondition, havingEntityCondition, findOptions);
+            EntityMetrics.record(EntityMetrics.COUNT, modelEntity.getEntityName(), metricsStartNanos);
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, dummyValue, false);
             TransactionUtil.commit(beganTransaction);
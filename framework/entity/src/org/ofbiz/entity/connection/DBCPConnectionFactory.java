@@ -36,6 +36,8 @@ import org.apache.commons.dbcp2.managed.PoolableManagedConnectionFactory;
 import org.apache.commons.dbcp2.managed.XAConnectionFactory;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.ofbiz.base.metrics.Gauge;
+import org.ofbiz.base.metrics.MetricRegistry;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.entity.GenericEntityConfException;
 import org.ofbiz.entity.GenericEntityException;
@@ -57,6 +59,7 @@ public class DBCPConnectionFactory implements ConnectionFactory {
     // ManagedDataSource is useful to debug the usage of connections in the pool (must be verbose)
     // In case you don't want to be disturbed in the log (focusing on something else), it's still easy to comment out the line from DebugManagedDataSource
     protected static final ConcurrentHashMap<String, DebugManagedDataSource> dsCache = new ConcurrentHashMap<String, DebugManagedDataSource>();
+    private static final boolean instrumentMetrics = MetricRegistry.isInstrumentationEnabled("connectionpool"); // SCIPIO
 
     public Connection getConnection(GenericHelperInfo helperInfo, JdbcElement abstractJdbc) throws SQLException, GenericEntityException {
         String cacheKey = helperInfo.getHelperFullName();
@@ -152,12 +155,45 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         mds.setAccessToUnderlyingConnectionAllowed(true);
 
         // cache the pool
-        dsCache.putIfAbsent(cacheKey, mds);
+        if (dsCache.putIfAbsent(cacheKey, mds) == null && instrumentMetrics) {
+            registerMetrics(cacheKey, pool);
+        }
         mds = dsCache.get(cacheKey);
 
         return TransactionUtil.getCursorConnection(helperInfo, mds.getConnection());
     }
 
+    /**
+     * SCIPIO: Registers the pool usage gauges, tagged with the helper name (metrics.properties <code>metrics.instrument.connectionpool</code>).
+     */
+    private static void registerMetrics(String helperName, final GenericObjectPool<PoolableConnection> pool) {
+        MetricRegistry registry = MetricRegistry.getDefault();
+        registry.gauge("connection_pool_active", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return pool.getNumActive();
+            }
+        }, "pool", helperName);
+        registry.gauge("connection_pool_idle", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return pool.getNumIdle();
+            }
+        }, "pool", helperName);
+        registry.gauge("connection_pool_max", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return pool.getMaxTotal();
+            }
+        }, "pool", helperName);
+        registry.gauge("connection_pool_waiters", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return pool.getNumWaiters();
+            }
+        }, "pool", helperName);
+    }
+
     public void closeAll() {
         // no methods on the pool to shutdown; so just clearing for GC
         dsCache.clear();
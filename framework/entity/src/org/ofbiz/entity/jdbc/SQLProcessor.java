@@ -21,6 +21,7 @@ package org.ofbiz.entity.jdbc;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
 import java.sql.Blob;
@@ -45,6 +46,7 @@ import org.ofbiz.entity.datasource.GenericHelperInfo;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionFactoryLoader;
 import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.FileBinaryValue;
 
 /**
  * SQLProcessor - provides utility functions to ease database access
@@ -88,6 +90,9 @@ public class SQLProcessor {
     // / true in case the connection shall be closed.
     private boolean _bDeleteConnection = false;
 
+    /** SCIPIO: The streams passed to the prepared statement, closed with it */
+    private List<InputStream> _streams = null;
+
     /**
      * Construct an object based on the helper/datasource
      *
@@ -230,6 +235,17 @@ public class SQLProcessor {
             _ps = null;
         }
 
+        if (_streams != null) {
+            for (InputStream stream : _streams) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    Debug.logWarning(e.getMessage(), module);
+                }
+            }
+            _streams = null;
+        }
+
         if ((_connection != null) && _bDeleteConnection) {
             try {
                 _connection.close();
@@ -816,6 +832,29 @@ public class SQLProcessor {
         _ind++;
     }
 
+    /**
+     * SCIPIO: Set the next binding variable of the currently active prepared statement
+     * to stream the content of the file of 'field' to a BLOB; the stream is closed with the statement.
+     *
+     * @param field
+     *
+     * @throws SQLException
+     */
+    public void setBinaryStream(FileBinaryValue field) throws SQLException {
+        InputStream is;
+        try {
+            is = field.getInputStream();
+        } catch (IOException ex) {
+            throw new SQLException("Could not open file " + field.getFile() + " for streaming: " + ex.getMessage(), ex);
+        }
+        if (_streams == null) {
+            _streams = new ArrayList<InputStream>();
+        }
+        _streams.add(is);
+        _ps.setBinaryStream(_ind, is, field.getLength());
+        _ind++;
+    }
+
     /**
      * Set the next binding variable of the currently active prepared statement
      * to write the serialized data of 'field' to a Blob with the given bytes.
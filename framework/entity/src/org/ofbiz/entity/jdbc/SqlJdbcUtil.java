@@ -25,6 +25,7 @@ import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.ResultSet;
@@ -63,6 +64,7 @@ import org.ofbiz.entity.model.ModelFieldType;
 import org.ofbiz.entity.model.ModelFieldTypeReader;
 import org.ofbiz.entity.model.ModelKeyMap;
 import org.ofbiz.entity.model.ModelViewEntity;
+import org.ofbiz.entity.util.FileBinaryValue;
 
 /**
  * GenericDAO Utility methods for general tasks
@@ -789,9 +791,28 @@ public class SqlJdbcUtil {
             fieldValue = null;
         }
 
+        ModelField.EncryptMethod encryptMethod = modelField.getEncryptMethod();
+
+        // SCIPIO: file content streamed to a binary field (not for encrypted fields, which read the bytes)
+        if (fieldValue instanceof FileBinaryValue) {
+            if (encryptMethod.isEncrypted()) {
+                try {
+                    fieldValue = Files.readAllBytes(((FileBinaryValue) fieldValue).getFile().toPath());
+                } catch (IOException e) {
+                    throw new GenericDataSourceException("Could not read file value of field [" + modelField.getName() + "] of entity " + entityName, e);
+                }
+            } else {
+                try {
+                    sqlP.setBinaryStream((FileBinaryValue) fieldValue);
+                    return;
+                } catch (SQLException e) {
+                    throw new GenericDataSourceException("SQL Exception while setting value on field [" + modelField.getName() + "] of entity " + entityName + ": ", e);
+                }
+            }
+        }
+
         // ----- Try out the new handler code -----
 
-        ModelField.EncryptMethod encryptMethod = modelField.getEncryptMethod();
         if (encryptMethod.isEncrypted()) {
             fieldValue = sqlP.getDelegator().encryptFieldValue(entityName, encryptMethod, fieldValue);
         }
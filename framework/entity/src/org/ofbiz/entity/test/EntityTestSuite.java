@@ -18,12 +18,15 @@
  *******************************************************************************/
 package org.ofbiz.entity.test;
 
+import java.io.File;
 import java.math.BigDecimal;
+import java.nio.file.Files;
 import java.sql.Blob;
 import java.sql.Date;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -67,6 +70,7 @@ import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntitySaxReader;
 import org.ofbiz.entity.util.EntityUtil;
+import org.ofbiz.entity.util.FileBinaryValue;
 import org.ofbiz.entity.util.SequenceUtil;
 
 public class EntityTestSuite extends EntityTestCase {
@@ -923,6 +927,36 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * SCIPIO: Tests binary fields streamed from a file (FileBinaryValue), on create and on store.
+     */
+    public void testFileBinaryValue() throws Exception {
+        String id = "testFileBinaryValue";
+        byte[] b = new byte[300000];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) (i * 31);
+        }
+        File file = File.createTempFile("entitytest", ".bin");
+        try {
+            Files.write(file.toPath(), b);
+            GenericValue testValue = delegator.makeValue("TestFieldType", "testFieldTypeId", id);
+            testValue.set("blobField", new FileBinaryValue(file));
+            testValue.create();
+            testValue = EntityQuery.use(delegator).from("TestFieldType").where("testFieldTypeId", id).queryOne();
+            Blob blob = (Blob) testValue.get("blobField");
+            assertTrue("Blob read from entity is the file content (create)", Arrays.equals(b, blob.getBytes(1, (int) blob.length())));
+
+            testValue.set("byteArrayField", new FileBinaryValue(file));
+            testValue.store();
+            testValue = EntityQuery.use(delegator).from("TestFieldType").where("testFieldTypeId", id).queryOne();
+            assertTrue("Byte array read from entity is the file content (store)", Arrays.equals(b, (byte[]) testValue.get("byteArrayField")));
+            assertTrue("File kept after the store", file.exists());
+        } finally {
+            delegator.removeByAnd("TestFieldType", "testFieldTypeId", id);
+            file.delete();
+        }
+    }
+
     /*
      * This creates an string id from a number
      */
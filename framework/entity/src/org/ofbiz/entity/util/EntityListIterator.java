@@ -29,6 +29,7 @@ import java.util.ListIterator;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralRuntimeException;
 import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.EntityMetrics;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericResultSetClosedException;
 import org.ofbiz.entity.GenericValue;
@@ -64,6 +65,8 @@ public class EntityListIterator implements ListIterator<GenericValue> {
 
     private boolean haveShowHasNextWarning = false;
     private Integer resultSize = null;
+    private String metricsEntityName = null; // SCIPIO: metrics
+    private long metricsStartNanos;
 
     public EntityListIterator(SQLProcessor sqlp, ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) {
         this(sqlp, modelEntity, selectFields, modelFieldTypeReader, null, null, null, false);
@@ -89,6 +92,16 @@ public class EntityListIterator implements ListIterator<GenericValue> {
         this.modelFieldTypeReader = modelFieldTypeReader;
     }
 
+    /**
+     * SCIPIO: Makes {@link #close()} record the find in the {@link EntityMetrics}, timed from the given {@link System#nanoTime} value.
+     */
+    public void setMetricsStart(String entityName, long startNanos) {
+        if (EntityMetrics.isEnabled()) {
+            this.metricsEntityName = entityName;
+            this.metricsStartNanos = startNanos;
+        }
+    }
+
     public void setDelegator(Delegator delegator) {
         this.delegator = delegator;
     }
@@ -146,6 +159,11 @@ public class EntityListIterator implements ListIterator<GenericValue> {
     }
 
     public void close() throws GenericEntityException {
+        if (metricsEntityName != null) {
+            // SCIPIO: metrics: the find is timed from the query to the close, including reading the rows
+            EntityMetrics.record(EntityMetrics.FIND, metricsEntityName, metricsStartNanos);
+            metricsEntityName = null;
+        }
         if (closed) {
             //maybe not the best way: throw new GenericResultSetClosedException("This EntityListIterator has been closed, this operation cannot be performed");
             Debug.logWarning("This EntityListIterator for Entity [" + modelEntity==null?"":modelEntity.getEntityName() + "] has already been closed, not closing again.", module);
@@ -0,0 +1,51 @@
+package org.ofbiz.entity.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+/**
+ * SCIPIO: A value for a binary field (byte-array, blob or object type) read from a file when the entity is stored,
+ * which the entity engine passes to JDBC with <code>setBinaryStream</code> instead of <code>setBytes</code>, so that
+ * large files (such as uploads) can be stored in the database without being loaded in memory.
+ * <p>
+ * The file must exist until the insert or update statement is executed; it is not deleted by the entity engine.
+ * The value is only meant for storing: it is not read back into the GenericValue it was set on.
+ */
+@SuppressWarnings("serial")
+public final class FileBinaryValue implements Serializable {
+
+    private final File file;
+    private final long length;
+
+    public FileBinaryValue(File file) {
+        this.file = file;
+        this.length = file.length();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the length of the file when this value was created.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Opens a new stream on the file; the caller must close it.
+     */
+    public InputStream getInputStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public String toString() {
+        return "[FileBinaryValue: " + file + " (" + length + " bytes)]";
+    }
+}
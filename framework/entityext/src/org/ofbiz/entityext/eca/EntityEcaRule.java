@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
 import org.ofbiz.entity.Delegator;
@@ -50,6 +51,7 @@ public final class EntityEcaRule implements java.io.Serializable {
     private final List<EntityEcaCondition> conditions;
     private final List<Object> actionsAndSets;
     private boolean enabled = true;
+    private final boolean propertyEnabled; // SCIPIO: enabled-property
     private final List<String> conditionFieldNames  = new ArrayList<String>();
 
     public EntityEcaRule(Element eca) {
@@ -57,6 +59,7 @@ public final class EntityEcaRule implements java.io.Serializable {
         this.operationName = eca.getAttribute("operation");
         this.eventName = eca.getAttribute("event");
         this.runOnError = "true".equals(eca.getAttribute("run-on-error"));
+        this.propertyEnabled = isPropertyEnabled(eca.getAttribute("enabled-property"));
         ArrayList<EntityEcaCondition> conditions = new ArrayList<EntityEcaCondition>();
         ArrayList<Object> actionsAndSets = new ArrayList<Object>();
         for (Element element: UtilXml.childElementList(eca)) {
@@ -86,6 +89,22 @@ public final class EntityEcaRule implements java.io.Serializable {
         }
     }
 
+    /**
+     * SCIPIO: Returns the value of the enabled-property attribute ("resource#property-name"), true if not set.
+     */
+    private boolean isPropertyEnabled(String enabledProperty) {
+        if (enabledProperty.isEmpty()) {
+            return true;
+        }
+        int sepIndex = enabledProperty.indexOf('#');
+        if (sepIndex <= 0) {
+            Debug.logError("Entity ECA [" + this.entityName + "] on [" + this.eventName + "]: invalid enabled-property value '"
+                    + enabledProperty + "' (expected resource#property-name); rule disabled", module);
+            return false;
+        }
+        return UtilProperties.getPropertyAsBoolean(enabledProperty.substring(0, sepIndex), enabledProperty.substring(sepIndex + 1), false);
+    }
+
     public String getEntityName() {
         return this.entityName;
     }
@@ -111,6 +130,9 @@ public final class EntityEcaRule implements java.io.Serializable {
     }
 
     public void eval(String currentOperation, DispatchContext dctx, GenericEntity value, boolean isError, Set<String> actionsRun) throws GenericEntityException {
+        if (!propertyEnabled) { // SCIPIO
+            return;
+        }
         if (!enabled) {
             Debug.logInfo("Entity ECA [" + this.entityName + "] on [" + this.eventName + "] is disabled; not running.", module);
             return;
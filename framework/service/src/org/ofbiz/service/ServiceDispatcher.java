@@ -28,6 +28,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import javax.transaction.Transaction;
 
 import org.ofbiz.base.config.GenericConfigException;
+import org.ofbiz.base.metrics.MetricRegistry;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralRuntimeException;
 import org.ofbiz.base.util.UtilMisc;
@@ -68,6 +69,7 @@ public class ServiceDispatcher {
     public static final String module = ServiceDispatcher.class.getName();
     public static final int lruLogSize = 200;
     public static final int LOCK_RETRIES = 3;
+    private static final boolean instrumentMetrics = MetricRegistry.isInstrumentationEnabled("service"); // SCIPIO
 
     protected static final Map<RunningService, ServiceDispatcher> runLog = new ConcurrentLinkedHashMap.Builder<RunningService, ServiceDispatcher>().maximumWeightedCapacity(lruLogSize).build();
     protected static ConcurrentHashMap<String, ServiceDispatcher> dispatchers = new ConcurrentHashMap<String, ServiceDispatcher>();
@@ -253,6 +255,7 @@ public class ServiceDispatcher {
      */
     public Map<String, Object> runSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
         long serviceStartTime = System.currentTimeMillis();
+        long serviceStartNanos = System.nanoTime(); // SCIPIO: for metrics
         Map<String, Object> result = new HashMap<String, Object>();
         ServiceSemaphore lock = null;
         Map<String, List<ServiceEcaRule>> eventMap = null;
@@ -514,6 +517,7 @@ public class ServiceDispatcher {
                     Debug.logError(te, "Cannot rollback transaction", module);
                 }
                 rs.setEndStamp();
+                recordMetrics(modelService, "sync", "exception", serviceStartNanos); // SCIPIO
                 if (t instanceof ServiceAuthException) {
                     throw (ServiceAuthException) t;
                 } else if (t instanceof ServiceValidationException) {
@@ -605,9 +609,25 @@ public class ServiceDispatcher {
         if (modelService.metrics != null) {
             modelService.metrics.recordServiceRate(1, timeToRun);
         }
+        recordMetrics(modelService, "sync", isError ? "error" : (isFailure ? "failure" : "success"), serviceStartNanos); // SCIPIO
         return result;
     }
 
+    /**
+     * SCIPIO: Records a service call in the {@link MetricRegistry}: a per-service call counter
+     * and a per-engine duration timer (metrics.properties <code>metrics.instrument.service</code>).
+     */
+    private static void recordMetrics(ModelService modelService, String mode, String outcome, long startNanos) {
+        if (!instrumentMetrics) {
+            return;
+        }
+        MetricRegistry registry = MetricRegistry.getDefault();
+        registry.counter("service_calls", "service", modelService.name, "mode", mode, "outcome", outcome).inc();
+        if (startNanos != 0) {
+            registry.timer("service_duration", "engine", modelService.engineName, "mode", mode).updateSince(startNanos);
+        }
+    }
+
     /**
      * Run the service asynchronously, passing an instance of GenericRequester that will receive the result.
      * @param localName Name of the context to use.
@@ -714,6 +734,9 @@ public class ServiceDispatcher {
                         engine.runAsync(localName, service, context, persist);
                     }
                     engine.sendCallbacks(service, context, GenericEngine.ASYNC_MODE);
+                    recordMetrics(service, "async", "submitted", 0); // SCIPIO
+                } else {
+                    recordMetrics(service, "async", isError ? "error" : "failure", 0); // SCIPIO
                 }
 
                 if (Debug.timingOn()) {
@@ -725,6 +748,7 @@ public class ServiceDispatcher {
                 }
                 String errMsg = "Service [" + service.name + "] threw an unexpected exception/error";
                 Debug.logError(t, errMsg, module);
+                recordMetrics(service, "async", "exception", 0); // SCIPIO
                 engine.sendCallbacks(service, context, t, GenericEngine.ASYNC_MODE);
                 try {
                     TransactionUtil.rollback(beganTrans, errMsg, t);
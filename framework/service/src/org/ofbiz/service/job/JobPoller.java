@@ -34,6 +34,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ofbiz.base.config.GenericConfigException;
+import org.ofbiz.base.metrics.Gauge;
+import org.ofbiz.base.metrics.MetricRegistry;
 import org.ofbiz.base.start.Start;
 import org.ofbiz.base.util.Assert;
 import org.ofbiz.base.util.Debug;
@@ -106,6 +108,40 @@ public final class JobPoller implements ServiceConfigListener {
             jobManagerPollerThread = null;
         }
         ServiceConfigUtil.registerServiceConfigListener(this);
+        if (MetricRegistry.isInstrumentationEnabled("jobpoller")) {
+            registerMetrics();
+        }
+    }
+
+    /**
+     * SCIPIO: Registers the job invoker pool gauges (metrics.properties <code>metrics.instrument.jobpoller</code>).
+     */
+    private static void registerMetrics() {
+        MetricRegistry registry = MetricRegistry.getDefault();
+        registry.gauge("job_pool_queue_size", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return executor.getQueue().size();
+            }
+        });
+        registry.gauge("job_pool_queue_remaining", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return executor.getQueue().remainingCapacity();
+            }
+        });
+        registry.gauge("job_pool_threads", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return executor.getPoolSize();
+            }
+        });
+        registry.gauge("job_pool_active_threads", new Gauge.Source() {
+            @Override
+            public double getValue() {
+                return executor.getActiveCount();
+            }
+        });
     }
 
     /**
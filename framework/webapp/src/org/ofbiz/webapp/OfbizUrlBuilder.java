@@ -171,6 +171,8 @@ public final class OfbizUrlBuilder {
     private final WebSiteProperties webSiteProps;
     private final String servletPath;
     private final String contextPath;   // SCIPIO: this class should record the context path (webapp mount-point)
+    private String secureHostPart; // SCIPIO: scheme and host, built on first use (no need to synchronize)
+    private String standardHostPart;
 
     private OfbizUrlBuilder(ControllerConfig config, WebSiteProperties webSiteProps, String servletPath, String contextPath) {
         this.config = config;
@@ -216,54 +218,69 @@ public final class OfbizUrlBuilder {
         controller = !Boolean.FALSE.equals(controller); // default true // SCIPIO: re-fixed 2017-11-17
         
         boolean makeSecure = useSSL;
-        String requestMapUri = null;
-        if (UtilValidate.isNotEmpty(url)) { // SCIPIO: added null check
-            String[] pathElements = url.split("/");
-            requestMapUri = pathElements[0];
-            int queryIndex = requestMapUri.indexOf("?");
-            if (queryIndex != -1) {
-                requestMapUri = requestMapUri.substring(0, queryIndex);
-            }
-        }
         RequestMap requestMap = null;
-        // SCIPIO: only lookup if controller lookup requested
-        if (controller) {
-            if (config != null) {
-                requestMap = config.getRequestMapMap().get(requestMapUri);
+        // SCIPIO: only lookup if controller lookup requested (and needed)
+        if (controller && !makeSecure && config != null && UtilValidate.isNotEmpty(url)) { // SCIPIO: added null check
+            // SCIPIO: first path element without query string; was url.split("/")[0]
+            int endIndex = url.indexOf('/');
+            if (endIndex == -1) {
+                endIndex = url.length();
+            }
+            int queryIndex = url.indexOf('?');
+            if (queryIndex != -1 && queryIndex < endIndex) {
+                endIndex = queryIndex;
             }
+            requestMap = config.getRequestMap(url.substring(0, endIndex));
         }
         if (!makeSecure && requestMap != null) { // if the request has security="true" then use it
             makeSecure = requestMap.securityHttps;
         }
         makeSecure = webSiteProps.getEnableHttps() & makeSecure;
-        if (makeSecure) {
+        // SCIPIO: the scheme and host are the same for every link of this builder
+        buffer.append(makeSecure ? getSecureHostPart() : getStandardHostPart());
+        return makeSecure;
+    }
+
+    private String getSecureHostPart() {
+        String hostPart = secureHostPart;
+        if (hostPart == null) {
+            StringBuilder sb = new StringBuilder("https://");
             String server = webSiteProps.getHttpsHost();
             if (server.isEmpty()) {
                 server = "localhost";
             }
-            buffer.append("https://");
-            buffer.append(server);
+            sb.append(server);
             if (!webSiteProps.getHttpsPort().isEmpty()) {
                 // SCIPIO: only append port if it's not default, otherwise not required and ugly
                 if (!"443".equals(webSiteProps.getHttpsPort())) {
-                    buffer.append(":").append(webSiteProps.getHttpsPort());
+                    sb.append(":").append(webSiteProps.getHttpsPort());
                 }
             }
-        } else {
+            hostPart = sb.toString();
+            secureHostPart = hostPart;
+        }
+        return hostPart;
+    }
+
+    private String getStandardHostPart() {
+        String hostPart = standardHostPart;
+        if (hostPart == null) {
+            StringBuilder sb = new StringBuilder("http://");
             String server = webSiteProps.getHttpHost();
             if (server.isEmpty()) {
                 server = "localhost";
             }
-            buffer.append("http://");
-            buffer.append(server);
+            sb.append(server);
             if (!webSiteProps.getHttpPort().isEmpty()) {
                 // SCIPIO: only append port if it's not default, otherwise not required and ugly
                 if (!"80".equals(webSiteProps.getHttpsPort())) {
-                    buffer.append(":").append(webSiteProps.getHttpPort());
+                    sb.append(":").append(webSiteProps.getHttpPort());
                 }
             }
+            hostPart = sb.toString();
+            standardHostPart = hostPart;
         }
-        return makeSecure;
+        return hostPart;
     }
     
     /**
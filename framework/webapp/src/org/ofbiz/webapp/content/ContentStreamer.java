@@ -0,0 +1,389 @@
+package org.ofbiz.webapp.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilHttp;
+
+/**
+ * SCIPIO: Streams a byte array, file or input stream to the response with HTTP validators and byte ranges:
+ * <ul>
+ * <li>ETag and Last-Modified, answering If-None-Match and If-Modified-Since with 304 Not Modified</li>
+ * <li>single byte ranges (<code>Range: bytes=...</code>, honoring If-Range) with 206 Partial Content, for media seeking
+ * and resumed downloads; multiple ranges are answered with the whole content, which HTTP allows</li>
+ * <li>files are sent with the container's sendfile when available (Tomcat NIO/APR) or through a {@link FileChannel}
+ * transfer, never read into the heap</li>
+ * </ul>
+ * HEAD requests get the headers only.
+ */
+public abstract class ContentStreamer {
+
+    public static final String module = ContentStreamer.class.getName();
+
+    /** Below this length files are copied rather than handed to the container's sendfile. */
+    private static final long SENDFILE_MIN_LENGTH = 48 * 1024;
+
+    private static final long[] RANGE_NONE = null;
+    private static final long[] RANGE_UNSATISFIABLE = new long[0];
+
+    protected ContentStreamer() {
+    }
+
+    /**
+     * Content to stream, with its validators.
+     */
+    public static abstract class Source {
+        /** Returns the content length in bytes, or -1 if unknown (disables ranges). */
+        public abstract long getLength();
+
+        /** Returns the modification time in milliseconds, or -1 if unknown. */
+        public long getLastModified() {
+            return -1;
+        }
+
+        /** Returns the quoted entity tag, or null if none. */
+        public String getETag() {
+            return null;
+        }
+
+        /** Writes count bytes from offset start (count is -1 for all, when the length is unknown). */
+        protected abstract void write(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException;
+
+        /** Releases the source; called once streaming is done, whether or not the content was written. */
+        protected void close() throws IOException {
+        }
+    }
+
+    public static Source fromBytes(byte[] bytes) {
+        return new BytesSource(bytes, -1);
+    }
+
+    /**
+     * Returns a byte array source with the given modification time (-1 if unknown);
+     * its ETag is computed from the length and a CRC32 of the bytes.
+     */
+    public static Source fromBytes(byte[] bytes, long lastModified) {
+        return new BytesSource(bytes, lastModified);
+    }
+
+    /**
+     * Returns a file source; its ETag is made of the file length and modification time.
+     */
+    public static Source fromFile(File file) {
+        return new FileSource(file);
+    }
+
+    /**
+     * Returns an input stream source of the given length (-1 if unknown), without validators.
+     * The stream is closed by {@link #stream}.
+     */
+    public static Source fromStream(InputStream stream, long length) {
+        return new StreamSource(stream, length);
+    }
+
+    /**
+     * Streams the source, answering conditional and range requests.
+     * <p>
+     * The validators and the given Cache-Control are set first, so they are sent with a 304.
+     * The source is closed on return.
+     * If conditional is false, no validators are sent and the content is always sent (for responses
+     * marked with {@link UtilHttp#setResponseBrowserProxyNoCache}); ranges still work.
+     *
+     * @param contentType the content type, or null to leave it unset
+     * @param contentDisposition the full Content-Disposition header value, or null
+     * @param cacheControl the Cache-Control header value, or null to leave it unset
+     */
+    public static void stream(HttpServletRequest request, HttpServletResponse response, Source source, String contentType,
+            String contentDisposition, String cacheControl, boolean conditional) throws IOException {
+        try {
+            doStream(request, response, source, contentType, contentDisposition, cacheControl, conditional);
+        } finally {
+            source.close();
+        }
+    }
+
+    private static void doStream(HttpServletRequest request, HttpServletResponse response, Source source, String contentType,
+            String contentDisposition, String cacheControl, boolean conditional) throws IOException {
+        long length = source.getLength();
+        String eTag = conditional ? source.getETag() : null;
+        long lastModified = conditional ? source.getLastModified() : -1;
+        if (cacheControl != null) {
+            response.setHeader("Cache-Control", cacheControl);
+        }
+        if (eTag != null) {
+            response.setHeader("ETag", eTag);
+        }
+        if (lastModified > 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        if (conditional && isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long[] range = RANGE_NONE;
+        if (length >= 0) {
+            response.setHeader("Accept-Ranges", "bytes");
+            range = getRange(request, length, eTag, lastModified);
+            if (range == RANGE_UNSATISFIABLE) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        if (contentDisposition != null) {
+            response.setHeader("Content-Disposition", contentDisposition);
+        }
+        long start = 0;
+        long count = length;
+        if (range != RANGE_NONE) {
+            start = range[0];
+            count = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        if (count >= 0) {
+            response.setContentLengthLong(count);
+        }
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        source.write(request, response, start, count);
+    }
+
+    /**
+     * Returns true if If-None-Match matches the ETag or, without If-None-Match, If-Modified-Since is not before
+     * the modification time (compared in whole seconds, the HTTP date precision).
+     */
+    public static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return eTag != null && matchesETag(ifNoneMatch, eTag);
+        }
+        if (lastModified > 0) {
+            long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+            return ifModifiedSince > 0 && (lastModified / 1000) <= (ifModifiedSince / 1000);
+        }
+        return false;
+    }
+
+    private static boolean matchesETag(String headerValue, String eTag) {
+        String opaqueTag = stripWeak(eTag);
+        for (String candidate : headerValue.split(",")) {
+            candidate = candidate.trim();
+            if ("*".equals(candidate) || opaqueTag.equals(stripWeak(candidate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1; // unparseable date: ignore the header
+        }
+    }
+
+    /**
+     * Returns the [first, last] byte positions of a satisfiable single range, {@link #RANGE_NONE} to send the
+     * whole content, or {@link #RANGE_UNSATISFIABLE}.
+     */
+    private static long[] getRange(HttpServletRequest request, long length, String eTag, long lastModified) {
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+            return RANGE_NONE;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            // the range only applies to the representation the client already has
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (eTag == null || eTag.startsWith("W/") || !ifRange.equals(eTag)) {
+                    return RANGE_NONE;
+                }
+            } else {
+                long ifRangeDate = getDateHeader(request, "If-Range");
+                if (lastModified <= 0 || ifRangeDate <= 0 || (lastModified / 1000) != (ifRangeDate / 1000)) {
+                    return RANGE_NONE;
+                }
+            }
+        }
+        String spec = rangeHeader.substring("bytes=".length()).trim();
+        if (spec.indexOf(',') >= 0) {
+            return RANGE_NONE; // multiple ranges: send everything
+        }
+        int dashIndex = spec.indexOf('-');
+        if (dashIndex < 0) {
+            return RANGE_NONE;
+        }
+        try {
+            String firstStr = spec.substring(0, dashIndex).trim();
+            String lastStr = spec.substring(dashIndex + 1).trim();
+            long first;
+            long last;
+            if (firstStr.isEmpty()) {
+                // suffix range: the last N bytes
+                long suffixLength = Long.parseLong(lastStr);
+                if (suffixLength <= 0) {
+                    return RANGE_UNSATISFIABLE;
+                }
+                first = Math.max(0, length - suffixLength);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(firstStr);
+                last = lastStr.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastStr), length - 1);
+            }
+            if (first < 0 || first >= length || last < first) {
+                return RANGE_UNSATISFIABLE;
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return RANGE_NONE; // invalid syntax: ignore the header
+        }
+    }
+
+    private static class BytesSource extends Source {
+        private final byte[] bytes;
+        private final long lastModified;
+
+        BytesSource(byte[] bytes, long lastModified) {
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public long getLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String getETag() {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            return "\"" + Long.toHexString(bytes.length) + "-" + Long.toHexString(crc.getValue()) + "\"";
+        }
+
+        @Override
+        protected void write(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException {
+            response.getOutputStream().write(bytes, (int) start, (int) count);
+        }
+    }
+
+    private static class FileSource extends Source {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+
+        FileSource(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String getETag() {
+            return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        }
+
+        @Override
+        protected void write(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException {
+            if (count >= SENDFILE_MIN_LENGTH && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+                // the container sends the file from the kernel after the servlet returns
+                request.setAttribute("org.apache.tomcat.sendfile.filename", file.getCanonicalPath());
+                request.setAttribute("org.apache.tomcat.sendfile.start", start);
+                request.setAttribute("org.apache.tomcat.sendfile.end", start + count);
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                long position = start;
+                long end = start + count;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, out);
+                    if (transferred <= 0) {
+                        Debug.logWarning("File " + file + " ended at " + position + " before the expected " + end + " bytes", module);
+                        break;
+                    }
+                    position += transferred;
+                }
+            }
+        }
+    }
+
+    private static class StreamSource extends Source {
+        private final InputStream stream;
+        private final long length;
+
+        StreamSource(InputStream stream, long length) {
+            this.stream = stream;
+            this.length = length;
+        }
+
+        @Override
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        protected void write(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException {
+            long skipped = 0;
+            while (skipped < start) {
+                long n = stream.skip(start - skipped);
+                if (n <= 0) {
+                    throw new IOException("Stream ended before range start " + start);
+                }
+                skipped += n;
+            }
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            long remaining = (count >= 0) ? count : Long.MAX_VALUE;
+            while (remaining > 0) {
+                int read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+
+        @Override
+        protected void close() throws IOException {
+            stream.close();
+        }
+    }
+}
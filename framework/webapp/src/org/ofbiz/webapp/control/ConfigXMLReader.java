@@ -30,6 +30,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletContext;
 
@@ -59,6 +60,11 @@ public class ConfigXMLReader {
     public static final String module = ConfigXMLReader.class.getName();
     public static final String controllerXmlFileName = "/WEB-INF/controller.xml";
     private static final UtilCache<URL, ControllerConfig> controllerCache = UtilCache.createUtilCache("webapp.ControllerConfig");
+    /**
+     * SCIPIO: Fast, light homemade cache of controller.xml URLs by webapp location, to avoid building File and URL
+     * instances on every lookup by WebappInfo (link building does this for every inter-webapp link).
+     */
+    private static final Map<String, URL> controllerConfigURLWebappLocationCache = new ConcurrentHashMap<>();
     private static final UtilCache<String, List<ControllerConfig>> controllerSearchResultsCache = UtilCache.createUtilCache("webapp.ControllerSearchResults");
     public static final RequestResponse emptyNoneRequestResponse = RequestResponse.createEmptyNoneRequestResponse();
 
@@ -134,9 +140,7 @@ public class ConfigXMLReader {
 
     public static ControllerConfig getControllerConfig(WebappInfo webAppInfo) throws WebAppConfigurationException, MalformedURLException {
         Assert.notNull("webAppInfo", webAppInfo);
-        String filePath = webAppInfo.getLocation().concat(controllerXmlFileName);
-        File configFile = new File(filePath);
-        return getControllerConfig(configFile.toURI().toURL());
+        return getControllerConfig(getControllerConfigURL(webAppInfo));
     }
     
     /**
@@ -145,9 +149,22 @@ public class ConfigXMLReader {
      */
     public static ControllerConfig getControllerConfig(WebappInfo webAppInfo, boolean optional) throws WebAppConfigurationException, MalformedURLException {
         Assert.notNull("webAppInfo", webAppInfo);
-        String filePath = webAppInfo.getLocation().concat(controllerXmlFileName);
-        File configFile = new File(filePath);
-        return getControllerConfig(configFile.toURI().toURL(), optional);
+        return getControllerConfig(getControllerConfigURL(webAppInfo), optional);
+    }
+
+    /**
+     * SCIPIO: Returns the URL of the controller.xml file of the webapp (which may not exist).
+     */
+    public static URL getControllerConfigURL(WebappInfo webAppInfo) throws MalformedURLException {
+        // SCIPIO: Go through cache first. No need to synchronize, doesn't matter.
+        URL url = controllerConfigURLWebappLocationCache.get(webAppInfo.getLocation());
+        if (url == null) {
+            String filePath = webAppInfo.getLocation().concat(controllerXmlFileName);
+            File configFile = new File(filePath);
+            url = configFile.toURI().toURL();
+            controllerConfigURLWebappLocationCache.put(webAppInfo.getLocation(), url);
+        }
+        return url;
     }
 
     public static ControllerConfig getControllerConfig(URL url) throws WebAppConfigurationException {
@@ -236,6 +253,7 @@ public class ConfigXMLReader {
         private Map<String, RequestMap> requestMapMap = new HashMap<String, RequestMap>();
         private Map<String, ViewMap> viewMapMap = new HashMap<String, ViewMap>();
         private ViewAsJsonConfig viewAsJsonConfig; // SCIPIO: added 2017-05-15
+        private volatile DispatchTable dispatchTable; // SCIPIO: see getDispatchTable
         
         public ControllerConfig(URL url) throws WebAppConfigurationException {
             this.url = url;
@@ -617,6 +635,66 @@ public class ConfigXMLReader {
             return result;
         }
 
+        /**
+         * SCIPIO: Returns the request map for the request URI, as looked up in {@link #getRequestMapMap()}, or null.
+         * <p>
+         * Unlike {@link #getRequestMapMap()}, which stacks the included controllers on every call, this looks up
+         * the {@link #getDispatchTable() dispatch table}; meant for per-link and per-request lookups.
+         */
+        public RequestMap getRequestMap(String uri) throws WebAppConfigurationException {
+            return getDispatchTable().getRequestMap(uri);
+        }
+
+        /**
+         * SCIPIO: Returns the same request maps as {@link #getRequestMapMap()}, merged into a single read-only map,
+         * from the {@link #getDispatchTable() dispatch table}.
+         */
+        public Map<String, RequestMap> getResolvedRequestMapMap() throws WebAppConfigurationException {
+            return getDispatchTable().getRequestMapMap();
+        }
+
+        /**
+         * SCIPIO: Returns the dispatch table of this controller: the merged configuration of this controller and
+         * its includes, as used for each request by {@link RequestHandler}.
+         * <p>
+         * The table is built on first use and replaced, as a whole, when one of the included controllers was reloaded
+         * (the included controllers are only compared by identity on each call); a reload of this controller.xml
+         * itself creates a new ControllerConfig and so a new table.
+         */
+        public DispatchTable getDispatchTable() throws WebAppConfigurationException {
+            DispatchTable dispatchTable = this.dispatchTable;
+            if (dispatchTable != null && dispatchTable.isCurrent(this)) {
+                return dispatchTable;
+            }
+            dispatchTable = new DispatchTable(this, getIncludeSources());
+            this.dispatchTable = dispatchTable;
+            return dispatchTable;
+        }
+
+        /**
+         * SCIPIO: Returns the objects the merged configuration depends on, for each include in order:
+         * the dispatch table of a recursive include, the ControllerConfig of a non-recursive one, or null if missing.
+         */
+        private Object[] getIncludeSources() throws WebAppConfigurationException {
+            Object[] sources = new Object[includesPreLocal.size() + includesPostLocal.size()];
+            int i = 0;
+            for (Include include : includesPreLocal) {
+                sources[i++] = getIncludeSource(include);
+            }
+            for (Include include : includesPostLocal) {
+                sources[i++] = getIncludeSource(include);
+            }
+            return sources;
+        }
+
+        private static Object getIncludeSource(Include include) throws WebAppConfigurationException {
+            ControllerConfig controllerConfig = getControllerConfig(include.location, include.optional);
+            if (controllerConfig == null) {
+                return null;
+            }
+            return include.recursive ? controllerConfig.getDispatchTable() : controllerConfig;
+        }
+
         public String getSecurityClass() throws WebAppConfigurationException {
             for (Include include : includesPostLocal) {
                 ControllerConfig controllerConfig = getControllerConfig(include.location, include.optional);
@@ -1000,6 +1078,128 @@ public class ConfigXMLReader {
         }
     }
 
+    /**
+     * SCIPIO: The merged configuration of a controller and its includes, resolved once, for the per-request
+     * lookups of {@link RequestHandler}: request and view maps in plain hash maps (request URIs are single path
+     * elements, so no deeper structure is needed), the event chains in execution order, and the general settings
+     * and request maps that are otherwise looked up again through the includes on each request.
+     * <p>
+     * Immutable; obtained through {@link ControllerConfig#getDispatchTable()}, which replaces it when an include is reloaded.
+     */
+    public static final class DispatchTable {
+        private final Object[] includeSources;
+        private final Map<String, RequestMap> requestMapMap;
+        private final Map<String, ViewMap> viewMapMap;
+        private final List<Event> firstVisitEvents;
+        private final List<Event> preprocessorEvents;
+        private final List<Event> postprocessorEvents;
+        private final List<Event> afterLoginEvents;
+        private final List<Event> beforeLogoutEvents;
+        private final String defaultRequest;
+        private final RequestMap defaultRequestMap;
+        private final String errorpage;
+        private final String protectView;
+        private final String statusCode;
+        private final ViewAsJsonConfig viewAsJsonConfig;
+
+        private DispatchTable(ControllerConfig config, Object[] includeSources) throws WebAppConfigurationException {
+            this.includeSources = includeSources;
+            // NOTE: copies of the stacked maps of the ControllerConfig getters, so the precedence and order are the same
+            this.requestMapMap = Collections.unmodifiableMap(new HashMap<>(config.getRequestMapMap()));
+            this.viewMapMap = Collections.unmodifiableMap(new HashMap<>(config.getViewMapMap()));
+            this.firstVisitEvents = Collections.unmodifiableList(new ArrayList<>(config.getFirstVisitEventList().values()));
+            this.preprocessorEvents = Collections.unmodifiableList(new ArrayList<>(config.getPreprocessorEventList().values()));
+            this.postprocessorEvents = Collections.unmodifiableList(new ArrayList<>(config.getPostprocessorEventList().values()));
+            this.afterLoginEvents = Collections.unmodifiableList(new ArrayList<>(config.getAfterLoginEventList().values()));
+            this.beforeLogoutEvents = Collections.unmodifiableList(new ArrayList<>(config.getBeforeLogoutEventList().values()));
+            this.defaultRequest = config.getDefaultRequest();
+            this.defaultRequestMap = (defaultRequest != null) ? requestMapMap.get(defaultRequest) : null;
+            this.errorpage = config.getErrorpage();
+            this.protectView = config.getProtectView();
+            this.statusCode = config.getStatusCode();
+            this.viewAsJsonConfig = config.getViewAsJsonConfigOrDefault();
+        }
+
+        private boolean isCurrent(ControllerConfig config) throws WebAppConfigurationException {
+            int i = 0;
+            for (ControllerConfig.Include include : config.includesPreLocal) {
+                if (includeSources[i++] != ControllerConfig.getIncludeSource(include)) {
+                    return false;
+                }
+            }
+            for (ControllerConfig.Include include : config.includesPostLocal) {
+                if (includeSources[i++] != ControllerConfig.getIncludeSource(include)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public RequestMap getRequestMap(String uri) {
+            return requestMapMap.get(uri);
+        }
+
+        /** Returns the merged request maps (read-only). */
+        public Map<String, RequestMap> getRequestMapMap() {
+            return requestMapMap;
+        }
+
+        public ViewMap getViewMap(String name) {
+            return viewMapMap.get(name);
+        }
+
+        /** Returns the merged view maps (read-only). */
+        public Map<String, ViewMap> getViewMapMap() {
+            return viewMapMap;
+        }
+
+        public List<Event> getFirstVisitEvents() {
+            return firstVisitEvents;
+        }
+
+        public List<Event> getPreprocessorEvents() {
+            return preprocessorEvents;
+        }
+
+        public List<Event> getPostprocessorEvents() {
+            return postprocessorEvents;
+        }
+
+        public List<Event> getAfterLoginEvents() {
+            return afterLoginEvents;
+        }
+
+        public List<Event> getBeforeLogoutEvents() {
+            return beforeLogoutEvents;
+        }
+
+        public String getDefaultRequest() {
+            return defaultRequest;
+        }
+
+        /** Returns the request map of the default request, or null if none or not defined. */
+        public RequestMap getDefaultRequestMap() {
+            return defaultRequestMap;
+        }
+
+        public String getErrorpage() {
+            return errorpage;
+        }
+
+        public String getProtectView() {
+            return protectView;
+        }
+
+        public String getStatusCode() {
+            return statusCode;
+        }
+
+        /** Returns the view-as-json configuration, or the default one if not configured (never null). */
+        public ViewAsJsonConfig getViewAsJsonConfig() {
+            return viewAsJsonConfig;
+        }
+    }
+
     public static class Event {
         public String type;
         public String path;
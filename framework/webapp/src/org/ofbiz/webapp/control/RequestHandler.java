@@ -61,7 +61,6 @@ import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtilProperties;
 import org.ofbiz.webapp.OfbizUrlBuilder;
 import org.ofbiz.webapp.WebAppUtil;
-import org.ofbiz.webapp.control.ConfigXMLReader.ControllerConfig;
 import org.ofbiz.webapp.event.EventFactory;
 import org.ofbiz.webapp.event.EventHandler;
 import org.ofbiz.webapp.event.EventHandlerException;
@@ -96,6 +95,13 @@ public class RequestHandler {
      */
     private final boolean allowOverrideViewUri;
 
+    /**
+     * SCIPIO: Reusable buffer for {@link #makeLink}, per thread; taken out while in use, so nested calls
+     * (e.g. from response URL encoding hooks) get their own.
+     */
+    private static final ThreadLocal<StringBuilder> linkBuffer = new ThreadLocal<>();
+    private static final int LINK_BUFFER_MAX_CAPACITY = 4096;
+
     public static RequestHandler getRequestHandler(ServletContext servletContext) {
         RequestHandler rh = (RequestHandler) servletContext.getAttribute("_REQUEST_HANDLER_");
         if (rh == null) {
@@ -145,6 +151,14 @@ public class RequestHandler {
         return null;
     }
 
+    /**
+     * SCIPIO: Returns the dispatch table of the controller of this webapp, as used for each request
+     * (see {@link ConfigXMLReader.ControllerConfig#getDispatchTable()}).
+     */
+    public ConfigXMLReader.DispatchTable getDispatchTable() throws WebAppConfigurationException {
+        return ConfigXMLReader.getControllerConfig(this.controllerConfigURL).getDispatchTable();
+    }
+
     public void doRequest(HttpServletRequest request, HttpServletResponse response, String requestUri) throws RequestHandlerException, RequestHandlerExceptionAllowExternalRequests {
         HttpSession session = request.getSession();
         Delegator delegator = (Delegator) request.getAttribute("delegator");
@@ -161,12 +175,14 @@ public class RequestHandler {
         HttpSession session = request.getSession();
 
         // get the controllerConfig once for this method so we don't have to get it over and over inside the method
-        ConfigXMLReader.ControllerConfig controllerConfig = this.getControllerConfig();
+        // SCIPIO: use the dispatch table, which has the merged controller config resolved in advance
+        ConfigXMLReader.DispatchTable dispatchTable;
         Map<String, ConfigXMLReader.RequestMap> requestMapMap = null;
         String statusCodeString = null;
         try {
-            requestMapMap = controllerConfig.getRequestMapMap();
-            statusCodeString = controllerConfig.getStatusCode();
+            dispatchTable = this.getDispatchTable();
+            requestMapMap = dispatchTable.getRequestMapMap();
+            statusCodeString = dispatchTable.getStatusCode();
         } catch (WebAppConfigurationException e) {
             Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
             throw new RequestHandlerException(e);
@@ -202,32 +218,15 @@ public class RequestHandler {
         }
         // check for default request
         if (requestMap == null) {
-            String defaultRequest;
-            try {
-                defaultRequest = controllerConfig.getDefaultRequest();
-            } catch (WebAppConfigurationException e) {
-                Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-                throw new RequestHandlerException(e);
-            }
-            if (defaultRequest != null) { // required! to avoid a null pointer exception and generate a requesthandler exception if default request not found.
-                requestMap = requestMapMap.get(defaultRequest);
-            }
+            // SCIPIO: null if no default request, to generate a requesthandler exception if default request not found
+            requestMap = dispatchTable.getDefaultRequestMap();
         }
 
         // check for override view
         if (overrideViewUri != null) {
-            ConfigXMLReader.ViewMap viewMap;
-            try {
-                viewMap = getControllerConfig().getViewMapMap().get(overrideViewUri);
-                if (viewMap == null) {
-                    String defaultRequest = controllerConfig.getDefaultRequest();
-                    if (defaultRequest != null) { // required! to avoid a null pointer exception and generate a requesthandler exception if default request not found.
-                        requestMap = requestMapMap.get(defaultRequest);
-                    }
-                }
-            } catch (WebAppConfigurationException e) {
-                Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-                throw new RequestHandlerException(e);
+            ConfigXMLReader.ViewMap viewMap = dispatchTable.getViewMap(overrideViewUri);
+            if (viewMap == null) {
+                requestMap = dispatchTable.getDefaultRequestMap();
             }
         }
 
@@ -277,18 +276,12 @@ public class RequestHandler {
             // Check to make sure we are allowed to access this request directly. (Also checks if this request is defined.)
             // If the request cannot be called, or is not defined, check and see if there is a default-request we can process
             if (!requestMap.securityDirectRequest) {
-                String defaultRequest;
-                try {
-                    defaultRequest = controllerConfig.getDefaultRequest();
-                } catch (WebAppConfigurationException e) {
-                    Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-                    throw new RequestHandlerException(e);
-                }
-                if (defaultRequest == null || !requestMapMap.get(defaultRequest).securityDirectRequest) {
+                ConfigXMLReader.RequestMap defaultRequestMap = dispatchTable.getDefaultRequestMap();
+                if (dispatchTable.getDefaultRequest() == null || !defaultRequestMap.securityDirectRequest) {
                     // use the same message as if it was missing for security reasons, ie so can't tell if it is missing or direct request is not allowed
                     throw new RequestHandlerException(requestMissingErrorMessage);
                 } else {
-                    requestMap = requestMapMap.get(defaultRequest);
+                    requestMap = defaultRequestMap;
                 }
             }
             // Check if we SHOULD be secure and are not. (SCIPIO: 2017-11-18: factored out dispersed secure checks)
@@ -397,63 +390,53 @@ public class RequestHandler {
                 if (Debug.infoOn())
                     Debug.logInfo("This is the first request in this visit." + " sessionId=" + UtilHttp.getSessionId(request), module);
                 session.setAttribute("_FIRST_VISIT_EVENTS_", "complete");
-                try {
-                    for (ConfigXMLReader.Event event: controllerConfig.getFirstVisitEventList().values()) {
-                        try {
-                            String returnString = this.runEvent(request, response, event, null, "firstvisit");
-                            if (returnString == null || "none".equalsIgnoreCase(returnString)) {
-                                interruptRequest = true;
-                            } else if (!returnString.equalsIgnoreCase("success")) {
-                                throw new EventHandlerException("First-Visit event did not return 'success'.");
-                            }
-                        } catch (EventHandlerException e) {
-                            Debug.logError(e, module);
+                for (ConfigXMLReader.Event event: dispatchTable.getFirstVisitEvents()) {
+                    try {
+                        String returnString = this.runEvent(request, response, event, null, "firstvisit");
+                        if (returnString == null || "none".equalsIgnoreCase(returnString)) {
+                            interruptRequest = true;
+                        } else if (!returnString.equalsIgnoreCase("success")) {
+                            throw new EventHandlerException("First-Visit event did not return 'success'.");
                         }
+                    } catch (EventHandlerException e) {
+                        Debug.logError(e, module);
                     }
-                } catch (WebAppConfigurationException e) {
-                    Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-                    throw new RequestHandlerException(e);
                 }
             }
 
             // Invoke the pre-processor (but NOT in a chain)
-            try {
-                for (ConfigXMLReader.Event event: controllerConfig.getPreprocessorEventList().values()) {
-                    try {
-                        String returnString = this.runEvent(request, response, event, null, "preprocessor");
-                        if (returnString == null || "none".equalsIgnoreCase(returnString)) {
-                            interruptRequest = true;
-                        } else if (!returnString.equalsIgnoreCase("success")) {
-                            if (!returnString.contains(":_protect_:")) {
-                                throw new EventHandlerException("Pre-Processor event [" + event.invoke + "] did not return 'success'.");
-                            } else { // protect the view normally rendered and redirect to error response view
-                                returnString = returnString.replace(":_protect_:", "");
-                                if (returnString.length() > 0) {
-                                    request.setAttribute("_ERROR_MESSAGE_", returnString);
-                                }
-                                eventReturn = null;
-                                // check to see if there is a "protect" response, if so it's ok else show the default_error_response_view
-                                if (!requestMap.requestResponseMap.containsKey("protect")) {
-                                    String protectView = controllerConfig.getProtectView();
-                                    if (protectView != null) {
-                                        overrideViewUri = protectView;
-                                    } else {
-                                        overrideViewUri = EntityUtilProperties.getPropertyValue("security.properties", "default.error.response.view", delegator);
-                                        overrideViewUri = overrideViewUri.replace("view:", "");
-                                        if ("none:".equals(overrideViewUri)) {
-                                            interruptRequest = true;
-                                        }
+            for (ConfigXMLReader.Event event: dispatchTable.getPreprocessorEvents()) {
+                try {
+                    String returnString = this.runEvent(request, response, event, null, "preprocessor");
+                    if (returnString == null || "none".equalsIgnoreCase(returnString)) {
+                        interruptRequest = true;
+                    } else if (!returnString.equalsIgnoreCase("success")) {
+                        if (!returnString.contains(":_protect_:")) {
+                            throw new EventHandlerException("Pre-Processor event [" + event.invoke + "] did not return 'success'.");
+                        } else { // protect the view normally rendered and redirect to error response view
+                            returnString = returnString.replace(":_protect_:", "");
+                            if (returnString.length() > 0) {
+                                request.setAttribute("_ERROR_MESSAGE_", returnString);
+                            }
+                            eventReturn = null;
+                            // check to see if there is a "protect" response, if so it's ok else show the default_error_response_view
+                            if (!requestMap.requestResponseMap.containsKey("protect")) {
+                                String protectView = dispatchTable.getProtectView();
+                                if (protectView != null) {
+                                    overrideViewUri = protectView;
+                                } else {
+                                    overrideViewUri = EntityUtilProperties.getPropertyValue("security.properties", "default.error.response.view", delegator);
+                                    overrideViewUri = overrideViewUri.replace("view:", "");
+                                    if ("none:".equals(overrideViewUri)) {
+                                        interruptRequest = true;
                                     }
                                 }
                             }
                         }
-                    } catch (EventHandlerException e) {
-                        Debug.logError(e, module);
                     }
+                } catch (EventHandlerException e) {
+                    Debug.logError(e, module);
                 }
-            } catch (WebAppConfigurationException e) {
-                Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-                throw new RequestHandlerException(e);
             }
         }
 
@@ -468,13 +451,7 @@ public class RequestHandler {
         request.setAttribute("thisRequestUri", requestMap.uri); // store the actual request URI
 
         // SCIPIO
-        ConfigXMLReader.ViewAsJsonConfig viewAsJsonConfig;
-        try {
-            viewAsJsonConfig = controllerConfig.getViewAsJsonConfigOrDefault();
-        } catch (WebAppConfigurationException e) {
-            Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-            throw new RequestHandlerException(e);
-        }
+        ConfigXMLReader.ViewAsJsonConfig viewAsJsonConfig = dispatchTable.getViewAsJsonConfig();
         boolean viewAsJson = ViewAsJsonUtil.isViewAsJson(request, viewAsJsonConfig);
 
         // Perform security check.
@@ -710,20 +687,15 @@ public class RequestHandler {
             // ======== handle views ========
 
             // first invoke the post-processor events.
-            try {
-                for (ConfigXMLReader.Event event: controllerConfig.getPostprocessorEventList().values()) {
-                    try {
-                        String returnString = this.runEvent(request, response, event, requestMap, "postprocessor");
-                        if (returnString != null && !returnString.equalsIgnoreCase("success")) {
-                            throw new EventHandlerException("Post-Processor event did not return 'success'.");
-                        }
-                    } catch (EventHandlerException e) {
-                        Debug.logError(e, module);
+            for (ConfigXMLReader.Event event: dispatchTable.getPostprocessorEvents()) {
+                try {
+                    String returnString = this.runEvent(request, response, event, requestMap, "postprocessor");
+                    if (returnString != null && !returnString.equalsIgnoreCase("success")) {
+                        throw new EventHandlerException("Post-Processor event did not return 'success'.");
                     }
+                } catch (EventHandlerException e) {
+                    Debug.logError(e, module);
                 }
-            } catch (WebAppConfigurationException e) {
-                Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-                throw new RequestHandlerException(e);
             }
 
             String responseStatusCode  = nextRequestResponse.statusCode;
@@ -800,7 +772,7 @@ public class RequestHandler {
                     Debug.logError("Scipio: view name is empty (request map URI: " + requestMap.uri + ")", module);
                     throw new RequestHandlerException("Scipio: view name is empty (request map URI: " + requestMap.uri + ")");
                 }
-                renderView(viewName, requestMap.securityExternalView, request, response, saveName, controllerConfig, viewAsJsonConfig, viewAsJson);
+                renderView(viewName, requestMap.securityExternalView, request, response, saveName, dispatchTable, viewAsJsonConfig, viewAsJson);
             } else if ("view-last".equals(nextRequestResponse.type)) {
                 if (Debug.verboseOn()) Debug.logVerbose("[RequestHandler.doRequest]: Response is a view." + " sessionId=" + UtilHttp.getSessionId(request), module);
 
@@ -836,7 +808,7 @@ public class RequestHandler {
                     Debug.logError("Scipio: view-last view name is empty (request map URI: " + requestMap.uri + ")", module);
                     throw new RequestHandlerException("Scipio: view-last view name is empty (request map URI: " + requestMap.uri + ")");
                 }
-                renderView(viewName, requestMap.securityExternalView, request, response, null, controllerConfig, viewAsJsonConfig, viewAsJson);
+                renderView(viewName, requestMap.securityExternalView, request, response, null, dispatchTable, viewAsJsonConfig, viewAsJson);
             } else if ("view-last-noparam".equals(nextRequestResponse.type)) {
                  if (Debug.verboseOn()) Debug.logVerbose("[RequestHandler.doRequest]: Response is a view." + " sessionId=" + UtilHttp.getSessionId(request), module);
 
@@ -858,7 +830,7 @@ public class RequestHandler {
                      Debug.logError("Scipio: view-last-noparam view name is empty (request map URI: " + requestMap.uri + ")", module);
                      throw new RequestHandlerException("Scipio: view-last-noparam view name is empty (request map URI: " + requestMap.uri + ")");
                  }
-                 renderView(viewName, requestMap.securityExternalView, request, response, null, controllerConfig, viewAsJsonConfig, viewAsJson);
+                 renderView(viewName, requestMap.securityExternalView, request, response, null, dispatchTable, viewAsJsonConfig, viewAsJson);
             } else if ("view-home".equals(nextRequestResponse.type)) {
                 if (Debug.verboseOn()) Debug.logVerbose("[RequestHandler.doRequest]: Response is a view." + " sessionId=" + UtilHttp.getSessionId(request), module);
 
@@ -881,7 +853,7 @@ public class RequestHandler {
                     Debug.logError("Scipio: view-home view name is empty (request map URI: " + requestMap.uri + ")", module);
                     throw new RequestHandlerException("Scipio: view-last view name is empty (request map URI: " + requestMap.uri + ")");
                 }
-                renderView(viewName, requestMap.securityExternalView, request, response, null, controllerConfig, viewAsJsonConfig, viewAsJson);
+                renderView(viewName, requestMap.securityExternalView, request, response, null, dispatchTable, viewAsJsonConfig, viewAsJson);
             } else if ("none".equals(nextRequestResponse.type)) {
                 // no view to render (meaning the return was processed by the event)
                 if (Debug.verboseOn()) Debug.logVerbose("[RequestHandler.doRequest]: Response is handled by the event." + " sessionId=" + UtilHttp.getSessionId(request), module);
@@ -969,7 +941,7 @@ public class RequestHandler {
     public String getDefaultErrorPage(HttpServletRequest request) {
         String errorpage = null;
         try {
-            errorpage = getControllerConfig().getErrorpage();
+            errorpage = getDispatchTable().getErrorpage();
             // SCIPIO: 2017-11-14: now supports flexible expressions contains ServletContext attributes
             Map<String, Object> exprCtx = new HashMap<>();
             exprCtx.putAll(UtilHttp.getServletContextMap(request));
@@ -986,7 +958,7 @@ public class RequestHandler {
     public String getStatusCode(HttpServletRequest request) {
         String statusCode = null;
         try {
-            statusCode = getControllerConfig().getStatusCode();
+            statusCode = getDispatchTable().getStatusCode();
         } catch (WebAppConfigurationException e) {
             Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
         }
@@ -1005,16 +977,26 @@ public class RequestHandler {
     }
 
     public static String getRequestUri(String path) {
-        List<String> pathInfo = StringUtil.split(path, "/");
-        if (UtilValidate.isEmpty(pathInfo)) {
+        // SCIPIO: first non-empty path element, without query string; was: StringUtil.split(path, "/").get(0),
+        // which is called for every link and request
+        int startIndex = 0;
+        int length = (path != null) ? path.length() : 0;
+        while (startIndex < length && path.charAt(startIndex) == '/') {
+            startIndex++;
+        }
+        if (startIndex >= length) {
             Debug.logWarning("Got nothing when splitting URI: " + path, module);
             return null;
         }
-        if (pathInfo.get(0).indexOf('?') > -1) {
-            return pathInfo.get(0).substring(0, pathInfo.get(0).indexOf('?'));
-        } else {
-            return pathInfo.get(0);
+        int endIndex = path.indexOf('/', startIndex);
+        if (endIndex == -1) {
+            endIndex = length;
         }
+        int queryIndex = path.indexOf('?', startIndex);
+        if (queryIndex != -1 && queryIndex < endIndex) {
+            endIndex = queryIndex;
+        }
+        return path.substring(startIndex, endIndex);
     }
 
     public static String getOverrideViewUri(String path) {
@@ -1086,7 +1068,7 @@ public class RequestHandler {
             throw new RequestHandlerException(ise.getMessage(), ise);
         }
     }
-    private void renderView(String view, boolean allowExtView, HttpServletRequest req, HttpServletResponse resp, String saveName, ControllerConfig controllerConfig, ConfigXMLReader.ViewAsJsonConfig viewAsJsonConfig, boolean viewAsJson) throws RequestHandlerException, RequestHandlerExceptionAllowExternalRequests {
+    private void renderView(String view, boolean allowExtView, HttpServletRequest req, HttpServletResponse resp, String saveName, ConfigXMLReader.DispatchTable dispatchTable, ConfigXMLReader.ViewAsJsonConfig viewAsJsonConfig, boolean viewAsJson) throws RequestHandlerException, RequestHandlerExceptionAllowExternalRequests {
         // SCIPIO: sanity check
         if (view == null || view.isEmpty()) {
             Debug.logError("Scipio: View name is empty", module);
@@ -1157,13 +1139,7 @@ public class RequestHandler {
             }
         }
 
-        ConfigXMLReader.ViewMap viewMap = null;
-        try {
-            viewMap = (view == null ? null : getControllerConfig().getViewMapMap().get(view));
-        } catch (WebAppConfigurationException e) {
-            Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
-            throw new RequestHandlerException(e);
-        }
+        ConfigXMLReader.ViewMap viewMap = (view == null ? null : dispatchTable.getViewMap(view)); // SCIPIO: dispatch table
         if (viewMap == null) {
             throw new RequestHandlerException("No definition found for view with name [" + view + "]");
         }
@@ -1561,6 +1537,29 @@ public class RequestHandler {
      */
     public String makeLink(HttpServletRequest request, HttpServletResponse response, String url, Boolean interWebapp, WebappInfo webappInfo, Boolean controller, 
             Boolean fullPath, Boolean secure, Boolean encode) {
+        // SCIPIO: build in a reused per-thread buffer
+        StringBuilder buffer = linkBuffer.get();
+        if (buffer != null) {
+            linkBuffer.set(null);
+        } else {
+            buffer = new StringBuilder(250);
+        }
+        try {
+            return makeLink(request, response, url, interWebapp, webappInfo, controller, fullPath, secure, encode, buffer);
+        } finally {
+            if (buffer.capacity() <= LINK_BUFFER_MAX_CAPACITY) {
+                linkBuffer.set(buffer);
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: Builds a link like {@link #makeLink(HttpServletRequest, HttpServletResponse, String, Boolean, WebappInfo, Boolean, Boolean, Boolean, Boolean)},
+     * using the given buffer to build the URL; callers building many links (such as menu and pagination renderers) can pass the
+     * same buffer every time. The buffer is cleared first, and its contents are undefined after the call: only use the result.
+     */
+    public String makeLink(HttpServletRequest request, HttpServletResponse response, String url, Boolean interWebapp, WebappInfo webappInfo, Boolean controller, 
+            Boolean fullPath, Boolean secure, Boolean encode, StringBuilder buffer) {
         // SCIPIO: We now accept nulls for all booleans to prevent rehardcoding defaults and allow more options
         if (interWebapp == null) {
             interWebapp = Boolean.FALSE;
@@ -1607,41 +1606,28 @@ public class RequestHandler {
         }
         
         // SCIPIO: Multiple possible ways to get webSiteProps
+        LinkTargetInfo linkTarget = null; // SCIPIO: inter-webapp target, resolved once per request and webapp
         if (interWebapp) {
             try {
-                if (webappInfo != null) {
-                    String webSiteId = WebAppUtil.getWebSiteId(webappInfo);
-                    if (webSiteId != null && !webSiteId.isEmpty()) {
-                        webSiteProps = WebSiteProperties.from(request, webSiteId);
-                    }
-                    else {
-                        webSiteProps = WebSiteProperties.from(request);
-                    }
-                }
-                else {
-                    webSiteProps = WebSiteProperties.from(request);
-                }
+                linkTarget = LinkTargetInfo.from(request, webappInfo, requestWebSiteProps);
             } catch (Exception e) { // SCIPIO: just catch everything: GenericEntityException
                 // If the entity engine is throwing exceptions, then there is no point in continuing.
                 Debug.logError(e, "Exception thrown while getting web site properties: ", module);
                 return null;
             }
+            webSiteProps = linkTarget.webSiteProps;
+            
+            // SCIPIO: Special case: If we have inter-webapp, we need to check if the web site properties
+            // for this link different from the current request's. If so, we have to force full-path
+            // link (see LinkTargetInfo).
+            if (linkTarget.forceFullPath) {
+                fullPath = true;
+            }
         } else {
             // SCIPIO: stock case (get from request, or defaults)
             webSiteProps = requestWebSiteProps;
         }
         
-        // SCIPIO: Special case: If we have inter-webapp, we need to check if the web site properties
-        // for this link different from the current request's. If so, we have to force full-path
-        // link. Here we compare the effective values to ensure correctness. 
-        // TODO? It is possible we could want to always force fullPath for all inter-webapp links.
-        // Maybe make a url.properties option and allow force fullPath and force secure.
-        if (interWebapp) {
-            if (!webSiteProps.equalsWithHardDefaults(requestWebSiteProps)) {
-                fullPath = true;
-            }
-        }
-        
         String requestUri = null;
         ConfigXMLReader.RequestMap requestMap = null;
         
@@ -1654,7 +1640,7 @@ public class RequestHandler {
                     // SCIPIO: Lookup correct controller for webapp
                     if (interWebapp) {
                         try {
-                            requestMap = ConfigXMLReader.getControllerConfig(webappInfo).getRequestMapMap().get(requestUri);
+                            requestMap = ConfigXMLReader.getControllerConfig(webappInfo).getRequestMap(requestUri);
                         } catch (MalformedURLException e) {
                             Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
                             return null;
@@ -1662,7 +1648,7 @@ public class RequestHandler {
                     }
                     else {
                         // SCIPIO: stock case
-                        requestMap = getControllerConfig().getRequestMapMap().get(requestUri);
+                        requestMap = getControllerConfig().getRequestMap(requestUri);
                     }
                 } catch (WebAppConfigurationException e) {
                     // If we can't read the controller.xml file, then there is no point in continuing.
@@ -1703,14 +1689,15 @@ public class RequestHandler {
                 ;
             }
         }
-        StringBuilder newURL = new StringBuilder(250);
+        StringBuilder newURL = buffer;
+        newURL.setLength(0);
         if (didFullSecure || didFullStandard) {
             // Build the scheme and host part
             try {
                 if (builder == null) {
                     if (interWebapp) {
                         // SCIPIO: builder should be made using webappInfo if one was passed to us 
-                        builder = OfbizUrlBuilder.from(webappInfo, webSiteProps, delegator);
+                        builder = linkTarget.getUrlBuilder(webappInfo, delegator);
                     } else {
                         // SCIPIO: stock case
                         builder = OfbizUrlBuilder.from(request);
@@ -1740,7 +1727,7 @@ public class RequestHandler {
         if (interWebapp) {
             if (builder == null) {
                 try {
-                    builder = OfbizUrlBuilder.from(webappInfo, webSiteProps, delegator);
+                    builder = linkTarget.getUrlBuilder(webappInfo, delegator);
                 } catch (Exception e) {
                     // SCIPIO: new case
                     Debug.logError(e, "Scipio: Exception thrown while getting web site properties: ", module);
@@ -1800,6 +1787,65 @@ public class RequestHandler {
         return encodedUrl;
     }
 
+    /**
+     * SCIPIO: The web site properties and URL builder for inter-webapp links to a webapp, cached in the request
+     * per target webapp (context root), so that pages with many links to other webapps (such as the storefront
+     * linking to the shop and CMS webapps) do not look up the WebSite and rebuild these for every link.
+     */
+    private static final class LinkTargetInfo {
+        private static final String REQUEST_ATTR = "_INTERWEBAPP_LINK_TARGETS_";
+
+        private final WebSiteProperties webSiteProps;
+        /**
+         * True if the target web site properties differ from the current request's, in which case the link must be full-path.
+         * Here we compare the effective values to ensure correctness.
+         * TODO? It is possible we could want to always force fullPath for all inter-webapp links.
+         * Maybe make a url.properties option and allow force fullPath and force secure.
+         */
+        private final boolean forceFullPath;
+        private OfbizUrlBuilder urlBuilder;
+
+        private LinkTargetInfo(WebSiteProperties webSiteProps, boolean forceFullPath) {
+            this.webSiteProps = webSiteProps;
+            this.forceFullPath = forceFullPath;
+        }
+
+        static LinkTargetInfo from(HttpServletRequest request, WebappInfo webappInfo, WebSiteProperties requestWebSiteProps) throws GenericEntityException, IOException, SAXException {
+            Map<String, LinkTargetInfo> linkTargets = UtilGenerics.cast(request.getAttribute(REQUEST_ATTR));
+            if (linkTargets == null) {
+                linkTargets = new HashMap<>();
+                request.setAttribute(REQUEST_ATTR, linkTargets);
+            }
+            String key = (webappInfo != null) ? webappInfo.getContextRoot() : "";
+            LinkTargetInfo linkTarget = linkTargets.get(key);
+            if (linkTarget == null) {
+                WebSiteProperties webSiteProps;
+                if (webappInfo != null) {
+                    String webSiteId = WebAppUtil.getWebSiteId(webappInfo);
+                    if (webSiteId != null && !webSiteId.isEmpty()) {
+                        webSiteProps = WebSiteProperties.from(request, webSiteId);
+                    }
+                    else {
+                        webSiteProps = WebSiteProperties.from(request);
+                    }
+                }
+                else {
+                    webSiteProps = WebSiteProperties.from(request);
+                }
+                linkTarget = new LinkTargetInfo(webSiteProps, !webSiteProps.equalsWithHardDefaults(requestWebSiteProps));
+                linkTargets.put(key, linkTarget);
+            }
+            return linkTarget;
+        }
+
+        OfbizUrlBuilder getUrlBuilder(WebappInfo webappInfo, Delegator delegator) throws WebAppConfigurationException, IOException, SAXException, GenericEntityException {
+            if (urlBuilder == null) {
+                urlBuilder = OfbizUrlBuilder.from(webappInfo, webSiteProps, delegator);
+            }
+            return urlBuilder;
+        }
+    }
+
     /**
      * SCIPIO: Factored-out makeLink code.
      * <p>
@@ -1912,7 +1958,7 @@ public class RequestHandler {
         ConfigXMLReader.RequestMap requestMap = null;
         if (requestUri != null) {
             try {
-                requestMap = getControllerConfig().getRequestMapMap().get(requestUri);
+                requestMap = getControllerConfig().getRequestMap(requestUri);
             } catch (WebAppConfigurationException e) {
                 // If we can't read the controller.xml file, then there is no point in continuing.
                 Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
@@ -2241,7 +2287,7 @@ public class RequestHandler {
 
     public void runAfterLoginEvents(HttpServletRequest request, HttpServletResponse response) {
         try {
-            for (ConfigXMLReader.Event event: getControllerConfig().getAfterLoginEventList().values()) {
+            for (ConfigXMLReader.Event event: getDispatchTable().getAfterLoginEvents()) {
                 try {
                     String returnString = this.runEvent(request, response, event, null, "after-login");
                     if (returnString != null && !returnString.equalsIgnoreCase("success")) {
@@ -2258,7 +2304,7 @@ public class RequestHandler {
 
     public void runBeforeLogoutEvents(HttpServletRequest request, HttpServletResponse response) {
         try {
-            for (ConfigXMLReader.Event event: getControllerConfig().getBeforeLogoutEventList().values()) {
+            for (ConfigXMLReader.Event event: getDispatchTable().getBeforeLogoutEvents()) {
                 try {
                     String returnString = this.runEvent(request, response, event, null, "before-logout");
                     if (returnString != null && !returnString.equalsIgnoreCase("success")) {
@@ -2281,7 +2327,7 @@ public class RequestHandler {
             }
             ConfigXMLReader.RequestMap requestMap = null;
             try {
-                requestMap = getControllerConfig().getRequestMapMap().get(uriString);
+                requestMap = getControllerConfig().getRequestMap(uriString);
             } catch (WebAppConfigurationException e) {
                 Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
             }
@@ -2300,7 +2346,7 @@ public class RequestHandler {
             }
             ConfigXMLReader.RequestMap requestMap = null;
             try {
-                requestMap = getControllerConfig().getRequestMapMap().get(uriString);
+                requestMap = getControllerConfig().getRequestMap(uriString);
             } catch (WebAppConfigurationException e) {
                 Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
             }
@@ -2329,7 +2375,7 @@ public class RequestHandler {
      */
     public boolean controllerHasRequestUriDirect(String uri) {
         try {
-            ConfigXMLReader.RequestMap requestMap = getControllerConfig().getRequestMapMap().get(uri);
+            ConfigXMLReader.RequestMap requestMap = getControllerConfig().getRequestMap(uri);
             
             if (requestMap != null && requestMap.securityDirectRequest) {
                 return true;
@@ -131,231 +131,261 @@ public class ServiceEventHandler implements EventHandler {
 
         boolean isMultiPart = ServletFileUpload.isMultipartContent(request);
         Map<String, Object> multiPartMap = new HashMap<String, Object>();
-        if (isMultiPart) {
-            // get the http upload configuration
-            String maxSizeStr = EntityUtilProperties.getPropertyValue("general.properties", "http.upload.max.size", "-1", dctx.getDelegator());
-            long maxUploadSize = -1;
-            try {
-                maxUploadSize = Long.parseLong(maxSizeStr);
-            } catch (NumberFormatException e) {
-                Debug.logError(e, "Unable to obtain the max upload size from general.properties; using default -1", module);
-                maxUploadSize = -1;
-            }
-            // get the http size threshold configuration - files bigger than this will be
-            // temporarly stored on disk during upload
-            String sizeThresholdStr = EntityUtilProperties.getPropertyValue("general.properties", "http.upload.max.sizethreshold", "10240", dctx.getDelegator());
-            int sizeThreshold = 10240; // 10K
-            try {
-                sizeThreshold = Integer.parseInt(sizeThresholdStr);
-            } catch (NumberFormatException e) {
-                Debug.logError(e, "Unable to obtain the threshold size from general.properties; using default 10K", module);
-                sizeThreshold = -1;
-            }
-            // directory used to temporarily store files that are larger than the configured size threshold
-            String tmpUploadRepository = EntityUtilProperties.getPropertyValue("general.properties", "http.upload.tmprepository", "runtime/tmp", dctx.getDelegator());
-            String encoding = request.getCharacterEncoding();
-            // check for multipart content types which may have uploaded items
+        List<File> uploadedTempFiles = new LinkedList<File>(); // SCIPIO: uploads passed as files, deleted after the service
+        List<FileItem> uploadedItems = null;
+        Map<String, Object> result = null;
+        // SCIPIO: the uploads are deleted in finally, whatever happens from the parsing to the end of the service call
+        try {
+            if (isMultiPart) {
+                // get the http upload configuration
+                String maxSizeStr = EntityUtilProperties.getPropertyValue("general.properties", "http.upload.max.size", "-1", dctx.getDelegator());
+                long maxUploadSize = -1;
+                try {
+                    maxUploadSize = Long.parseLong(maxSizeStr);
+                } catch (NumberFormatException e) {
+                    Debug.logError(e, "Unable to obtain the max upload size from general.properties; using default -1", module);
+                    maxUploadSize = -1;
+                }
+                // get the http size threshold configuration - files bigger than this will be
+                // temporarly stored on disk during upload
+                String sizeThresholdStr = EntityUtilProperties.getPropertyValue("general.properties", "http.upload.max.sizethreshold", "10240", dctx.getDelegator());
+                int sizeThreshold = 10240; // 10K
+                try {
+                    sizeThreshold = Integer.parseInt(sizeThresholdStr);
+                } catch (NumberFormatException e) {
+                    Debug.logError(e, "Unable to obtain the threshold size from general.properties; using default 10K", module);
+                    sizeThreshold = -1;
+                }
+                // directory used to temporarily store files that are larger than the configured size threshold
+                String tmpUploadRepository = EntityUtilProperties.getPropertyValue("general.properties", "http.upload.tmprepository", "runtime/tmp", dctx.getDelegator());
+                String encoding = request.getCharacterEncoding();
+                // check for multipart content types which may have uploaded items
 
-            ServletFileUpload upload = new ServletFileUpload(new DiskFileItemFactory(sizeThreshold, new File(tmpUploadRepository)));
+                ServletFileUpload upload = new ServletFileUpload(new DiskFileItemFactory(sizeThreshold, new File(tmpUploadRepository)));
 
-            // create the progress listener and add it to the session
-            FileUploadProgressListener listener = new FileUploadProgressListener();
-            upload.setProgressListener(listener);
-            session.setAttribute("uploadProgressListener", listener);
+                // create the progress listener and add it to the session
+                FileUploadProgressListener listener = new FileUploadProgressListener();
+                upload.setProgressListener(listener);
+                session.setAttribute("uploadProgressListener", listener);
 
-            if (encoding != null) {
-                upload.setHeaderEncoding(encoding);
-            }
-            upload.setSizeMax(maxUploadSize);
+                if (encoding != null) {
+                    upload.setHeaderEncoding(encoding);
+                }
+                upload.setSizeMax(maxUploadSize);
 
-            List<FileItem> uploadedItems = null;
-            try {
-                uploadedItems = UtilGenerics.<FileItem>checkList(upload.parseRequest(request));
-            } catch (FileUploadException e) {
-                throw new EventHandlerException("Problems reading uploaded data", e);
-            }
-            if (uploadedItems != null) {
-                for (FileItem item: uploadedItems) {
-                    String fieldName = item.getFieldName();
-                    //byte[] itemBytes = item.get();
-                    /*
-                    Debug.logInfo("Item Info [" + fieldName + "] : " + item.getName() + " / " + item.getSize() + " / " +
-                            item.getContentType() + " FF: " + item.isFormField(), module);
-                    */
-                    if (item.isFormField() || item.getName() == null) {
-                        if (multiPartMap.containsKey(fieldName)) {
-                            Object mapValue = multiPartMap.get(fieldName);
-                            if (mapValue instanceof List<?>) {
-                                checkList(mapValue, Object.class).add(item.getString());
-                            } else if (mapValue instanceof String) {
-                                List<String> newList = new LinkedList<String>();
-                                newList.add((String) mapValue);
-                                newList.add(item.getString());
-                                multiPartMap.put(fieldName, newList);
+                try {
+                    uploadedItems = UtilGenerics.<FileItem>checkList(upload.parseRequest(request));
+                } catch (FileUploadException e) {
+                    throw new EventHandlerException("Problems reading uploaded data", e);
+                }
+                if (uploadedItems != null) {
+                    for (FileItem item: uploadedItems) {
+                        String fieldName = item.getFieldName();
+                        //byte[] itemBytes = item.get();
+                        /*
+                        Debug.logInfo("Item Info [" + fieldName + "] : " + item.getName() + " / " + item.getSize() + " / " +
+                                item.getContentType() + " FF: " + item.isFormField(), module);
+                        */
+                        if (item.isFormField() || item.getName() == null) {
+                            if (multiPartMap.containsKey(fieldName)) {
+                                Object mapValue = multiPartMap.get(fieldName);
+                                if (mapValue instanceof List<?>) {
+                                    checkList(mapValue, Object.class).add(item.getString());
+                                } else if (mapValue instanceof String) {
+                                    List<String> newList = new LinkedList<String>();
+                                    newList.add((String) mapValue);
+                                    newList.add(item.getString());
+                                    multiPartMap.put(fieldName, newList);
+                                } else {
+                                    Debug.logWarning("Form field found [" + fieldName + "] which was not handled!", module);
+                                }
                             } else {
-                                Debug.logWarning("Form field found [" + fieldName + "] which was not handled!", module);
+                                if (encoding != null) {
+                                    try {
+                                        multiPartMap.put(fieldName, item.getString(encoding));
+                                    } catch (java.io.UnsupportedEncodingException uee) {
+                                        Debug.logError(uee, "Unsupported Encoding, using deafault", module);
+                                        multiPartMap.put(fieldName, item.getString());
+                                    }
+                                } else {
+                                    multiPartMap.put(fieldName, item.getString());
+                                }
                             }
                         } else {
-                            if (encoding != null) {
+                            String fileName = item.getName();
+                            if (fileName.indexOf('\\') > -1 || fileName.indexOf('/') > -1) {
+                                // get just the file name IE and other browsers also pass in the local path
+                                int lastIndex = fileName.lastIndexOf('\\');
+                                if (lastIndex == -1) {
+                                    lastIndex = fileName.lastIndexOf('/');
+                                }
+                                if (lastIndex > -1) {
+                                    fileName = fileName.substring(lastIndex + 1);
+                                }
+                            }
+                            // SCIPIO: services declaring the IN parameter "_[fieldName]_file" (java.io.File) get the uploads
+                            // stored on disk (larger than http.upload.max.sizethreshold) as a temporary file instead of a
+                            // ByteBuffer, so large files are never loaded in memory; not for async calls, which may run after
+                            // the file is deleted
+                            ModelParam fileParam = model.getParam("_" + fieldName + "_file");
+                            if (fileParam != null && fileParam.isIn() && !item.isInMemory() && !ASYNC.equalsIgnoreCase(mode)) {
+                                File uploadedFile;
                                 try {
-                                    multiPartMap.put(fieldName, item.getString(encoding));
-                                } catch (java.io.UnsupportedEncodingException uee) {
-                                    Debug.logError(uee, "Unsupported Encoding, using deafault", module);
-                                    multiPartMap.put(fieldName, item.getString());
+                                    uploadedFile = File.createTempFile("upload_", ".tmp", new File(tmpUploadRepository));
+                                    uploadedTempFiles.add(uploadedFile);
+                                    // moves the file stored by the upload where possible
+                                    item.write(uploadedFile);
+                                } catch (Exception e) {
+                                    throw new EventHandlerException("Problems storing uploaded file [" + fileName + "]", e);
                                 }
+                                multiPartMap.put("_" + fieldName + "_file", uploadedFile);
                             } else {
-                                multiPartMap.put(fieldName, item.getString());
-                            }
-                        }
-                    } else {
-                        String fileName = item.getName();
-                        if (fileName.indexOf('\\') > -1 || fileName.indexOf('/') > -1) {
-                            // get just the file name IE and other browsers also pass in the local path
-                            int lastIndex = fileName.lastIndexOf('\\');
-                            if (lastIndex == -1) {
-                                lastIndex = fileName.lastIndexOf('/');
-                            }
-                            if (lastIndex > -1) {
-                                fileName = fileName.substring(lastIndex + 1);
+                                multiPartMap.put(fieldName, ByteBuffer.wrap(item.get()));
                             }
+                            multiPartMap.put("_" + fieldName + "_size", Long.valueOf(item.getSize()));
+                            multiPartMap.put("_" + fieldName + "_fileName", fileName);
+                            multiPartMap.put("_" + fieldName + "_contentType", item.getContentType());
                         }
-                        multiPartMap.put(fieldName, ByteBuffer.wrap(item.get()));
-                        multiPartMap.put("_" + fieldName + "_size", Long.valueOf(item.getSize()));
-                        multiPartMap.put("_" + fieldName + "_fileName", fileName);
-                        multiPartMap.put("_" + fieldName + "_contentType", item.getContentType());
                     }
                 }
             }
-        }
 
-        // store the multi-part map as an attribute so we can access the parameters
-        request.setAttribute("multiPartMap", multiPartMap);
-
-        Map<String, Object> rawParametersMap = UtilHttp.getCombinedMap(request);
-        Set<String> urlOnlyParameterNames = UtilHttp.getUrlOnlyParameterMap(request).keySet();
-
-        // we have a service and the model; build the context
-        Map<String, Object> serviceContext = new HashMap<String, Object>();
-        for (ModelParam modelParam: model.getInModelParamList()) {
-            String name = modelParam.name;
-
-            // don't include userLogin, that's taken care of below
-            if ("userLogin".equals(name)) continue;
-            // don't include locale, that is also taken care of below
-            if ("locale".equals(name)) continue;
-            // don't include timeZone, that is also taken care of below
-            if ("timeZone".equals(name)) continue;
-
-            Object value = null;
-            if (UtilValidate.isNotEmpty(modelParam.stringMapPrefix)) {
-                Map<String, Object> paramMap = UtilHttp.makeParamMapWithPrefix(request, multiPartMap, modelParam.stringMapPrefix, null);
-                value = paramMap;
-                if (Debug.verboseOn()) Debug.logVerbose("Set [" + modelParam.name + "]: " + paramMap, module);
-            } else if (UtilValidate.isNotEmpty(modelParam.stringListSuffix)) {
-                List<Object> paramList = UtilHttp.makeParamListWithSuffix(request, multiPartMap, modelParam.stringListSuffix, null);
-                value = paramList;
-            } else {
-                // first check the multi-part map
-                value = multiPartMap.get(name);
-
-                // next check attributes; do this before parameters so that attribute which can be changed by code can override parameters which can't
-                if (UtilValidate.isEmpty(value)) {
-                    Object tempVal = request.getAttribute(UtilValidate.isEmpty(modelParam.requestAttributeName) ? name : modelParam.requestAttributeName);
-                    if (tempVal != null) {
-                        value = tempVal;
+            // store the multi-part map as an attribute so we can access the parameters
+            request.setAttribute("multiPartMap", multiPartMap);
+
+            Map<String, Object> rawParametersMap = UtilHttp.getCombinedMap(request);
+            Set<String> urlOnlyParameterNames = UtilHttp.getUrlOnlyParameterMap(request).keySet();
+
+            // we have a service and the model; build the context
+            Map<String, Object> serviceContext = new HashMap<String, Object>();
+            for (ModelParam modelParam: model.getInModelParamList()) {
+                String name = modelParam.name;
+
+                // don't include userLogin, that's taken care of below
+                if ("userLogin".equals(name)) continue;
+                // don't include locale, that is also taken care of below
+                if ("locale".equals(name)) continue;
+                // don't include timeZone, that is also taken care of below
+                if ("timeZone".equals(name)) continue;
+
+                Object value = null;
+                if (UtilValidate.isNotEmpty(modelParam.stringMapPrefix)) {
+                    Map<String, Object> paramMap = UtilHttp.makeParamMapWithPrefix(request, multiPartMap, modelParam.stringMapPrefix, null);
+                    value = paramMap;
+                    if (Debug.verboseOn()) Debug.logVerbose("Set [" + modelParam.name + "]: " + paramMap, module);
+                } else if (UtilValidate.isNotEmpty(modelParam.stringListSuffix)) {
+                    List<Object> paramList = UtilHttp.makeParamListWithSuffix(request, multiPartMap, modelParam.stringListSuffix, null);
+                    value = paramList;
+                } else if (isUploadFileParam(modelParam)) {
+                    // SCIPIO: uploaded files are only taken from the multi-part map (see above)
+                    value = multiPartMap.get(name);
+                    if (value == null) {
+                        continue;
+                    }
+                } else {
+                    // first check the multi-part map
+                    value = multiPartMap.get(name);
+
+                    // next check attributes; do this before parameters so that attribute which can be changed by code can override parameters which can't
+                    if (UtilValidate.isEmpty(value)) {
+                        Object tempVal = request.getAttribute(UtilValidate.isEmpty(modelParam.requestAttributeName) ? name : modelParam.requestAttributeName);
+                        if (tempVal != null) {
+                            value = tempVal;
+                        }
                     }
-                }
 
-                // check the request parameters
-                if (UtilValidate.isEmpty(value)) {
-                    ServiceEventHandler.checkSecureParameter(requestMap, urlOnlyParameterNames, name, session, serviceName, dctx.getDelegator());
+                    // check the request parameters
+                    if (UtilValidate.isEmpty(value)) {
+                        ServiceEventHandler.checkSecureParameter(requestMap, urlOnlyParameterNames, name, session, serviceName, dctx.getDelegator());
 
-                    // if the service modelParam has allow-html="any" then get this direct from the request instead of in the parameters Map so there will be no canonicalization possibly messing things up
-                    if ("any".equals(modelParam.allowHtml)) {
-                        value = request.getParameter(name);
-                    } else {
-                        // use the rawParametersMap from UtilHttp in order to also get pathInfo parameters, do canonicalization, etc
-                        value = rawParametersMap.get(name);
-                    }
+                        // if the service modelParam has allow-html="any" then get this direct from the request instead of in the parameters Map so there will be no canonicalization possibly messing things up
+                        if ("any".equals(modelParam.allowHtml)) {
+                            value = request.getParameter(name);
+                        } else {
+                            // use the rawParametersMap from UtilHttp in order to also get pathInfo parameters, do canonicalization, etc
+                            value = rawParametersMap.get(name);
+                        }
 
-                    // make any composite parameter data (e.g., from a set of parameters {name_c_date, name_c_hour, name_c_minutes})
-                    if (value == null) {
-                        value = UtilHttp.makeParamValueFromComposite(request, name, locale);
+                        // make any composite parameter data (e.g., from a set of parameters {name_c_date, name_c_hour, name_c_minutes})
+                        if (value == null) {
+                            value = UtilHttp.makeParamValueFromComposite(request, name, locale);
+                        }
                     }
-                }
 
-                // then session
-                if (UtilValidate.isEmpty(value)) {
-                    Object tempVal = request.getSession().getAttribute(UtilValidate.isEmpty(modelParam.sessionAttributeName) ? name : modelParam.sessionAttributeName);
-                    if (tempVal != null) {
-                        value = tempVal;
+                    // then session
+                    if (UtilValidate.isEmpty(value)) {
+                        Object tempVal = request.getSession().getAttribute(UtilValidate.isEmpty(modelParam.sessionAttributeName) ? name : modelParam.sessionAttributeName);
+                        if (tempVal != null) {
+                            value = tempVal;
+                        }
                     }
-                }
 
-                // no field found
-                if (value == null) {
-                    //still null, give up for this one
-                    continue;
-                }
+                    // no field found
+                    if (value == null) {
+                        //still null, give up for this one
+                        continue;
+                    }
 
-                if (value instanceof String && ((String) value).length() == 0) {
-                    // interpreting empty fields as null values for each in back end handling...
-                    value = null;
+                    if (value instanceof String && ((String) value).length() == 0) {
+                        // interpreting empty fields as null values for each in back end handling...
+                        value = null;
+                    }
                 }
+                // set even if null so that values will get nulled in the db later on
+                serviceContext.put(name, value);
             }
-            // set even if null so that values will get nulled in the db later on
-            serviceContext.put(name, value);
-        }
-
-        // get only the parameters for this service - converted to proper type
-        // TODO: pass in a list for error messages, like could not convert type or not a proper X, return immediately with messages if there are any
-        List<Object> errorMessages = new LinkedList<Object>();
-        serviceContext = model.makeValid(serviceContext, ModelService.IN_PARAM, true, errorMessages, timeZone, locale);
-        if (errorMessages.size() > 0) {
-            // uh-oh, had some problems...
-            request.setAttribute("_ERROR_MESSAGE_LIST_", errorMessages);
-            return "error";
-        }
 
-        // include the UserLogin value object
-        if (userLogin != null) {
-            serviceContext.put("userLogin", userLogin);
-        }
+            // get only the parameters for this service - converted to proper type
+            // TODO: pass in a list for error messages, like could not convert type or not a proper X, return immediately with messages if there are any
+            List<Object> errorMessages = new LinkedList<Object>();
+            serviceContext = model.makeValid(serviceContext, ModelService.IN_PARAM, true, errorMessages, timeZone, locale);
+            if (errorMessages.size() > 0) {
+                // uh-oh, had some problems...
+                request.setAttribute("_ERROR_MESSAGE_LIST_", errorMessages);
+                return "error";
+            }
 
-        // include the Locale object
-        if (locale != null) {
-            serviceContext.put("locale", locale);
-        }
+            // include the UserLogin value object
+            if (userLogin != null) {
+                serviceContext.put("userLogin", userLogin);
+            }
 
-        // include the TimeZone object
-        if (timeZone != null) {
-            serviceContext.put("timeZone", timeZone);
-        }
+            // include the Locale object
+            if (locale != null) {
+                serviceContext.put("locale", locale);
+            }
 
-        // invoke the service
-        Map<String, Object> result = null;
-        try {
-            if (ASYNC.equalsIgnoreCase(mode)) {
-                dispatcher.runAsync(serviceName, serviceContext);
-            } else {
-                result = dispatcher.runSync(serviceName, serviceContext);
+            // include the TimeZone object
+            if (timeZone != null) {
+                serviceContext.put("timeZone", timeZone);
             }
-        } catch (ServiceAuthException e) {
-            // not logging since the service engine already did
-            request.setAttribute("_ERROR_MESSAGE_", e.getNonNestedMessage());
-            return "error";
-        } catch (ServiceValidationException e) {
-            // not logging since the service engine already did
-            request.setAttribute("serviceValidationException", e);
-            if (e.getMessageList() != null) {
-                request.setAttribute("_ERROR_MESSAGE_LIST_", e.getMessageList());
-            } else {
+
+            // invoke the service
+            try {
+                if (ASYNC.equalsIgnoreCase(mode)) {
+                    dispatcher.runAsync(serviceName, serviceContext);
+                } else {
+                    result = dispatcher.runSync(serviceName, serviceContext);
+                }
+            } catch (ServiceAuthException e) {
+                // not logging since the service engine already did
                 request.setAttribute("_ERROR_MESSAGE_", e.getNonNestedMessage());
+                return "error";
+            } catch (ServiceValidationException e) {
+                // not logging since the service engine already did
+                request.setAttribute("serviceValidationException", e);
+                if (e.getMessageList() != null) {
+                    request.setAttribute("_ERROR_MESSAGE_LIST_", e.getMessageList());
+                } else {
+                    request.setAttribute("_ERROR_MESSAGE_", e.getNonNestedMessage());
+                }
+                return "error";
+            } catch (GenericServiceException e) {
+                Debug.logError(e, "Service invocation error", module);
+                throw new EventHandlerException("Service invocation error", e.getNested());
             }
-            return "error";
-        } catch (GenericServiceException e) {
-            Debug.logError(e, "Service invocation error", module);
-            throw new EventHandlerException("Service invocation error", e.getNested());
+        } finally {
+            deleteUploadedFiles(uploadedTempFiles, uploadedItems);
         }
 
         String responseString = null;
@@ -403,6 +433,32 @@ public class ServiceEventHandler implements EventHandler {
         return responseString;
     }
 
+    /**
+     * SCIPIO: Returns true for the IN parameters receiving uploads as temporary files ("_[fieldName]_file"), which may
+     * only be set by the upload itself: taken from request parameters, attributes or the session, a client could pass
+     * the path of any file of the server to the service.
+     */
+    private static boolean isUploadFileParam(ModelParam modelParam) {
+        return modelParam.name.startsWith("_") && modelParam.name.endsWith("_file");
+    }
+
+    /**
+     * SCIPIO: Deletes the uploaded files passed to the service as temporary files, and the upload items
+     * (their data stored on disk, which would otherwise stay until garbage collection).
+     */
+    private static void deleteUploadedFiles(List<File> uploadedTempFiles, List<FileItem> uploadedItems) {
+        for (File uploadedFile : uploadedTempFiles) {
+            if (uploadedFile.exists() && !uploadedFile.delete()) {
+                Debug.logWarning("Could not delete temporary upload file [" + uploadedFile + "]", module);
+            }
+        }
+        if (uploadedItems != null) {
+            for (FileItem item : uploadedItems) {
+                item.delete();
+            }
+        }
+    }
+
     public static void checkSecureParameter(RequestMap requestMap, Set<String> urlOnlyParameterNames, String name, HttpSession session, String serviceName, Delegator delegator) throws EventHandlerException {
         // special case for security: if this is a request-map defined as secure in controller.xml then only accept body parameters coming in, ie don't allow the insecure URL parameters
         // NOTE: the RequestHandler will check the HttpSerletRequest security to make sure it is secure if the request-map -> security -> https=true, but we can't just look at the request.isSecure() method here because it is allowed to send secure requests for request-map with https=false
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.ofbiz.base.metrics.Histogram;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * SCIPIO: Per-id latency percentiles of the hits counted by {@link ServerHitBin}, over a sliding window
+ * (<code>stats.latency.*</code> in serverstats.properties).
+ * <p>
+ * Exported three ways: the webtools LatencyStats page, a plain text endpoint ({@link #exportText}) and JMX
+ * ({@link LatencyMetricsMBean}, registered on first use).
+ * <p>
+ * Each id holds up to (slots + 1) x stripes histograms of about 2KB, allocated as it is recorded to,
+ * so <code>stats.latency.maxIds</code> bounds the memory used (about 43KB per id with the default settings).
+ */
+public final class LatencyMetrics implements LatencyMetricsMBean {
+
+    public static final String module = LatencyMetrics.class.getName();
+
+    public static final String JMX_NAME = "org.ofbiz.webapp.stats:type=LatencyMetrics";
+
+    private static final boolean ENABLED = !"false".equals(UtilProperties.getPropertyValue("serverstats", "stats.latency.enabled"));
+    private static final long WINDOW_MILLIS = getPositiveLong("stats.latency.window.millis", 300000);
+    private static final int SLOT_COUNT = (int) getPositiveLong("stats.latency.window.slots", 10);
+    private static final int STRIPE_COUNT = (int) getPositiveLong("stats.latency.stripes", 2);
+    private static final int MAX_IDS = (int) getPositiveLong("stats.latency.maxIds", 1000);
+
+    private static final LatencyMetrics INSTANCE = new LatencyMetrics();
+
+    private final ConcurrentMap<String, LatencyRecorder> recorders = new ConcurrentHashMap<>();
+    private final AtomicBoolean jmxRegistered = new AtomicBoolean();
+    private volatile boolean maxIdsWarned = false;
+
+    private LatencyMetrics() {
+    }
+
+    private static long getPositiveLong(String name, long defaultValue) {
+        long value = UtilProperties.getPropertyAsLong("serverstats", name, defaultValue);
+        return (value > 0) ? value : defaultValue;
+    }
+
+    public static LatencyMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    private static String makeKey(int type, String id) {
+        return ServerHitBin.getTypeIds()[type] + ":" + id;
+    }
+
+    /**
+     * Records one hit running time for the hit type ({@link ServerHitBin#REQUEST}, etc.) and id.
+     */
+    public void record(int type, String id, long runningTime) {
+        if (!ENABLED) {
+            return;
+        }
+        String key = makeKey(type, id);
+        LatencyRecorder recorder = recorders.get(key);
+        if (recorder == null) {
+            if (recorders.size() >= MAX_IDS) {
+                if (!maxIdsWarned) {
+                    maxIdsWarned = true;
+                    Debug.logWarning("Latency metrics id limit (stats.latency.maxIds=" + MAX_IDS + ") reached; not recording new ids", module);
+                }
+                return;
+            }
+            registerJmx();
+            LatencyRecorder newRecorder = new LatencyRecorder(id, type, WINDOW_MILLIS, SLOT_COUNT, STRIPE_COUNT);
+            recorder = recorders.putIfAbsent(key, newRecorder);
+            if (recorder == null) {
+                recorder = newRecorder;
+            }
+        }
+        recorder.record(runningTime);
+    }
+
+    /** Returns the recorder of the hit type and id, or null if none recorded. */
+    public LatencyRecorder getRecorder(int type, String id) {
+        return recorders.get(makeKey(type, id));
+    }
+
+    /** Returns the recorders of the hit type (0 for all), sorted by id. */
+    public List<LatencyRecorder> getRecorders(int type) {
+        List<LatencyRecorder> result = new ArrayList<>(recorders.size());
+        for (LatencyRecorder recorder : recorders.values()) {
+            if (type == 0 || recorder.getType() == type) {
+                result.add(recorder);
+            }
+        }
+        Collections.sort(result, new Comparator<LatencyRecorder>() {
+            @Override
+            public int compare(LatencyRecorder first, LatencyRecorder second) {
+                int result = Integer.compare(first.getType(), second.getType());
+                return (result != 0) ? result : first.getId().compareTo(second.getId());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns one summary map per id of the hit type (0 for all) over the window (&lt;= 0 for since start):
+     * hitType, id, count, mean, p50, p95, p99, p999 and max, in milliseconds. Ids without hits in the window are skipped.
+     */
+    public List<Map<String, Object>> getSummaries(int type, long windowMillis) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (LatencyRecorder recorder : getRecorders(type)) {
+            Histogram.Snapshot snapshot = recorder.getSnapshot(windowMillis);
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("hitType", ServerHitBin.getTypeIds()[recorder.getType()]);
+            summary.put("id", recorder.getId());
+            summary.put("count", snapshot.getCount());
+            summary.put("mean", Math.round(snapshot.getMean()));
+            summary.put("p50", snapshot.getPercentile(50));
+            summary.put("p95", snapshot.getPercentile(95));
+            summary.put("p99", snapshot.getPercentile(99));
+            summary.put("p999", snapshot.getPercentile(99.9));
+            summary.put("max", snapshot.getMax());
+            result.add(summary);
+        }
+        return result;
+    }
+
+    /**
+     * Writes one tab-separated line per id: hit type, id, count, p50, p95, p99, p99.9, max (milliseconds),
+     * after a header comment line.
+     */
+    public void writeText(Writer writer, int type, long windowMillis) throws IOException {
+        writer.write("# window=" + (windowMillis > 0 ? windowMillis + "ms" : "since-start") + "\n");
+        writer.write("# hitType\tid\tcount\tp50\tp95\tp99\tp999\tmax\n");
+        for (Map<String, Object> summary : getSummaries(type, windowMillis)) {
+            writer.write(summary.get("hitType") + "\t" + summary.get("id") + "\t" + summary.get("count") + "\t" + summary.get("p50")
+                    + "\t" + summary.get("p95") + "\t" + summary.get("p99") + "\t" + summary.get("p999") + "\t" + summary.get("max") + "\n");
+        }
+    }
+
+    /**
+     * Event: writes the text export to the response; optional parameters: hitType (REQUEST, EVENT, VIEW...)
+     * and windowMillis (0 for since start).
+     */
+    public static String exportText(HttpServletRequest request, HttpServletResponse response) {
+        int type = getType(request.getParameter("hitType"));
+        long windowMillis = WINDOW_MILLIS;
+        String windowParam = request.getParameter("windowMillis");
+        if (windowParam != null && !windowParam.isEmpty()) {
+            try {
+                windowMillis = Long.parseLong(windowParam);
+            } catch (NumberFormatException e) {
+                Debug.logWarning("Invalid windowMillis parameter: " + windowParam, module);
+            }
+        }
+        response.setContentType("text/plain; charset=UTF-8");
+        try {
+            Writer writer = response.getWriter();
+            INSTANCE.writeText(writer, type, windowMillis);
+            writer.flush();
+        } catch (IOException e) {
+            Debug.logError(e, "Could not write latency metrics", module);
+            return "error";
+        }
+        return "success";
+    }
+
+    /** Returns the hit type constant for the name (REQUEST, EVENT...), 0 if empty or unknown. */
+    public static int getType(String hitType) {
+        String[] typeIds = ServerHitBin.getTypeIds();
+        if (hitType != null) {
+            for (int i = 1; i < typeIds.length; i++) {
+                if (typeIds[i].equalsIgnoreCase(hitType)) {
+                    return i;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private void registerJmx() {
+        if (jmxRegistered.compareAndSet(false, true)) {
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName(JMX_NAME);
+                if (!mbeanServer.isRegistered(objectName)) {
+                    mbeanServer.registerMBean(this, objectName);
+                }
+            } catch (Exception e) {
+                Debug.logWarning(e, "Could not register latency metrics MBean " + JMX_NAME, module);
+            }
+        }
+    }
+
+    @Override
+    public long getWindowMillis() {
+        return WINDOW_MILLIS;
+    }
+
+    @Override
+    public int getRecorderCount() {
+        return recorders.size();
+    }
+
+    @Override
+    public long getPercentile(String hitType, String id, double percentile) {
+        LatencyRecorder recorder = getRecorder(getType(hitType), id);
+        return (recorder != null) ? recorder.getSnapshot(WINDOW_MILLIS).getPercentile(percentile) : -1;
+    }
+
+    @Override
+    public String getSummary() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeText(writer, 0, WINDOW_MILLIS);
+        } catch (IOException e) {
+            // StringWriter does not throw
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public void reset() {
+        recorders.clear();
+        maxIdsWarned = false;
+    }
+}
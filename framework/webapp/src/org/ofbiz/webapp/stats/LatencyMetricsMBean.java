@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+/**
+ * SCIPIO: JMX interface of {@link LatencyMetrics}, registered as <code>org.ofbiz.webapp.stats:type=LatencyMetrics</code>.
+ */
+public interface LatencyMetricsMBean {
+
+    /** The default window of the percentile operations, in milliseconds. */
+    long getWindowMillis();
+
+    /** Number of ids with recorded latencies. */
+    int getRecorderCount();
+
+    /**
+     * Returns the running time in milliseconds at the percentile (0-100) for the hit type
+     * (REQUEST, EVENT, VIEW, ENTITY, SERVICE) and id, over the default window; -1 if unknown.
+     */
+    long getPercentile(String hitType, String id, double percentile);
+
+    /** Returns the text export (see {@link LatencyMetrics#writeText}) over the default window. */
+    String getSummary();
+
+    /** Drops all recorded latencies. */
+    void reset();
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import org.ofbiz.base.metrics.Histogram;
+import org.ofbiz.base.metrics.SlidingHistogram;
+
+/**
+ * SCIPIO: Latency distribution of one request, event or view id over a sliding window, plus since start
+ * (see {@link SlidingHistogram}), in milliseconds.
+ */
+public final class LatencyRecorder {
+
+    private final String id;
+    private final int type;
+    private final SlidingHistogram histogram;
+    private final long startTime;
+
+    LatencyRecorder(String id, int type, long windowMillis, int slotCount, int stripeCount) {
+        this.id = id;
+        this.type = type;
+        this.histogram = new SlidingHistogram(windowMillis, slotCount, stripeCount);
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** The longest window that can be queried, in milliseconds. */
+    public long getMaxWindowMillis() {
+        return histogram.getMaxWindowMillis();
+    }
+
+    /**
+     * Records one hit running time in milliseconds, at the current time.
+     */
+    public void record(long runningTime) {
+        histogram.record(runningTime);
+    }
+
+    /**
+     * Returns the distribution over the last windowMillis milliseconds (rounded up to whole slots, at most
+     * {@link #getMaxWindowMillis}); windowMillis &lt;= 0 returns the distribution since start.
+     */
+    public Histogram.Snapshot getSnapshot(long windowMillis) {
+        return histogram.getSnapshot(windowMillis);
+    }
+}
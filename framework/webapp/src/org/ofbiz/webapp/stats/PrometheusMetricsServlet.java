@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.ofbiz.base.metrics.Histogram;
+import org.ofbiz.base.metrics.MetricRegistry;
+import org.ofbiz.base.metrics.Metrics;
+import org.ofbiz.base.metrics.MetricsFactory;
+import org.ofbiz.base.metrics.PrometheusTextWriter;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+
+/**
+ * SCIPIO: Exports the {@link MetricRegistry} metrics in Prometheus text format, plus the legacy {@link MetricsFactory}
+ * service rates and the {@link LatencyMetrics} hit latency percentiles (metrics.properties <code>metrics.prometheus.*</code>).
+ * <p>
+ * The servlet requires no login, so it only answers the remote addresses in <code>metrics.prometheus.allowedAddresses</code>
+ * and, if <code>metrics.prometheus.token</code> is set, requests with the header <code>Authorization: Bearer &lt;token&gt;</code>
+ * (the Prometheus <code>bearer_token</code> scrape setting). Behind a reverse proxy the remote address is the proxy's,
+ * so the token is then the only effective check.
+ */
+@SuppressWarnings("serial")
+public class PrometheusMetricsServlet extends HttpServlet {
+
+    public static final String module = PrometheusMetricsServlet.class.getName();
+
+    private static final String PREFIX = UtilProperties.getPropertyValue(MetricRegistry.RESOURCE, "metrics.prometheus.prefix", "scipio_");
+    private static final boolean INCLUDE_LEGACY = UtilProperties.getPropertyAsBoolean(MetricRegistry.RESOURCE, "metrics.prometheus.includeLegacy", true);
+    private static final boolean INCLUDE_HIT_LATENCY = UtilProperties.getPropertyAsBoolean(MetricRegistry.RESOURCE, "metrics.prometheus.includeHitLatency", true);
+    private static final double[] HIT_QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private Set<String> allowedAddresses;
+    private boolean allowAll;
+    private byte[] token;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        String addresses = UtilProperties.getPropertyValue(MetricRegistry.RESOURCE, "metrics.prometheus.allowedAddresses", "127.0.0.1");
+        this.allowedAddresses = new HashSet<>();
+        for (String address : StringUtil.split(addresses, ",")) {
+            address = address.trim();
+            if ("*".equals(address)) {
+                this.allowAll = true;
+            } else if (!address.isEmpty()) {
+                this.allowedAddresses.add(address);
+            }
+        }
+        String token = UtilProperties.getPropertyValue(MetricRegistry.RESOURCE, "metrics.prometheus.token");
+        this.token = UtilValidate.isNotEmpty(token) ? token.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private boolean isTokenValid(HttpServletRequest request) {
+        if (token == null) {
+            return true;
+        }
+        String authorization = request.getHeader("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+        // NOTE: constant-time comparison
+        return MessageDigest.isEqual(token, authorization.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (!allowAll && !allowedAddresses.contains(request.getRemoteAddr())) {
+            Debug.logWarning("Metrics export denied to remote address " + request.getRemoteAddr()
+                    + " (metrics.prometheus.allowedAddresses)", module);
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        if (!isTokenValid(request)) {
+            Debug.logWarning("Metrics export denied to remote address " + request.getRemoteAddr()
+                    + ": missing or invalid bearer token (metrics.prometheus.token)", module);
+            response.setHeader("WWW-Authenticate", "Bearer");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        response.setContentType(PrometheusTextWriter.CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        PrometheusTextWriter textWriter = new PrometheusTextWriter(writer, PREFIX);
+        textWriter.writeRegistry(MetricRegistry.getDefault());
+        if (INCLUDE_LEGACY) {
+            writeLegacyMetrics(textWriter);
+        }
+        if (INCLUDE_HIT_LATENCY && LatencyMetrics.isEnabled()) {
+            writeHitLatency(textWriter);
+        }
+        writer.flush();
+    }
+
+    private static void writeLegacyMetrics(PrometheusTextWriter textWriter) throws IOException {
+        textWriter.writeType("legacy_service_rate", "gauge");
+        for (Metrics metrics : MetricsFactory.getMetrics()) {
+            textWriter.writeSample("legacy_service_rate", MetricRegistry.makeTags("metric", metrics.getName()), null, null, metrics.getServiceRate());
+        }
+        textWriter.writeType("legacy_events_total", "counter");
+        for (Metrics metrics : MetricsFactory.getMetrics()) {
+            textWriter.writeSample("legacy_events_total", MetricRegistry.makeTags("metric", metrics.getName()), null, null, metrics.getTotalEvents());
+        }
+    }
+
+    /**
+     * Writes the hit latency percentiles over the latency window as gauges (the windowed counts are not monotonic,
+     * so they cannot be summary counts).
+     */
+    private static void writeHitLatency(PrometheusTextWriter textWriter) throws IOException {
+        LatencyMetrics latencyMetrics = LatencyMetrics.getInstance();
+        long windowMillis = latencyMetrics.getWindowMillis();
+        List<Map<String, String>> tagsList = new ArrayList<>();
+        List<Histogram.Snapshot> snapshots = new ArrayList<>();
+        for (LatencyRecorder recorder : latencyMetrics.getRecorders(0)) {
+            Histogram.Snapshot snapshot = recorder.getSnapshot(windowMillis);
+            if (snapshot.getCount() > 0) {
+                tagsList.add(MetricRegistry.makeTags("hit_type", ServerHitBin.getTypeIds()[recorder.getType()], "id", recorder.getId()));
+                snapshots.add(snapshot);
+            }
+        }
+        textWriter.writeType("hit_latency_seconds", "gauge");
+        for (int i = 0; i < snapshots.size(); i++) {
+            for (double quantile : HIT_QUANTILES) {
+                textWriter.writeSample("hit_latency_seconds", tagsList.get(i), "quantile", Double.toString(quantile),
+                        snapshots.get(i).getPercentile(quantile * 100) / 1000.0);
+            }
+        }
+        textWriter.writeType("hit_latency_window_count", "gauge");
+        for (int i = 0; i < snapshots.size(); i++) {
+            textWriter.writeSample("hit_latency_window_count", tagsList.get(i), null, null, snapshots.get(i).getCount());
+        }
+    }
+}
@@ -23,13 +23,14 @@ import java.util.Deque;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilMisc;
-import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
@@ -37,7 +38,6 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.util.EntityQuery;
-import org.ofbiz.entity.util.EntityUtilProperties;
 
 import com.ibm.icu.util.Calendar;
 
@@ -94,10 +94,30 @@ public class ServerHitBin {
 
     private static void countHit(String id, int type, HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin) {
         // only count hits if enabled, if not specified defaults to false
-        if (!"true".equals(UtilProperties.getPropertyValue("serverstats", "stats.enable." + typeIds[type]))) return;
+        // SCIPIO: settings are read from the cached ServerStatsConfig instead of the properties on each hit
+        if (!ServerStatsConfig.getConfig(getDelegator(request)).isEnabled(type)) return;
         countHit(id, type, request, startTime, runningTime, userLogin, true);
     }
 
+    /**
+     * SCIPIO: The hit type names by type constant (index 0 unused).
+     */
+    static String[] getTypeIds() {
+        return typeIds;
+    }
+
+    private static Delegator getDelegator(HttpServletRequest request) {
+        Delegator delegator = (Delegator) request.getAttribute("delegator");
+        if (delegator == null) {
+            String delegatorName = (String) request.getSession().getAttribute("delegatorName");
+            delegator = DelegatorFactory.getDelegator(delegatorName);
+        }
+        if (delegator == null) {
+            throw new IllegalArgumentException("In countHit could not find a delegator or delegatorName to work from");
+        }
+        return delegator;
+    }
+
     private static String makeIdTenantAware(String id, Delegator delegator) {
         if (UtilValidate.isNotEmpty(delegator.getDelegatorTenantId())) {
             return id + "#" + delegator.getDelegatorTenantId();
@@ -106,16 +126,6 @@ public class ServerHitBin {
         }
     }
 
-    private static long getNewBinLength() {
-        long binLength = (long) UtilProperties.getPropertyNumber("serverstats", "stats.bin.length.millis");
-
-        // if no or 0 binLength specified, set to 30 minutes
-        if (binLength <= 0) binLength = 1800000;
-        // if binLength is more than an hour, set it to one hour
-        if (binLength > 3600000) binLength = 3600000;
-        return binLength;
-    }
-
     private static long getEvenStartingTime(long binLength) {
         // binLengths should be a divisable evenly into 1 hour
         long curTime = System.currentTimeMillis();
@@ -136,17 +146,16 @@ public class ServerHitBin {
     }
 
     private static void countHit(String baseId, int type, HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin, boolean isOriginal) {
-        Delegator delegator = (Delegator) request.getAttribute("delegator");
-        if (delegator == null) {
-            String delegatorName = (String) request.getSession().getAttribute("delegatorName");
-            delegator = DelegatorFactory.getDelegator(delegatorName);
-        }
-        if (delegator == null) {
-            throw new IllegalArgumentException("In countHit could not find a delegator or delegatorName to work from");
-        }
-        
+        Delegator delegator = getDelegator(request);
+        ServerStatsConfig config = ServerStatsConfig.getConfig(delegator);
+
         String id = makeIdTenantAware(baseId, delegator);
 
+        if (isOriginal) {
+            // SCIPIO: latency percentiles per id (only the hit's own id, not the hierarchy or GLOBAL)
+            LatencyMetrics.getInstance().record(type, id, runningTime);
+        }
+
         ServerHitBin bin = null;
         Deque<ServerHitBin> binList = null;
 
@@ -214,7 +223,7 @@ public class ServerHitBin {
             // put the copy at the first of the list, then put this object back on
             if (bin.getNumberHits() > 0) {
                 // persist each bin when time ends if option turned on
-                if (EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".bin", "true", delegator)) {
+                if (config.isPersistBin(type)) {
                     GenericValue serverHitBin = delegator.makeValue("ServerHitBin");
                     serverHitBin.set("contentId", bin.id);
                     serverHitBin.set("hitTypeId", ServerHitBin.typeIds[bin.type]);
@@ -230,7 +239,8 @@ public class ServerHitBin {
                         serverHitBin.set("serverHostName", VisitHandler.address.getHostName());
                     }
                     try {
-                        delegator.createSetNextSeqId(serverHitBin);
+                        // SCIPIO: written by the background writer (if enabled)
+                        ServerHitWriter.getInstance().createSetNextSeqId(serverHitBin);
                     } catch (GenericEntityException e) {
                         Debug.logError(e, "Could not save ServerHitBin:", module);
                     }
@@ -245,7 +255,7 @@ public class ServerHitBin {
         bin.addHit(runningTime);
         if (isOriginal) {
             try {
-                bin.saveHit(request, startTime, runningTime, userLogin);
+                bin.saveHit(request, startTime, runningTime, userLogin, config);
             } catch (GenericEntityException e) {
                 Debug.logWarning("Error saving ServerHit: " + e.toString(), module);
             }
@@ -331,17 +341,18 @@ public class ServerHitBin {
     private final long startTime;
     private final long endTime;
 
-    private long numberHits;
-    private long totalRunningTime;
-    private long minTime;
-    private long maxTime;
+    // SCIPIO: lock-free counters; hot ids were contending on the synchronized addHit
+    private final LongAdder numberHits = new LongAdder();
+    private final LongAdder totalRunningTime = new LongAdder();
+    private final LongAccumulator minTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator maxTime = new LongAccumulator(Math::max, 0);
 
     private ServerHitBin(String id, int type, boolean limitLength, Delegator delegator) {
         this.id = id;
         this.type = type;
         this.limitLength = limitLength;
         this.delegator = delegator;
-        this.binLength = getNewBinLength();
+        this.binLength = ServerStatsConfig.getConfig(delegator).getBinLength();
         this.startTime = getEvenStartingTime(this.binLength);
         if (this.limitLength) {
             // subtract 1 millisecond to keep bin starting times even
@@ -349,10 +360,6 @@ public class ServerHitBin {
         } else {
             this.endTime = 0;
         }
-        this.numberHits = 0;
-        this.totalRunningTime = 0;
-        this.minTime = Long.MAX_VALUE;
-        this.maxTime = 0;
     }
 
     private ServerHitBin(ServerHitBin oldBin, long startTime) {
@@ -369,10 +376,6 @@ public class ServerHitBin {
         } else {
             this.endTime = 0;
         }
-        this.numberHits = 0;
-        this.totalRunningTime = 0;
-        this.minTime = Long.MAX_VALUE;
-        this.maxTime = 0;
     }
 
     public Delegator getDelegator() {
@@ -418,20 +421,20 @@ public class ServerHitBin {
         return (this.getBinLength()) / 60000.0;
     }
 
-    public synchronized long getNumberHits() {
-        return this.numberHits;
+    public long getNumberHits() {
+        return this.numberHits.sum();
     }
 
-    public synchronized long getMinTime() {
-        return this.minTime;
+    public long getMinTime() {
+        return this.minTime.get();
     }
 
-    public synchronized long getMaxTime() {
-        return this.maxTime;
+    public long getMaxTime() {
+        return this.maxTime.get();
     }
 
-    public synchronized long getTotalRunningTime() {
-        return this.totalRunningTime;
+    public long getTotalRunningTime() {
+        return this.totalRunningTime.sum();
     }
 
     public double getMinTimeSeconds() {
@@ -442,7 +445,7 @@ public class ServerHitBin {
         return (this.getMaxTime()) / 1000.0;
     }
 
-    public synchronized double getAvgTime() {
+    public double getAvgTime() {
         return ((double) this.getTotalRunningTime()) / ((double) this.getNumberHits());
     }
 
@@ -455,19 +458,17 @@ public class ServerHitBin {
         return this.getNumberHits() / this.getBinLengthMinutes();
     }
 
-    private synchronized void addHit(long runningTime) {
-        this.numberHits++;
-        this.totalRunningTime += runningTime;
-        if (runningTime < this.minTime)
-            this.minTime = runningTime;
-        if (runningTime > this.maxTime)
-            this.maxTime = runningTime;
+    private void addHit(long runningTime) {
+        this.totalRunningTime.add(runningTime);
+        this.minTime.accumulate(runningTime);
+        this.maxTime.accumulate(runningTime);
+        this.numberHits.increment();
     }
 
-    private void saveHit(HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin) throws GenericEntityException {
+    private void saveHit(HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin, ServerStatsConfig config) throws GenericEntityException {
         // persist record of hit in ServerHit entity if option turned on
         Delegator delegator = (Delegator) request.getAttribute("delegator");
-        if (EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".hit", "true", delegator)) {
+        if (config.isPersistHit(this.type)) {
             // if the hit type is ENTITY and the name contains "ServerHit" don't
             // persist; avoids the infinite loop and a bunch of annoying data
             if (this.type == ENTITY && this.id.indexOf("ServerHit") > 0) {
@@ -491,14 +492,18 @@ public class ServerHitBin {
                 return;
             }
             String visitId = visit.getString("visitId");
-            visit = EntityQuery.use(delegator).from("Visit").where("visitId", visitId).queryOne();
-            if (visit == null) {
-                // GenericValue stored in client session does not exist in database.
-                Debug.logInfo("The Visit GenericValue stored in the client session does not exist in the database, not storing server hit.", module);
-                return;
+            // SCIPIO: with the background writer, the session Visit may still be queued; the writer writes
+            // it before this hit, and drops the hit if the Visit does not exist
+            if (!ServerHitWriter.getInstance().isAsync()) {
+                visit = EntityQuery.use(delegator).from("Visit").where("visitId", visitId).queryOne();
+                if (visit == null) {
+                    // GenericValue stored in client session does not exist in database.
+                    Debug.logInfo("The Visit GenericValue stored in the client session does not exist in the database, not storing server hit.", module);
+                    return;
+                }
             }
-            
-            Debug.logInfo("Visit delegatorName=" + visit.getDelegator().getDelegatorName() + ", ServerHitBin delegatorName=" + this.delegator.getDelegatorName(), module);
+
+            if (Debug.verboseOn()) Debug.logVerbose("Visit delegatorName=" + visit.getDelegator().getDelegatorName() + ", ServerHitBin delegatorName=" + this.delegator.getDelegatorName(), module);
             
             GenericValue serverHit = delegator.makeValue("ServerHit");
 
@@ -544,7 +549,8 @@ public class ServerHitBin {
             // every server hit even with equal startTimes but that could be
             // solved adding a counter to the ServerHit's PK (a counter
             // counting multiple hits at the same startTime).
-            serverHit.create();
+            // SCIPIO: written by the background writer (if enabled), which drops it on error instead
+            ServerHitWriter.getInstance().create(serverHit);
         }
     }
 }
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Write-behind queue for the statistics records (ServerHit, ServerHitBin, Visit, Visitor),
+ * so they are not inserted on the request thread.
+ * <p>
+ * A single background thread drains the queue and writes up to <code>stats.writer.batch.size</code> records
+ * per transaction, in queue order, so a Visit is always written before the ServerHits that reference it.
+ * If a batch fails, its records are retried one per transaction and the failing ones are dropped.
+ * <p>
+ * When the queue (<code>stats.writer.queue.size</code>) is full, <code>stats.writer.overflow.policy</code> decides:
+ * <ul>
+ * <li><code>drop</code> (default): the record is discarded and counted</li>
+ * <li><code>block</code>: the request thread waits up to <code>stats.writer.overflow.wait.millis</code>, then discards it</li>
+ * <li><code>sync</code>: the request thread writes the record itself, as without the queue</li>
+ * </ul>
+ * With <code>stats.writer.async=false</code> all records are written on the request thread.
+ * Records still queued when the server stops are lost.
+ */
+public final class ServerHitWriter {
+
+    public static final String module = ServerHitWriter.class.getName();
+
+    private static final boolean ASYNC = !"false".equals(UtilProperties.getPropertyValue("serverstats", "stats.writer.async"));
+    private static final int QUEUE_SIZE = getPositiveInt("stats.writer.queue.size", 10000);
+    private static final int BATCH_SIZE = getPositiveInt("stats.writer.batch.size", 200);
+    private static final long OVERFLOW_WAIT_MILLIS = getPositiveInt("stats.writer.overflow.wait.millis", 50);
+    private static final String OVERFLOW_POLICY = UtilProperties.getPropertyValue("serverstats", "stats.writer.overflow.policy", "drop");
+    /** Minimum interval between two warnings about dropped records. */
+    private static final long DROP_WARN_INTERVAL_MILLIS = 60000;
+
+    private static final ServerHitWriter INSTANCE = new ServerHitWriter();
+
+    private final BlockingQueue<Write> queue;
+    private final Thread writerThread;
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong lastDropWarnTime = new AtomicLong();
+
+    private enum Operation {
+        CREATE,
+        /** Create, assigning the primary key from the sequence in the writer thread (ServerHitBin). */
+        CREATE_SEQ,
+        /** Create, unless a record with the same primary key exists (Visitor of a Visit). */
+        CREATE_IF_MISSING,
+        STORE
+    }
+
+    private static final class Write {
+        private final Operation operation;
+        private final GenericValue value;
+
+        Write(Operation operation, GenericValue value) {
+            this.operation = operation;
+            this.value = value;
+        }
+
+        void execute() throws GenericEntityException {
+            switch (operation) {
+            case CREATE:
+                value.getDelegator().create(value);
+                break;
+            case CREATE_SEQ:
+                value.getDelegator().createSetNextSeqId(value);
+                break;
+            case CREATE_IF_MISSING:
+                if (value.getDelegator().findOne(value.getEntityName(), value.getPrimaryKey(), false) == null) {
+                    value.getDelegator().create(value);
+                }
+                break;
+            case STORE:
+                value.getDelegator().store(value);
+                break;
+            }
+        }
+    }
+
+    private ServerHitWriter() {
+        if (ASYNC) {
+            this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            this.writerThread = new Thread(new Writer(), "Scipio-ServerHitWriter");
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
+        } else {
+            this.queue = null;
+            this.writerThread = null;
+        }
+    }
+
+    private static int getPositiveInt(String name, int defaultValue) {
+        int value = UtilProperties.getPropertyAsInteger("serverstats", name, defaultValue);
+        return (value > 0) ? value : defaultValue;
+    }
+
+    public static ServerHitWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns true if records are written by the background thread (<code>stats.writer.async</code>).
+     * When true, a value passed to {@link #create} must already have its primary key.
+     */
+    public boolean isAsync() {
+        return ASYNC;
+    }
+
+    /** Queues the insert of a value whose primary key is set. */
+    public void create(GenericValue value) throws GenericEntityException {
+        submit(new Write(Operation.CREATE, value));
+    }
+
+    /** Queues the insert of a value whose primary key is assigned from its sequence. */
+    public void createSetNextSeqId(GenericValue value) throws GenericEntityException {
+        submit(new Write(Operation.CREATE_SEQ, value));
+    }
+
+    /**
+     * Queues the insert of a value whose primary key is set, unless a record with that key exists when it is written;
+     * the check is done by the writer, after the records queued before it were written.
+     */
+    public void createIfMissing(GenericValue value) throws GenericEntityException {
+        submit(new Write(Operation.CREATE_IF_MISSING, value));
+    }
+
+    /** Queues the update of a value. */
+    public void store(GenericValue value) throws GenericEntityException {
+        // NOTE: the value may still be modified by the request thread (e.g. the session Visit), so write a copy
+        submit(new Write(Operation.STORE, GenericValue.create(value)));
+    }
+
+    private void submit(Write write) throws GenericEntityException {
+        if (!ASYNC) {
+            write.execute();
+            return;
+        }
+        if (queue.offer(write)) {
+            queuedCount.incrementAndGet();
+            return;
+        }
+        if ("sync".equals(OVERFLOW_POLICY)) {
+            write.execute();
+            return;
+        }
+        if ("block".equals(OVERFLOW_POLICY)) {
+            try {
+                if (queue.offer(write, OVERFLOW_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    queuedCount.incrementAndGet();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long dropped = droppedCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long lastWarn = lastDropWarnTime.get();
+        if (now - lastWarn >= DROP_WARN_INTERVAL_MILLIS && lastDropWarnTime.compareAndSet(lastWarn, now)) {
+            Debug.logWarning("Server stats write queue is full (" + QUEUE_SIZE + "); dropped " + dropped
+                    + " records so far. Consider increasing stats.writer.queue.size or disabling hit persistence.", module);
+        }
+    }
+
+    /**
+     * Returns the queue statistics: queued, written, dropped and failed record counts and the current queue size.
+     */
+    public Map<String, Object> getState() {
+        Map<String, Object> state = new HashMap<>();
+        state.put("async", ASYNC);
+        state.put("queueCapacity", QUEUE_SIZE);
+        state.put("queueSize", (queue != null) ? queue.size() : 0);
+        state.put("queuedCount", queuedCount.get());
+        state.put("writtenCount", writtenCount.get());
+        state.put("droppedCount", droppedCount.get());
+        state.put("failedCount", failedCount.get());
+        return state;
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            List<Write> batch = new ArrayList<>(BATCH_SIZE);
+            while (true) {
+                try {
+                    Write first = queue.take();
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    writeBatch(batch);
+                } catch (InterruptedException e) {
+                    Debug.logInfo("Server stats writer interrupted; " + queue.size() + " records not written", module);
+                    return;
+                } catch (Throwable t) {
+                    Debug.logError(t, "Unexpected error in server stats writer", module);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void writeBatch(List<Write> batch) {
+            if (batch.size() > 1) {
+                boolean beganTransaction = false;
+                try {
+                    beganTransaction = TransactionUtil.begin();
+                    for (Write write : batch) {
+                        write.execute();
+                    }
+                    TransactionUtil.commit(beganTransaction);
+                    writtenCount.addAndGet(batch.size());
+                    return;
+                } catch (Throwable t) {
+                    // NOTE: any failure, including runtime errors from the entity engine, must end the transaction
+                    // of this thread, otherwise the next batch would join it
+                    try {
+                        TransactionUtil.rollback(beganTransaction, "Could not write server stats batch", t);
+                    } catch (GenericTransactionException e2) {
+                        Debug.logError(e2, "Could not roll back server stats batch", module);
+                    }
+                    if (Debug.verboseOn()) Debug.logVerbose("Server stats batch of " + batch.size() + " failed, retrying records one by one: " + t.toString(), module);
+                }
+            }
+            for (Write write : batch) {
+                boolean beganTransaction = false;
+                try {
+                    beganTransaction = TransactionUtil.begin();
+                    write.execute();
+                    TransactionUtil.commit(beganTransaction);
+                    writtenCount.incrementAndGet();
+                } catch (Throwable t) {
+                    failedCount.incrementAndGet();
+                    Debug.logWarning("Could not save " + write.value.getEntityName() + ": " + t.toString(), module);
+                    try {
+                        TransactionUtil.rollback(beganTransaction, "Could not save " + write.value.getEntityName(), t);
+                    } catch (GenericTransactionException e2) {
+                        Debug.logError(e2, "Could not roll back " + write.value.getEntityName() + " save", module);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.util.EntityUtilProperties;
+
+/**
+ * SCIPIO: Snapshot of the serverstats.properties settings read on every hit, so that counting a hit
+ * does not look up (and concatenate) property names each time.
+ * <p>
+ * One snapshot per delegator, since the settings can be overridden per tenant through SystemProperty
+ * (see {@link EntityUtilProperties}); the null-delegator snapshot reads the properties file only.
+ * Snapshots are held in the <code>webapp.ServerStatsConfig</code> UtilCache, so changes are picked up
+ * after its expireTime or when it is cleared from webtools.
+ */
+public class ServerStatsConfig {
+
+    public static final String module = ServerStatsConfig.class.getName();
+
+    private static final String NO_DELEGATOR_KEY = "_NONE_";
+
+    private static final UtilCache<String, ServerStatsConfig> configCache = UtilCache.createUtilCache("webapp.ServerStatsConfig");
+
+    private final boolean[] enabled;
+    private final boolean[] persistBin;
+    private final boolean[] persistHit;
+    private final boolean persistVisit;
+    private final boolean persistVisitor;
+    private final boolean proxyEnabled;
+    private final long binLength;
+
+    private ServerStatsConfig(Delegator delegator) {
+        String[] typeIds = ServerHitBin.getTypeIds();
+        this.enabled = new boolean[typeIds.length];
+        this.persistBin = new boolean[typeIds.length];
+        this.persistHit = new boolean[typeIds.length];
+        for (int type = 1; type < typeIds.length; type++) {
+            // only count hits if enabled, if not specified defaults to false
+            this.enabled[type] = "true".equals(getPropertyValue("stats.enable." + typeIds[type], delegator));
+            this.persistBin[type] = "true".equalsIgnoreCase(getPropertyValue("stats.persist." + typeIds[type] + ".bin", delegator));
+            this.persistHit[type] = "true".equalsIgnoreCase(getPropertyValue("stats.persist." + typeIds[type] + ".hit", delegator));
+        }
+        // these default to true: ie if anything but "false" it will be true
+        this.persistVisit = !"false".equalsIgnoreCase(getPropertyValue("stats.persist.visit", delegator));
+        this.persistVisitor = !"false".equalsIgnoreCase(getPropertyValue("stats.persist.visitor", delegator));
+        this.proxyEnabled = "true".equals(getPropertyValue("stats.proxy.enabled", delegator));
+
+        long binLength = (long) UtilProperties.getPropertyNumber("serverstats", "stats.bin.length.millis");
+        // if no or 0 binLength specified, set to 30 minutes
+        if (binLength <= 0) binLength = 1800000;
+        // if binLength is more than an hour, set it to one hour
+        if (binLength > 3600000) binLength = 3600000;
+        this.binLength = binLength;
+    }
+
+    private static String getPropertyValue(String name, Delegator delegator) {
+        if (delegator != null) {
+            return EntityUtilProperties.getPropertyValue("serverstats", name, delegator);
+        } else {
+            return UtilProperties.getPropertyValue("serverstats", name);
+        }
+    }
+
+    /**
+     * Returns the settings for the delegator, or the properties file settings if delegator is null.
+     */
+    public static ServerStatsConfig getConfig(Delegator delegator) {
+        String key = (delegator != null) ? delegator.getDelegatorName() : NO_DELEGATOR_KEY;
+        ServerStatsConfig config = configCache.get(key);
+        if (config == null) {
+            config = configCache.putIfAbsentAndGet(key, new ServerStatsConfig(delegator));
+        }
+        return config;
+    }
+
+    /** stats.enable.[type] */
+    public boolean isEnabled(int type) {
+        return enabled[type];
+    }
+
+    /** stats.persist.[type].bin */
+    public boolean isPersistBin(int type) {
+        return persistBin[type];
+    }
+
+    /** stats.persist.[type].hit */
+    public boolean isPersistHit(int type) {
+        return persistHit[type];
+    }
+
+    /** stats.persist.visit */
+    public boolean isPersistVisit() {
+        return persistVisit;
+    }
+
+    /** stats.persist.visitor */
+    public boolean isPersistVisitor() {
+        return persistVisitor;
+    }
+
+    /** stats.proxy.enabled */
+    public boolean isProxyEnabled() {
+        return proxyEnabled;
+    }
+
+    /** stats.bin.length.millis, limited to 1 hour and defaulting to 30 minutes */
+    public long getBinLength() {
+        return binLength;
+    }
+}
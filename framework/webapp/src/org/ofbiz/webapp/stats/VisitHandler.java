@@ -28,7 +28,6 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.ofbiz.base.util.Debug;
-import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
@@ -36,7 +35,6 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.util.EntityQuery;
-import org.ofbiz.entity.util.EntityUtilProperties;
 
 /**
  * Handles saving and maintaining visit information
@@ -69,7 +67,7 @@ public class VisitHandler {
                 visitor.set("partyId", userLogin.get("partyId"));
             }
             try {
-                visitor.store();
+                ServerHitWriter.getInstance().store(visitor); // SCIPIO: background writer (if enabled)
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Could not update visitor: ", module);
             }
@@ -89,7 +87,7 @@ public class VisitHandler {
             }
 
             try {
-                visit.store();
+                ServerHitWriter.getInstance().store(visit); // SCIPIO: background writer (if enabled)
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Could not update visit: ", module);
             }
@@ -108,7 +106,8 @@ public class VisitHandler {
     /** Get the visit from the session, or create if missing */
     public static GenericValue getVisit(HttpSession session) {
         // this defaults to true: ie if anything but "false" it will be true
-        if (!UtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist.visit", "false")) {
+        // SCIPIO: read from the cached ServerStatsConfig
+        if (ServerStatsConfig.getConfig(null).isPersistVisit()) {
             GenericValue visit = (GenericValue) session.getAttribute("visit");
             if (visit == null) {
                 synchronized (session) {
@@ -151,7 +150,7 @@ public class VisitHandler {
                             if (initialReferrer != null) visit.set("initialReferrer", initialReferrer.length() > 250 ? initialReferrer.substring(0, 250) : initialReferrer);
                             if (initialUserAgent != null) visit.set("initialUserAgent", initialUserAgent.length() > 250 ? initialUserAgent.substring(0, 250) : initialUserAgent);
                             visit.set("webappName", webappName);
-                            if (UtilProperties.propertyValueEquals("serverstats", "stats.proxy.enabled", "true")) {
+                            if (ServerStatsConfig.getConfig(null).isProxyEnabled()) {
                                 visit.set("clientIpAddress", session.getAttribute("_CLIENT_FORWARDED_FOR_"));
                             } else {
                                 visit.set("clientIpAddress", session.getAttribute("_CLIENT_REMOTE_ADDR_"));
@@ -165,15 +164,26 @@ public class VisitHandler {
                                 String visitorId = visitor.getString("visitorId");
                                 
                                 // sometimes these values get stale, so check it before we use it
-                                try {
-                                    GenericValue checkVisitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", visitorId).queryOne();
-                                    if (checkVisitor == null) {
-                                        GenericValue newVisitor = delegator.create("Visitor", "visitorId", visitorId);
-                                        session.setAttribute("visitor", newVisitor);
+                                // SCIPIO: with the background writer, a new Visitor may still be queued, so the writer checks it
+                                // and creates it if missing, before the Visit, which is queued after it
+                                if (ServerHitWriter.getInstance().isAsync()) {
+                                    try {
+                                        ServerHitWriter.getInstance().createIfMissing(delegator.makeValue("Visitor", "visitorId", visitorId));
+                                        visit.set("visitorId", visitorId);
+                                    } catch (GenericEntityException e) {
+                                        Debug.logWarning("Problem checking the visitorId: " + e.toString(), module);
+                                    }
+                                } else {
+                                    try {
+                                        GenericValue checkVisitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", visitorId).queryOne();
+                                        if (checkVisitor == null) {
+                                            GenericValue newVisitor = delegator.create("Visitor", "visitorId", visitorId);
+                                            session.setAttribute("visitor", newVisitor);
+                                        }
+                                        visit.set("visitorId", visitorId);
+                                    } catch (GenericEntityException e) {
+                                        Debug.logWarning("Problem checking the visitorId: " + e.toString(), module);
                                     }
-                                    visit.set("visitorId", visitorId);
-                                } catch (GenericEntityException e) {
-                                    Debug.logWarning("Problem checking the visitorId: " + e.toString(), module);
                                 }
                             }
 
@@ -184,7 +194,7 @@ public class VisitHandler {
                             }
 
                             try {
-                                visit = delegator.createSetNextSeqId(visit);
+                                visit = createSetNextSeqId(delegator, visit);
                                 session.setAttribute("visit", visit);
                             } catch (GenericEntityException e) {
                                 Debug.logError(e, "Could not create new visit:", module);
@@ -206,7 +216,8 @@ public class VisitHandler {
     public static GenericValue getVisitor(HttpServletRequest request, HttpServletResponse response) {
         // this defaults to true: ie if anything but "false" it will be true
         Delegator delegator = (Delegator) request.getAttribute("delegator");
-        if (!EntityUtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist.visitor", "false", delegator)) {
+        // SCIPIO: read from the cached ServerStatsConfig
+        if (ServerStatsConfig.getConfig(delegator).isPersistVisitor()) {
             HttpSession session = request.getSession();
 
             GenericValue visitor = (GenericValue) session.getAttribute("visitor");
@@ -242,7 +253,7 @@ public class VisitHandler {
                                 // no visitor cookie? create visitor and send back cookie too
                                 visitor = delegator.makeValue("Visitor");
                                 try {
-                                    delegator.createSetNextSeqId(visitor);
+                                    visitor = createSetNextSeqId(delegator, visitor);
                                 } catch (GenericEntityException e) {
                                     Debug.logError(e, "Could not create new visitor:", module);
                                     visitor = null;
@@ -253,7 +264,7 @@ public class VisitHandler {
                                     if (visitor == null) {
                                         // looks like we have an ID that doesn't exist in our database, so we'll create a new one
                                         visitor = delegator.makeValue("Visitor");
-                                        visitor = delegator.createSetNextSeqId(visitor);
+                                        visitor = createSetNextSeqId(delegator, visitor);
                                         if (Debug.infoOn()) Debug.logInfo("The visitorId [" + cookieVisitorId + "] found in cookie was invalid, creating new Visitor with ID [" + visitor.getString("visitorId") + "]", module);
                                     }
                                 } catch (GenericEntityException e) {
@@ -283,4 +294,20 @@ public class VisitHandler {
         }
         return null;
     }
+
+    /**
+     * SCIPIO: Assigns the next sequence ID to the new Visit or Visitor now, since the session needs it,
+     * and inserts it through the {@link ServerHitWriter}, in the background if enabled.
+     */
+    private static GenericValue createSetNextSeqId(Delegator delegator, GenericValue value) throws GenericEntityException {
+        ServerHitWriter writer = ServerHitWriter.getInstance();
+        if (!writer.isAsync()) {
+            return delegator.createSetNextSeqId(value);
+        }
+        String pkName = value.getModelEntity().getFirstPkFieldName();
+        value.set(pkName, delegator.getNextSeqId(value.getEntityName()));
+        // NOTE: the caller keeps the value in the session and may modify it, so queue a copy
+        writer.create(GenericValue.create(value));
+        return value;
+    }
 }
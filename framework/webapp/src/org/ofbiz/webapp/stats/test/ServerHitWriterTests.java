@@ -0,0 +1,92 @@
+package org.ofbiz.webapp.stats.test;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.testtools.OFBizTestCase;
+import org.ofbiz.webapp.stats.ServerHitWriter;
+
+/**
+ * SCIPIO: Checks that the server stats writer ({@link ServerHitWriter}) writes its records in queue order and
+ * drops only the records that fail, whether it writes in the background or not (<code>stats.writer.async</code>).
+ */
+public class ServerHitWriterTests extends OFBizTestCase {
+
+    private static final long WRITE_TIMEOUT_MILLIS = 30000;
+
+    public ServerHitWriterTests(String name) {
+        super(name);
+    }
+
+    private static long getFailedCount() {
+        return (Long) ServerHitWriter.getInstance().getState().get("failedCount");
+    }
+
+    private GenericValue makeVisit(String visitId, String visitorId) {
+        return delegator.makeValue("Visit", UtilMisc.toMap("visitId", visitId, "visitorId", visitorId,
+                "sessionId", "SHW_TEST", "fromDate", UtilDateTime.nowTimestamp()));
+    }
+
+    /**
+     * Waits for the Visit to be written with the given sessionId.
+     */
+    private GenericValue waitForVisit(String visitId, String sessionId) throws Exception {
+        long endTime = System.currentTimeMillis() + WRITE_TIMEOUT_MILLIS;
+        while (true) {
+            GenericValue visit = EntityQuery.use(delegator).from("Visit").where("visitId", visitId).queryOne();
+            if ((visit != null && sessionId.equals(visit.getString("sessionId"))) || System.currentTimeMillis() > endTime) {
+                return visit;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    public void testQueueOrder() throws Exception {
+        ServerHitWriter writer = ServerHitWriter.getInstance();
+        String visitorId = "SHW_TEST_" + delegator.getNextSeqId("Visitor");
+        String visitId = "SHW_TEST_" + delegator.getNextSeqId("Visit");
+        long failedCount = getFailedCount();
+
+        writer.createIfMissing(delegator.makeValue("Visitor", "visitorId", visitorId));
+        writer.createIfMissing(delegator.makeValue("Visitor", "visitorId", visitorId));
+        writer.create(makeVisit(visitId, visitorId));
+        GenericValue visit = makeVisit(visitId, visitorId);
+        visit.set("sessionId", "SHW_TEST_STORED");
+        visit.set("thruDate", UtilDateTime.nowTimestamp());
+        writer.store(visit);
+        visit.set("sessionId", "SHW_TEST_CHANGED_AFTER_STORE");
+
+        GenericValue storedVisit = waitForVisit(visitId, "SHW_TEST_STORED");
+        assertNotNull("Visit written", storedVisit);
+        assertEquals("Update written after the insert, as queued", "SHW_TEST_STORED", storedVisit.getString("sessionId"));
+        assertNotNull(storedVisit.get("thruDate"));
+        assertNotNull("Visitor written before its Visit", EntityQuery.use(delegator).from("Visitor").where("visitorId", visitorId).queryOne());
+        assertEquals("Existing Visitor not created again", failedCount, getFailedCount());
+    }
+
+    public void testFailedRecordDropped() throws Exception {
+        ServerHitWriter writer = ServerHitWriter.getInstance();
+        String visitorId = "SHW_TEST_" + delegator.getNextSeqId("Visitor");
+        String visitId = "SHW_TEST_" + delegator.getNextSeqId("Visit");
+        String nextVisitId = "SHW_TEST_" + delegator.getNextSeqId("Visit");
+        long failedCount = getFailedCount();
+
+        writer.createIfMissing(delegator.makeValue("Visitor", "visitorId", visitorId));
+        writer.create(makeVisit(visitId, visitorId));
+        try {
+            writer.create(makeVisit(visitId, visitorId)); // duplicate primary key
+            assertTrue("Duplicate insert fails on the request thread when not async", writer.isAsync());
+        } catch (GenericEntityException e) {
+            assertFalse("Duplicate insert fails in the writer when async", writer.isAsync());
+        }
+        writer.create(makeVisit(nextVisitId, visitorId));
+
+        assertNotNull("Record queued after the failing one written", waitForVisit(nextVisitId, "SHW_TEST"));
+        assertNotNull("Record queued before the failing one written", waitForVisit(visitId, "SHW_TEST"));
+        if (writer.isAsync()) {
+            assertEquals("Only the failing record dropped", failedCount + 1, getFailedCount());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.webapp.stats.*;
+
+// SCIPIO: latency percentiles per id over the sliding window (or since start, windowMillis=0)
+latencyMetrics = LatencyMetrics.getInstance();
+windowMillis = latencyMetrics.getWindowMillis();
+if (UtilValidate.isNotEmpty(parameters.windowMillis)) {
+    try {
+        windowMillis = Long.parseLong(parameters.windowMillis.trim());
+    } catch (NumberFormatException e) {}
+    if (windowMillis < 0) {
+        windowMillis = latencyMetrics.getWindowMillis();
+    }
+}
+context.windowMillis = windowMillis;
+context.defaultWindowMins = (long) (latencyMetrics.getWindowMillis() / 60000);
+
+context.requestLatencyList = latencyMetrics.getSummaries(ServerHitBin.REQUEST, windowMillis);
+context.eventLatencyList = latencyMetrics.getSummaries(ServerHitBin.EVENT, windowMillis);
+context.viewLatencyList = latencyMetrics.getSummaries(ServerHitBin.VIEW, windowMillis);
@@ -517,7 +517,7 @@ public final class WidgetWorker {
                 RequestHandler rh = (RequestHandler) servletContext.getAttribute("_REQUEST_HANDLER_");
                 ConfigXMLReader.RequestMap requestMap = null;
                 try {
-                    requestMap = rh.getControllerConfig().getRequestMapMap().get(requestUri);
+                    requestMap = rh.getControllerConfig().getRequestMap(requestUri);
                 } catch (WebAppConfigurationException e) {
                     Debug.logError(e, "Exception thrown while parsing controller.xml file: ", module);
                 }
@@ -0,0 +1,149 @@
+package org.ofbiz.widget.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.ofbiz.base.component.ComponentConfig;
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.container.Container;
+import org.ofbiz.base.container.ContainerConfig;
+import org.ofbiz.base.container.ContainerException;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.widget.model.HtmlWidget;
+
+/**
+ * SCIPIO: Parses the FreeMarker templates of all enabled components in parallel at startup, into the
+ * caches used by screen html-template and macro renderer lookups (see {@link HtmlWidget#preloadHtmlTemplate}
+ * and {@link org.ofbiz.base.util.template.FtlSharedTemplateCache}).
+ * <p>
+ * Runs during container init, which happens before the catalina container starts serving requests;
+ * waits up to <code>wait-seconds</code>, after which the remaining templates are parsed in the background.
+ * Only the <code>dirs</code> under each component root are searched.
+ */
+public class TemplatePreloadContainer implements Container {
+
+    public static final String module = TemplatePreloadContainer.class.getName();
+    private static final ThreadGroup PRELOAD_THREAD_GROUP = new ThreadGroup("TemplatePreloadContainer");
+
+    private String name;
+    private boolean enabled;
+    private List<String> dirs;
+    private int threads;
+    private int waitSeconds;
+
+    @Override
+    public void init(String[] args, String name, String configFile) throws ContainerException {
+        this.name = name;
+
+        ContainerConfig.Container cc = ContainerConfig.getContainer(name, configFile);
+        this.enabled = ContainerConfig.getPropertyValue(cc, "enabled", true);
+        this.dirs = StringUtil.split(ContainerConfig.getPropertyValue(cc, "dirs", "webapp,webcommon,templates"), ", ");
+        this.threads = ContainerConfig.getPropertyValue(cc, "threads", 0);
+        this.waitSeconds = ContainerConfig.getPropertyValue(cc, "wait-seconds", 60);
+        if (enabled) {
+            preloadTemplates();
+        }
+    }
+
+    private void preloadTemplates() {
+        long startTime = System.currentTimeMillis();
+        List<String> locations = new ArrayList<>();
+        for (ComponentConfig component : ComponentConfig.getAllComponents()) {
+            if (!component.enabled()) {
+                continue;
+            }
+            for (String dir : dirs) {
+                addTemplateLocations(component, dir, locations);
+            }
+        }
+        if (locations.isEmpty()) {
+            return;
+        }
+        int threadCount = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+        Debug.logInfo("Preloading " + locations.size() + " templates using " + threadCount + " threads", module);
+        ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(PRELOAD_THREAD_GROUP, "template-preload", threadCount, 0, true);
+        List<Future<Boolean>> futures = new ArrayList<>(locations.size());
+        for (final String location : locations) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        HtmlWidget.preloadHtmlTemplate(location);
+                        return true;
+                    } catch (Exception e) {
+                        // not necessarily an error: some templates are only valid as includes or with other settings
+                        Debug.logWarning("Could not preload template " + location + ": " + e.toString(), module);
+                        return false;
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+        int loaded = 0;
+        long deadline = startTime + waitSeconds * 1000L;
+        try {
+            for (Future<Boolean> future : futures) {
+                if (future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    loaded++;
+                }
+            }
+            Debug.logInfo("Preloaded " + loaded + " of " + locations.size() + " templates in " + (System.currentTimeMillis() - startTime) + "ms", module);
+        } catch (TimeoutException e) {
+            Debug.logWarning("Template preloading not done after " + waitSeconds + "s; continuing in background", module);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Debug.logError(e, "Error preloading templates", module);
+        }
+    }
+
+    private static void addTemplateLocations(ComponentConfig component, String dir, final List<String> locations) {
+        final Path rootPath = new File(component.getRootLocation()).toPath();
+        Path dirPath = rootPath.resolve(dir);
+        if (!Files.isDirectory(dirPath)) {
+            return;
+        }
+        final String locationPrefix = "component://" + component.getComponentName() + "/";
+        try {
+            Files.walkFileTree(dirPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().endsWith(".ftl")) {
+                        locations.add(locationPrefix + rootPath.relativize(file).toString().replace(File.separatorChar, '/'));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            Debug.logWarning("Could not list templates in " + dirPath + ": " + e.toString(), module);
+        }
+    }
+
+    @Override
+    public boolean start() throws ContainerException {
+        return true;
+    }
+
+    @Override
+    public void stop() throws ContainerException {
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
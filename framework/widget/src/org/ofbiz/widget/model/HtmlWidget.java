@@ -106,7 +106,18 @@ public class HtmlWidget extends ModelScreenWidget {
     public static Configuration getFtlConfig() {
         return specialConfig;
     }
-    
+
+    /**
+     * SCIPIO: Parses the template at the location into the same caches as {@link #renderHtmlTemplate}, without rendering it.
+     */
+    public static Template preloadHtmlTemplate(String location) throws TemplateException, IOException {
+        if (location.endsWith(".fo.ftl")) {
+            return FreeMarkerWorker.getTemplate(location);
+        } else {
+            return FreeMarkerWorker.getTemplate(location, specialTemplateCache, specialConfig);
+        }
+    }
+
     public List<ModelScreenWidget> getSubWidgets() {
         return subWidgets;
     }